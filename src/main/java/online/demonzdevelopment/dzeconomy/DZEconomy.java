@@ -7,6 +7,11 @@ import online.demonzdevelopment.dzeconomy.command.GemCommand;
 import online.demonzdevelopment.dzeconomy.command.MobCoinCommand;
 import online.demonzdevelopment.dzeconomy.command.MoneyCommand;
 import online.demonzdevelopment.dzeconomy.config.ConfigManager;
+import online.demonzdevelopment.dzeconomy.currency.Money;
+import online.demonzdevelopment.dzeconomy.ledger.Ledger;
+import online.demonzdevelopment.dzeconomy.ledger.LedgerSink;
+import online.demonzdevelopment.dzeconomy.ledger.SegmentLedgerSink;
+import online.demonzdevelopment.dzeconomy.ledger.SqlLedgerSink;
 import online.demonzdevelopment.dzeconomy.manager.CombatTagManager;
 import online.demonzdevelopment.dzeconomy.manager.CurrencyManager;
 import online.demonzdevelopment.dzeconomy.listener.CombatTagListener;
@@ -18,10 +23,18 @@ import online.demonzdevelopment.dzeconomy.gui.RequestGUIManager;
 import online.demonzdevelopment.dzeconomy.integration.LuckPermsIntegration;
 import online.demonzdevelopment.dzeconomy.integration.PlaceholderAPI;
 import online.demonzdevelopment.dzeconomy.manager.RankManager;
+import online.demonzdevelopment.dzeconomy.storage.AsyncStorage;
 import online.demonzdevelopment.dzeconomy.storage.StorageProvider;
 import online.demonzdevelopment.dzeconomy.storage.impl.FlatFileStorageProvider;
+import online.demonzdevelopment.dzeconomy.storage.impl.JournalStorageProvider;
+import online.demonzdevelopment.dzeconomy.storage.impl.MappedStorageProvider;
 import online.demonzdevelopment.dzeconomy.storage.impl.MySQLStorageProvider;
 import online.demonzdevelopment.dzeconomy.storage.impl.SQLiteStorageProvider;
+import online.demonzdevelopment.dzeconomy.sync.LoopbackTransport;
+import online.demonzdevelopment.dzeconomy.sync.MySQLPollingTransport;
+import online.demonzdevelopment.dzeconomy.sync.PluginMessageTransport;
+import online.demonzdevelopment.dzeconomy.sync.SyncBus;
+import online.demonzdevelopment.dzeconomy.sync.SyncTransport;
 import online.demonzdevelopment.dzeconomy.task.AutoSaveTask;
 import online.demonzdevelopment.dzeconomy.task.CombatTagCleanupTask;
 import online.demonzdevelopment.dzeconomy.task.DailyResetTask;
@@ -32,6 +45,8 @@ import org.bukkit.Bukkit;
 import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+
 /**
  * DZEconomy - Professional Multi-Currency Economy Plugin
  * 
@@ -48,6 +63,7 @@ public final class DZEconomy extends JavaPlugin {
     // Core managers
     private ConfigManager configManager;
     private StorageProvider storageProvider;
+    private AsyncStorage asyncStorage;
     private CurrencyManager currencyManager;
     private RankManager rankManager;
     private RequestGUIManager requestGUIManager;
@@ -55,6 +71,13 @@ public final class DZEconomy extends JavaPlugin {
     
     // Integration
     private LuckPermsIntegration luckPermsIntegration;
+    private PlaceholderAPI placeholderExpansion;
+    
+    // Cross-server cache sync
+    private SyncBus syncBus;
+    
+    // Transaction history
+    private Ledger ledger;
     
     // API
     private DZEconomyAPIImpl api;
@@ -86,6 +109,9 @@ public final class DZEconomy extends JavaPlugin {
             return;
         }
         
+        // Initialize transaction ledger
+        initializeLedger();
+        
         // Initialize integrations
         initializeIntegrations();
         
@@ -95,6 +121,9 @@ public final class DZEconomy extends JavaPlugin {
         this.combatTagManager = new CombatTagManager(this);
         this.requestGUIManager = new RequestGUIManager(this);
         
+        // Initialize cross-server sync
+        initializeSync();
+        
         // Register commands
         registerCommands();
         
@@ -124,10 +153,25 @@ public final class DZEconomy extends JavaPlugin {
         // Cancel all tasks
         getServer().getScheduler().cancelTasks(this);
         
-        // Save all data
+        // Finish queued storage operations (quit saves, migrations) first
+        if (asyncStorage != null) {
+            asyncStorage.shutdown();
+        }
+        
+        // Flush queued saves and save all data
         if (currencyManager != null) {
             getLogger().info("Saving all player data...");
-            currencyManager.saveAllPlayers();
+            currencyManager.shutdown();
+        }
+        
+        // Announce the last saves before the storage they may travel through closes
+        if (syncBus != null) {
+            syncBus.close();
+        }
+        
+        // Write the last ledger entries, balances no longer change
+        if (ledger != null) {
+            ledger.close();
         }
         
         // Close storage
@@ -152,6 +196,9 @@ public final class DZEconomy extends JavaPlugin {
             getLogger().info("Loading configuration files...");
             this.configManager = new ConfigManager(this);
             configManager.loadAll();
+            
+            // Fixed for the whole run, balances in memory are counted in these units
+            Money.configure(configManager.getConfig());
             getLogger().info("Configuration loaded successfully!");
             return true;
         } catch (Exception e) {
@@ -176,6 +223,12 @@ public final class DZEconomy extends JavaPlugin {
                 case "SQLITE":
                     this.storageProvider = new SQLiteStorageProvider(this);
                     break;
+                case "JOURNAL":
+                    this.storageProvider = new JournalStorageProvider(this);
+                    break;
+                case "MMAP":
+                    this.storageProvider = new MappedStorageProvider(this);
+                    break;
                 case "FLATFILE":
                 default:
                     this.storageProvider = new FlatFileStorageProvider(this);
@@ -183,6 +236,7 @@ public final class DZEconomy extends JavaPlugin {
             }
             
             storageProvider.initialize();
+            this.asyncStorage = new AsyncStorage(this, storageProvider);
             getLogger().info("Storage initialized successfully!");
             return true;
         } catch (Exception e) {
@@ -192,6 +246,33 @@ public final class DZEconomy extends JavaPlugin {
         }
     }
     
+    /**
+     * Start the transaction ledger next to the configured storage
+     */
+    private void initializeLedger() {
+        if (!configManager.getConfig().getBoolean("ledger.enabled", true)) {
+            return;
+        }
+        
+        LedgerSink sink;
+        if (storageProvider instanceof MySQLStorageProvider) {
+            sink = SqlLedgerSink.mysql(((MySQLStorageProvider) storageProvider).getDataSource());
+        } else if (storageProvider instanceof SQLiteStorageProvider) {
+            sink = SqlLedgerSink.sqlite(new File(getDataFolder(), "data/ledger.db"));
+        } else {
+            long segmentSize = Math.max(1L, configManager.getConfig().getLong("ledger.segment-size", 16L)) * 1024L * 1024L;
+            sink = new SegmentLedgerSink(new File(getDataFolder(), "ledger"), segmentSize);
+        }
+        
+        Ledger started = new Ledger(this, sink);
+        if (!started.start()) {
+            getLogger().severe("Transaction ledger disabled!");
+            return;
+        }
+        this.ledger = started;
+        getLogger().info("Transaction ledger enabled (" + sink.getName() + ")!");
+    }
+    
     /**
      * Initialize integrations with other plugins
      */
@@ -208,13 +289,52 @@ public final class DZEconomy extends JavaPlugin {
         // PlaceholderAPI integration
         if (getServer().getPluginManager().getPlugin("PlaceholderAPI") != null) {
             getLogger().info("Hooking into PlaceholderAPI...");
-            new PlaceholderAPI(this).register();
+            this.placeholderExpansion = new PlaceholderAPI(this);
+            placeholderExpansion.register();
             getLogger().info("PlaceholderAPI integration enabled!");
         } else {
             getLogger().warning("PlaceholderAPI not found! Placeholders will not be available.");
         }
     }
     
+    /**
+     * Start the sync bus if the server is part of a network
+     */
+    private void initializeSync() {
+        if (!configManager.getConfig().getBoolean("sync.enabled", false)) {
+            return;
+        }
+        
+        String transportType = configManager.getConfig().getString("sync.transport", "MYSQL").toUpperCase();
+        SyncTransport transport;
+        switch (transportType) {
+            case "MYSQL":
+                if (!(storageProvider instanceof MySQLStorageProvider)) {
+                    getLogger().severe("MYSQL sync needs MYSQL storage! Cross-server sync disabled.");
+                    return;
+                }
+                transport = new MySQLPollingTransport(this, ((MySQLStorageProvider) storageProvider).getDataSource());
+                break;
+            case "PLUGIN_MESSAGE":
+                transport = new PluginMessageTransport(this);
+                break;
+            case "LOOPBACK":
+                transport = new LoopbackTransport(configManager.getConfig().getString("sync.loopback.group", "default"));
+                break;
+            default:
+                getLogger().severe("Unknown sync transport " + transportType + "! Cross-server sync disabled.");
+                return;
+        }
+        
+        SyncBus bus = new SyncBus(this, transport);
+        if (!bus.start()) {
+            getLogger().severe("Failed to start " + transportType + " sync! Cross-server sync disabled.");
+            return;
+        }
+        this.syncBus = bus;
+        getLogger().info("Cross-server sync enabled over " + transportType + "!");
+    }
+    
     /**
      * Register all plugin commands
      */
@@ -353,6 +473,10 @@ public final class DZEconomy extends JavaPlugin {
         return storageProvider;
     }
     
+    public AsyncStorage getAsyncStorage() {
+        return asyncStorage;
+    }
+    
     public CurrencyManager getCurrencyManager() {
         return currencyManager;
     }
@@ -369,6 +493,18 @@ public final class DZEconomy extends JavaPlugin {
         return luckPermsIntegration;
     }
     
+    public PlaceholderAPI getPlaceholderExpansion() {
+        return placeholderExpansion;
+    }
+    
+    public SyncBus getSyncBus() {
+        return syncBus;
+    }
+    
+    public Ledger getLedger() {
+        return ledger;
+    }
+    
     public DZEconomyAPI getAPI() {
         return api;
     }
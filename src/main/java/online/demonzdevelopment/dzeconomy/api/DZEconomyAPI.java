@@ -1,10 +1,13 @@
 package online.demonzdevelopment.dzeconomy.api;
 
 import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+import online.demonzdevelopment.dzeconomy.ledger.HistoryFilter;
+import online.demonzdevelopment.dzeconomy.ledger.HistoryPage;
 import online.demonzdevelopment.dzeconomy.rank.Rank;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Public API for third-party plugins to interact with DZEconomy
@@ -86,6 +89,19 @@ public interface DZEconomyAPI {
      */
     boolean convertCurrency(UUID player, CurrencyType from, CurrencyType to, double amount);
     
+    // Transaction history
+    
+    /**
+     * Get a page of a player's transaction history, newest first.
+     * The query runs off the main thread.
+     * 
+     * @param player Player UUID
+     * @param filter Currency, type, time range and page size (HistoryFilter.all() for everything)
+     * @param cursor HistoryPage#getNextCursor() of the previous page, null for the first page
+     * @return Future of the page, failed if the ledger is disabled or the query failed
+     */
+    CompletableFuture<HistoryPage> getHistory(UUID player, HistoryFilter filter, String cursor);
+    
     // Rank operations
     
     /**
@@ -2,12 +2,17 @@ package online.demonzdevelopment.dzeconomy.api;
 
 import online.demonzdevelopment.dzeconomy.DZEconomy;
 import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+import online.demonzdevelopment.dzeconomy.ledger.HistoryFilter;
+import online.demonzdevelopment.dzeconomy.ledger.HistoryPage;
+import online.demonzdevelopment.dzeconomy.ledger.Ledger;
+import online.demonzdevelopment.dzeconomy.ledger.TransactionSource;
 import online.demonzdevelopment.dzeconomy.rank.Rank;
 import online.demonzdevelopment.dzeconomy.util.NumberFormatter;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Implementation of the DZEconomy API
@@ -35,31 +40,23 @@ public class DZEconomyAPIImpl implements DZEconomyAPI {
     
     @Override
     public void addCurrency(UUID player, CurrencyType currency, double amount) {
-        plugin.getCurrencyManager().addBalance(player, currency, amount);
+        plugin.getCurrencyManager().addBalance(player, currency, amount, TransactionSource.API, null, null);
     }
     
     @Override
     public void removeCurrency(UUID player, CurrencyType currency, double amount) {
-        plugin.getCurrencyManager().removeBalance(player, currency, amount);
+        plugin.getCurrencyManager().removeBalance(player, currency, amount, 0.0, TransactionSource.API, null, null);
     }
     
     @Override
     public void setCurrency(UUID player, CurrencyType currency, double amount) {
-        plugin.getCurrencyManager().setBalance(player, currency, amount);
+        plugin.getCurrencyManager().setBalance(player, currency, amount, TransactionSource.API, null, null);
     }
     
     @Override
     public boolean transferCurrency(UUID from, UUID to, CurrencyType currency, double amount) {
-        // Check if sender has balance
-        if (!hasBalance(from, currency, amount)) {
-            return false;
-        }
-        
-        // Perform transfer (no tax for API calls)
-        removeCurrency(from, currency, amount);
-        addCurrency(to, currency, amount);
-        
-        return true;
+        // Balance check and both changes happen under the account locks (no tax for API calls)
+        return plugin.getCurrencyManager().transfer(from, to, currency, amount, 0.0, TransactionSource.API, null).isSuccess();
     }
     
     @Override
@@ -74,8 +71,14 @@ public class DZEconomyAPIImpl implements DZEconomyAPI {
         double convertedAmount = NumberFormatter.truncateDecimal(amount * conversionRate);
         
         // Perform conversion (no tax for API calls)
-        removeCurrency(player, from, amount);
-        addCurrency(player, to, convertedAmount);
+        if (!plugin.getCurrencyManager().tryRemoveBalance(player, from, amount, 0.0, TransactionSource.API, null, null)) {
+            return false;
+        }
+        if (!plugin.getCurrencyManager().tryAddBalance(player, to, convertedAmount, TransactionSource.API, null, null)) {
+            // Target balance would overflow, give back what was taken
+            addCurrency(player, from, amount);
+            return false;
+        }
         
         return true;
     }
@@ -105,6 +108,15 @@ public class DZEconomyAPIImpl implements DZEconomyAPI {
         return 1.0;
     }
     
+    @Override
+    public CompletableFuture<HistoryPage> getHistory(UUID player, HistoryFilter filter, String cursor) {
+        Ledger ledger = plugin.getLedger();
+        if (ledger == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("The transaction ledger is disabled"));
+        }
+        return ledger.getHistory(player, filter, cursor);
+    }
+    
     @Override
     public Rank getPlayerRank(UUID player) {
         return plugin.getRankManager().getPlayerRank(player);
@@ -2,8 +2,15 @@ package online.demonzdevelopment.dzeconomy.command;
 
 import online.demonzdevelopment.dzeconomy.DZEconomy;
 import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+import online.demonzdevelopment.dzeconomy.currency.Money;
 import online.demonzdevelopment.dzeconomy.data.CurrencyRequest;
 import online.demonzdevelopment.dzeconomy.data.PlayerData;
+import online.demonzdevelopment.dzeconomy.ledger.HistoryFilter;
+import online.demonzdevelopment.dzeconomy.ledger.HistoryPage;
+import online.demonzdevelopment.dzeconomy.ledger.Ledger;
+import online.demonzdevelopment.dzeconomy.ledger.LedgerEntry;
+import online.demonzdevelopment.dzeconomy.ledger.TransactionSource;
+import online.demonzdevelopment.dzeconomy.manager.CurrencyManager;
 import online.demonzdevelopment.dzeconomy.rank.Rank;
 import online.demonzdevelopment.dzeconomy.util.ColorUtil;
 import online.demonzdevelopment.dzeconomy.util.MessagesUtil;
@@ -17,7 +24,12 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Base currency command handler with all common currency operations
@@ -28,6 +40,12 @@ public abstract class BaseCurrencyCommand implements CommandExecutor, TabComplet
     protected final CurrencyType currencyType;
     protected final MessagesUtil messageUtil;
     
+    private static final DateTimeFormatter HISTORY_TIME = DateTimeFormatter.ofPattern("MM-dd HH:mm")
+            .withZone(ZoneId.systemDefault());
+    
+    // Pages reached by walking from the first one, later pages need the cursor of the page before
+    private static final int MAX_WALKED_PAGES = 5;
+    
     public BaseCurrencyCommand(DZEconomy plugin, CurrencyType currencyType) {
         this.plugin = plugin;
         this.currencyType = currencyType;
@@ -66,6 +84,9 @@ public abstract class BaseCurrencyCommand implements CommandExecutor, TabComplet
             case "deny":
                 handleDeny(sender);
                 break;
+            case "history":
+                handleHistory(sender, label, Arrays.copyOfRange(args, 1, args.length));
+                break;
             case "add":
                 handleAdd(sender, Arrays.copyOfRange(args, 1, args.length));
                 break;
@@ -208,8 +229,19 @@ public abstract class BaseCurrencyCommand implements CommandExecutor, TabComplet
         Rank senderRank = plugin.getRankManager().getPlayerRank(player.getUniqueId());
         Rank.RankCurrencySettings settings = senderRank.getSettingsFor(currencyType);
         double taxPercentage = settings.getTransferTax();
-        double tax = NumberFormatter.truncateDecimal(amount * (taxPercentage / 100.0));
-        double total = NumberFormatter.truncateDecimal(amount + tax);
+        long amountUnits;
+        long taxUnits;
+        long totalUnits;
+        try {
+            amountUnits = Money.toUnits(currencyType, amount);
+            taxUnits = Money.percentOf(amountUnits, taxPercentage);
+            totalUnits = Math.addExact(amountUnits, taxUnits);
+        } catch (ArithmeticException e) {
+            sendMessage(sender, "general.invalid-amount", null);
+            return;
+        }
+        double tax = Money.toAmount(currencyType, taxUnits);
+        double total = Money.toAmount(currencyType, totalUnits);
         
         // 6. Check sender has amount + tax
         if (balance < total) {
@@ -249,11 +281,13 @@ public abstract class BaseCurrencyCommand implements CommandExecutor, TabComplet
         
         // EXECUTION
         
-        // Deduct from sender
-        plugin.getCurrencyManager().removeBalance(player.getUniqueId(), currencyType, total);
-        
-        // Add to receiver
-        plugin.getCurrencyManager().addBalance(target.getUniqueId(), currencyType, amount);
+        // Balance is checked again under the account locks, it may have changed since
+        CurrencyManager.TransferResult result = plugin.getCurrencyManager().transferUnits(player.getUniqueId(), target.getUniqueId(),
+                currencyType, amountUnits, taxUnits, TransactionSource.SEND, player.getUniqueId());
+        if (!result.isSuccess()) {
+            sendTransferFailure(sender, result, total);
+            return;
+        }
         
         // Update statistics
         senderData.addMoneySent(currencyType, amount);
@@ -480,8 +514,19 @@ public abstract class BaseCurrencyCommand implements CommandExecutor, TabComplet
         Rank accepterRank = plugin.getRankManager().getPlayerRank(player.getUniqueId());
         Rank.RankCurrencySettings settings = accepterRank.getSettingsFor(currencyType);
         double taxPercentage = settings.getTransferTax();
-        double tax = NumberFormatter.truncateDecimal(amount * (taxPercentage / 100.0));
-        double total = NumberFormatter.truncateDecimal(amount + tax);
+        long amountUnits;
+        long taxUnits;
+        long totalUnits;
+        try {
+            amountUnits = Money.toUnits(currencyType, amount);
+            taxUnits = Money.percentOf(amountUnits, taxPercentage);
+            totalUnits = Math.addExact(amountUnits, taxUnits);
+        } catch (ArithmeticException e) {
+            sendMessage(sender, "general.invalid-amount", null);
+            return;
+        }
+        double tax = Money.toAmount(currencyType, taxUnits);
+        double total = Money.toAmount(currencyType, totalUnits);
         
         // Check accepter has amount + tax
         if (balance < total) {
@@ -521,11 +566,12 @@ public abstract class BaseCurrencyCommand implements CommandExecutor, TabComplet
         
         // EXECUTION
         
-        // Deduct from accepter
-        plugin.getCurrencyManager().removeBalance(player.getUniqueId(), currencyType, total);
-        
-        // Add to requester
-        plugin.getCurrencyManager().addBalance(requester.getUniqueId(), currencyType, amount);
+        CurrencyManager.TransferResult result = plugin.getCurrencyManager().transferUnits(player.getUniqueId(), requester.getUniqueId(),
+                currencyType, amountUnits, taxUnits, TransactionSource.REQUEST, player.getUniqueId());
+        if (!result.isSuccess()) {
+            sendTransferFailure(sender, result, total);
+            return;
+        }
         
         // Update statistics
         accepterData.addMoneySent(currencyType, amount);
@@ -613,6 +659,167 @@ public abstract class BaseCurrencyCommand implements CommandExecutor, TabComplet
         player.playSound(player.getLocation(), Sound.BLOCK_ANVIL_LAND, 1.0f, 1.0f);
     }
     
+    /**
+     * Handle history command: [player] [page] [cursor], newest transactions first.
+     * The cursor comes from the next page hint and makes every page one query.
+     */
+    private void handleHistory(CommandSender sender, String label, String[] args) {
+        Ledger ledger = plugin.getLedger();
+        if (ledger == null) {
+            sendMessage(sender, "history.disabled", null);
+            return;
+        }
+        
+        // Cursors are the only argument with a dot
+        String cursor = null;
+        if (args.length > 0 && args[args.length - 1].indexOf('.') >= 0) {
+            cursor = args[args.length - 1];
+            args = Arrays.copyOf(args, args.length - 1);
+        }
+        
+        String targetName = null;
+        String pageArg = null;
+        if (args.length >= 2) {
+            targetName = args[0];
+            pageArg = args[1];
+        } else if (args.length == 1) {
+            if (args[0].matches("\\d+")) {
+                pageArg = args[0];
+            } else {
+                targetName = args[0];
+            }
+        }
+        
+        int page = 1;
+        if (pageArg != null) {
+            try {
+                page = Math.max(1, Integer.parseInt(pageArg));
+            } catch (NumberFormatException e) {
+                sendMessage(sender, "general.invalid-amount", null);
+                return;
+            }
+        }
+        if (cursor == null && page > MAX_WALKED_PAGES) {
+            sendMessage(sender, "history.page-limit", MessagesUtil.placeholders(
+                    "max", String.valueOf(MAX_WALKED_PAGES)));
+            return;
+        }
+        
+        // The next page hint names the player, that must not need the admin permission
+        if (targetName != null && sender instanceof Player && targetName.equalsIgnoreCase(sender.getName())) {
+            targetName = null;
+        }
+        
+        OfflinePlayer target;
+        if (targetName == null) {
+            if (!(sender instanceof Player)) {
+                sender.sendMessage(ColorUtil.translate("&cYou must specify a player from console!"));
+                return;
+            }
+            if (!sender.hasPermission("dzeconomy." + currencyType.getId() + ".history")) {
+                sendMessage(sender, "general.no-permission", null);
+                return;
+            }
+            target = (Player) sender;
+        } else {
+            if (!sender.hasPermission("dzeconomy.admin." + currencyType.getId() + ".history") && !sender.isOp()) {
+                sendMessage(sender, "general.no-permission", null);
+                return;
+            }
+            target = Bukkit.getOfflinePlayer(targetName);
+            if (!target.hasPlayedBefore() && !target.isOnline()) {
+                Map<String, String> placeholders = MessagesUtil.placeholders("player", targetName);
+                sendMessage(sender, "general.player-not-found", placeholders);
+                return;
+            }
+        }
+        
+        String name = target.getName() != null ? target.getName() : targetName;
+        int shownPage = page;
+        HistoryFilter filter = HistoryFilter.all().withCurrency(currencyType);
+        CompletableFuture<HistoryPage> future = cursor != null
+                ? ledger.getHistory(target.getUniqueId(), filter, cursor)
+                : fetchHistoryPage(ledger, target.getUniqueId(), filter, null, page - 1);
+        future.whenComplete((result, error) ->
+                Bukkit.getScheduler().runTask(plugin, () -> showHistory(sender, label, name, shownPage, result, error)));
+    }
+    
+    /**
+     * Follow the cursors until the wanted page, each step is one index lookup.
+     * Only for the first few pages, see MAX_WALKED_PAGES.
+     */
+    private CompletableFuture<HistoryPage> fetchHistoryPage(Ledger ledger, UUID uuid, HistoryFilter filter, String cursor, int skip) {
+        return ledger.getHistory(uuid, filter, cursor).thenCompose(result -> {
+            if (skip == 0) {
+                return CompletableFuture.completedFuture(result);
+            }
+            if (!result.hasNext()) {
+                // Past the last page
+                return CompletableFuture.completedFuture(null);
+            }
+            return fetchHistoryPage(ledger, uuid, filter, result.getNextCursor(), skip - 1);
+        });
+    }
+    
+    private void showHistory(CommandSender sender, String label, String name, int page, HistoryPage result, Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof IllegalArgumentException) {
+            // A mistyped or made up cursor
+            sendMessage(sender, "history.invalid-page", MessagesUtil.placeholders("command", label));
+            return;
+        }
+        if (error != null) {
+            plugin.getLogger().warning("Failed to load the " + currencyType.getId() + " history of " + name + ": " + error.getMessage());
+            sendMessage(sender, "history.failed", null);
+            return;
+        }
+        
+        String symbol = plugin.getCurrencyManager().getCurrencySymbol(currencyType);
+        if (result == null || result.getEntries().isEmpty()) {
+            sendMessage(sender, "history.empty", MessagesUtil.placeholders(
+                    "player", name,
+                    "currency", currencyType.getName()));
+            return;
+        }
+        
+        sendMessage(sender, "history.header", MessagesUtil.placeholders(
+                "player", name,
+                "currency", currencyType.getName(),
+                "page", String.valueOf(page)));
+        
+        for (LedgerEntry entry : result.getEntries()) {
+            String party = "";
+            if (entry.getCounterparty() != null) {
+                String partyName = Bukkit.getOfflinePlayer(entry.getCounterparty()).getName();
+                party = messageUtil.getMessage("history.party", MessagesUtil.placeholders(
+                        "player", partyName != null ? partyName : entry.getCounterparty().toString().substring(0, 8)));
+            }
+            String tax = entry.getTax() != 0 ? messageUtil.getMessage("history.tax", MessagesUtil.placeholders(
+                    "symbol", symbol,
+                    "tax", NumberFormatter.formatShort(entry.getTax()))) : "";
+            String amount = (entry.getAmount() >= 0 ? "&a+" : "&c-") + symbol + NumberFormatter.formatShort(Math.abs(entry.getAmount()));
+            
+            sendMessage(sender, "history.entry", MessagesUtil.placeholders(
+                    "time", HISTORY_TIME.format(Instant.ofEpochMilli(entry.getTimestamp())),
+                    "type", entry.getSource().name().toLowerCase().replace('_', ' '),
+                    "party", party,
+                    "amount", ColorUtil.translate(amount),
+                    "tax", tax,
+                    "symbol", symbol,
+                    "balance", NumberFormatter.formatShort(entry.getBalance())));
+        }
+        
+        if (result.hasNext()) {
+            sendMessage(sender, "history.next", MessagesUtil.placeholders(
+                    "command", label,
+                    "player", name,
+                    "page", String.valueOf(page + 1),
+                    "cursor", result.getNextCursor()));
+        }
+    }
+    
     /**
      * Handle admin add command
      */
@@ -646,7 +853,12 @@ public abstract class BaseCurrencyCommand implements CommandExecutor, TabComplet
             return;
         }
         
-        plugin.getCurrencyManager().addBalance(target.getUniqueId(), currencyType, amount);
+        UUID actor = sender instanceof Player ? ((Player) sender).getUniqueId() : null;
+        if (!plugin.getCurrencyManager().tryAddBalance(target.getUniqueId(), currencyType, amount,
+                TransactionSource.ADMIN, actor, null)) {
+            sendMessage(sender, "general.invalid-amount", null);
+            return;
+        }
         
         String symbol = plugin.getCurrencyManager().getCurrencySymbol(currencyType);
         double newBalance = plugin.getCurrencyManager().getBalance(target.getUniqueId(), currencyType);
@@ -688,6 +900,24 @@ public abstract class BaseCurrencyCommand implements CommandExecutor, TabComplet
         sender.sendMessage(helpMessage);
     }
     
+    /**
+     * Tell the sender why a transfer that passed validation was refused
+     */
+    private void sendTransferFailure(CommandSender sender, CurrencyManager.TransferResult result, double total) {
+        if (result.getStatus() != CurrencyManager.TransferResult.Status.INSUFFICIENT_FUNDS) {
+            sendMessage(sender, "general.invalid-amount", null);
+            return;
+        }
+        Map<String, String> placeholders = MessagesUtil.placeholders(
+                "currency", currencyType.getName(),
+                "symbol", plugin.getCurrencyManager().getCurrencySymbol(currencyType),
+                "balance", NumberFormatter.formatShort(result.getBalance()),
+                "amount", NumberFormatter.formatShort(result.getAmount()),
+                "tax", NumberFormatter.formatShort(result.getFee()),
+                "total", NumberFormatter.formatShort(total));
+        sendMessage(sender, "general.insufficient-funds-tax", placeholders);
+    }
+    
     /**
      * Send a message with placeholders
      */
@@ -706,6 +936,7 @@ public abstract class BaseCurrencyCommand implements CommandExecutor, TabComplet
             completions.add("request");
             completions.add("accept");
             completions.add("deny");
+            completions.add("history");
             completions.add("help");
             
             if (sender.hasPermission("dzeconomy.admin") || sender.isOp()) {
@@ -713,7 +944,7 @@ public abstract class BaseCurrencyCommand implements CommandExecutor, TabComplet
             }
         } else if (args.length == 2 && (args[0].equalsIgnoreCase("send") || 
                 args[0].equalsIgnoreCase("request") || args[0].equalsIgnoreCase("add") ||
-                args[0].equalsIgnoreCase("balance"))) {
+                args[0].equalsIgnoreCase("balance") || args[0].equalsIgnoreCase("history"))) {
             for (Player player : Bukkit.getOnlinePlayers()) {
                 completions.add(player.getName());
             }
@@ -3,7 +3,14 @@ package online.demonzdevelopment.dzeconomy.command;
 import online.demonzdevelopment.dzeconomy.DZEconomy;
 import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
 import online.demonzdevelopment.dzeconomy.data.PlayerData;
+import online.demonzdevelopment.dzeconomy.data.PlayerDataCodec;
+import online.demonzdevelopment.dzeconomy.ledger.BalanceRebuilder;
+import online.demonzdevelopment.dzeconomy.ledger.Ledger;
+import online.demonzdevelopment.dzeconomy.ledger.RebuildReport;
+import online.demonzdevelopment.dzeconomy.ledger.TransactionSource;
 import online.demonzdevelopment.dzeconomy.rank.Rank;
+import online.demonzdevelopment.dzeconomy.storage.YamlPlayerFormat;
+import online.demonzdevelopment.dzeconomy.sync.SyncBus;
 import online.demonzdevelopment.dzeconomy.update.UpdateManager;
 import online.demonzdevelopment.dzeconomy.util.ColorUtil;
 import online.demonzdevelopment.dzeconomy.util.MessagesUtil;
@@ -67,6 +74,15 @@ public class EconomyCommand implements CommandExecutor, TabCompleter {
             case "backup":
                 handleBackup(sender);
                 break;
+            case "export":
+                handleExport(sender, Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "import":
+                handleImport(sender, Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "rebuild":
+                handleRebuild(sender, Arrays.copyOfRange(args, 1, args.length));
+                break;
             case "enable":
                 handleEnable(sender, Arrays.copyOfRange(args, 1, args.length));
                 break;
@@ -173,8 +189,19 @@ public class EconomyCommand implements CommandExecutor, TabCompleter {
         }
         
         // Execute conversion
-        plugin.getCurrencyManager().removeBalance(player.getUniqueId(), fromCurrency, total);
-        plugin.getCurrencyManager().addBalance(player.getUniqueId(), toCurrency, convertedAmount);
+        if (!plugin.getCurrencyManager().tryRemoveBalance(player.getUniqueId(), fromCurrency, total, tax,
+                TransactionSource.CONVERSION, player.getUniqueId(), null)) {
+            sendMessage(sender, "general.invalid-amount", null);
+            return;
+        }
+        if (!plugin.getCurrencyManager().tryAddBalance(player.getUniqueId(), toCurrency, convertedAmount,
+                TransactionSource.CONVERSION, player.getUniqueId(), null)) {
+            // Target balance would overflow, give back what was taken
+            plugin.getCurrencyManager().addBalance(player.getUniqueId(), fromCurrency, total,
+                    TransactionSource.CONVERSION, player.getUniqueId(), null);
+            sendMessage(sender, "general.invalid-amount", null);
+            return;
+        }
         
         // Save data
         plugin.getCurrencyManager().savePlayerDataAsync(player.getUniqueId());
@@ -387,7 +414,7 @@ public class EconomyCommand implements CommandExecutor, TabCompleter {
         if (args.length < 2) {
             sender.sendMessage(ColorUtil.translate("&cUsage: /dzeconomy migrate <from> <to>"));
             sender.sendMessage(ColorUtil.translate("&7Example: &e/dzeconomy migrate flatfile mysql"));
-            sender.sendMessage(ColorUtil.translate("&7Storage types: &eflatfile&7, &esqlite&7, &emysql"));
+            sender.sendMessage(ColorUtil.translate("&7Storage types: &eflatfile&7, &esqlite&7, &emysql&7, &ejournal&7, &emmap"));
             return;
         }
         
@@ -397,18 +424,16 @@ public class EconomyCommand implements CommandExecutor, TabCompleter {
         sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &eStarting migration process..."));
         sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &7This may take a few minutes..."));
         
-        // Execute async
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            online.demonzdevelopment.dzeconomy.manager.MigrationManager migrationManager = 
-                    new online.demonzdevelopment.dzeconomy.manager.MigrationManager(plugin);
-            
-            migrationManager.migrateData(sender, fromType, toType).thenAccept(result -> {
-                if (result.isSuccess()) {
-                    plugin.getLogger().info("Migration successful: " + result.getMigratedCount() + " players migrated");
-                } else {
-                    plugin.getLogger().warning("Migration failed: " + result.getMessage());
-                }
-            });
+        // Runs on the storage executor
+        online.demonzdevelopment.dzeconomy.manager.MigrationManager migrationManager = 
+                new online.demonzdevelopment.dzeconomy.manager.MigrationManager(plugin);
+        
+        migrationManager.migrateData(sender, fromType, toType).thenAccept(result -> {
+            if (result.isSuccess()) {
+                plugin.getLogger().info("Migration successful: " + result.getMigratedCount() + " players migrated");
+            } else {
+                plugin.getLogger().warning("Migration failed: " + result.getMessage());
+            }
         });
     }
     
@@ -434,7 +459,47 @@ public class EconomyCommand implements CommandExecutor, TabCompleter {
         // Loaded players
         int loadedPlayers = plugin.getCurrencyManager().getAllLoadedPlayers().size();
         sender.sendMessage(ColorUtil.translate("&7Loaded Players: &a" + loadedPlayers));
-        
+
+        // Write-behind queue metrics
+        online.demonzdevelopment.dzeconomy.storage.WriteBehindQueue saveQueue = plugin.getCurrencyManager().getSaveQueue();
+        sender.sendMessage(ColorUtil.translate("&7Save Queue: &e" + saveQueue.getPendingCount() + " &7(flush at &e" + saveQueue.getFlushThreshold() +
+                "&7, peak &e" + saveQueue.getPeakDepth() + "&7, window &e" + saveQueue.getWindowMillis() + "ms&7)"));
+        sender.sendMessage(ColorUtil.translate("&7Saves: &a" + saveQueue.getSavedCount() + " &7for &e" + saveQueue.getMarkedCount() +
+                " &7changes (&e" + saveQueue.getCoalescedCount() + " &7coalesced, &c" + saveQueue.getFailedCount() + " &7failed)"));
+
+        // Shared MySQL: saves that found the account changed by another server
+        if (plugin.getStorageProvider() instanceof online.demonzdevelopment.dzeconomy.storage.impl.MySQLStorageProvider) {
+            online.demonzdevelopment.dzeconomy.storage.impl.MySQLStorageProvider mysql =
+                    (online.demonzdevelopment.dzeconomy.storage.impl.MySQLStorageProvider) plugin.getStorageProvider();
+            long saves = mysql.getVersionedSaveCount();
+            long conflicts = mysql.getConflictCount();
+            String rate = saves > 0 ? String.format("%.2f", conflicts * 100.0 / saves) : "0.00";
+            sender.sendMessage(ColorUtil.translate("&7Version Conflicts: &e" + conflicts + " &7of &e" + saves + " &7saves (&e" + rate + "%&7)"));
+            if (plugin.getConfigManager().getConfig().getBoolean("storage.mysql.delta-balances", false)) {
+                sender.sendMessage(ColorUtil.translate("&7Increment Saves: &e" + mysql.getIncrementedSaveCount()));
+            }
+            sender.sendMessage(ColorUtil.translate("&7Circuit Breaker: &e" + mysql.getCircuitState()
+                    + " &7(&e" + mysql.getSpilledAccountCount() + " &7accounts spilled, &e" + mysql.getSpilledSaveCount() + " &7saves total)"));
+        }
+
+        // Cross-server sync
+        SyncBus syncBus = plugin.getSyncBus();
+        if (syncBus != null) {
+            sender.sendMessage(ColorUtil.translate("&7Sync: &a" + syncBus.getTransportName() + " &7(&e" + syncBus.getSentCount() +
+                    " &7sent, &e" + syncBus.getReceivedCount() + " &7received)"));
+        } else {
+            sender.sendMessage(ColorUtil.translate("&7Sync: &cDisabled"));
+        }
+
+        // Transaction ledger
+        Ledger ledger = plugin.getLedger();
+        if (ledger != null) {
+            sender.sendMessage(ColorUtil.translate("&7Ledger: &a" + ledger.getSinkName() + " &7(&e" + ledger.getWrittenCount() +
+                    " &7written, &e" + ledger.getPendingCount() + " &7pending, &e" + ledger.getDroppedCount() + " &7dropped)"));
+        } else {
+            sender.sendMessage(ColorUtil.translate("&7Ledger: &cDisabled"));
+        }
+
         // Update checker status
         boolean updateCheckerEnabled = plugin.getConfigManager().getConfig().getBoolean("update-checker.enabled", true);
         sender.sendMessage(ColorUtil.translate("&7Update Checker: " + (updateCheckerEnabled ? "&aEnabled" : "&cDisabled")));
@@ -502,7 +567,7 @@ public class EconomyCommand implements CommandExecutor, TabCompleter {
         
         sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &eCreating backup..."));
         
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+        plugin.getAsyncStorage().submit("backup", () -> {
             try {
                 // Save all player data first
                 plugin.getCurrencyManager().saveAllPlayers();
@@ -529,9 +594,384 @@ public class EconomyCommand implements CommandExecutor, TabCompleter {
                     sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &cFailed to create backup!"));
                 });
             }
+            return null;
+        });
+    }
+    
+    /**
+     * Handle export command, writes every stored account to exports/<timestamp>
+     * as YAML files or as one binary dump
+     */
+    private void handleExport(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("dzeconomy.admin") && !sender.isOp()) {
+            sendMessage(sender, "general.no-permission", null);
+            return;
+        }
+        
+        boolean yaml = args.length == 0 || args[0].equalsIgnoreCase("yaml");
+        if (!yaml && !args[0].equalsIgnoreCase("binary")) {
+            sender.sendMessage(ColorUtil.translate("&cUsage: /dzeconomy export [yaml|binary]"));
+            return;
+        }
+        
+        sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &eExporting accounts..."));
+        
+        plugin.getAsyncStorage().submit("export", () -> {
+            try {
+                // Export what is in memory right now
+                plugin.getCurrencyManager().saveAllPlayers();
+                
+                String timestamp = new java.text.SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new java.util.Date());
+                java.io.File exportFolder = new java.io.File(plugin.getDataFolder(), "exports/" + timestamp);
+                exportFolder.mkdirs();
+                
+                java.util.concurrent.atomic.AtomicLong exported = new java.util.concurrent.atomic.AtomicLong();
+                if (yaml) {
+                    plugin.getStorageProvider().forEachPlayer(data -> {
+                        java.io.File file = new java.io.File(exportFolder, data.getUUID() + ".yml");
+                        try {
+                            YamlPlayerFormat.toYaml(data).save(file);
+                            exported.incrementAndGet();
+                        } catch (java.io.IOException e) {
+                            plugin.getLogger().warning("Failed to export " + data.getUUID() + ": " + e.getMessage());
+                        }
+                    });
+                } else {
+                    java.io.File dump = new java.io.File(exportFolder, "accounts.dzb");
+                    try (PlayerDataCodec.DumpWriter writer = new PlayerDataCodec.DumpWriter(dump)) {
+                        plugin.getStorageProvider().forEachPlayer(data -> {
+                            try {
+                                writer.write(data);
+                            } catch (java.io.IOException e) {
+                                throw new java.io.UncheckedIOException(e);
+                            }
+                        });
+                        exported.set(writer.getCount());
+                    }
+                }
+                
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &a&l✓ Exported &e" + exported.get() + " &a&laccounts!"));
+                    sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &7Location: &eexports/" + timestamp));
+                });
+            } catch (Exception e) {
+                plugin.getLogger().severe("Failed to export accounts: " + e.getMessage());
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &cFailed to export accounts!"));
+                });
+            }
+            return null;
+        });
+    }
+    
+    /**
+     * Handle import command, reads a folder of YAML player files or a binary
+     * dump (relative to the plugin folder) into the current storage. Accounts
+     * of players that are online are skipped, their next save would undo it.
+     */
+    private void handleImport(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("dzeconomy.admin") && !sender.isOp()) {
+            sendMessage(sender, "general.no-permission", null);
+            return;
+        }
+        
+        if (args.length == 0) {
+            sender.sendMessage(ColorUtil.translate("&cUsage: /dzeconomy import <folder|file.dzb>"));
+            sender.sendMessage(ColorUtil.translate("&7Example: &e/dzeconomy import exports/2025-01-01_12-00-00"));
+            return;
+        }
+        
+        java.io.File source = new java.io.File(plugin.getDataFolder(), args[0]);
+        if (!source.exists()) {
+            sender.sendMessage(ColorUtil.translate("&cNot found: " + args[0]));
+            return;
+        }
+        
+        sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &eImporting accounts..."));
+        
+        Set<UUID> loaded = new HashSet<>();
+        for (PlayerData data : plugin.getCurrencyManager().getAllLoadedPlayers()) {
+            loaded.add(data.getUUID());
+        }
+        
+        plugin.getAsyncStorage().submit("import", () -> {
+            try {
+                List<PlayerData> batch = new ArrayList<>();
+                long[] counts = new long[3]; // imported, skipped, failed
+                
+                java.util.function.Consumer<PlayerData> importer = data -> {
+                    if (loaded.contains(data.getUUID())) {
+                        counts[1]++;
+                        return;
+                    }
+                    data.markDirty(PlayerData.DIRTY_ALL);
+                    batch.add(data);
+                    if (batch.size() >= 500) {
+                        flushImport(batch, counts);
+                    }
+                };
+                
+                if (source.isDirectory()) {
+                    try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.walk(source.toPath())) {
+                        files.filter(path -> path.toString().endsWith(".yml")).forEach(path -> {
+                            org.bukkit.configuration.file.YamlConfiguration yaml = new org.bukkit.configuration.file.YamlConfiguration();
+                            try {
+                                yaml.load(path.toFile());
+                                PlayerData data = YamlPlayerFormat.fromYaml(yaml, null);
+                                if (data == null) {
+                                    plugin.getLogger().warning("Skipping " + path.getFileName() + ": no UUID");
+                                    counts[2]++;
+                                } else {
+                                    importer.accept(data);
+                                }
+                            } catch (Exception e) {
+                                plugin.getLogger().warning("Skipping " + path.getFileName() + ": " + e.getMessage());
+                                counts[2]++;
+                            }
+                        });
+                    }
+                } else {
+                    PlayerDataCodec.readDump(source, importer);
+                }
+                flushImport(batch, counts);
+                
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &a&l✓ Imported &e" + counts[0] + " &a&laccounts!"));
+                    if (counts[1] > 0) {
+                        sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &7Skipped &e" + counts[1] + " &7online players"));
+                    }
+                    if (counts[2] > 0) {
+                        sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &7Failed: &c" + counts[2] + " &7accounts"));
+                    }
+                });
+            } catch (Exception e) {
+                plugin.getLogger().severe("Failed to import accounts: " + e.getMessage());
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &cFailed to import accounts: " + e.getMessage()));
+                });
+            }
+            return null;
+        });
+    }
+    
+    private void flushImport(List<PlayerData> batch, long[] counts) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Set<UUID> failed = plugin.getStorageProvider().saveAll(batch);
+        counts[0] += batch.size() - failed.size();
+        counts[2] += failed.size();
+        
+        // Written around the cache, other servers must not keep their copies
+        SyncBus syncBus = plugin.getSyncBus();
+        if (syncBus != null) {
+            for (PlayerData data : batch) {
+                if (!failed.contains(data.getUUID())) {
+                    syncBus.publishInvalidate(data.getUUID());
+                }
+            }
+        }
+        batch.clear();
+    }
+    
+    /**
+     * Handle rebuild command, reconstructs balances at a moment from the
+     * ledger and reports where they differ from the stored ones. Only
+     * writes them with "apply", cached accounts through the currency manager
+     * and the others straight to storage.
+     */
+    private void handleRebuild(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("dzeconomy.admin") && !sender.isOp()) {
+            sendMessage(sender, "general.no-permission", null);
+            return;
+        }
+        
+        Ledger ledger = plugin.getLedger();
+        if (ledger == null) {
+            sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &cThe transaction ledger is disabled, nothing to rebuild from."));
+            return;
+        }
+        
+        if (args.length == 0) {
+            sender.sendMessage(ColorUtil.translate("&cUsage: /dzeconomy rebuild <player[,player]|all> [time] [apply]"));
+            sender.sendMessage(ColorUtil.translate("&7Time: &eyyyy-MM-dd&7, &eyyyy-MM-ddTHH:mm[:ss] &7or epoch millis, default now"));
+            return;
+        }
+        
+        boolean apply = args[args.length - 1].equalsIgnoreCase("apply");
+        int timeIndex = apply ? args.length - 2 : args.length - 1;
+        long timestamp = System.currentTimeMillis();
+        if (timeIndex >= 1) {
+            Long parsed = parseTime(args[timeIndex]);
+            if (parsed == null) {
+                sender.sendMessage(ColorUtil.translate("&cInvalid time: " + args[timeIndex]));
+                return;
+            }
+            timestamp = parsed;
+        }
+        
+        boolean all = args[0].equalsIgnoreCase("all");
+        List<UUID> targets = new ArrayList<>();
+        if (!all) {
+            for (String name : args[0].split(",")) {
+                org.bukkit.OfflinePlayer target = Bukkit.getOfflinePlayer(name);
+                if (!target.hasPlayedBefore() && !target.isOnline()) {
+                    sendMessage(sender, "general.player-not-found", MessagesUtil.placeholders("player", name));
+                    return;
+                }
+                targets.add(target.getUniqueId());
+            }
+        }
+        
+        // Cached accounts are applied on the main thread, their saves would undo a storage write
+        Set<UUID> loaded = new HashSet<>();
+        for (PlayerData data : plugin.getCurrencyManager().getAllLoadedPlayers()) {
+            loaded.add(data.getUUID());
+        }
+        UUID actor = sender instanceof Player ? ((Player) sender).getUniqueId() : null;
+        long time = timestamp;
+        String when = java.time.Instant.ofEpochMilli(time).atZone(java.time.ZoneId.systemDefault())
+                .format(java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        
+        sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &eRebuilding " + (all ? "all" : targets.size())
+                + " accounts as of &6" + when + (apply ? "" : " &e(dry run)") + "&e..."));
+        
+        plugin.getAsyncStorage().submit("rebuild", () -> {
+            try {
+                // Compare with what is in memory right now
+                plugin.getCurrencyManager().saveAllPlayers();
+                
+                List<UUID> accounts = targets;
+                if (all) {
+                    try (java.util.stream.Stream<UUID> players = plugin.getStorageProvider().listPlayers()) {
+                        accounts = players.collect(java.util.stream.Collectors.toList());
+                    }
+                }
+                
+                BalanceRebuilder rebuilder = new BalanceRebuilder(plugin, ledger);
+                RebuildReport report = rebuilder.compare(accounts, time);
+                
+                String reportPath = null;
+                if (!report.getDifferences().isEmpty()) {
+                    reportPath = "reports/rebuild-" + new java.text.SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new java.util.Date()) + ".csv";
+                    try {
+                        report.write(new java.io.File(plugin.getDataFolder(), reportPath));
+                    } catch (java.io.IOException e) {
+                        plugin.getLogger().warning("Failed to write the rebuild report: " + e.getMessage());
+                        reportPath = null;
+                    }
+                }
+                
+                List<RebuildReport.Difference> cached = new ArrayList<>();
+                List<RebuildReport.Difference> stored = new ArrayList<>();
+                for (RebuildReport.Difference difference : report.getDifferences()) {
+                    (loaded.contains(difference.getUUID()) ? cached : stored).add(difference);
+                }
+                int written = apply ? rebuilder.applyStored(stored, actor) : 0;
+                
+                String path = reportPath;
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    if (apply) {
+                        for (RebuildReport.Difference difference : cached) {
+                            plugin.getCurrencyManager().setBalance(difference.getUUID(), difference.getCurrency(),
+                                    difference.getRebuilt(), TransactionSource.ADMIN, actor, null);
+                        }
+                    }
+                    showRebuildReport(sender, report, path, apply ? written + countAccounts(cached) : -1);
+                });
+            } catch (Exception e) {
+                plugin.getLogger().severe("Failed to rebuild balances: " + e.getMessage());
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &cFailed to rebuild balances: " + e.getMessage()));
+                });
+            }
+            return null;
         });
     }
     
+    /**
+     * Show the outcome of a rebuild
+     * @param applied Accounts written, -1 for a dry run
+     */
+    private void showRebuildReport(CommandSender sender, RebuildReport report, String path, int applied) {
+        List<RebuildReport.Difference> differences = report.getDifferences();
+        sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &a&l✓ Checked &e" + report.getCheckedCount()
+                + " &a&laccounts in &e" + report.getElapsedMillis() + "ms"));
+        sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &7Differences: &e" + differences.size()));
+        
+        for (CurrencyType currency : CurrencyType.values()) {
+            double total = report.getTotalDifference(currency);
+            if (total != 0) {
+                sender.sendMessage(ColorUtil.translate("&7  " + plugin.getCurrencyManager().getCurrencyDisplayName(currency)
+                        + ": " + (total > 0 ? "&a+" : "&c-") + plugin.getCurrencyManager().getCurrencySymbol(currency)
+                        + NumberFormatter.formatShort(Math.abs(total))));
+            }
+        }
+        
+        for (int i = 0; i < Math.min(10, differences.size()); i++) {
+            RebuildReport.Difference difference = differences.get(i);
+            String name = Bukkit.getOfflinePlayer(difference.getUUID()).getName();
+            String symbol = plugin.getCurrencyManager().getCurrencySymbol(difference.getCurrency());
+            sender.sendMessage(ColorUtil.translate("&7  " + (name != null ? name : difference.getUUID().toString())
+                    + " &8" + difference.getCurrency().getId() + " &c" + symbol + NumberFormatter.formatShort(difference.getCurrent())
+                    + " &8→ &a" + symbol + NumberFormatter.formatShort(difference.getRebuilt())));
+        }
+        if (differences.size() > 10) {
+            sender.sendMessage(ColorUtil.translate("&7  ... and &e" + (differences.size() - 10) + " &7more"));
+        }
+        
+        if (report.getWithoutHistoryCount() > 0) {
+            sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &7Without ledger history: &e" + report.getWithoutHistoryCount()));
+        }
+        if (report.getFailedCount() > 0) {
+            sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &7Failed: &c" + report.getFailedCount() + " &7accounts"));
+        }
+        if (plugin.getLedger() != null && plugin.getLedger().getDroppedCount() > 0) {
+            sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &cThe ledger dropped " + plugin.getLedger().getDroppedCount()
+                    + " entries since startup, rebuilt balances may be off"));
+        }
+        if (path != null) {
+            sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &7Report: &e" + path));
+        }
+        
+        if (applied >= 0) {
+            sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &a&l✓ Applied rebuilt balances to &e" + applied + " &a&laccounts!"));
+        } else if (!differences.isEmpty()) {
+            sender.sendMessage(ColorUtil.translate("&8[&6DZ&eEconomy&8] &7Dry run, add &eapply &7to write the rebuilt balances."));
+        }
+    }
+    
+    private int countAccounts(List<RebuildReport.Difference> differences) {
+        Set<UUID> accounts = new HashSet<>();
+        for (RebuildReport.Difference difference : differences) {
+            accounts.add(difference.getUUID());
+        }
+        return accounts.size();
+    }
+    
+    /**
+     * Parse epoch millis or an ISO date or date-time in the server's time zone
+     * @return null if it is none of them
+     */
+    private Long parseTime(String input) {
+        try {
+            return Long.parseLong(input);
+        } catch (NumberFormatException ignored) {
+            // Not epoch millis
+        }
+        java.time.ZoneId zone = java.time.ZoneId.systemDefault();
+        try {
+            return java.time.LocalDateTime.parse(input).atZone(zone).toInstant().toEpochMilli();
+        } catch (java.time.format.DateTimeParseException ignored) {
+            // Not a date-time
+        }
+        try {
+            return java.time.LocalDate.parse(input).atStartOfDay(zone).toInstant().toEpochMilli();
+        } catch (java.time.format.DateTimeParseException e) {
+            return null;
+        }
+    }
+    
     /**
      * Copy folder recursively
      */
@@ -651,6 +1091,9 @@ public class EconomyCommand implements CommandExecutor, TabCompleter {
                 completions.add("migrate");
                 completions.add("status");
                 completions.add("backup");
+                completions.add("export");
+                completions.add("import");
+                completions.add("rebuild");
                 completions.add("enable");
                 completions.add("disable");
             }
@@ -659,12 +1102,33 @@ public class EconomyCommand implements CommandExecutor, TabCompleter {
                 completions.add("flatfile");
                 completions.add("sqlite");
                 completions.add("mysql");
+                completions.add("journal");
+                completions.add("mmap");
             }
         } else if (args.length == 3 && args[0].equalsIgnoreCase("migrate")) {
             if (sender.hasPermission("dzeconomy.admin") || sender.isOp()) {
                 completions.add("flatfile");
                 completions.add("sqlite");
                 completions.add("mysql");
+                completions.add("journal");
+                completions.add("mmap");
+            }
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("export")) {
+            if (sender.hasPermission("dzeconomy.admin") || sender.isOp()) {
+                completions.add("yaml");
+                completions.add("binary");
+            }
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("rebuild")) {
+            if (sender.hasPermission("dzeconomy.admin") || sender.isOp()) {
+                completions.add("all");
+                for (Player player : Bukkit.getOnlinePlayers()) {
+                    completions.add(player.getName());
+                }
+            }
+        } else if (args.length == 3 && args[0].equalsIgnoreCase("rebuild")) {
+            if (sender.hasPermission("dzeconomy.admin") || sender.isOp()) {
+                completions.add(java.time.LocalDate.now().toString());
+                completions.add("apply");
             }
         } else if (args.length == 2 && (args[0].equalsIgnoreCase("enable") || args[0].equalsIgnoreCase("disable"))) {
             if (sender.hasPermission("dzeconomy.admin") || sender.isOp()) {
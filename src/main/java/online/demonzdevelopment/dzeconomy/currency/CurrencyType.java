@@ -4,22 +4,29 @@ package online.demonzdevelopment.dzeconomy.currency;
  * Enum representing the three currency types in DZEconomy
  */
 public enum CurrencyType {
-    MONEY("money", "Money", "&aMoney", "$"),
-    MOBCOIN("mobcoin", "MobCoin", "&6MobCoin", "MC"),
-    GEM("gem", "Gem", "&b&lGem", "◆");
+    MONEY(1, "money", "Money", "&aMoney", "$"),
+    MOBCOIN(2, "mobcoin", "MobCoin", "&6MobCoin", "MC"),
+    GEM(3, "gem", "Gem", "&b&lGem", "◆");
     
+    // Stable numeric id used as key in storage, never reuse or renumber
+    private final int storageId;
     private final String id;
     private final String name;
     private final String displayName;
     private final String defaultSymbol;
     
-    CurrencyType(String id, String name, String displayName, String defaultSymbol) {
+    CurrencyType(int storageId, String id, String name, String displayName, String defaultSymbol) {
+        this.storageId = storageId;
         this.id = id;
         this.name = name;
         this.displayName = displayName;
         this.defaultSymbol = defaultSymbol;
     }
     
+    public int getStorageId() {
+        return storageId;
+    }
+    
     public String getId() {
         return id;
     }
@@ -51,6 +58,19 @@ public enum CurrencyType {
         return null;
     }
     
+    /**
+     * Get currency type from its storage id
+     */
+    public static CurrencyType fromStorageId(int storageId) {
+        for (CurrencyType type : values()) {
+            if (type.storageId == storageId) {
+                return type;
+            }
+        }
+        
+        return null;
+    }
+    
     /**
      * Get currency display color
      */
@@ -0,0 +1,127 @@
+package online.demonzdevelopment.dzeconomy.currency;
+
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point money. Balances are kept as longs counting the minor unit
+ * of their currency, 10^-decimal-places of one, so sums and taxes are
+ * exact and overflow is detected instead of silently losing precision.
+ *
+ * The scale of each currency is read once at startup. Storage converts
+ * balances written at another scale when they are loaded.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public final class Money {
+
+    public static final int MAX_SCALE = 8;
+    public static final int DEFAULT_SCALE = 2;
+
+    private static final long[] POWERS = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L
+    };
+
+    // Doubles at or beyond this many units no longer hold every whole unit
+    private static final double EXACT_LIMIT = 9.0e15;
+
+    private static final int[] scales = new int[CurrencyType.values().length];
+
+    static {
+        java.util.Arrays.fill(scales, DEFAULT_SCALE);
+    }
+
+    private Money() {
+    }
+
+    /**
+     * Read currencies.<id>.decimal-places. Only called at startup, units in
+     * memory would change their meaning with the scale.
+     */
+    public static void configure(FileConfiguration config) {
+        for (CurrencyType type : CurrencyType.values()) {
+            int places = config.getInt("currencies." + type.getId() + ".decimal-places", DEFAULT_SCALE);
+            scales[type.ordinal()] = Math.max(0, Math.min(MAX_SCALE, places));
+        }
+    }
+
+    public static int getScale(CurrencyType currency) {
+        return scales[currency.ordinal()];
+    }
+
+    /**
+     * Convert an amount to minor units, dropping digits beyond the scale
+     * (toward zero). An amount within a rounding error of a whole unit
+     * counts as that unit, so 0.29 is 29 cents and not 28.
+     * @throws ArithmeticException if it is not finite or does not fit a long
+     */
+    public static long toUnits(CurrencyType currency, double amount) {
+        double scaled = amount * POWERS[getScale(currency)];
+        if (!(Math.abs(scaled) < EXACT_LIMIT)) {
+            if (Double.isNaN(scaled) || Double.isInfinite(scaled)) {
+                throw new ArithmeticException("Amount is not a number: " + amount);
+            }
+            return BigDecimal.valueOf(amount).setScale(getScale(currency), RoundingMode.DOWN).unscaledValue().longValueExact();
+        }
+        long nearest = Math.round(scaled);
+        if (Math.abs(scaled - nearest) <= Math.max(1.0e-6, Math.ulp(scaled) * 8)) {
+            return nearest;
+        }
+        return (long) scaled;
+    }
+
+    /**
+     * Amount of minor units as a double, for display and double-based APIs
+     */
+    public static double toAmount(CurrencyType currency, long units) {
+        return units / (double) POWERS[getScale(currency)];
+    }
+
+    /**
+     * Exact decimal value of minor units
+     */
+    public static BigDecimal toDecimal(CurrencyType currency, long units) {
+        return BigDecimal.valueOf(units, getScale(currency));
+    }
+
+    /**
+     * Convert an exact decimal to minor units, dropping digits beyond the scale
+     * @throws ArithmeticException if it does not fit a long
+     */
+    public static long fromDecimal(CurrencyType currency, BigDecimal amount) {
+        return amount.setScale(getScale(currency), RoundingMode.DOWN).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Convert units written at one scale to another, dropping digits when the scale shrinks
+     * @throws ArithmeticException if they do not fit a long at the new scale
+     */
+    public static long rescale(long units, int fromScale, int toScale) {
+        if (toScale > fromScale) {
+            return Math.multiplyExact(units, POWERS[toScale - fromScale]);
+        }
+        if (toScale < fromScale) {
+            return units / POWERS[fromScale - toScale];
+        }
+        return units;
+    }
+
+    /**
+     * Percentage of an amount of units, rounded down to a whole unit. The
+     * percentage is taken to four decimals.
+     * @throws ArithmeticException if the result does not fit a long
+     */
+    public static long percentOf(long units, double percent) {
+        long basisPoints = Math.round(percent * 10000);
+        try {
+            return Math.floorDiv(Math.multiplyExact(units, basisPoints), 1000000L);
+        } catch (ArithmeticException e) {
+            // Too large for the fast path, the result itself may still fit
+            return BigDecimal.valueOf(units).multiply(BigDecimal.valueOf(basisPoints))
+                    .divide(BigDecimal.valueOf(1000000L), 0, RoundingMode.FLOOR).longValueExact();
+        }
+    }
+}
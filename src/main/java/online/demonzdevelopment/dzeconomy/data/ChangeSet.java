@@ -0,0 +1,161 @@
+package online.demonzdevelopment.dzeconomy.data;
+
+import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+import online.demonzdevelopment.dzeconomy.currency.Money;
+
+import java.util.Arrays;
+
+/**
+ * The individual fields of a {@link PlayerData} that changed since the
+ * last save, so storage can write only those columns
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public final class ChangeSet {
+
+    // Account fields
+    public static final int USERNAME = 1;
+    public static final int FIRST_JOIN = 1 << 1;
+    public static final int LAST_SEEN = 1 << 2;
+    public static final int LAST_RESET = 1 << 3;
+    public static final int ALL_ACCOUNT_FIELDS = USERNAME | FIRST_JOIN | LAST_SEEN | LAST_RESET;
+
+    // Fields kept per currency
+    public static final int BALANCE = 1;
+    public static final int SENT = 1 << 1;
+    public static final int RECEIVED = 1 << 2;
+    public static final int SENDS_TODAY = 1 << 3;
+    public static final int REQUESTS_TODAY = 1 << 4;
+    public static final int SEND_COOLDOWN = 1 << 5;
+    public static final int REQUEST_COOLDOWN = 1 << 6;
+    public static final int ALL_CURRENCY_FIELDS = BALANCE | SENT | RECEIVED | SENDS_TODAY | REQUESTS_TODAY
+            | SEND_COOLDOWN | REQUEST_COOLDOWN;
+
+    private final int accountFields;
+    private final int[] currencyFields;
+
+    // Balance delta of a balance that was set rather than incremented
+    static final long SET = Long.MIN_VALUE;
+
+    // Per currency: the sum of the increments in minor units if the balance
+    // only changed by increments, SET if it was set
+    private final long[] balanceDeltas;
+
+    ChangeSet(int accountFields, int[] currencyFields, long[] balanceDeltas) {
+        this.accountFields = accountFields;
+        this.currencyFields = currencyFields;
+        this.balanceDeltas = balanceDeltas;
+    }
+
+    /**
+     * Every field of the given sections (PlayerData.DIRTY_* flags)
+     */
+    public static ChangeSet ofSections(int sections) {
+        int[] currencies = new int[CurrencyType.values().length];
+        Arrays.fill(currencies, currencyFieldsOf(sections));
+        long[] deltas = new long[currencies.length];
+        if ((sections & PlayerData.DIRTY_BALANCES) != 0) {
+            Arrays.fill(deltas, SET);
+        }
+        return new ChangeSet(accountFieldsOf(sections), currencies, deltas);
+    }
+
+    static int accountFieldsOf(int sections) {
+        int fields = 0;
+        if ((sections & PlayerData.DIRTY_PROFILE) != 0) {
+            fields |= USERNAME | FIRST_JOIN | LAST_SEEN;
+        }
+        if ((sections & PlayerData.DIRTY_DAILY_LIMITS) != 0) {
+            fields |= LAST_RESET;
+        }
+        return fields;
+    }
+
+    static int currencyFieldsOf(int sections) {
+        int fields = 0;
+        if ((sections & PlayerData.DIRTY_BALANCES) != 0) {
+            fields |= BALANCE;
+        }
+        if ((sections & PlayerData.DIRTY_STATISTICS) != 0) {
+            fields |= SENT | RECEIVED;
+        }
+        if ((sections & PlayerData.DIRTY_DAILY_LIMITS) != 0) {
+            fields |= SENDS_TODAY | REQUESTS_TODAY;
+        }
+        if ((sections & PlayerData.DIRTY_COOLDOWNS) != 0) {
+            fields |= SEND_COOLDOWN | REQUEST_COOLDOWN;
+        }
+        return fields;
+    }
+
+    /**
+     * Changed account fields (USERNAME, FIRST_JOIN, LAST_SEEN, LAST_RESET)
+     */
+    public int getAccountFields() {
+        return accountFields;
+    }
+
+    /**
+     * Changed fields of one currency (BALANCE, SENT, ...)
+     */
+    public int getCurrencyFields(CurrencyType currency) {
+        return currencyFields[currency.ordinal()];
+    }
+
+    /**
+     * Whether the balance of a currency changed only by increments, so it
+     * can be written as balance + {@link #getBalanceDelta(CurrencyType)}
+     */
+    public boolean isBalanceIncrement(CurrencyType currency) {
+        return (currencyFields[currency.ordinal()] & BALANCE) != 0 && balanceDeltas[currency.ordinal()] != SET;
+    }
+
+    /**
+     * Sum of the increments of a balance, NaN if the balance was set
+     */
+    public double getBalanceDelta(CurrencyType currency) {
+        long delta = balanceDeltas[currency.ordinal()];
+        return delta == SET ? Double.NaN : Money.toAmount(currency, delta);
+    }
+
+    /**
+     * Sum of the increments of a balance in minor units, only meaningful
+     * if {@link #isBalanceIncrement(CurrencyType)}
+     */
+    public long getBalanceDeltaUnits(CurrencyType currency) {
+        return balanceDeltas[currency.ordinal()];
+    }
+
+    /**
+     * Sum of two balance deltas, SET if either was set or the sum overflows
+     */
+    static long addDeltas(long a, long b) {
+        if (a == SET || b == SET) {
+            return SET;
+        }
+        long sum = a + b;
+        // Overflowed when both have the sign the sum lacks; written as a set balance then
+        return ((a ^ sum) & (b ^ sum)) < 0 || sum == SET ? SET : sum;
+    }
+
+    int[] currencyFields() {
+        return currencyFields;
+    }
+
+    long[] balanceDeltas() {
+        return balanceDeltas;
+    }
+
+    public boolean isEmpty() {
+        if (accountFields != 0) {
+            return false;
+        }
+        for (int fields : currencyFields) {
+            if (fields != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,133 +1,260 @@
 package online.demonzdevelopment.dzeconomy.data;
 
 import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+import online.demonzdevelopment.dzeconomy.currency.Money;
 import org.bukkit.Bukkit;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.UUID;
 
 /**
- * Represents all economy data for a single player
+ * Represents all economy data for a single player.
+ *
+ * Per-currency values live in primitive arrays indexed by currency ordinal,
+ * so changing them allocates nothing. The map getters are views over the
+ * arrays, created on first use.
  */
 public class PlayerData {
     
+    // Dirty tracking sections
+    public static final int DIRTY_PROFILE = 1;
+    public static final int DIRTY_BALANCES = 1 << 1;
+    public static final int DIRTY_STATISTICS = 1 << 2;
+    public static final int DIRTY_DAILY_LIMITS = 1 << 3;
+    public static final int DIRTY_COOLDOWNS = 1 << 4;
+    public static final int DIRTY_ALL = DIRTY_PROFILE | DIRTY_BALANCES | DIRTY_STATISTICS | DIRTY_DAILY_LIMITS | DIRTY_COOLDOWNS;
+    
     private final UUID uuid;
     private String username;
     private long firstJoin;
     private long lastSeen;
     
-    // Balances for each currency
-    private final Map<CurrencyType, Double> balances;
+    // Balances in minor units (see Money), indexed by currency ordinal
+    private final long[] balances;
     
     // Statistics
-    private final Map<CurrencyType, Long> moneySent;
-    private final Map<CurrencyType, Long> moneyReceived;
+    private final long[] moneySent;
+    private final long[] moneyReceived;
     
     // Daily limits tracking
-    private final Map<CurrencyType, Integer> dailySendCount;
-    private final Map<CurrencyType, Integer> dailyRequestCount;
+    private final int[] dailySendCount;
+    private final int[] dailyRequestCount;
     private long lastDailyReset;
     
     // Cooldowns (timestamps)
-    private final Map<CurrencyType, Long> sendCooldowns;
-    private final Map<CurrencyType, Long> requestCooldowns;
+    private final long[] sendCooldowns;
+    private final long[] requestCooldowns;
+    
+    // Map views, see getMoneySent() and the like
+    private Map<CurrencyType, Double> balanceView;
+    private Map<CurrencyType, Long> moneySentView;
+    private Map<CurrencyType, Long> moneyReceivedView;
+    private Map<CurrencyType, Integer> dailySendCountView;
+    private Map<CurrencyType, Integer> dailyRequestCountView;
+    private Map<CurrencyType, Long> sendCooldownView;
+    private Map<CurrencyType, Long> requestCooldownView;
+    
+    // Sections changed since the last snapshot was taken
+    private int dirtyFlags;
+    
+    // The same changes per field, see ChangeSet
+    private int changedAccountFields;
+    private final int[] changedCurrencyFields;
+    private final long[] balanceDeltas;
+    
+    // What versioned storage holds, shared with snapshots
+    private final StoredState stored;
+    
+    // Set on a snapshot whose save was merged with changes made elsewhere
+    private PlayerData reconciled;
+    
+    // Saves of snapshots of this data that have not finished yet
+    private int savesInFlight;
+    
+    // Identifies the save of a snapshot once storage tried to apply it, so a repeat can be told apart
+    private long saveId;
     
     public PlayerData(UUID uuid) {
         this.uuid = uuid;
         this.username = Bukkit.getOfflinePlayer(uuid).getName();
-        this.balances = new HashMap<>();
-        this.moneySent = new HashMap<>();
-        this.moneyReceived = new HashMap<>();
-        this.dailySendCount = new HashMap<>();
-        this.dailyRequestCount = new HashMap<>();
-        this.sendCooldowns = new HashMap<>();
-        this.requestCooldowns = new HashMap<>();
-        
-        // Initialize all currencies to 0
-        for (CurrencyType type : CurrencyType.values()) {
-            balances.put(type, 0.0);
-            moneySent.put(type, 0L);
-            moneyReceived.put(type, 0L);
-            dailySendCount.put(type, 0);
-            dailyRequestCount.put(type, 0);
-            sendCooldowns.put(type, 0L);
-            requestCooldowns.put(type, 0L);
-        }
+        int currencies = CurrencyType.values().length;
+        this.balances = new long[currencies];
+        this.moneySent = new long[currencies];
+        this.moneyReceived = new long[currencies];
+        this.dailySendCount = new int[currencies];
+        this.dailyRequestCount = new int[currencies];
+        this.sendCooldowns = new long[currencies];
+        this.requestCooldowns = new long[currencies];
+        this.changedCurrencyFields = new int[currencies];
+        this.balanceDeltas = new long[currencies];
+        this.stored = new StoredState();
+    }
+    
+    /**
+     * Copy constructor used for snapshots
+     */
+    private PlayerData(PlayerData other) {
+        this.uuid = other.uuid;
+        this.username = other.username;
+        this.firstJoin = other.firstJoin;
+        this.lastSeen = other.lastSeen;
+        this.lastDailyReset = other.lastDailyReset;
+        this.balances = other.balances.clone();
+        this.moneySent = other.moneySent.clone();
+        this.moneyReceived = other.moneyReceived.clone();
+        this.dailySendCount = other.dailySendCount.clone();
+        this.dailyRequestCount = other.dailyRequestCount.clone();
+        this.sendCooldowns = other.sendCooldowns.clone();
+        this.requestCooldowns = other.requestCooldowns.clone();
+        this.changedCurrencyFields = new int[other.changedCurrencyFields.length];
+        this.balanceDeltas = new long[other.balanceDeltas.length];
+        this.stored = other.stored;
     }
     
     // Balance methods
     
-    public double getBalance(CurrencyType currency) {
-        return balances.getOrDefault(currency, 0.0);
+    public synchronized double getBalance(CurrencyType currency) {
+        return Money.toAmount(currency, balances[currency.ordinal()]);
     }
     
+    /**
+     * Balance in minor units of the currency
+     */
+    public synchronized long getBalanceUnits(CurrencyType currency) {
+        return balances[currency.ordinal()];
+    }
+    
+    /**
+     * @throws ArithmeticException if the amount does not fit in minor units
+     */
     public void setBalance(CurrencyType currency, double amount) {
-        balances.put(currency, amount);
+        setBalanceUnits(currency, Money.toUnits(currency, amount));
+    }
+    
+    public synchronized void setBalanceUnits(CurrencyType currency, long units) {
+        balances[currency.ordinal()] = units;
+        balanceDeltas[currency.ordinal()] = ChangeSet.SET;
+        changed(DIRTY_BALANCES, currency, ChangeSet.BALANCE);
     }
     
+    /**
+     * Change a balance by an amount. Unlike {@link #setBalance}, the change
+     * can be saved as an increment of whatever storage holds.
+     * @throws ArithmeticException if the balance would overflow, it is left unchanged then
+     */
     public void addBalance(CurrencyType currency, double amount) {
-        balances.put(currency, getBalance(currency) + amount);
+        addBalanceUnits(currency, Money.toUnits(currency, amount));
+    }
+    
+    /**
+     * {@link #addBalance(CurrencyType, double)} in minor units
+     * @throws ArithmeticException if the balance would overflow, it is left unchanged then
+     */
+    public synchronized void addBalanceUnits(CurrencyType currency, long units) {
+        int index = currency.ordinal();
+        balances[index] = Math.addExact(balances[index], units);
+        balanceDeltas[index] = ChangeSet.addDeltas(balanceDeltas[index], units);
+        changed(DIRTY_BALANCES, currency, ChangeSet.BALANCE);
     }
     
     public void removeBalance(CurrencyType currency, double amount) {
-        balances.put(currency, getBalance(currency) - amount);
+        addBalance(currency, -amount);
     }
     
     // Statistics
     
-    public void addMoneySent(CurrencyType currency, double amount) {
-        long current = moneySent.getOrDefault(currency, 0L);
-        moneySent.put(currency, current + (long) amount);
+    public synchronized long getMoneySent(CurrencyType currency) {
+        return moneySent[currency.ordinal()];
+    }
+    
+    public synchronized void setMoneySent(CurrencyType currency, long amount) {
+        moneySent[currency.ordinal()] = amount;
+        changed(DIRTY_STATISTICS, currency, ChangeSet.SENT);
+    }
+    
+    public synchronized void addMoneySent(CurrencyType currency, double amount) {
+        moneySent[currency.ordinal()] += (long) amount;
+        changed(DIRTY_STATISTICS, currency, ChangeSet.SENT);
+    }
+    
+    public synchronized long getMoneyReceived(CurrencyType currency) {
+        return moneyReceived[currency.ordinal()];
     }
     
-    public void addMoneyReceived(CurrencyType currency, double amount) {
-        long current = moneyReceived.getOrDefault(currency, 0L);
-        moneyReceived.put(currency, current + (long) amount);
+    public synchronized void setMoneyReceived(CurrencyType currency, long amount) {
+        moneyReceived[currency.ordinal()] = amount;
+        changed(DIRTY_STATISTICS, currency, ChangeSet.RECEIVED);
+    }
+    
+    public synchronized void addMoneyReceived(CurrencyType currency, double amount) {
+        moneyReceived[currency.ordinal()] += (long) amount;
+        changed(DIRTY_STATISTICS, currency, ChangeSet.RECEIVED);
     }
     
     // Daily limits
     
-    public int getDailySendCount(CurrencyType currency) {
-        return dailySendCount.getOrDefault(currency, 0);
+    public synchronized int getDailySendCount(CurrencyType currency) {
+        return dailySendCount[currency.ordinal()];
+    }
+    
+    public synchronized void setDailySendCount(CurrencyType currency, int count) {
+        dailySendCount[currency.ordinal()] = count;
+        changed(DIRTY_DAILY_LIMITS, currency, ChangeSet.SENDS_TODAY);
     }
     
-    public void incrementDailySendCount(CurrencyType currency) {
-        dailySendCount.put(currency, getDailySendCount(currency) + 1);
+    public synchronized void incrementDailySendCount(CurrencyType currency) {
+        dailySendCount[currency.ordinal()]++;
+        changed(DIRTY_DAILY_LIMITS, currency, ChangeSet.SENDS_TODAY);
     }
     
-    public int getDailyRequestCount(CurrencyType currency) {
-        return dailyRequestCount.getOrDefault(currency, 0);
+    public synchronized int getDailyRequestCount(CurrencyType currency) {
+        return dailyRequestCount[currency.ordinal()];
     }
     
-    public void incrementDailyRequestCount(CurrencyType currency) {
-        dailyRequestCount.put(currency, getDailyRequestCount(currency) + 1);
+    public synchronized void setDailyRequestCount(CurrencyType currency, int count) {
+        dailyRequestCount[currency.ordinal()] = count;
+        changed(DIRTY_DAILY_LIMITS, currency, ChangeSet.REQUESTS_TODAY);
     }
     
-    public void resetDailyLimits() {
+    public synchronized void incrementDailyRequestCount(CurrencyType currency) {
+        dailyRequestCount[currency.ordinal()]++;
+        changed(DIRTY_DAILY_LIMITS, currency, ChangeSet.REQUESTS_TODAY);
+    }
+    
+    public synchronized void resetDailyLimits() {
+        Arrays.fill(dailySendCount, 0);
+        Arrays.fill(dailyRequestCount, 0);
         for (CurrencyType type : CurrencyType.values()) {
-            dailySendCount.put(type, 0);
-            dailyRequestCount.put(type, 0);
+            changed(DIRTY_DAILY_LIMITS, type, ChangeSet.SENDS_TODAY | ChangeSet.REQUESTS_TODAY);
         }
         lastDailyReset = System.currentTimeMillis();
+        changed(DIRTY_DAILY_LIMITS, ChangeSet.LAST_RESET);
     }
     
     // Cooldowns
     
-    public long getSendCooldown(CurrencyType currency) {
-        return sendCooldowns.getOrDefault(currency, 0L);
+    public synchronized long getSendCooldown(CurrencyType currency) {
+        return sendCooldowns[currency.ordinal()];
     }
     
-    public void setSendCooldown(CurrencyType currency, long timestamp) {
-        sendCooldowns.put(currency, timestamp);
+    public synchronized void setSendCooldown(CurrencyType currency, long timestamp) {
+        sendCooldowns[currency.ordinal()] = timestamp;
+        changed(DIRTY_COOLDOWNS, currency, ChangeSet.SEND_COOLDOWN);
     }
     
-    public long getRequestCooldown(CurrencyType currency) {
-        return requestCooldowns.getOrDefault(currency, 0L);
+    public synchronized long getRequestCooldown(CurrencyType currency) {
+        return requestCooldowns[currency.ordinal()];
     }
     
-    public void setRequestCooldown(CurrencyType currency, long timestamp) {
-        requestCooldowns.put(currency, timestamp);
+    public synchronized void setRequestCooldown(CurrencyType currency, long timestamp) {
+        requestCooldowns[currency.ordinal()] = timestamp;
+        changed(DIRTY_COOLDOWNS, currency, ChangeSet.REQUEST_COOLDOWN);
     }
     
     public boolean isSendCooldownActive(CurrencyType currency, int cooldownSeconds) {
@@ -152,6 +279,247 @@ public class PlayerData {
         return Math.max(0, remaining / 1000);
     }
     
+    // Dirty tracking
+    
+    /**
+     * Check if anything changed since the last snapshot
+     */
+    public synchronized boolean isDirty() {
+        return dirtyFlags != 0;
+    }
+    
+    /**
+     * Get the changed sections (DIRTY_* bit flags)
+     */
+    public synchronized int getDirtyFlags() {
+        return dirtyFlags;
+    }
+    
+    /**
+     * Get the changed fields
+     */
+    public synchronized ChangeSet getChanges() {
+        return new ChangeSet(changedAccountFields, changedCurrencyFields.clone(), balanceDeltas.clone());
+    }
+    
+    /**
+     * Mark every field of the sections as changed
+     */
+    public synchronized void markDirty(int flags) {
+        markDirty(ChangeSet.ofSections(flags));
+    }
+    
+    /**
+     * Mark fields as changed, e.g. to restore the changes of a failed save
+     */
+    public synchronized void markDirty(ChangeSet changes) {
+        int[] fields = changes.currencyFields();
+        changedAccountFields |= changes.getAccountFields();
+        long[] deltas = changes.balanceDeltas();
+        for (int i = 0; i < fields.length && i < changedCurrencyFields.length; i++) {
+            changedCurrencyFields[i] |= fields[i];
+            // A set balance stays set
+            balanceDeltas[i] = ChangeSet.addDeltas(balanceDeltas[i], deltas[i]);
+        }
+        dirtyFlags |= sectionsOf(changes);
+    }
+    
+    /**
+     * Mark the data as in sync with storage
+     */
+    public synchronized void clearDirty() {
+        dirtyFlags = 0;
+        changedAccountFields = 0;
+        Arrays.fill(changedCurrencyFields, 0);
+        Arrays.fill(balanceDeltas, 0L);
+    }
+    
+    /**
+     * Take a detached copy for saving and clear the dirty flags in the same step.
+     * The copy carries the cleared flags so they can be restored if the save fails.
+     */
+    public synchronized PlayerData snapshot() {
+        PlayerData copy = new PlayerData(this);
+        copy.dirtyFlags = dirtyFlags;
+        copy.changedAccountFields = changedAccountFields;
+        System.arraycopy(changedCurrencyFields, 0, copy.changedCurrencyFields, 0, changedCurrencyFields.length);
+        System.arraycopy(balanceDeltas, 0, copy.balanceDeltas, 0, balanceDeltas.length);
+        clearDirty();
+        return copy;
+    }
+    
+    /**
+     * {@link #snapshot()} for a save of this live data. Until the matching
+     * {@link #endSave()} changes from other servers are not taken over, the
+     * save merges with them instead.
+     */
+    public synchronized PlayerData snapshotForSave() {
+        savesInFlight++;
+        return snapshot();
+    }
+    
+    /**
+     * Hold off changes from other servers while a snapshot whose save failed
+     * is written again, see {@link #snapshotForSave()}
+     */
+    public synchronized void beginSave() {
+        savesInFlight++;
+    }
+    
+    public synchronized void endSave() {
+        savesInFlight--;
+    }
+    
+    /**
+     * The id storage gave the save of this snapshot, 0 while it cannot have been applied
+     */
+    public synchronized long getSaveId() {
+        return saveId;
+    }
+    
+    public synchronized void setSaveId(long saveId) {
+        this.saveId = saveId;
+    }
+    
+    // Versioned storage
+    
+    public StoredState getStoredState() {
+        return stored;
+    }
+    
+    /**
+     * Record that storage now holds exactly this data at the given version
+     */
+    public synchronized void markStored(long version) {
+        stored.update(version, new PlayerData(this));
+    }
+    
+    /**
+     * Record that storage holds the given values at the given version,
+     * e.g. after a save had to be merged with a newer stored version
+     */
+    public synchronized void markStored(long version, PlayerData values) {
+        stored.update(version, new PlayerData(values));
+    }
+    
+    /**
+     * Take over sections another server saved, given as a {@link PlayerDataCodec}
+     * encoding of the stored values. Skipped while this data has unsaved changes
+     * or is being saved, the save merges with the stored account instead.
+     * @param version stored version of the values, or -1 if storage is not versioned
+     * @return true if the data changed
+     */
+    public synchronized boolean refresh(long version, byte[] encoded) {
+        long known = stored.getVersion();
+        if (dirtyFlags != 0 || savesInFlight > 0 || (version >= 0 && known >= version)) {
+            return false;
+        }
+
+        PlayerDataCodec.decodeInto(this, encoded);
+        clearDirty();
+
+        // After a missed message other sections may be behind, keep the old
+        // version so the next save merges with what is stored
+        if (version >= 0 && known == version - 1) {
+            markStored(version);
+        } else if (known >= 0 || stored.getValues() != null) {
+            markStored(known);
+        }
+        return true;
+    }
+
+    /**
+     * Mark a saved snapshot as merged: storage holds the merged values, not the snapshot's
+     */
+    public synchronized void setReconciled(PlayerData merged) {
+        this.reconciled = merged;
+    }
+    
+    /**
+     * Bring this live data in line after one of its snapshots was saved.
+     * If storage merged the snapshot with changes made elsewhere, balances
+     * and statistics are shifted by those changes and other fields take
+     * the stored value unless they changed here since the snapshot.
+     * @return true if any value changed
+     */
+    public synchronized boolean acknowledge(PlayerData saved) {
+        PlayerData merged = saved.reconciled;
+        if (merged == null) {
+            return false;
+        }
+        
+        for (int index = 0; index < balances.length; index++) {
+            int pending = changedCurrencyFields[index];
+            
+            balances[index] = Math.addExact(balances[index], Math.subtractExact(merged.balances[index], saved.balances[index]));
+            moneySent[index] += merged.moneySent[index] - saved.moneySent[index];
+            moneyReceived[index] += merged.moneyReceived[index] - saved.moneyReceived[index];
+            
+            if ((pending & ChangeSet.SENDS_TODAY) == 0) {
+                dailySendCount[index] = merged.dailySendCount[index];
+            }
+            if ((pending & ChangeSet.REQUESTS_TODAY) == 0) {
+                dailyRequestCount[index] = merged.dailyRequestCount[index];
+            }
+            if ((pending & ChangeSet.SEND_COOLDOWN) == 0) {
+                sendCooldowns[index] = merged.sendCooldowns[index];
+            }
+            if ((pending & ChangeSet.REQUEST_COOLDOWN) == 0) {
+                requestCooldowns[index] = merged.requestCooldowns[index];
+            }
+        }
+        
+        if ((changedAccountFields & ChangeSet.USERNAME) == 0) {
+            username = merged.getUsername();
+        }
+        if ((changedAccountFields & ChangeSet.FIRST_JOIN) == 0) {
+            firstJoin = merged.getFirstJoin();
+        }
+        if ((changedAccountFields & ChangeSet.LAST_SEEN) == 0) {
+            lastSeen = merged.getLastSeen();
+        }
+        if ((changedAccountFields & ChangeSet.LAST_RESET) == 0) {
+            lastDailyReset = merged.getLastDailyReset();
+        }
+        return true;
+    }
+    
+    private void changed(int section, int accountField) {
+        dirtyFlags |= section;
+        changedAccountFields |= accountField;
+    }
+    
+    private void changed(int section, CurrencyType currency, int field) {
+        dirtyFlags |= section;
+        changedCurrencyFields[currency.ordinal()] |= field;
+    }
+    
+    private static int sectionsOf(ChangeSet changes) {
+        int sections = 0;
+        int account = changes.getAccountFields();
+        if ((account & (ChangeSet.USERNAME | ChangeSet.FIRST_JOIN | ChangeSet.LAST_SEEN)) != 0) {
+            sections |= DIRTY_PROFILE;
+        }
+        if ((account & ChangeSet.LAST_RESET) != 0) {
+            sections |= DIRTY_DAILY_LIMITS;
+        }
+        for (int fields : changes.currencyFields()) {
+            if ((fields & ChangeSet.BALANCE) != 0) {
+                sections |= DIRTY_BALANCES;
+            }
+            if ((fields & (ChangeSet.SENT | ChangeSet.RECEIVED)) != 0) {
+                sections |= DIRTY_STATISTICS;
+            }
+            if ((fields & (ChangeSet.SENDS_TODAY | ChangeSet.REQUESTS_TODAY)) != 0) {
+                sections |= DIRTY_DAILY_LIMITS;
+            }
+            if ((fields & (ChangeSet.SEND_COOLDOWN | ChangeSet.REQUEST_COOLDOWN)) != 0) {
+                sections |= DIRTY_COOLDOWNS;
+            }
+        }
+        return sections;
+    }
+    
     // Getters and setters
     
     public UUID getUUID() {
@@ -162,59 +530,235 @@ public class PlayerData {
         return username;
     }
     
-    public void setUsername(String username) {
+    public synchronized void setUsername(String username) {
         this.username = username;
+        changed(DIRTY_PROFILE, ChangeSet.USERNAME);
     }
     
     public long getFirstJoin() {
         return firstJoin;
     }
     
-    public void setFirstJoin(long firstJoin) {
+    public synchronized void setFirstJoin(long firstJoin) {
         this.firstJoin = firstJoin;
+        changed(DIRTY_PROFILE, ChangeSet.FIRST_JOIN);
     }
     
     public long getLastSeen() {
         return lastSeen;
     }
     
-    public void setLastSeen(long lastSeen) {
+    public synchronized void setLastSeen(long lastSeen) {
         this.lastSeen = lastSeen;
+        changed(DIRTY_PROFILE, ChangeSet.LAST_SEEN);
     }
     
     public long getLastDailyReset() {
         return lastDailyReset;
     }
     
-    public void setLastDailyReset(long lastDailyReset) {
+    public synchronized void setLastDailyReset(long lastDailyReset) {
         this.lastDailyReset = lastDailyReset;
+        changed(DIRTY_DAILY_LIMITS, ChangeSet.LAST_RESET);
+    }
+    
+    // Map views, kept for code written against the maps. Writes go through
+    // the setters; the per-currency getters avoid boxing.
+    
+    /**
+     * Balances as amounts, writes set the balance
+     */
+    public synchronized Map<CurrencyType, Double> getBalances() {
+        if (balanceView == null) {
+            balanceView = new CurrencyView<Double>() {
+                @Override
+                Double read(CurrencyType currency) {
+                    return getBalance(currency);
+                }
+                
+                @Override
+                void write(CurrencyType currency, Double value) {
+                    setBalance(currency, value);
+                }
+            };
+        }
+        return balanceView;
+    }
+    
+    public synchronized Map<CurrencyType, Long> getMoneySent() {
+        if (moneySentView == null) {
+            moneySentView = new CurrencyView<Long>() {
+                @Override
+                Long read(CurrencyType currency) {
+                    return getMoneySent(currency);
+                }
+                
+                @Override
+                void write(CurrencyType currency, Long value) {
+                    setMoneySent(currency, value);
+                }
+            };
+        }
+        return moneySentView;
+    }
+    
+    public synchronized Map<CurrencyType, Long> getMoneyReceived() {
+        if (moneyReceivedView == null) {
+            moneyReceivedView = new CurrencyView<Long>() {
+                @Override
+                Long read(CurrencyType currency) {
+                    return getMoneyReceived(currency);
+                }
+                
+                @Override
+                void write(CurrencyType currency, Long value) {
+                    setMoneyReceived(currency, value);
+                }
+            };
+        }
+        return moneyReceivedView;
+    }
+    
+    public synchronized Map<CurrencyType, Integer> getDailySendCounts() {
+        if (dailySendCountView == null) {
+            dailySendCountView = new CurrencyView<Integer>() {
+                @Override
+                Integer read(CurrencyType currency) {
+                    return getDailySendCount(currency);
+                }
+                
+                @Override
+                void write(CurrencyType currency, Integer value) {
+                    setDailySendCount(currency, value);
+                }
+            };
+        }
+        return dailySendCountView;
+    }
+    
+    public synchronized Map<CurrencyType, Integer> getDailyRequestCounts() {
+        if (dailyRequestCountView == null) {
+            dailyRequestCountView = new CurrencyView<Integer>() {
+                @Override
+                Integer read(CurrencyType currency) {
+                    return getDailyRequestCount(currency);
+                }
+                
+                @Override
+                void write(CurrencyType currency, Integer value) {
+                    setDailyRequestCount(currency, value);
+                }
+            };
+        }
+        return dailyRequestCountView;
+    }
+    
+    public synchronized Map<CurrencyType, Long> getSendCooldowns() {
+        if (sendCooldownView == null) {
+            sendCooldownView = new CurrencyView<Long>() {
+                @Override
+                Long read(CurrencyType currency) {
+                    return getSendCooldown(currency);
+                }
+                
+                @Override
+                void write(CurrencyType currency, Long value) {
+                    setSendCooldown(currency, value);
+                }
+            };
+        }
+        return sendCooldownView;
+    }
+    
+    public synchronized Map<CurrencyType, Long> getRequestCooldowns() {
+        if (requestCooldownView == null) {
+            requestCooldownView = new CurrencyView<Long>() {
+                @Override
+                Long read(CurrencyType currency) {
+                    return getRequestCooldown(currency);
+                }
+                
+                @Override
+                void write(CurrencyType currency, Long value) {
+                    setRequestCooldown(currency, value);
+                }
+            };
+        }
+        return requestCooldownView;
     }
     
-    public Map<CurrencyType, Double> getBalances() {
-        return balances;
-    }
-    
-    public Map<CurrencyType, Long> getMoneySent() {
-        return moneySent;
-    }
-    
-    public Map<CurrencyType, Long> getMoneyReceived() {
-        return moneyReceived;
-    }
-    
-    public Map<CurrencyType, Integer> getDailySendCounts() {
-        return dailySendCount;
-    }
-    
-    public Map<CurrencyType, Integer> getDailyRequestCounts() {
-        return dailyRequestCount;
-    }
-    
-    public Map<CurrencyType, Long> getSendCooldowns() {
-        return sendCooldowns;
-    }
-    
-    public Map<CurrencyType, Long> getRequestCooldowns() {
-        return requestCooldowns;
+    /**
+     * Map over one per-currency array. Every currency is always present,
+     * entries cannot be removed.
+     */
+    private abstract static class CurrencyView<V> extends AbstractMap<CurrencyType, V> {
+        
+        private static final CurrencyType[] CURRENCIES = CurrencyType.values();
+        
+        abstract V read(CurrencyType currency);
+        
+        abstract void write(CurrencyType currency, V value);
+        
+        @Override
+        public V get(Object key) {
+            return key instanceof CurrencyType ? read((CurrencyType) key) : null;
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof CurrencyType;
+        }
+        
+        @Override
+        public V put(CurrencyType key, V value) {
+            if (value == null) {
+                throw new NullPointerException("Values cannot be null");
+            }
+            V previous = read(key);
+            write(key, value);
+            return previous;
+        }
+        
+        @Override
+        public int size() {
+            return CURRENCIES.length;
+        }
+        
+        @Override
+        public Set<Map.Entry<CurrencyType, V>> entrySet() {
+            return new AbstractSet<Map.Entry<CurrencyType, V>>() {
+                @Override
+                public Iterator<Map.Entry<CurrencyType, V>> iterator() {
+                    return new Iterator<Map.Entry<CurrencyType, V>>() {
+                        private int next;
+                        
+                        @Override
+                        public boolean hasNext() {
+                            return next < CURRENCIES.length;
+                        }
+                        
+                        @Override
+                        public Map.Entry<CurrencyType, V> next() {
+                            if (next >= CURRENCIES.length) {
+                                throw new NoSuchElementException();
+                            }
+                            CurrencyType currency = CURRENCIES[next++];
+                            return new AbstractMap.SimpleEntry<CurrencyType, V>(currency, read(currency)) {
+                                @Override
+                                public V setValue(V value) {
+                                    put(currency, value);
+                                    return super.setValue(value);
+                                }
+                            };
+                        }
+                    };
+                }
+                
+                @Override
+                public int size() {
+                    return CURRENCIES.length;
+                }
+            };
+        }
     }
 }
\ No newline at end of file
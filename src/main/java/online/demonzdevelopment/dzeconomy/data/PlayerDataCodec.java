@@ -0,0 +1,610 @@
+package online.demonzdevelopment.dzeconomy.data;
+
+import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+import online.demonzdevelopment.dzeconomy.currency.Money;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Compact binary encoding of {@link PlayerData}
+ *
+ * Layout: format version, UUID, section mask, then every section in mask
+ * order as a length-prefixed block. Counts, counters and timestamps are
+ * varints and currencies are stored by their storage id. Readers skip
+ * sections they do not know and the unread tail of a section, so fields
+ * can be appended to a section and sections added without a new version.
+ *
+ * Version 2 stores balances as minor units with their scale instead of
+ * doubles. Version 1 encodings (older journals, dumps) are still read.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public final class PlayerDataCodec {
+
+    public static final int FORMAT_VERSION = 2;
+
+    // Account dump files (backups, exports), a header then delimited records
+    private static final int DUMP_MAGIC = 0x445A4244; // DZBD
+
+    private static final int[] SECTIONS = {
+        PlayerData.DIRTY_PROFILE,
+        PlayerData.DIRTY_BALANCES,
+        PlayerData.DIRTY_STATISTICS,
+        PlayerData.DIRTY_DAILY_LIMITS,
+        PlayerData.DIRTY_COOLDOWNS
+    };
+
+    private PlayerDataCodec() {
+    }
+
+    /**
+     * Encode a whole account
+     */
+    public static byte[] encode(PlayerData data) {
+        return encode(data, PlayerData.DIRTY_ALL);
+    }
+
+    /**
+     * Encode only the sections selected by the mask (PlayerData.DIRTY_* flags)
+     */
+    public static byte[] encode(PlayerData data, int sections) {
+        Writer out = new Writer(64);
+        out.writeByte(FORMAT_VERSION);
+        out.writeLong(data.getUUID().getMostSignificantBits());
+        out.writeLong(data.getUUID().getLeastSignificantBits());
+        out.writeVarInt(sections & PlayerData.DIRTY_ALL);
+
+        Writer section = new Writer(64);
+        for (int flag : SECTIONS) {
+            if ((sections & flag) == 0) {
+                continue;
+            }
+            section.reset();
+            writeSection(section, data, flag);
+            out.writeVarInt(section.size);
+            out.write(section.buffer, 0, section.size);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a whole account into a new PlayerData
+     * @throws IllegalArgumentException if the bytes are not a valid encoding
+     */
+    public static PlayerData decode(byte[] bytes) {
+        PlayerData data = new PlayerData(readUUID(bytes));
+        decodeInto(data, bytes);
+        data.clearDirty();
+        return data;
+    }
+
+    /**
+     * Read only the UUID of an encoded account
+     */
+    public static UUID readUUID(byte[] bytes) {
+        Reader in = new Reader(bytes, 0, bytes.length);
+        checkVersion(in.readByte());
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    /**
+     * Apply the sections present in the encoding to an existing account.
+     * The sections are marked dirty on the target like any other change.
+     * @return mask of the sections that were applied
+     * @throws IllegalArgumentException if the bytes are not a valid encoding
+     */
+    public static int decodeInto(PlayerData data, byte[] bytes) {
+        Reader in = new Reader(bytes, 0, bytes.length);
+        int version = in.readByte();
+        checkVersion(version);
+        UUID uuid = new UUID(in.readLong(), in.readLong());
+        if (!uuid.equals(data.getUUID())) {
+            throw new IllegalArgumentException("Encoded account " + uuid + " does not belong to " + data.getUUID());
+        }
+
+        int sections = in.readVarInt();
+        int applied = 0;
+
+        // Present sections appear in ascending bit order, including ones this version does not know
+        for (int bit = 0; bit < 31; bit++) {
+            int flag = 1 << bit;
+            if ((sections & flag) == 0) {
+                continue;
+            }
+
+            int length = in.readVarInt();
+            Reader section = in.slice(length);
+            if ((flag & PlayerData.DIRTY_ALL) != 0) {
+                try {
+                    readSection(section, data, flag, version);
+                } catch (ArithmeticException e) {
+                    throw new IllegalArgumentException("Encoded balance of " + uuid + " does not fit: " + e.getMessage());
+                }
+                applied |= flag;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Encode a snapshot taken for a save: the whole account followed by its
+     * changes and save id, so the save can be repeated later with the same changes
+     */
+    public static byte[] encodeSave(PlayerData snapshot) {
+        byte[] account = encode(snapshot);
+        ChangeSet changes = snapshot.getChanges();
+
+        Writer out = new Writer(account.length + 64);
+        out.writeVarInt(account.length);
+        out.write(account, 0, account.length);
+        out.writeVarInt(changes.getAccountFields());
+        out.writeVarInt(CurrencyType.values().length);
+        for (CurrencyType type : CurrencyType.values()) {
+            out.writeVarInt(type.getStorageId());
+            out.writeVarInt(changes.getCurrencyFields(type));
+            boolean increment = changes.isBalanceIncrement(type);
+            out.writeByte(increment ? 1 : 0);
+            if (increment) {
+                out.writeVarLong(changes.getBalanceDeltaUnits(type));
+            }
+        }
+        out.writeLong(snapshot.getSaveId());
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode an {@link #encodeSave} encoding into detached data carrying the saved changes
+     * @throws IllegalArgumentException if the bytes are not a valid encoding
+     */
+    public static PlayerData decodeSave(byte[] bytes) {
+        Reader in = new Reader(bytes, 0, bytes.length);
+        int length = in.readVarInt();
+        in.require(length);
+        // The changes are laid out by the version of the account before them
+        int version = length > 0 ? bytes[in.position] : 0;
+        PlayerData data = decode(Arrays.copyOfRange(bytes, in.position, in.position + length));
+        in.position += length;
+
+        int accountFields = in.readVarInt();
+        int[] currencyFields = new int[CurrencyType.values().length];
+        long[] balanceDeltas = new long[currencyFields.length];
+        int count = in.readVarInt();
+        for (int i = 0; i < count; i++) {
+            CurrencyType type = CurrencyType.fromStorageId(in.readVarInt());
+            int fields = in.readVarInt();
+            long delta = ChangeSet.SET;
+            if (version == 1) {
+                double amount = Double.longBitsToDouble(in.readLong());
+                if (type != null && !Double.isNaN(amount)) {
+                    try {
+                        delta = Money.toUnits(type, amount);
+                    } catch (ArithmeticException e) {
+                        // Written as a set balance instead
+                    }
+                }
+            } else if (in.readByte() != 0) {
+                delta = in.readVarLong();
+            }
+            if (type != null) {
+                currencyFields[type.ordinal()] = fields;
+                balanceDeltas[type.ordinal()] = delta;
+            }
+        }
+
+        data.markDirty(new ChangeSet(accountFields, currencyFields, balanceDeltas));
+        // Older encodings end before the save id
+        if (in.position < bytes.length) {
+            data.setSaveId(in.readLong());
+        }
+        return data;
+    }
+
+    private static void checkVersion(int version) {
+        // Versions only change for incompatible layouts, newer readers keep reading older ones
+        if (version < 1 || version > FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported account encoding version " + version);
+        }
+    }
+
+    // Sections
+
+    private static void writeSection(Writer out, PlayerData data, int flag) {
+        CurrencyType[] currencies = CurrencyType.values();
+
+        switch (flag) {
+            case PlayerData.DIRTY_PROFILE:
+                out.writeString(data.getUsername());
+                out.writeVarLong(data.getFirstJoin());
+                out.writeVarLong(data.getLastSeen());
+                break;
+
+            case PlayerData.DIRTY_BALANCES:
+                out.writeVarInt(currencies.length);
+                for (CurrencyType type : currencies) {
+                    out.writeVarInt(type.getStorageId());
+                    out.writeVarInt(Money.getScale(type));
+                    out.writeVarLong(data.getBalanceUnits(type));
+                }
+                break;
+
+            case PlayerData.DIRTY_STATISTICS:
+                out.writeVarInt(currencies.length);
+                for (CurrencyType type : currencies) {
+                    out.writeVarInt(type.getStorageId());
+                    out.writeVarLong(data.getMoneySent(type));
+                    out.writeVarLong(data.getMoneyReceived(type));
+                }
+                break;
+
+            case PlayerData.DIRTY_DAILY_LIMITS:
+                out.writeVarLong(data.getLastDailyReset());
+                out.writeVarInt(currencies.length);
+                for (CurrencyType type : currencies) {
+                    out.writeVarInt(type.getStorageId());
+                    out.writeVarLong(data.getDailySendCount(type));
+                    out.writeVarLong(data.getDailyRequestCount(type));
+                }
+                break;
+
+            case PlayerData.DIRTY_COOLDOWNS:
+                out.writeVarInt(currencies.length);
+                for (CurrencyType type : currencies) {
+                    out.writeVarInt(type.getStorageId());
+                    out.writeVarLong(data.getSendCooldown(type));
+                    out.writeVarLong(data.getRequestCooldown(type));
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    private static void readSection(Reader in, PlayerData data, int flag, int version) {
+        int count;
+
+        switch (flag) {
+            case PlayerData.DIRTY_PROFILE:
+                String username = in.readString();
+                if (username != null) {
+                    data.setUsername(username);
+                }
+                data.setFirstJoin(in.readVarLong());
+                data.setLastSeen(in.readVarLong());
+                break;
+
+            case PlayerData.DIRTY_BALANCES:
+                count = in.readVarInt();
+                for (int i = 0; i < count; i++) {
+                    CurrencyType type = CurrencyType.fromStorageId(in.readVarInt());
+                    if (version == 1) {
+                        double balance = Double.longBitsToDouble(in.readLong());
+                        if (type != null) {
+                            data.setBalance(type, balance);
+                        }
+                        continue;
+                    }
+                    int scale = in.readVarInt();
+                    long units = in.readVarLong();
+                    if (type != null) {
+                        data.setBalanceUnits(type, Money.rescale(units, scale, Money.getScale(type)));
+                    }
+                }
+                break;
+
+            case PlayerData.DIRTY_STATISTICS:
+                count = in.readVarInt();
+                for (int i = 0; i < count; i++) {
+                    CurrencyType type = CurrencyType.fromStorageId(in.readVarInt());
+                    long sent = in.readVarLong();
+                    long received = in.readVarLong();
+                    if (type != null) {
+                        data.setMoneySent(type, sent);
+                        data.setMoneyReceived(type, received);
+                        data.markDirty(PlayerData.DIRTY_STATISTICS);
+                    }
+                }
+                break;
+
+            case PlayerData.DIRTY_DAILY_LIMITS:
+                data.setLastDailyReset(in.readVarLong());
+                count = in.readVarInt();
+                for (int i = 0; i < count; i++) {
+                    CurrencyType type = CurrencyType.fromStorageId(in.readVarInt());
+                    int sends = (int) in.readVarLong();
+                    int requests = (int) in.readVarLong();
+                    if (type != null) {
+                        data.setDailySendCount(type, sends);
+                        data.setDailyRequestCount(type, requests);
+                        data.markDirty(PlayerData.DIRTY_DAILY_LIMITS);
+                    }
+                }
+                break;
+
+            case PlayerData.DIRTY_COOLDOWNS:
+                count = in.readVarInt();
+                for (int i = 0; i < count; i++) {
+                    CurrencyType type = CurrencyType.fromStorageId(in.readVarInt());
+                    long send = in.readVarLong();
+                    long request = in.readVarLong();
+                    if (type != null) {
+                        data.setSendCooldown(type, send);
+                        data.setRequestCooldown(type, request);
+                    }
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    // Dump files
+
+    /**
+     * Writes accounts to a dump file, each as a length-prefixed encoding
+     */
+    public static final class DumpWriter implements Closeable {
+        private final OutputStream out;
+        private final Writer prefix;
+        private long count;
+
+        public DumpWriter(File file) throws IOException {
+            this.out = new BufferedOutputStream(Files.newOutputStream(file.toPath()), 1 << 16);
+            this.prefix = new Writer(16);
+            prefix.writeInt(DUMP_MAGIC);
+            prefix.writeByte(FORMAT_VERSION);
+            flushPrefix();
+        }
+
+        public void write(PlayerData data) throws IOException {
+            byte[] encoded = encode(data);
+            prefix.writeVarInt(encoded.length);
+            flushPrefix();
+            out.write(encoded);
+            count++;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        private void flushPrefix() throws IOException {
+            out.write(prefix.buffer, 0, prefix.size);
+            prefix.reset();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Read every account of a dump file
+     * @return number of accounts read
+     * @throws IOException if the file is not a dump or is truncated
+     */
+    public static long readDump(File file, Consumer<PlayerData> action) throws IOException {
+        long count = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()), 1 << 16)) {
+            byte[] header = in.readNBytes(5);
+            Reader headerReader = new Reader(header, 0, header.length);
+            if (header.length < 5 || headerReader.readInt() != DUMP_MAGIC) {
+                throw new IOException(file.getName() + " is not an account dump");
+            }
+
+            while (true) {
+                int length = readVarInt(in);
+                if (length < 0) {
+                    return count;
+                }
+
+                byte[] encoded = in.readNBytes(length);
+                if (encoded.length < length) {
+                    throw new EOFException(file.getName() + " is truncated after " + count + " account(s)");
+                }
+                try {
+                    action.accept(decode(encoded));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(file.getName() + " has a damaged account after " + count + " account(s)", e);
+                }
+                count++;
+            }
+        }
+    }
+
+    /**
+     * @return the varint, or -1 at a clean end of stream
+     */
+    private static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return -1;
+                }
+                throw new EOFException("Truncated length prefix");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed length prefix");
+    }
+
+    // Buffers
+
+    private static final class Writer {
+        private byte[] buffer;
+        private int size;
+
+        private Writer(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+
+        private void reset() {
+            size = 0;
+        }
+
+        private void writeByte(int value) {
+            ensure(1);
+            buffer[size++] = (byte) value;
+        }
+
+        private void write(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buffer, size, length);
+            size += length;
+        }
+
+        private void writeInt(int value) {
+            ensure(4);
+            buffer[size++] = (byte) (value >>> 24);
+            buffer[size++] = (byte) (value >>> 16);
+            buffer[size++] = (byte) (value >>> 8);
+            buffer[size++] = (byte) value;
+        }
+
+        private void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        private void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        // Zigzag, so a stray negative value still takes few bytes
+        private void writeVarLong(long value) {
+            long zigzag = (value << 1) ^ (value >> 63);
+            ensure(10);
+            while ((zigzag & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buffer[size++] = (byte) zigzag;
+        }
+
+        private void writeString(String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            // 0 means null, so lengths are stored plus one
+            writeVarInt(bytes.length + 1);
+            write(bytes, 0, bytes.length);
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buffer;
+        private final int end;
+        private int position;
+
+        private Reader(byte[] buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        private void require(int bytes) {
+            if (bytes < 0 || end - position < bytes) {
+                throw new IllegalArgumentException("Account encoding is truncated");
+            }
+        }
+
+        /**
+         * Split off the next length bytes; this reader continues after them
+         */
+        private Reader slice(int length) {
+            require(length);
+            Reader section = new Reader(buffer, position, length);
+            position += length;
+            return section;
+        }
+
+        private int readByte() {
+            require(1);
+            return buffer[position++] & 0xFF;
+        }
+
+        private int readInt() {
+            require(4);
+            int value = ((buffer[position] & 0xFF) << 24) | ((buffer[position + 1] & 0xFF) << 16)
+                    | ((buffer[position + 2] & 0xFF) << 8) | (buffer[position + 3] & 0xFF);
+            position += 4;
+            return value;
+        }
+
+        private long readLong() {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        private long readVarLong() {
+            long zigzag = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = readByte();
+                zigzag |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return (zigzag >>> 1) ^ -(zigzag & 1);
+                }
+            }
+            throw new IllegalArgumentException("Malformed varlong");
+        }
+
+        private String readString() {
+            int length = readVarInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            require(length);
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
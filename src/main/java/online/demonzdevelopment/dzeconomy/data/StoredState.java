@@ -0,0 +1,38 @@
+package online.demonzdevelopment.dzeconomy.data;
+
+/**
+ * Version and values of an account as last read from or written to a
+ * versioned storage. Shared between a {@link PlayerData} and all of its
+ * snapshots, so a save always compares against the latest stored state,
+ * even for a snapshot taken before the previous save finished.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public final class StoredState {
+
+    private long version = -1L;
+    private PlayerData values;
+
+    StoredState() {
+    }
+
+    /**
+     * Stored version, or -1 if the account was never read from versioned storage
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Stored values, or null if unknown. Must not be modified.
+     */
+    public synchronized PlayerData getValues() {
+        return values;
+    }
+
+    synchronized void update(long version, PlayerData values) {
+        this.version = version;
+        this.values = values;
+    }
+}
@@ -10,6 +10,7 @@ import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -142,6 +143,14 @@ public class PlaceholderAPI extends PlaceholderExpansion {
         return null;
     }
     
+    /**
+     * Drop the cached placeholders of a player, e.g. after another server changed the account
+     */
+    public void invalidate(UUID player) {
+        String prefix = player.toString() + ":";
+        cache.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+    
     /**
      * Get cached value or compute new one
      */
@@ -0,0 +1,250 @@
+package online.demonzdevelopment.dzeconomy.ledger;
+
+import online.demonzdevelopment.dzeconomy.DZEconomy;
+import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+import online.demonzdevelopment.dzeconomy.currency.Money;
+import online.demonzdevelopment.dzeconomy.data.PlayerData;
+import online.demonzdevelopment.dzeconomy.storage.StorageException;
+import online.demonzdevelopment.dzeconomy.storage.StorageProvider;
+import online.demonzdevelopment.dzeconomy.sync.SyncBus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reconstructs balances at a moment in the past from the ledger.
+ *
+ * Every ledger entry carries the balance it left behind, so the balance at
+ * a moment is that of the last entry before it. Accounts that only have
+ * entries after it are taken back to the balance before their oldest one.
+ * Whole economies are split by UUID across a fork-join pool, each part
+ * loading its accounts in one batch and querying the ledger per account.
+ *
+ * Blocking, never call it on the main thread.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public class BalanceRebuilder {
+
+    private static final int PARTITION_SIZE = 256;
+    private static final int PAGE_SIZE = 500;
+
+    private final DZEconomy plugin;
+    private final Ledger ledger;
+    private final int parallelism;
+
+    public BalanceRebuilder(DZEconomy plugin, Ledger ledger) {
+        this.plugin = plugin;
+        this.ledger = ledger;
+        int configured = plugin.getConfigManager().getConfig().getInt("ledger.rebuild-parallelism", 0);
+        this.parallelism = configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Balance of an account at a moment
+     * @return NaN if the ledger has no entry for it in that currency
+     */
+    public double rebuild(UUID account, CurrencyType currency, long timestamp) throws Exception {
+        LedgerSink sink = ledger.getSink();
+
+        List<LedgerEntry> before = sink.query(account, HistoryFilter.all().withCurrency(currency).between(0L, timestamp),
+                Long.MAX_VALUE, Long.MAX_VALUE, 1);
+        if (!before.isEmpty()) {
+            return before.get(0).getBalance();
+        }
+
+        // Nothing before it, take the balance before the oldest entry after it
+        LedgerEntry oldest = sink.oldest(account, HistoryFilter.all().withCurrency(currency).between(timestamp + 1, Long.MAX_VALUE));
+        return oldest != null ? oldest.getBalance() - oldest.getAmount() : Double.NaN;
+    }
+
+    /**
+     * Compare the stored balances of these accounts with the ones rebuilt
+     * for the moment. Cached changes should be saved before.
+     */
+    public RebuildReport compare(Collection<UUID> accounts, long timestamp) {
+        long start = System.currentTimeMillis();
+        if (!ledger.awaitWritten(5000L)) {
+            plugin.getLogger().warning("Ledger entries are still pending, the rebuild may miss the latest changes");
+        }
+
+        Comparison comparison = new Comparison(plugin.getStorageProvider(), timestamp);
+        List<UUID> list = new ArrayList<>(accounts);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new Partition(comparison, list, 0, list.size()));
+        } finally {
+            pool.shutdown();
+        }
+
+        return new RebuildReport(timestamp, new ArrayList<>(comparison.differences), comparison.checked.get(),
+                comparison.withoutHistory.get(), comparison.failed.get(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Write rebuilt balances of accounts that are not cached straight to
+     * storage, recorded in the ledger as admin changes
+     * @return number of accounts written
+     */
+    public int applyStored(Collection<RebuildReport.Difference> differences, UUID actor) {
+        Map<UUID, List<RebuildReport.Difference>> byAccount = new LinkedHashMap<>();
+        for (RebuildReport.Difference difference : differences) {
+            byAccount.computeIfAbsent(difference.getUUID(), uuid -> new ArrayList<>()).add(difference);
+        }
+
+        StorageProvider provider = plugin.getStorageProvider();
+        List<UUID> uuids = new ArrayList<>(byAccount.keySet());
+        int applied = 0;
+        for (int from = 0; from < uuids.size(); from += PAGE_SIZE) {
+            List<UUID> chunk = uuids.subList(from, Math.min(uuids.size(), from + PAGE_SIZE));
+            Map<UUID, PlayerData> loaded = provider.loadAll(chunk);
+
+            // Recorded from what storage holds now, not from the report
+            Map<UUID, long[]> previous = new LinkedHashMap<>();
+            for (PlayerData data : loaded.values()) {
+                long[] balances = new long[CurrencyType.values().length];
+                for (RebuildReport.Difference difference : byAccount.get(data.getUUID())) {
+                    CurrencyType currency = difference.getCurrency();
+                    balances[currency.ordinal()] = data.getBalanceUnits(currency);
+                    data.setBalanceUnits(currency, Money.toUnits(currency, difference.getRebuilt()));
+                }
+                previous.put(data.getUUID(), balances);
+            }
+
+            Set<UUID> failed = provider.saveAll(loaded.values());
+            SyncBus syncBus = plugin.getSyncBus();
+            for (PlayerData data : loaded.values()) {
+                UUID uuid = data.getUUID();
+                if (failed.contains(uuid)) {
+                    plugin.getLogger().warning("Failed to write the rebuilt balances of " + uuid);
+                    continue;
+                }
+                for (RebuildReport.Difference difference : byAccount.get(uuid)) {
+                    CurrencyType currency = difference.getCurrency();
+                    long balance = data.getBalanceUnits(currency);
+                    long change = balance - previous.get(uuid)[currency.ordinal()];
+                    if (change != 0) {
+                        ledger.record(uuid, currency, Money.toAmount(currency, change), 0.0,
+                                Money.toAmount(currency, balance), TransactionSource.ADMIN, actor, null);
+                    }
+                }
+                // Written around the cache, other servers must not keep their copies
+                if (syncBus != null) {
+                    syncBus.publishInvalidate(uuid);
+                }
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * State shared by the partitions of one comparison
+     */
+    private final class Comparison {
+        private final StorageProvider provider;
+        private final long timestamp;
+        private final Queue<RebuildReport.Difference> differences = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger checked = new AtomicInteger();
+        private final AtomicInteger withoutHistory = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicBoolean warned = new AtomicBoolean();
+
+        private Comparison(StorageProvider provider, long timestamp) {
+            this.provider = provider;
+            this.timestamp = timestamp;
+        }
+
+        private void compare(List<UUID> accounts) {
+            Map<UUID, PlayerData> loaded;
+            try {
+                loaded = provider.loadAll(accounts);
+            } catch (StorageException e) {
+                failed.addAndGet(accounts.size());
+                if (warned.compareAndSet(false, true)) {
+                    plugin.getLogger().warning("Failed to load " + accounts.size() + " accounts to rebuild: " + e.getMessage());
+                }
+                return;
+            }
+            for (UUID uuid : accounts) {
+                PlayerData data = loaded.get(uuid);
+                if (data == null) {
+                    failed.incrementAndGet();
+                    continue;
+                }
+                try {
+                    compare(data);
+                    checked.incrementAndGet();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    if (warned.compareAndSet(false, true)) {
+                        plugin.getLogger().warning("Failed to rebuild the balances of " + uuid + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+
+        private void compare(PlayerData data) throws Exception {
+            List<RebuildReport.Difference> found = new ArrayList<>();
+            boolean history = false;
+            for (CurrencyType currency : CurrencyType.values()) {
+                double rebuilt = rebuild(data.getUUID(), currency, timestamp);
+                if (Double.isNaN(rebuilt)) {
+                    continue;
+                }
+                history = true;
+                // Compared in minor units, the ledger's doubles carry rounding noise
+                long rebuiltUnits = Money.toUnits(currency, rebuilt);
+                long currentUnits = data.getBalanceUnits(currency);
+                if (rebuiltUnits != currentUnits) {
+                    found.add(new RebuildReport.Difference(data.getUUID(), currency,
+                            Money.toAmount(currency, currentUnits), Money.toAmount(currency, rebuiltUnits)));
+                }
+            }
+            if (!history) {
+                withoutHistory.incrementAndGet();
+            }
+            differences.addAll(found);
+        }
+    }
+
+    /**
+     * A range of accounts, split in halves until it is small enough to load at once
+     */
+    private static final class Partition extends RecursiveAction {
+        private final Comparison comparison;
+        private final List<UUID> accounts;
+        private final int from;
+        private final int to;
+
+        private Partition(Comparison comparison, List<UUID> accounts, int from, int to) {
+            this.comparison = comparison;
+            this.accounts = accounts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARTITION_SIZE) {
+                comparison.compare(accounts.subList(from, to));
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Partition(comparison, accounts, from, middle),
+                    new Partition(comparison, accounts, middle, to));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package online.demonzdevelopment.dzeconomy.ledger;
+
+import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+
+/**
+ * Which ledger entries a history query returns. Immutable, every with
+ * method returns a copy.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public final class HistoryFilter {
+
+    public static final int DEFAULT_LIMIT = 10;
+    public static final int MAX_LIMIT = 100;
+
+    private static final HistoryFilter ALL = new HistoryFilter(null, null, 0L, Long.MAX_VALUE, DEFAULT_LIMIT);
+
+    private final CurrencyType currency;
+    private final TransactionSource source;
+    private final long from;
+    private final long to;
+    private final int limit;
+
+    private HistoryFilter(CurrencyType currency, TransactionSource source, long from, long to, int limit) {
+        this.currency = currency;
+        this.source = source;
+        this.from = from;
+        this.to = to;
+        this.limit = limit;
+    }
+
+    /**
+     * Every entry, DEFAULT_LIMIT per page
+     */
+    public static HistoryFilter all() {
+        return ALL;
+    }
+
+    /**
+     * Only entries in this currency, null for all
+     */
+    public HistoryFilter withCurrency(CurrencyType currency) {
+        return new HistoryFilter(currency, source, from, to, limit);
+    }
+
+    /**
+     * Only entries of this type, null for all
+     */
+    public HistoryFilter withSource(TransactionSource source) {
+        return new HistoryFilter(currency, source, from, to, limit);
+    }
+
+    /**
+     * Only entries with from <= timestamp <= to, in epoch milliseconds
+     */
+    public HistoryFilter between(long from, long to) {
+        return new HistoryFilter(currency, source, from, to, limit);
+    }
+
+    /**
+     * Entries per page, at most MAX_LIMIT
+     */
+    public HistoryFilter withLimit(int limit) {
+        return new HistoryFilter(currency, source, from, to, Math.max(1, Math.min(MAX_LIMIT, limit)));
+    }
+
+    public CurrencyType getCurrency() {
+        return currency;
+    }
+
+    public TransactionSource getSource() {
+        return source;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Whether an entry with these properties passes the filter
+     */
+    boolean matches(int currencyId, int sourceId, long timestamp) {
+        return (currency == null || currency.getStorageId() == currencyId)
+                && (source == null || source.getStorageId() == sourceId)
+                && timestamp >= from && timestamp <= to;
+    }
+}
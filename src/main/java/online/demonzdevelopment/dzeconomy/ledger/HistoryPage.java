@@ -0,0 +1,63 @@
+package online.demonzdevelopment.dzeconomy.ledger;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a player's transaction history, newest entry first.
+ *
+ * Pages are keyset paged: the cursor names the last entry of this page
+ * and the next query continues right after it, so deep pages cost the
+ * same as the first one and new entries do not shift them.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public final class HistoryPage {
+
+    private final List<LedgerEntry> entries;
+    private final String nextCursor;
+
+    HistoryPage(List<LedgerEntry> entries, String nextCursor) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<LedgerEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Cursor for the next page, null if this is the last one
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    static String cursorAfter(LedgerEntry entry) {
+        return Long.toString(entry.getTimestamp(), 36) + "." + Long.toString(entry.getId(), 36);
+    }
+
+    /**
+     * Timestamp and id of the entry a cursor names
+     * @throws IllegalArgumentException if it is not a cursor
+     */
+    static long[] parseCursor(String cursor) {
+        int dot = cursor.indexOf('.');
+        if (dot <= 0) {
+            throw new IllegalArgumentException("Invalid history cursor: " + cursor);
+        }
+        try {
+            return new long[]{
+                    Long.parseLong(cursor.substring(0, dot), 36),
+                    Long.parseLong(cursor.substring(dot + 1), 36)
+            };
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid history cursor: " + cursor, e);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package online.demonzdevelopment.dzeconomy.ledger;
+
+import online.demonzdevelopment.dzeconomy.DZEconomy;
+import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Transaction ledger: a record of every balance change.
+ *
+ * Recording only puts the entry into a lock-free ring; a writer thread
+ * takes batches out of it and hands them to the sink. Balance changes
+ * never wait for I/O. If the sink falls so far behind that the ring is
+ * full, entries are dropped and counted rather than blocking the caller.
+ *
+ * History queries run on virtual threads against the sink, so entries
+ * show up there once the writer got to them.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public class Ledger {
+
+    private static final long RETRY_DELAY = 1000L;
+
+    private final DZEconomy plugin;
+    private final LedgerSink sink;
+    private final LedgerRing ring;
+    private final int batchSize;
+    private final long flushInterval;
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicBoolean overflowing = new AtomicBoolean();
+
+    private final ExecutorService queryExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private Thread writerThread;
+    private volatile boolean running;
+
+    public Ledger(DZEconomy plugin, LedgerSink sink) {
+        this.plugin = plugin;
+        this.sink = sink;
+        this.ring = new LedgerRing(Math.max(1024, plugin.getConfigManager().getConfig().getInt("ledger.buffer-size", 65536)));
+        this.batchSize = Math.max(1, plugin.getConfigManager().getConfig().getInt("ledger.batch-size", 1000));
+        this.flushInterval = Math.max(10L, plugin.getConfigManager().getConfig().getLong("ledger.flush-interval", 250L));
+    }
+
+    public boolean start() {
+        try {
+            sink.open();
+        } catch (Exception e) {
+            plugin.getLogger().severe("Failed to open the " + sink.getName() + " ledger: " + e.getMessage());
+            return false;
+        }
+
+        running = true;
+        writerThread = Thread.ofVirtual().name("DZEconomy-Ledger").start(this::runWriter);
+        return true;
+    }
+
+    /**
+     * Record a balance change, safe from any thread
+     *
+     * @param account Account whose balance changed
+     * @param amount Signed change, tax included
+     * @param tax Part of the amount that went to tax
+     * @param balance Balance after the change
+     * @param actor Player who caused it, null for console and plugins
+     * @param counterparty Other account involved, or null
+     */
+    public void record(UUID account, CurrencyType currency, double amount, double tax, double balance,
+                       TransactionSource source, UUID actor, UUID counterparty) {
+        LedgerEntry entry = new LedgerEntry(0L, System.currentTimeMillis(), account, currency, source,
+                actor, counterparty, amount, tax, balance);
+        recorded.incrementAndGet();
+        if (!ring.offer(entry)) {
+            dropped.incrementAndGet();
+            if (overflowing.compareAndSet(false, true)) {
+                plugin.getLogger().warning("Ledger buffer is full, entries are dropped until the " + sink.getName() + " ledger catches up");
+            }
+        }
+    }
+
+    /**
+     * Get a page of an account's history, newest first
+     * @param cursor HistoryPage#getNextCursor of the previous page, null for the first page
+     */
+    public CompletableFuture<HistoryPage> getHistory(UUID account, HistoryFilter filter, String cursor) {
+        long beforeTime = Long.MAX_VALUE;
+        long beforeId = Long.MAX_VALUE;
+        if (cursor != null) {
+            try {
+                long[] position = HistoryPage.parseCursor(cursor);
+                beforeTime = position[0];
+                beforeId = position[1];
+            } catch (IllegalArgumentException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        long time = beforeTime;
+        long id = beforeId;
+        CompletableFuture<HistoryPage> result = new CompletableFuture<>();
+        try {
+            queryExecutor.execute(() -> query(account, filter, time, id, result));
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new IllegalStateException("The ledger is closed"));
+        }
+        return result;
+    }
+
+    private void query(UUID account, HistoryFilter filter, long beforeTime, long beforeId, CompletableFuture<HistoryPage> result) {
+        try {
+            // One more than the page tells whether there is a next page
+            List<LedgerEntry> entries = sink.query(account, filter, beforeTime, beforeId, filter.getLimit() + 1);
+            String next = null;
+            if (entries.size() > filter.getLimit()) {
+                entries = new ArrayList<>(entries.subList(0, filter.getLimit()));
+                next = HistoryPage.cursorAfter(entries.get(entries.size() - 1));
+            }
+            result.complete(new HistoryPage(entries, next));
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Wait until everything recorded so far reached the sink
+     * @return false if the writer did not get there in time
+     */
+    public boolean awaitWritten(long timeoutMillis) {
+        long target = recorded.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (written.get() + dropped.get() < target) {
+            if (!running || System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(10000000L);
+        }
+        return true;
+    }
+
+    private void runWriter() {
+        List<LedgerEntry> batch = new ArrayList<>(batchSize);
+        boolean failing = false;
+
+        while (true) {
+            boolean stopping = !running;
+            if (batch.isEmpty()) {
+                ring.drain(batch, batchSize);
+                if (batch.isEmpty()) {
+                    if (stopping) {
+                        return;
+                    }
+                    overflowing.set(false);
+                    LockSupport.parkNanos(flushInterval * 1000000L);
+                    continue;
+                }
+            }
+
+            int size = batch.size();
+            try {
+                sink.write(batch);
+            } catch (Exception e) {
+                if (stopping) {
+                    plugin.getLogger().severe("Failed to write the last " + (size + ring.size()) + " ledger entries: " + e.getMessage());
+                    return;
+                }
+                if (!failing) {
+                    plugin.getLogger().warning("Failed to write ledger entries, retrying: " + e.getMessage());
+                    failing = true;
+                }
+                LockSupport.parkNanos(RETRY_DELAY * 1000000L);
+                continue;
+            }
+
+            if (failing) {
+                plugin.getLogger().info("Ledger writes succeed again");
+                failing = false;
+            }
+            written.addAndGet(size);
+            batch.clear();
+
+            // A full batch means more are waiting
+            if (size < batchSize && !stopping) {
+                LockSupport.parkNanos(flushInterval * 1000000L);
+            }
+        }
+    }
+
+    /**
+     * Write what is still buffered and close the sink
+     */
+    public void close() {
+        queryExecutor.shutdownNow();
+        running = false;
+        if (writerThread != null) {
+            LockSupport.unpark(writerThread);
+            try {
+                writerThread.join(10000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        sink.close();
+    }
+
+    LedgerSink getSink() {
+        return sink;
+    }
+
+    public String getSinkName() {
+        return sink.getName();
+    }
+
+    public long getRecordedCount() {
+        return recorded.get();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public int getPendingCount() {
+        return ring.size();
+    }
+}
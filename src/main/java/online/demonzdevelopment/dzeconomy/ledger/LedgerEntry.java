@@ -0,0 +1,87 @@
+package online.demonzdevelopment.dzeconomy.ledger;
+
+import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+
+import java.util.UUID;
+
+/**
+ * One balance change: who changed whose balance, why, and by how much.
+ *
+ * The amount is signed and includes the tax, so for a payment of 100 with
+ * 5 tax the sender's entry has amount -105 and tax 5. Actor and
+ * counterparty are null where there is none, e.g. for console commands.
+ * Entries get their id when the ledger writes them, 0 until then.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public final class LedgerEntry {
+
+    private final long id;
+    private final long timestamp;
+    private final UUID account;
+    private final CurrencyType currency;
+    private final TransactionSource source;
+    private final UUID actor;
+    private final UUID counterparty;
+    private final double amount;
+    private final double tax;
+    private final double balance;
+
+    LedgerEntry(long id, long timestamp, UUID account, CurrencyType currency, TransactionSource source,
+                UUID actor, UUID counterparty, double amount, double tax, double balance) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.account = account;
+        this.currency = currency;
+        this.source = source;
+        this.actor = actor;
+        this.counterparty = counterparty;
+        this.amount = amount;
+        this.tax = tax;
+        this.balance = balance;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public UUID getAccount() {
+        return account;
+    }
+
+    public CurrencyType getCurrency() {
+        return currency;
+    }
+
+    public TransactionSource getSource() {
+        return source;
+    }
+
+    public UUID getActor() {
+        return actor;
+    }
+
+    public UUID getCounterparty() {
+        return counterparty;
+    }
+
+    public double getAmount() {
+        return amount;
+    }
+
+    public double getTax() {
+        return tax;
+    }
+
+    /**
+     * Balance of the account right after the change
+     */
+    public double getBalance() {
+        return balance;
+    }
+}
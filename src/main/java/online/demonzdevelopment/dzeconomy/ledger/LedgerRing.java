@@ -0,0 +1,92 @@
+package online.demonzdevelopment.dzeconomy.ledger;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue with any number of producers and one consumer.
+ *
+ * Every slot carries a sequence number telling whether it is free for the
+ * producer at a position or filled for the consumer. Producers claim a
+ * position with one CAS and never wait; when the ring is full the offer
+ * fails instead.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+final class LedgerRing {
+
+    private final LedgerEntry[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+
+    // Only touched by the consumer
+    private long head;
+
+    LedgerRing(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, minCapacity - 1)) << 1;
+        this.slots = new LedgerEntry[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if the ring is full
+     */
+    boolean offer(LedgerEntry entry) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = entry;
+                    // Publishes the slot to the consumer
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Move up to max entries into the list, consumer only
+     * @return number of entries moved
+     */
+    int drain(List<LedgerEntry> into, int max) {
+        int drained = 0;
+        while (drained < max) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            into.add(slots[index]);
+            slots[index] = null;
+            sequences.set(index, head + slots.length);
+            head++;
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Entries waiting, approximate while producers are active
+     */
+    int size() {
+        return (int) Math.max(0L, tail.get() - head);
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+}
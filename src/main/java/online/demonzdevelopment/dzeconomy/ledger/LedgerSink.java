@@ -0,0 +1,40 @@
+package online.demonzdevelopment.dzeconomy.ledger;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Where the ledger writes its entries. Only the ledger's writer thread
+ * calls open, write and close; queries come from any thread.
+ */
+public interface LedgerSink {
+
+    /**
+     * Create tables or files as needed
+     */
+    void open() throws Exception;
+
+    /**
+     * Write a batch of entries in order, all or nothing
+     */
+    void write(List<LedgerEntry> batch) throws Exception;
+
+    /**
+     * Entries of an account matching the filter that come after the
+     * cursor position, newest first, found through an index on the account
+     *
+     * @param beforeTime Timestamp of the last entry already returned, Long.MAX_VALUE for the first page
+     * @param beforeId Id of the last entry already returned, Long.MAX_VALUE for the first page
+     */
+    List<LedgerEntry> query(UUID account, HistoryFilter filter, long beforeTime, long beforeId, int limit) throws Exception;
+
+    /**
+     * Oldest entry of an account matching the filter, through the same index
+     * @return null if there is none
+     */
+    LedgerEntry oldest(UUID account, HistoryFilter filter) throws Exception;
+
+    void close();
+
+    String getName();
+}
@@ -0,0 +1,139 @@
+package online.demonzdevelopment.dzeconomy.ledger;
+
+import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Outcome of a balance rebuild: where the balances reconstructed from the
+ * ledger differ from the stored ones.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public final class RebuildReport {
+
+    private final long timestamp;
+    private final List<Difference> differences;
+    private final int checked;
+    private final int withoutHistory;
+    private final int failed;
+    private final long elapsed;
+
+    RebuildReport(long timestamp, List<Difference> differences, int checked, int withoutHistory, int failed, long elapsed) {
+        List<Difference> sorted = new ArrayList<>(differences);
+        // Biggest differences first, those are what an exploit looks like
+        sorted.sort(Comparator.comparingDouble((Difference difference) -> -Math.abs(difference.getDifference())));
+        this.timestamp = timestamp;
+        this.differences = Collections.unmodifiableList(sorted);
+        this.checked = checked;
+        this.withoutHistory = withoutHistory;
+        this.failed = failed;
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * The moment the balances were rebuilt for
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public List<Difference> getDifferences() {
+        return differences;
+    }
+
+    public int getCheckedCount() {
+        return checked;
+    }
+
+    /**
+     * Accounts without a single ledger entry, left as they are
+     */
+    public int getWithoutHistoryCount() {
+        return withoutHistory;
+    }
+
+    public int getFailedCount() {
+        return failed;
+    }
+
+    public long getElapsedMillis() {
+        return elapsed;
+    }
+
+    /**
+     * Sum of the differences in one currency, rebuilt minus current
+     */
+    public double getTotalDifference(CurrencyType currency) {
+        double total = 0;
+        for (Difference difference : differences) {
+            if (difference.getCurrency() == currency) {
+                total += difference.getDifference();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Write the differences as CSV
+     */
+    public void write(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("uuid,currency,current,rebuilt,difference");
+            writer.newLine();
+            for (Difference difference : differences) {
+                writer.write(difference.getUUID() + "," + difference.getCurrency().getId() + ","
+                        + difference.getCurrent() + "," + difference.getRebuilt() + "," + difference.getDifference());
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * One balance that does not match its history
+     */
+    public static final class Difference {
+        private final UUID uuid;
+        private final CurrencyType currency;
+        private final double current;
+        private final double rebuilt;
+
+        Difference(UUID uuid, CurrencyType currency, double current, double rebuilt) {
+            this.uuid = uuid;
+            this.currency = currency;
+            this.current = current;
+            this.rebuilt = rebuilt;
+        }
+
+        public UUID getUUID() {
+            return uuid;
+        }
+
+        public CurrencyType getCurrency() {
+            return currency;
+        }
+
+        public double getCurrent() {
+            return current;
+        }
+
+        public double getRebuilt() {
+            return rebuilt;
+        }
+
+        public double getDifference() {
+            return rebuilt - current;
+        }
+    }
+}
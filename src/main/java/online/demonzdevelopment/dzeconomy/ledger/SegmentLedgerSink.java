@@ -0,0 +1,664 @@
+package online.demonzdevelopment.dzeconomy.ledger;
+
+import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Writes the ledger to append-only segment files, for storage types
+ * without a database.
+ *
+ * Records have a fixed size, so the n-th entry of a segment is found by
+ * arithmetic. Each segment is named after the id of its first entry.
+ * A torn or corrupt record at the end of the newest segment is cut off
+ * when the sink opens.
+ *
+ * History queries go through a per-segment index of postings (account,
+ * time, record, currency, type) sorted by account. The segment being
+ * written keeps its postings in memory; when it is full they are written
+ * next to it as an .idx file, which queries binary search through a
+ * memory mapping. Filters are checked on the postings, so only records
+ * that end up on the page are read.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public class SegmentLedgerSink implements LedgerSink {
+
+    static final int MAGIC = 0x445A4C47; // DZLG
+    static final int INDEX_MAGIC = 0x445A4C49; // DZLI
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 8;
+
+    // crc, id, timestamp, account, currency, source, actor, counterparty, amount, tax, balance
+    static final int RECORD_SIZE = 4 + 8 + 8 + 16 + 1 + 1 + 16 + 16 + 8 + 8 + 8;
+
+    // magic, version, count, min time, max time
+    static final int INDEX_HEADER_SIZE = 4 + 4 + 4 + 8 + 8;
+    // account, time, record, currency, source
+    static final int POSTING_SIZE = 16 + 8 + 4 + 1 + 1;
+
+    private static final Comparator<UUID> ACCOUNT_ORDER = Comparator
+            .comparingLong(UUID::getMostSignificantBits)
+            .thenComparingLong(UUID::getLeastSignificantBits);
+
+    private final File folder;
+    private final long segmentSize;
+
+    // Only touched by the writer thread
+    private FileChannel segment;
+    private long nextId = 1;
+
+    // Guarded by this, the last one is being written
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    public SegmentLedgerSink(File folder, long segmentSize) {
+        this.folder = folder;
+        this.segmentSize = Math.max(RECORD_SIZE, segmentSize);
+    }
+
+    @Override
+    public void open() throws IOException {
+        folder.mkdirs();
+        TreeMap<Long, File> files = listSegments(folder);
+        if (files.isEmpty()) {
+            openSegment(nextId);
+            return;
+        }
+
+        long lastId = files.lastKey();
+        for (Map.Entry<Long, File> file : files.entrySet()) {
+            Segment loaded = new Segment(file.getKey(), file.getValue());
+            boolean last = file.getKey() == lastId;
+            if (!last && mapIndex(loaded)) {
+                register(loaded);
+                continue;
+            }
+
+            int records = scan(loaded);
+            if (last) {
+                resume(loaded, records);
+                continue;
+            }
+            if (records >= 0) {
+                sealQuietly(loaded);
+                register(loaded);
+            }
+        }
+    }
+
+    /**
+     * Continue writing the newest segment after its last valid record
+     */
+    private void resume(Segment last, int records) throws IOException {
+        if (records < 0) {
+            // Not even the header made it to disk
+            openSegment(last.firstId);
+            nextId = last.firstId;
+            return;
+        }
+
+        FileChannel channel = FileChannel.open(last.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long end = HEADER_SIZE + (long) records * RECORD_SIZE;
+        if (channel.size() > end) {
+            channel.truncate(end);
+        }
+        channel.position(end);
+        segment = channel;
+        nextId = last.firstId + records;
+        register(last);
+    }
+
+    /**
+     * Segment files by the id of their first entry
+     */
+    static TreeMap<Long, File> listSegments(File folder) {
+        TreeMap<Long, File> segments = new TreeMap<>();
+        File[] files = folder.listFiles((dir, name) -> name.startsWith("ledger-") && name.endsWith(".log"));
+        if (files == null) {
+            return segments;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                segments.put(Long.parseLong(name.substring(7, name.length() - 4)), file);
+            } catch (NumberFormatException ignored) {
+                // Not one of ours
+            }
+        }
+        return segments;
+    }
+
+    private static boolean isValid(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 4, RECORD_SIZE - 4);
+        return (int) crc.getValue() == ByteBuffer.wrap(record).getInt(0);
+    }
+
+    /**
+     * Build the postings of a segment from its records
+     * @return number of valid records, -1 if the header is missing
+     */
+    private static int scan(Segment target) throws IOException {
+        target.live = new HashMap<>();
+        int records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(target.file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() > FORMAT_VERSION) {
+                return -1;
+            }
+            byte[] record = new byte[RECORD_SIZE];
+            while (true) {
+                in.readFully(record);
+                if (!isValid(record)) {
+                    break;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                UUID account = new UUID(buffer.getLong(20), buffer.getLong(28));
+                target.add(account, records, buffer.getLong(12), buffer.get(36), buffer.get(37));
+                records++;
+            }
+        } catch (EOFException e) {
+            // End of the segment, or of its header
+            if (records == 0 && target.file.length() < HEADER_SIZE) {
+                return -1;
+            }
+        }
+        return records;
+    }
+
+    private void openSegment(long firstId) throws IOException {
+        File file = new File(folder, String.format("ledger-%016d.log", firstId));
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        channel.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(FORMAT_VERSION).flip());
+        channel.force(true);
+        segment = channel;
+
+        Segment created = new Segment(firstId, file);
+        created.live = new HashMap<>();
+        register(created);
+    }
+
+    private synchronized void register(Segment added) {
+        segments.put(added.firstId, added);
+    }
+
+    @Override
+    public void write(List<LedgerEntry> batch) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(batch.size() * RECORD_SIZE);
+        long id = nextId;
+        CRC32 crc = new CRC32();
+        for (LedgerEntry entry : batch) {
+            int start = buffer.position();
+            buffer.putInt(0);
+            buffer.putLong(id++);
+            buffer.putLong(entry.getTimestamp());
+            putUUID(buffer, entry.getAccount());
+            buffer.put((byte) entry.getCurrency().getStorageId());
+            buffer.put((byte) entry.getSource().getStorageId());
+            putUUID(buffer, entry.getActor());
+            putUUID(buffer, entry.getCounterparty());
+            buffer.putDouble(entry.getAmount());
+            buffer.putDouble(entry.getTax());
+            buffer.putDouble(entry.getBalance());
+
+            crc.reset();
+            crc.update(buffer.array(), start + 4, RECORD_SIZE - 4);
+            buffer.putInt(start, (int) crc.getValue());
+        }
+        buffer.flip();
+
+        long start = segment.position();
+        try {
+            while (buffer.hasRemaining()) {
+                segment.write(buffer);
+            }
+            segment.force(false);
+        } catch (IOException e) {
+            // Do not leave half a batch for the retry to follow
+            segment.truncate(start);
+            segment.position(start);
+            throw e;
+        }
+
+        synchronized (this) {
+            Segment active = segments.lastEntry().getValue();
+            int record = (int) (nextId - active.firstId);
+            for (LedgerEntry entry : batch) {
+                active.add(entry.getAccount(), record++, entry.getTimestamp(),
+                        (byte) entry.getCurrency().getStorageId(), (byte) entry.getSource().getStorageId());
+            }
+        }
+        nextId = id;
+
+        if (segment.position() >= segmentSize) {
+            FileChannel previous = segment;
+            Segment full;
+            synchronized (this) {
+                full = segments.lastEntry().getValue();
+            }
+            openSegment(nextId);
+            previous.close();
+            sealQuietly(full);
+        }
+    }
+
+    private static void putUUID(ByteBuffer buffer, UUID uuid) {
+        buffer.putLong(uuid != null ? uuid.getMostSignificantBits() : 0L);
+        buffer.putLong(uuid != null ? uuid.getLeastSignificantBits() : 0L);
+    }
+
+    /**
+     * Write the postings of a full segment to its index file and switch
+     * queries over to it. If that fails they stay in memory.
+     */
+    private void sealQuietly(Segment full) {
+        Map<UUID, Postings> live;
+        synchronized (this) {
+            live = full.live;
+        }
+        try {
+            writeIndex(full, live);
+            if (mapIndex(full)) {
+                synchronized (this) {
+                    full.live = null;
+                }
+            }
+        } catch (IOException ignored) {
+            // Queries keep using the postings in memory
+        }
+    }
+
+    private static void writeIndex(Segment full, Map<UUID, Postings> live) throws IOException {
+        List<UUID> accounts = new ArrayList<>(live.keySet());
+        accounts.sort(ACCOUNT_ORDER);
+        int count = 0;
+        for (Postings postings : live.values()) {
+            count += postings.size;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(INDEX_HEADER_SIZE + count * POSTING_SIZE);
+        buffer.putInt(INDEX_MAGIC).putInt(FORMAT_VERSION).putInt(count).putLong(full.minTime).putLong(full.maxTime);
+        for (UUID account : accounts) {
+            Postings postings = live.get(account);
+            for (int i = 0; i < postings.size; i++) {
+                buffer.putLong(account.getMostSignificantBits());
+                buffer.putLong(account.getLeastSignificantBits());
+                buffer.putLong(postings.times[i]);
+                buffer.putInt(postings.records[i]);
+                buffer.put(postings.currencies[i]);
+                buffer.put(postings.sources[i]);
+            }
+        }
+        buffer.flip();
+
+        File index = indexFile(full);
+        File temp = new File(index.getParentFile(), index.getName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Map the index file of a full segment
+     * @return false if it is missing or does not belong to the segment
+     */
+    private boolean mapIndex(Segment full) {
+        File index = indexFile(full);
+        if (!index.exists()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(index.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < INDEX_HEADER_SIZE) {
+                return false;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int count = mapped.getInt(8);
+            if (mapped.getInt(0) != INDEX_MAGIC || mapped.getInt(4) > FORMAT_VERSION
+                    || channel.size() != INDEX_HEADER_SIZE + (long) count * POSTING_SIZE) {
+                return false;
+            }
+            synchronized (this) {
+                full.index = mapped;
+                full.count = count;
+                full.minTime = mapped.getLong(12);
+                full.maxTime = mapped.getLong(20);
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static File indexFile(Segment target) {
+        return new File(target.file.getParentFile(), String.format("ledger-%016d.idx", target.firstId));
+    }
+
+    /**
+     * Segments are in id order, so the cursor position is the id alone
+     */
+    @Override
+    public List<LedgerEntry> query(UUID account, HistoryFilter filter, long beforeTime, long beforeId, int limit) throws IOException {
+        List<Hit> hits = new ArrayList<>(limit);
+        synchronized (this) {
+            NavigableMap<Long, Segment> candidates = segments.headMap(beforeId, false).descendingMap();
+            for (Segment candidate : candidates.values()) {
+                if (candidate.maxTime < filter.getFrom() || candidate.minTime > filter.getTo()) {
+                    continue;
+                }
+                candidate.collect(account, filter, beforeId, limit - hits.size(), hits);
+                if (hits.size() >= limit) {
+                    break;
+                }
+            }
+        }
+
+        // Records are read outside the lock, written ones never change
+        List<LedgerEntry> entries = new ArrayList<>(hits.size());
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        for (Hit hit : hits) {
+            LedgerEntry entry = read(hit, record);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public LedgerEntry oldest(UUID account, HistoryFilter filter) throws IOException {
+        Hit hit = null;
+        synchronized (this) {
+            for (Segment candidate : segments.values()) {
+                if (candidate.maxTime < filter.getFrom() || candidate.minTime > filter.getTo()) {
+                    continue;
+                }
+                int record = candidate.first(account, filter);
+                if (record >= 0) {
+                    hit = new Hit(candidate, record);
+                    break;
+                }
+            }
+        }
+        return hit != null ? read(hit, ByteBuffer.allocate(RECORD_SIZE)) : null;
+    }
+
+    /**
+     * Read the record of a hit, null if it is damaged
+     */
+    private static LedgerEntry read(Hit hit, ByteBuffer record) throws IOException {
+        record.clear();
+        FileChannel reader = hit.segment.reader();
+        long position = HEADER_SIZE + (long) hit.record * RECORD_SIZE;
+        while (record.hasRemaining() && reader.read(record, position + record.position()) >= 0) {
+            // Keep reading until the record is complete
+        }
+        if (record.hasRemaining() || !isValid(record.array())) {
+            return null;
+        }
+        return decode(record);
+    }
+
+    private static LedgerEntry decode(ByteBuffer record) {
+        CurrencyType currency = CurrencyType.fromStorageId(record.get(36));
+        if (currency == null) {
+            return null;
+        }
+        return new LedgerEntry(
+                record.getLong(4),
+                record.getLong(12),
+                new UUID(record.getLong(20), record.getLong(28)),
+                currency,
+                TransactionSource.fromStorageId(record.get(37)),
+                getUUID(record, 38),
+                getUUID(record, 54),
+                record.getDouble(70),
+                record.getDouble(78),
+                record.getDouble(86));
+    }
+
+    private static UUID getUUID(ByteBuffer record, int offset) {
+        long most = record.getLong(offset);
+        long least = record.getLong(offset + 8);
+        return most == 0L && least == 0L ? null : new UUID(most, least);
+    }
+
+    @Override
+    public void close() {
+        List<Segment> all;
+        synchronized (this) {
+            all = new ArrayList<>(segments.values());
+        }
+        for (Segment closing : all) {
+            closing.closeReader();
+        }
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.close();
+        } catch (IOException ignored) {
+            // Every batch was forced
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "SEGMENTS";
+    }
+
+    /**
+     * A record of a segment that belongs on the page
+     */
+    private static final class Hit {
+        private final Segment segment;
+        private final int record;
+
+        private Hit(Segment segment, int record) {
+            this.segment = segment;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Postings of one account in a segment, in record order
+     */
+    private static final class Postings {
+        private int[] records = new int[8];
+        private long[] times = new long[8];
+        private byte[] currencies = new byte[8];
+        private byte[] sources = new byte[8];
+        private int size;
+
+        private void add(int record, long time, byte currency, byte source) {
+            if (size == records.length) {
+                int capacity = size * 2;
+                records = Arrays.copyOf(records, capacity);
+                times = Arrays.copyOf(times, capacity);
+                currencies = Arrays.copyOf(currencies, capacity);
+                sources = Arrays.copyOf(sources, capacity);
+            }
+            records[size] = record;
+            times[size] = time;
+            currencies[size] = currency;
+            sources[size] = source;
+            size++;
+        }
+    }
+
+    /**
+     * A segment file with its index. Fields are guarded by the sink.
+     */
+    private static final class Segment {
+        private final long firstId;
+        private final File file;
+
+        // While written to, or if its index file could not be written
+        private Map<UUID, Postings> live;
+        private MappedByteBuffer index;
+        private int count;
+        private long minTime = Long.MAX_VALUE;
+        private long maxTime = Long.MIN_VALUE;
+
+        private FileChannel reader;
+
+        private Segment(long firstId, File file) {
+            this.firstId = firstId;
+            this.file = file;
+        }
+
+        private void add(UUID account, int record, long time, byte currency, byte source) {
+            live.computeIfAbsent(account, key -> new Postings()).add(record, time, currency, source);
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+        }
+
+        /**
+         * Add up to max matching records of the account below beforeId, newest first
+         */
+        private void collect(UUID account, HistoryFilter filter, long beforeId, int max, List<Hit> hits) {
+            int found = 0;
+            if (live != null) {
+                Postings postings = live.get(account);
+                if (postings == null) {
+                    return;
+                }
+                for (int i = postings.size - 1; i >= 0 && found < max; i--) {
+                    if (firstId + postings.records[i] < beforeId
+                            && filter.matches(postings.currencies[i], postings.sources[i], postings.times[i])) {
+                        hits.add(new Hit(this, postings.records[i]));
+                        found++;
+                    }
+                }
+                return;
+            }
+
+            ByteBuffer view = index.duplicate();
+            int end = upperBound(view, account);
+            for (int i = end - 1; i >= 0 && found < max; i--) {
+                int offset = INDEX_HEADER_SIZE + i * POSTING_SIZE;
+                if (view.getLong(offset) != account.getMostSignificantBits()
+                        || view.getLong(offset + 8) != account.getLeastSignificantBits()) {
+                    break;
+                }
+                int record = view.getInt(offset + 24);
+                if (firstId + record < beforeId
+                        && filter.matches(view.get(offset + 28), view.get(offset + 29), view.getLong(offset + 16))) {
+                    hits.add(new Hit(this, record));
+                    found++;
+                }
+            }
+        }
+
+        /**
+         * Oldest matching record of the account, or -1
+         */
+        private int first(UUID account, HistoryFilter filter) {
+            if (live != null) {
+                Postings postings = live.get(account);
+                if (postings == null) {
+                    return -1;
+                }
+                for (int i = 0; i < postings.size; i++) {
+                    if (filter.matches(postings.currencies[i], postings.sources[i], postings.times[i])) {
+                        return postings.records[i];
+                    }
+                }
+                return -1;
+            }
+
+            ByteBuffer view = index.duplicate();
+            for (int i = lowerBound(view, account); i < count; i++) {
+                int offset = INDEX_HEADER_SIZE + i * POSTING_SIZE;
+                if (view.getLong(offset) != account.getMostSignificantBits()
+                        || view.getLong(offset + 8) != account.getLeastSignificantBits()) {
+                    break;
+                }
+                if (filter.matches(view.get(offset + 28), view.get(offset + 29), view.getLong(offset + 16))) {
+                    return view.getInt(offset + 24);
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Index of the account's first posting
+         */
+        private int lowerBound(ByteBuffer view, UUID account) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                int offset = INDEX_HEADER_SIZE + middle * POSTING_SIZE;
+                if (ACCOUNT_ORDER.compare(new UUID(view.getLong(offset), view.getLong(offset + 8)), account) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Index of the first posting after the account's postings
+         */
+        private int upperBound(ByteBuffer view, UUID account) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                int offset = INDEX_HEADER_SIZE + middle * POSTING_SIZE;
+                int order = ACCOUNT_ORDER.compare(new UUID(view.getLong(offset), view.getLong(offset + 8)), account);
+                if (order <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private synchronized FileChannel reader() throws IOException {
+            if (reader == null) {
+                reader = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+            return reader;
+        }
+
+        private synchronized void closeReader() {
+            if (reader == null) {
+                return;
+            }
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+                // Only read from
+            }
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package online.demonzdevelopment.dzeconomy.ledger;
+
+import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+import online.demonzdevelopment.dzeconomy.util.UUIDUtil;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Writes the ledger to a ledger table with one batched insert per batch.
+ *
+ * On MySQL the table lives next to the accounts and takes connections
+ * from the storage pool. On SQLite it gets its own database file, so the
+ * ledger never holds the write lock the account writer needs.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public class SqlLedgerSink implements LedgerSink {
+
+    private static final String INSERT_ENTRY =
+            "INSERT INTO ledger (created, uuid, currency_id, source, actor, counterparty, amount, tax, balance) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Keyset: entries after (created, id) of the previous page, served by idx_ledger_history,
+    // with a currency filter by idx_ledger_currency and with a type filter too by idx_ledger_currency_source
+    private static final String SELECT_HISTORY =
+            "SELECT id, created, currency_id, source, actor, counterparty, amount, tax, balance FROM ledger " +
+            "WHERE uuid = ? AND (created < ? OR (created = ? AND id < ?)) AND created >= ? AND created <= ?";
+
+    // The same indexes read the other way round
+    private static final String SELECT_OLDEST =
+            "SELECT id, created, currency_id, source, actor, counterparty, amount, tax, balance FROM ledger " +
+            "WHERE uuid = ? AND created >= ? AND created <= ?";
+
+    private final DataSource dataSource;
+    private final File file;
+    private Connection connection;
+    private Connection readConnection;
+
+    private SqlLedgerSink(DataSource dataSource, File file) {
+        this.dataSource = dataSource;
+        this.file = file;
+    }
+
+    /**
+     * Ledger table in the MySQL storage database
+     */
+    public static SqlLedgerSink mysql(DataSource dataSource) {
+        return new SqlLedgerSink(dataSource, null);
+    }
+
+    /**
+     * Ledger table in a SQLite file of its own
+     */
+    public static SqlLedgerSink sqlite(File file) {
+        return new SqlLedgerSink(null, file);
+    }
+
+    @Override
+    public void open() throws Exception {
+        if (dataSource != null) {
+            try (Connection connection = dataSource.getConnection();
+                 Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS ledger (" +
+                        "id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY," +
+                        "created BIGINT NOT NULL," +
+                        "uuid BINARY(16) NOT NULL," +
+                        "currency_id TINYINT UNSIGNED NOT NULL," +
+                        "source TINYINT UNSIGNED NOT NULL," +
+                        "actor BINARY(16)," +
+                        "counterparty BINARY(16)," +
+                        "amount DOUBLE NOT NULL," +
+                        "tax DOUBLE NOT NULL," +
+                        "balance DOUBLE NOT NULL," +
+                        "INDEX idx_ledger_history (uuid, created, id)," +
+                        "INDEX idx_ledger_currency (uuid, currency_id, created, id)," +
+                        "INDEX idx_ledger_currency_source (uuid, currency_id, source, created, id)" +
+                        ") ENGINE=InnoDB");
+                upgradeIndexes(connection, stmt);
+            }
+            return;
+        }
+
+        file.getParentFile().mkdirs();
+        Class.forName("org.sqlite.JDBC");
+        connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA journal_mode=WAL");
+            stmt.execute("PRAGMA synchronous=NORMAL");
+            stmt.execute("PRAGMA busy_timeout=5000");
+            stmt.execute("CREATE TABLE IF NOT EXISTS ledger (" +
+                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "created INTEGER NOT NULL," +
+                    "uuid BLOB NOT NULL," +
+                    "currency_id INTEGER NOT NULL," +
+                    "source INTEGER NOT NULL," +
+                    "actor BLOB," +
+                    "counterparty BLOB," +
+                    "amount REAL NOT NULL," +
+                    "tax REAL NOT NULL," +
+                    "balance REAL NOT NULL" +
+                    ")");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_ledger_history ON ledger (uuid, created, id)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_ledger_currency ON ledger (uuid, currency_id, created, id)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_ledger_currency_source ON ledger (uuid, currency_id, source, created, id)");
+            // Replaced by idx_ledger_currency_source, history is filtered by currency
+            stmt.execute("DROP INDEX IF EXISTS idx_ledger_source");
+        }
+        connection.setAutoCommit(false);
+
+        // WAL lets history queries read while the writer holds its lock
+        readConnection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+        try (Statement stmt = readConnection.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout=5000");
+        }
+    }
+
+    /**
+     * Bring the indexes of a ledger table created by an older version up to
+     * date, in one ALTER so the table is rebuilt once
+     */
+    private static void upgradeIndexes(Connection connection, Statement stmt) throws SQLException {
+        Set<String> indexes = new HashSet<>();
+        try (ResultSet rs = connection.getMetaData().getIndexInfo(connection.getCatalog(), null, "ledger", false, false)) {
+            while (rs.next()) {
+                String name = rs.getString("INDEX_NAME");
+                if (name != null) {
+                    indexes.add(name.toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+
+        List<String> changes = new ArrayList<>();
+        if (!indexes.contains("idx_ledger_currency")) {
+            changes.add("ADD INDEX idx_ledger_currency (uuid, currency_id, created, id)");
+        }
+        if (!indexes.contains("idx_ledger_currency_source")) {
+            changes.add("ADD INDEX idx_ledger_currency_source (uuid, currency_id, source, created, id)");
+        }
+        if (indexes.contains("idx_ledger_source")) {
+            changes.add("DROP INDEX idx_ledger_source");
+        }
+        if (!changes.isEmpty()) {
+            stmt.execute("ALTER TABLE ledger " + String.join(", ", changes));
+        }
+    }
+
+    @Override
+    public void write(List<LedgerEntry> batch) throws SQLException {
+        if (dataSource == null) {
+            insert(connection, batch);
+            return;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                insert(connection, batch);
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private void insert(Connection connection, List<LedgerEntry> batch) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(INSERT_ENTRY)) {
+            for (LedgerEntry entry : batch) {
+                stmt.setLong(1, entry.getTimestamp());
+                stmt.setBytes(2, UUIDUtil.toBytes(entry.getAccount()));
+                stmt.setInt(3, entry.getCurrency().getStorageId());
+                stmt.setInt(4, entry.getSource().getStorageId());
+                setUUID(stmt, 5, entry.getActor());
+                setUUID(stmt, 6, entry.getCounterparty());
+                stmt.setDouble(7, entry.getAmount());
+                stmt.setDouble(8, entry.getTax());
+                stmt.setDouble(9, entry.getBalance());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+
+    @Override
+    public List<LedgerEntry> query(UUID account, HistoryFilter filter, long beforeTime, long beforeId, int limit) throws SQLException {
+        String sql = SELECT_HISTORY + filterClause(filter) + " ORDER BY created DESC, id DESC LIMIT ?";
+        return select(sql, account, filter, true, beforeTime, beforeId, limit);
+    }
+
+    @Override
+    public LedgerEntry oldest(UUID account, HistoryFilter filter) throws SQLException {
+        String sql = SELECT_OLDEST + filterClause(filter) + " ORDER BY created ASC, id ASC LIMIT ?";
+        List<LedgerEntry> entries = select(sql, account, filter, false, 0L, 0L, 1);
+        return entries.isEmpty() ? null : entries.get(0);
+    }
+
+    private static String filterClause(HistoryFilter filter) {
+        StringBuilder sql = new StringBuilder();
+        if (filter.getCurrency() != null) {
+            sql.append(" AND currency_id = ?");
+        }
+        if (filter.getSource() != null) {
+            sql.append(" AND source = ?");
+        }
+        return sql.toString();
+    }
+
+    private List<LedgerEntry> select(String sql, UUID account, HistoryFilter filter, boolean keyset,
+                                     long beforeTime, long beforeId, int limit) throws SQLException {
+        if (dataSource == null) {
+            synchronized (readConnection) {
+                return select(readConnection, sql, account, filter, keyset, beforeTime, beforeId, limit);
+            }
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            return select(connection, sql, account, filter, keyset, beforeTime, beforeId, limit);
+        }
+    }
+
+    private List<LedgerEntry> select(Connection connection, String sql, UUID account, HistoryFilter filter, boolean keyset,
+                                     long beforeTime, long beforeId, int limit) throws SQLException {
+        List<LedgerEntry> entries = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            int index = 1;
+            stmt.setBytes(index++, UUIDUtil.toBytes(account));
+            if (keyset) {
+                stmt.setLong(index++, beforeTime);
+                stmt.setLong(index++, beforeTime);
+                stmt.setLong(index++, beforeId);
+            }
+            stmt.setLong(index++, filter.getFrom());
+            stmt.setLong(index++, filter.getTo());
+            if (filter.getCurrency() != null) {
+                stmt.setInt(index++, filter.getCurrency().getStorageId());
+            }
+            if (filter.getSource() != null) {
+                stmt.setInt(index++, filter.getSource().getStorageId());
+            }
+            stmt.setInt(index, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    CurrencyType currency = CurrencyType.fromStorageId(rs.getInt("currency_id"));
+                    if (currency == null) {
+                        continue;
+                    }
+                    entries.add(new LedgerEntry(
+                            rs.getLong("id"),
+                            rs.getLong("created"),
+                            account,
+                            currency,
+                            TransactionSource.fromStorageId(rs.getInt("source")),
+                            getUUID(rs, "actor"),
+                            getUUID(rs, "counterparty"),
+                            rs.getDouble("amount"),
+                            rs.getDouble("tax"),
+                            rs.getDouble("balance")));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static UUID getUUID(ResultSet rs, String column) throws SQLException {
+        byte[] bytes = rs.getBytes(column);
+        return bytes != null ? UUIDUtil.fromBytes(bytes) : null;
+    }
+
+    private static void setUUID(PreparedStatement stmt, int index, UUID uuid) throws SQLException {
+        if (uuid == null) {
+            stmt.setNull(index, Types.BINARY);
+        } else {
+            stmt.setBytes(index, UUIDUtil.toBytes(uuid));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+            readConnection.close();
+        } catch (SQLException ignored) {
+            // Every batch was committed
+        }
+    }
+
+    @Override
+    public String getName() {
+        return dataSource != null ? "MYSQL" : "SQLITE";
+    }
+}
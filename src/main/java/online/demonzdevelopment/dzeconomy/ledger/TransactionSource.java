@@ -0,0 +1,39 @@
+package online.demonzdevelopment.dzeconomy.ledger;
+
+/**
+ * What caused a balance change recorded in the ledger
+ */
+public enum TransactionSource {
+    MOB_KILL(1),
+    PLAYER_KILL(2),
+    SEND(3),
+    REQUEST(4),
+    CONVERSION(5),
+    ADMIN(6),
+    API(7),
+    OTHER(8);
+
+    // Stable numeric id used as key in storage, never reuse or renumber
+    private final int storageId;
+
+    TransactionSource(int storageId) {
+        this.storageId = storageId;
+    }
+
+    public int getStorageId() {
+        return storageId;
+    }
+
+    /**
+     * Get transaction source from its storage id, OTHER if unknown
+     */
+    public static TransactionSource fromStorageId(int storageId) {
+        for (TransactionSource source : values()) {
+            if (source.storageId == storageId) {
+                return source;
+            }
+        }
+
+        return OTHER;
+    }
+}
@@ -2,6 +2,7 @@ package online.demonzdevelopment.dzeconomy.listener;
 
 import online.demonzdevelopment.dzeconomy.DZEconomy;
 import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+import online.demonzdevelopment.dzeconomy.ledger.TransactionSource;
 import online.demonzdevelopment.dzeconomy.rank.Rank;
 import online.demonzdevelopment.dzeconomy.util.ColorUtil;
 import online.demonzdevelopment.dzeconomy.util.MessagesUtil;
@@ -73,7 +74,8 @@ public class EntityDeathListener implements Listener {
         }
         
         // Add MobCoins to player
-        plugin.getCurrencyManager().addBalance(killer.getUniqueId(), CurrencyType.MOBCOIN, finalReward);
+        plugin.getCurrencyManager().addBalance(killer.getUniqueId(), CurrencyType.MOBCOIN, finalReward,
+                TransactionSource.MOB_KILL, killer.getUniqueId(), null);
         
         // Send notification
         String mobName = formatMobName(entityType);
@@ -2,6 +2,9 @@ package online.demonzdevelopment.dzeconomy.listener;
 
 import online.demonzdevelopment.dzeconomy.DZEconomy;
 import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+import online.demonzdevelopment.dzeconomy.currency.Money;
+import online.demonzdevelopment.dzeconomy.ledger.TransactionSource;
+import online.demonzdevelopment.dzeconomy.manager.CurrencyManager;
 import online.demonzdevelopment.dzeconomy.util.ColorUtil;
 import online.demonzdevelopment.dzeconomy.util.MessagesUtil;
 import online.demonzdevelopment.dzeconomy.util.NumberFormatter;
@@ -19,6 +22,9 @@ import java.util.Map;
  */
 public class PlayerDeathListener implements Listener {
     
+    // A balance that keeps changing under the transfer is left after this many tries
+    private static final int MAX_TRANSFER_ATTEMPTS = 3;
+    
     private final DZEconomy plugin;
     private final MessagesUtil messageUtil;
     
@@ -57,25 +63,17 @@ public class PlayerDeathListener implements Listener {
         boolean transferMobcoins = plugin.getConfigManager().getConfig().getBoolean("pvp-economy.transfer-mobcoins", true);
         boolean transferGems = plugin.getConfigManager().getConfig().getBoolean("pvp-economy.transfer-gems", true);
         
-        if (transferMoney && victimMoney > 0) {
-            plugin.getCurrencyManager().setBalance(victim.getUniqueId(), CurrencyType.MONEY, 0);
-            plugin.getCurrencyManager().addBalance(killer.getUniqueId(), CurrencyType.MONEY, victimMoney);
+        // One transfer per currency, each moves the whole balance as it is by then
+        if (transferMoney) {
+            victimMoney = transferAll(victim, killer, CurrencyType.MONEY, victimMoney);
         }
-        
-        if (transferMobcoins && victimMobcoin > 0) {
-            plugin.getCurrencyManager().setBalance(victim.getUniqueId(), CurrencyType.MOBCOIN, 0);
-            plugin.getCurrencyManager().addBalance(killer.getUniqueId(), CurrencyType.MOBCOIN, victimMobcoin);
+        if (transferMobcoins) {
+            victimMobcoin = transferAll(victim, killer, CurrencyType.MOBCOIN, victimMobcoin);
         }
-        
-        if (transferGems && victimGem > 0) {
-            plugin.getCurrencyManager().setBalance(victim.getUniqueId(), CurrencyType.GEM, 0);
-            plugin.getCurrencyManager().addBalance(killer.getUniqueId(), CurrencyType.GEM, victimGem);
+        if (transferGems) {
+            victimGem = transferAll(victim, killer, CurrencyType.GEM, victimGem);
         }
         
-        // Save data
-        plugin.getCurrencyManager().savePlayerDataAsync(victim.getUniqueId());
-        plugin.getCurrencyManager().savePlayerDataAsync(killer.getUniqueId());
-        
         // Get currency symbols
         String moneySymbol = plugin.getCurrencyManager().getCurrencySymbol(CurrencyType.MONEY);
         String mobcoinSymbol = plugin.getCurrencyManager().getCurrencySymbol(CurrencyType.MOBCOIN);
@@ -117,6 +115,29 @@ public class PlayerDeathListener implements Listener {
         }
     }
     
+    /**
+     * Move a victim's whole balance to the killer. Transfers are all or
+     * nothing, so if the balance changed since it was read the transfer is
+     * repeated with the balance as it is now.
+     * @return amount moved
+     */
+    private double transferAll(Player victim, Player killer, CurrencyType currency, double balance) {
+        long remaining = Money.toUnits(currency, balance);
+        long moved = 0;
+        for (int attempt = 0; attempt < MAX_TRANSFER_ATTEMPTS && remaining > 0; attempt++) {
+            CurrencyManager.TransferResult result = plugin.getCurrencyManager().transferUnits(victim.getUniqueId(),
+                    killer.getUniqueId(), currency, remaining, 0L, TransactionSource.PLAYER_KILL, killer.getUniqueId());
+            if (result.isSuccess()) {
+                moved += remaining;
+            } else if (result.getStatus() != CurrencyManager.TransferResult.Status.INSUFFICIENT_FUNDS) {
+                break;
+            }
+            // What is left after the transfer, or the balance that was too low for it
+            remaining = result.getBalanceUnits();
+        }
+        return Money.toAmount(currency, moved);
+    }
+    
     /**
      * Send a message with placeholders
      */
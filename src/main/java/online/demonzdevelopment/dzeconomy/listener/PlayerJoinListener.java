@@ -2,6 +2,8 @@ package online.demonzdevelopment.dzeconomy.listener;
 
 import online.demonzdevelopment.dzeconomy.DZEconomy;
 import online.demonzdevelopment.dzeconomy.data.PlayerData;
+import online.demonzdevelopment.dzeconomy.manager.CurrencyManager;
+import online.demonzdevelopment.dzeconomy.storage.StorageException;
 import online.demonzdevelopment.dzeconomy.util.ColorUtil;
 import online.demonzdevelopment.dzeconomy.util.MessagesUtil;
 import org.bukkit.Bukkit;
@@ -9,12 +11,13 @@ import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 
 import java.util.Map;
 
 /**
- * Handles player join events
+ * Handles player login and join events
  */
 public class PlayerJoinListener implements Listener {
     
@@ -26,6 +29,35 @@ public class PlayerJoinListener implements Listener {
         this.messageUtil = new MessagesUtil(plugin);
     }
     
+    /**
+     * Load the account while the login is still off the main thread,
+     * refusing the login if storage fails or does not answer in time
+     */
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onAsyncPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+        
+        try {
+            plugin.getCurrencyManager().preloadPlayerData(event.getUniqueId());
+        } catch (StorageException e) {
+            plugin.getLogger().severe("Could not load account of " + event.getName() + ": " + e.getMessage());
+            event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER, 
+                messageUtil.getMessage("login.storage-unavailable", null));
+        }
+    }
+    
+    /**
+     * Forget the preloaded account if the login was denied after we loaded it
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPreLoginResult(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            plugin.getCurrencyManager().discardPreloadedData(event.getUniqueId());
+        }
+    }
+    
     @EventHandler(priority = EventPriority.MONITOR)
     public void onPlayerJoin(PlayerJoinEvent event) {
         Player player = event.getPlayer();
@@ -47,16 +79,16 @@ public class PlayerJoinListener implements Listener {
             }
         }
         
-        // Load player data
-        PlayerData data = plugin.getCurrencyManager().loadPlayerData(player.getUniqueId());
+        // Attach the account loaded during pre-login
+        CurrencyManager.PreloadedAccount account = plugin.getCurrencyManager().attachPlayerData(player.getUniqueId());
+        PlayerData data = account.getData();
         
         // Update username
         data.setUsername(player.getName());
         data.setLastSeen(System.currentTimeMillis());
         
         // Check if new player
-        boolean isNewPlayer = !plugin.getStorageProvider().playerDataExists(player.getUniqueId()) || 
-                             data.getFirstJoin() == 0;
+        boolean isNewPlayer = account.isNewPlayer() || data.getFirstJoin() == 0;
         
         if (isNewPlayer) {
             data.setFirstJoin(System.currentTimeMillis());
@@ -3,8 +3,18 @@ package online.demonzdevelopment.dzeconomy.manager;
 import online.demonzdevelopment.dzeconomy.DZEconomy;
 import online.demonzdevelopment.dzeconomy.cache.BalanceCache;
 import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+import online.demonzdevelopment.dzeconomy.currency.Money;
 import online.demonzdevelopment.dzeconomy.data.PlayerData;
 import online.demonzdevelopment.dzeconomy.data.CurrencyRequest;
+import online.demonzdevelopment.dzeconomy.data.PlayerDataCodec;
+import online.demonzdevelopment.dzeconomy.data.StoredState;
+import online.demonzdevelopment.dzeconomy.ledger.Ledger;
+import online.demonzdevelopment.dzeconomy.ledger.TransactionSource;
+import online.demonzdevelopment.dzeconomy.storage.AsyncStorage;
+import online.demonzdevelopment.dzeconomy.storage.StorageException;
+import online.demonzdevelopment.dzeconomy.storage.WriteBehindQueue;
+import online.demonzdevelopment.dzeconomy.sync.SyncBus;
+import online.demonzdevelopment.dzeconomy.sync.SyncMessage;
 import online.demonzdevelopment.dzeconomy.util.NumberFormatter;
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
@@ -12,7 +22,7 @@ import org.bukkit.entity.Player;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Manages all currency operations including balances, transfers, and requests
@@ -27,12 +37,32 @@ public class CurrencyManager {
     private final Map<UUID, PlayerData> playerDataCache;
     private final Map<UUID, List<CurrencyRequest>> pendingRequests;
     private final BalanceCache balanceCache;
+    private final WriteBehindQueue saveQueue;
+    
+    // Accounts loaded during pre-login, waiting for the player to join
+    private static final long PENDING_LOAD_EXPIRY = 60000L;
+    private final Map<UUID, PreloadedAccount> pendingLoads;
+    
+    // Balance changes hold the lock of their account's stripe, transfers both
+    private static final int LOCK_STRIPES = 256;
+    private final ReentrantLock[] accountLocks;
+    
+    // Saves whose outcome is unknown, written again under their save id until storage answers
+    private static final long SAVE_RETRY_TICKS = 100L;
+    private final Map<PlayerData, PlayerData> uncertainSaves;
     
     public CurrencyManager(DZEconomy plugin) {
         this.plugin = plugin;
         this.playerDataCache = new ConcurrentHashMap<>();
         this.pendingRequests = new ConcurrentHashMap<>();
         this.balanceCache = new BalanceCache();
+        this.saveQueue = new WriteBehindQueue(plugin, this::savePlayers);
+        this.pendingLoads = new ConcurrentHashMap<>();
+        this.uncertainSaves = new ConcurrentHashMap<>();
+        this.accountLocks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            accountLocks[i] = new ReentrantLock();
+        }
     }
     
     /**
@@ -40,21 +70,88 @@ public class CurrencyManager {
      */
     public PlayerData loadPlayerData(UUID uuid) {
         // Check cache first
-        if (playerDataCache.containsKey(uuid)) {
-            return playerDataCache.get(uuid);
+        PlayerData cached = playerDataCache.get(uuid);
+        if (cached != null) {
+            return cached;
         }
         
         // Load from storage
         PlayerData data = plugin.getStorageProvider().loadPlayerData(uuid);
         
-        // If no data exists, create new
+        // If no data exists, create new (left dirty so it gets saved)
         if (data == null) {
             data = createNewPlayerData(uuid);
+        } else {
+            data.clearDirty();
         }
         
-        // Cache and return
-        playerDataCache.put(uuid, data);
-        return data;
+        // Cache and return. Another thread may have loaded the account in the
+        // meantime, its instance wins so changes and locks stay on one copy
+        PlayerData existing = playerDataCache.putIfAbsent(uuid, data);
+        return existing != null ? existing : data;
+    }
+    
+    /**
+     * Load an account ahead of the join, off the main thread.
+     * Blocks the calling (pre-login) thread for at most storage.login.timeout.
+     * @throws StorageException if storage failed or did not answer in time
+     */
+    public PreloadedAccount preloadPlayerData(UUID uuid) {
+        purgeExpiredLoads();
+        
+        // Already cached, e.g. looked up by a command while the player was offline
+        PlayerData cached = playerDataCache.get(uuid);
+        if (cached != null) {
+            PreloadedAccount account = new PreloadedAccount(cached, false);
+            pendingLoads.put(uuid, account);
+            return account;
+        }
+        
+        long timeout = plugin.getConfigManager().getConfig().getLong("storage.login.timeout", 5000L);
+        PlayerData data = AsyncStorage.join(plugin.getAsyncStorage().loadAsync(uuid, timeout));
+        
+        PreloadedAccount account;
+        if (data == null) {
+            account = new PreloadedAccount(createNewPlayerData(uuid), true);
+        } else {
+            data.clearDirty();
+            account = new PreloadedAccount(data, false);
+        }
+        
+        pendingLoads.put(uuid, account);
+        return account;
+    }
+    
+    /**
+     * Move a preloaded account into the cache when the player joins.
+     * Falls back to a synchronous load if the pre-login load is missing,
+     * e.g. for players who joined while the plugin was being enabled.
+     */
+    public PreloadedAccount attachPlayerData(UUID uuid) {
+        PreloadedAccount account = pendingLoads.remove(uuid);
+        if (account == null) {
+            boolean exists = playerDataCache.containsKey(uuid) || plugin.getStorageProvider().playerDataExists(uuid);
+            return new PreloadedAccount(loadPlayerData(uuid), !exists);
+        }
+        
+        PlayerData existing = playerDataCache.putIfAbsent(uuid, account.getData());
+        if (existing != null && existing != account.getData()) {
+            // Something loaded the player in between, keep the live instance
+            return new PreloadedAccount(existing, false);
+        }
+        return account;
+    }
+    
+    /**
+     * Drop a preloaded account whose login was denied later on
+     */
+    public void discardPreloadedData(UUID uuid) {
+        pendingLoads.remove(uuid);
+    }
+    
+    private void purgeExpiredLoads() {
+        long cutoff = System.currentTimeMillis() - PENDING_LOAD_EXPIRY;
+        pendingLoads.values().removeIf(account -> account.getLoadedAt() < cutoff);
     }
     
     /**
@@ -78,38 +175,341 @@ public class CurrencyManager {
     }
     
     /**
-     * Save player data to storage
+     * Save player data to storage if it changed since the last save
+     * @return false if the save failed
      */
-    public void savePlayerData(UUID uuid) {
+    public boolean savePlayerData(UUID uuid) {
         PlayerData data = playerDataCache.get(uuid);
-        if (data != null) {
-            plugin.getStorageProvider().savePlayerData(data);
+        if (data == null || !data.isDirty()) {
+            return true;
         }
+        return persist(data);
     }
     
     /**
-     * Save player data asynchronously using CompletableFuture
+     * Write a snapshot of the data, restoring its dirty flags if the write fails
+     */
+    private boolean persist(PlayerData data) {
+        PlayerData snapshot = data.snapshotForSave();
+        try {
+            boolean saved;
+            try {
+                saved = plugin.getStorageProvider().savePlayerData(snapshot);
+            } catch (RuntimeException e) {
+                restoreFailedSave(data, snapshot);
+                throw e;
+            }
+            
+            if (saved) {
+                acknowledgeSaved(data, snapshot);
+                return true;
+            }
+            
+            restoreFailedSave(data, snapshot);
+            return false;
+        } finally {
+            data.endSave();
+        }
+    }
+    
+    /**
+     * Keep the changes of a save that failed. If storage applies changes to
+     * what it holds and already tried to write the snapshot, the write may
+     * have committed unnoticed: the same snapshot is then written again
+     * under its save id, which storage skips if it was applied, instead of
+     * adding its changes to the next save a second time.
+     */
+    private void restoreFailedSave(PlayerData data, PlayerData snapshot) {
+        if (snapshot.getSaveId() == 0 || !plugin.getStorageProvider().appliesChanges()) {
+            data.markDirty(snapshot.getChanges());
+            return;
+        }
+        
+        data.beginSave();
+        uncertainSaves.put(snapshot, data);
+        repeatSave(data, snapshot);
+    }
+    
+    private void repeatSave(PlayerData data, PlayerData snapshot) {
+        if (!plugin.isEnabled()) {
+            // Written by shutdown()
+            return;
+        }
+        Bukkit.getScheduler().runTaskLaterAsynchronously(plugin, () -> {
+            // Without a timeout, so the outcome of the repeat is known
+            plugin.getAsyncStorage().saveAsync(snapshot, 0L).whenComplete((saved, error) -> {
+                if (error == null && saved) {
+                    uncertainSaves.remove(snapshot);
+                    try {
+                        acknowledgeSaved(data, snapshot);
+                    } finally {
+                        data.endSave();
+                    }
+                } else {
+                    repeatSave(data, snapshot);
+                }
+            });
+        }, SAVE_RETRY_TICKS);
+    }
+    
+    /**
+     * {@link #acknowledge} for a save that was written. If the live data cannot
+     * take the stored outcome over, it is reloaded: marking the changes dirty
+     * again would write them a second time.
+     */
+    private void acknowledgeSaved(PlayerData data, PlayerData snapshot) {
+        try {
+            acknowledge(data, snapshot);
+        } catch (RuntimeException e) {
+            plugin.getLogger().severe("Failed to take over the saved data of " + data.getUUID() + ", reloading it: " + e.getMessage());
+            balanceCache.invalidateAll(data.getUUID());
+            reload(data);
+        }
+    }
+    
+    /**
+     * Pick up changes another server made to the account, if storage had to merge the save
+     */
+    private void acknowledge(PlayerData data, PlayerData snapshot) {
+        if (data.acknowledge(snapshot)) {
+            balanceCache.invalidateAll(data.getUUID());
+        }
+        
+        SyncBus syncBus = plugin.getSyncBus();
+        if (syncBus != null) {
+            syncBus.publishSaved(snapshot);
+        }
+    }
+    
+    /**
+     * A save that storage had to hold back during an outage was written:
+     * the live data takes over what storage now holds for the account
+     */
+    public void acknowledgeReplayed(PlayerData replayed) {
+        UUID uuid = replayed.getUUID();
+        PlayerData data = playerDataCache.get(uuid);
+        PreloadedAccount preloaded = pendingLoads.get(uuid);
+        if (data == null && preloaded != null) {
+            data = preloaded.getData();
+        }
+        
+        if (data == null) {
+            SyncBus syncBus = plugin.getSyncBus();
+            if (syncBus != null) {
+                syncBus.publishSaved(replayed);
+            }
+            return;
+        }
+        
+        StoredState stored = replayed.getStoredState();
+        if (stored.getValues() != null) {
+            data.markStored(stored.getVersion(), stored.getValues());
+        }
+        acknowledge(data, replayed);
+        balanceCache.invalidateAll(uuid);
+    }
+    
+    /**
+     * Take over a change another server committed. Runs on the main thread.
+     */
+    public void applyRemoteChange(SyncMessage message) {
+        UUID uuid = message.getUUID();
+        balanceCache.invalidateAll(uuid);
+        if (plugin.getPlaceholderExpansion() != null) {
+            plugin.getPlaceholderExpansion().invalidate(uuid);
+        }
+        
+        // Also a player who is switching to this server right now
+        PlayerData data = playerDataCache.get(uuid);
+        PreloadedAccount preloaded = pendingLoads.get(uuid);
+        if (data == null && preloaded != null) {
+            data = preloaded.getData();
+        }
+        if (data == null) {
+            return;
+        }
+        
+        switch (message.getKind()) {
+            case SyncMessage.DELTA:
+                ReentrantLock lock = accountLocks[stripe(uuid)];
+                lock.lock();
+                try {
+                    data.refresh(message.getVersion(), message.getSections());
+                } catch (IllegalArgumentException e) {
+                    plugin.getLogger().warning("Ignoring sync update of " + uuid + ": " + e.getMessage());
+                } finally {
+                    lock.unlock();
+                }
+                break;
+            case SyncMessage.INVALIDATE:
+                if (data.isDirty()) {
+                    // The next save merges with the stored account
+                    break;
+                }
+                if (Bukkit.getPlayer(uuid) == null && preloaded == null) {
+                    playerDataCache.remove(uuid, data);
+                    break;
+                }
+                reload(data);
+                break;
+            default:
+                break;
+        }
+    }
+    
+    /**
+     * Replace live data with what storage holds, unless it changes in the meantime
+     */
+    private void reload(PlayerData data) {
+        plugin.getAsyncStorage().loadAsync(data.getUUID()).whenComplete((loaded, error) -> {
+            if (error != null || loaded == null) {
+                return;
+            }
+            byte[] encoded = PlayerDataCodec.encode(loaded);
+            long version = loaded.getStoredState().getVersion();
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                if (data.refresh(-1L, encoded) && version >= 0) {
+                    data.markStored(version);
+                }
+                balanceCache.invalidateAll(data.getUUID());
+            });
+        });
+    }
+    
+    /**
+     * Queue player data for a coalesced write-behind save
      */
     public void savePlayerDataAsync(UUID uuid) {
-        CompletableFuture.runAsync(() -> savePlayerData(uuid));
+        saveQueue.markDirty(uuid);
+    }
+    
+    /**
+     * Save all cached player data that changed since it was last saved
+     * @return number of players written
+     */
+    public int saveAllPlayers() {
+        List<PlayerData> dirty = new ArrayList<>();
+        for (PlayerData data : playerDataCache.values()) {
+            if (data.isDirty()) {
+                dirty.add(data);
+            }
+        }
+        return dirty.size() - persistAll(dirty).size();
     }
     
     /**
-     * Save all cached player data
+     * Save the given cached players in a single batch
+     * @return UUIDs of the players that could not be saved
      */
-    public void saveAllPlayers() {
-        for (UUID uuid : playerDataCache.keySet()) {
-            savePlayerData(uuid);
+    public Set<UUID> savePlayers(Collection<UUID> uuids) {
+        List<PlayerData> dirty = new ArrayList<>();
+        for (UUID uuid : uuids) {
+            PlayerData data = playerDataCache.get(uuid);
+            if (data != null && data.isDirty()) {
+                dirty.add(data);
+            }
         }
+        return persistAll(dirty);
+    }
+    
+    /**
+     * Batch version of {@link #persist(PlayerData)}
+     */
+    private Set<UUID> persistAll(List<PlayerData> players) {
+        if (players.isEmpty()) {
+            return Collections.emptySet();
+        }
+        
+        Map<UUID, PlayerData> snapshots = new HashMap<>();
+        for (PlayerData data : players) {
+            snapshots.put(data.getUUID(), data.snapshotForSave());
+        }
+        
+        Set<UUID> failed;
+        try {
+            failed = plugin.getStorageProvider().saveAll(snapshots.values());
+        } catch (RuntimeException e) {
+            plugin.getLogger().severe("Failed to save " + players.size() + " players: " + e.getMessage());
+            failed = new HashSet<>(snapshots.keySet());
+        }
+        
+        for (PlayerData data : players) {
+            PlayerData snapshot = snapshots.get(data.getUUID());
+            try {
+                if (failed.contains(data.getUUID())) {
+                    restoreFailedSave(data, snapshot);
+                } else {
+                    acknowledgeSaved(data, snapshot);
+                }
+            } finally {
+                data.endSave();
+            }
+        }
+        return failed;
     }
     
     /**
      * Unload player data from cache (with cache invalidation)
      */
     public void unloadPlayerData(UUID uuid) {
-        savePlayerData(uuid);
-        playerDataCache.remove(uuid);
+        // The final save below supersedes any queued one
+        saveQueue.cancel(uuid);
+        PlayerData data = playerDataCache.remove(uuid);
         balanceCache.invalidateAll(uuid);
+        
+        if (data == null) {
+            return;
+        }
+        
+        // A fast relog may have preloaded the account before this save, hand it the live data
+        pendingLoads.computeIfPresent(uuid, (key, account) -> new PreloadedAccount(data, false));
+        
+        if (!data.isDirty()) {
+            return;
+        }
+        
+        // Saved off the main thread; a relog load for this player is ordered after it.
+        // Storage that applies changes is not timed out, a save it may still commit is no failure.
+        PlayerData snapshot = data.snapshotForSave();
+        long timeout = plugin.getStorageProvider().appliesChanges() ? 0L : plugin.getAsyncStorage().getWriteTimeout();
+        plugin.getAsyncStorage().saveAsync(snapshot, timeout).whenComplete((saved, error) -> {
+            if (error == null && saved) {
+                // Still live if the player already relogged
+                try {
+                    acknowledgeSaved(data, snapshot);
+                } finally {
+                    data.endSave();
+                }
+                return;
+            }
+            
+            plugin.getLogger().severe("Failed to save player data of " + uuid + " on quit"
+                    + (error != null ? ": " + error.getMessage() : ""));
+            
+            // Keep the changes in memory so the write-behind queue retries them
+            restoreFailedSave(data, snapshot);
+            data.endSave();
+            playerDataCache.putIfAbsent(uuid, data);
+            savePlayerDataAsync(uuid);
+        });
+    }
+    
+    /**
+     * Flush the write-behind queue and save all cached player data
+     */
+    public void shutdown() {
+        pendingLoads.clear();
+        saveQueue.shutdown();
+        saveAllPlayers();
+        
+        if (!uncertainSaves.isEmpty()) {
+            List<PlayerData> snapshots = new ArrayList<>(uncertainSaves.keySet());
+            Set<UUID> failed = plugin.getStorageProvider().saveAll(snapshots);
+            if (!failed.isEmpty()) {
+                plugin.getLogger().severe(failed.size() + " save(s) whose outcome is unknown could not be written again: " + failed);
+            }
+            uncertainSaves.clear();
+        }
     }
     
     /**
@@ -136,32 +536,232 @@ public class CurrencyManager {
      * Set player's balance (with cache invalidation)
      */
     public void setBalance(UUID uuid, CurrencyType currency, double amount) {
+        trySetBalance(uuid, currency, amount, TransactionSource.OTHER, null, null);
+    }
+    
+    /**
+     * Set player's balance, recorded in the ledger with its cause
+     */
+    public void setBalance(UUID uuid, CurrencyType currency, double amount,
+                           TransactionSource source, UUID actor, UUID counterparty) {
+        trySetBalance(uuid, currency, amount, source, actor, counterparty);
+    }
+    
+    /**
+     * {@link #setBalance(UUID, CurrencyType, double, TransactionSource, UUID, UUID)}
+     * @return false if the amount does not fit in minor units, nothing changed then
+     */
+    public boolean trySetBalance(UUID uuid, CurrencyType currency, double amount,
+                                 TransactionSource source, UUID actor, UUID counterparty) {
+        long units;
+        try {
+            units = Money.toUnits(currency, amount);
+        } catch (ArithmeticException e) {
+            plugin.getLogger().warning("Refused to set the " + currency.getId() + " balance of " + uuid + " to " + amount + ": too large");
+            return false;
+        }
+        
         PlayerData data = loadPlayerData(uuid);
-        data.setBalance(currency, NumberFormatter.truncateDecimal(amount));
-        balanceCache.invalidate(uuid, currency);
+        ReentrantLock lock = accountLocks[stripe(uuid)];
+        lock.lock();
+        try {
+            long balance = data.getBalanceUnits(currency);
+            data.setBalanceUnits(currency, units);
+            record(data, currency, balance, 0L, source, actor, counterparty);
+            balanceCache.invalidate(uuid, currency);
+        } finally {
+            lock.unlock();
+        }
         savePlayerDataAsync(uuid);
+        return true;
     }
     
     /**
      * Add to player's balance (with cache invalidation)
      */
     public void addBalance(UUID uuid, CurrencyType currency, double amount) {
+        tryAddBalance(uuid, currency, amount, TransactionSource.OTHER, null, null);
+    }
+    
+    /**
+     * Add to player's balance, recorded in the ledger with its cause
+     */
+    public void addBalance(UUID uuid, CurrencyType currency, double amount,
+                           TransactionSource source, UUID actor, UUID counterparty) {
+        tryAddBalance(uuid, currency, amount, source, actor, counterparty);
+    }
+    
+    /**
+     * {@link #addBalance(UUID, CurrencyType, double, TransactionSource, UUID, UUID)}
+     * @return false if the balance would overflow, nothing changed then
+     */
+    public boolean tryAddBalance(UUID uuid, CurrencyType currency, double amount,
+                                 TransactionSource source, UUID actor, UUID counterparty) {
         PlayerData data = loadPlayerData(uuid);
-        double newBalance = data.getBalance(currency) + amount;
-        data.setBalance(currency, NumberFormatter.truncateDecimal(newBalance));
-        balanceCache.invalidate(uuid, currency);
+        ReentrantLock lock = accountLocks[stripe(uuid)];
+        lock.lock();
+        try {
+            // Kept as an increment, so delta mode can save it as one
+            credit(data, currency, Money.toUnits(currency, amount), source, actor, counterparty);
+        } catch (ArithmeticException e) {
+            plugin.getLogger().warning("Refused to add " + amount + " " + currency.getId() + " to " + uuid + ": the balance would overflow");
+            return false;
+        } finally {
+            lock.unlock();
+        }
         savePlayerDataAsync(uuid);
+        return true;
     }
     
     /**
      * Remove from player's balance (with cache invalidation)
      */
     public void removeBalance(UUID uuid, CurrencyType currency, double amount) {
+        tryRemoveBalance(uuid, currency, amount, 0.0, TransactionSource.OTHER, null, null);
+    }
+    
+    /**
+     * Remove from player's balance, recorded in the ledger with its cause
+     * @param tax Part of the amount that is tax
+     */
+    public void removeBalance(UUID uuid, CurrencyType currency, double amount, double tax,
+                              TransactionSource source, UUID actor, UUID counterparty) {
+        tryRemoveBalance(uuid, currency, amount, tax, source, actor, counterparty);
+    }
+    
+    /**
+     * {@link #removeBalance(UUID, CurrencyType, double, double, TransactionSource, UUID, UUID)}
+     * @return false if the balance would overflow, nothing changed then
+     */
+    public boolean tryRemoveBalance(UUID uuid, CurrencyType currency, double amount, double tax,
+                                    TransactionSource source, UUID actor, UUID counterparty) {
         PlayerData data = loadPlayerData(uuid);
-        double newBalance = data.getBalance(currency) - amount;
-        data.setBalance(currency, NumberFormatter.truncateDecimal(newBalance));
-        balanceCache.invalidate(uuid, currency);
+        ReentrantLock lock = accountLocks[stripe(uuid)];
+        lock.lock();
+        try {
+            debit(data, currency, Money.toUnits(currency, amount), Money.toUnits(currency, tax), source, actor, counterparty);
+        } catch (ArithmeticException e) {
+            plugin.getLogger().warning("Refused to remove " + amount + " " + currency.getId() + " from " + uuid + ": the balance would overflow");
+            return false;
+        } finally {
+            lock.unlock();
+        }
         savePlayerDataAsync(uuid);
+        return true;
+    }
+    
+    /**
+     * Move an amount between two accounts, all or nothing: the sender pays
+     * the amount plus the fee only if their balance covers both, and the
+     * receiver gets the amount. Both accounts stay locked from the balance
+     * check to the last change, so concurrent transfers cannot spend the
+     * same balance twice.
+     * 
+     * @param fee Paid by the sender on top of the amount, recorded as tax
+     */
+    public TransferResult transfer(UUID from, UUID to, CurrencyType currency, double amount, double fee) {
+        return transfer(from, to, currency, amount, fee, TransactionSource.OTHER, null);
+    }
+    
+    /**
+     * Transfer between two accounts, recorded in the ledger with its cause
+     * @see #transfer(UUID, UUID, CurrencyType, double, double)
+     */
+    public TransferResult transfer(UUID from, UUID to, CurrencyType currency, double amount, double fee,
+                                   TransactionSource source, UUID actor) {
+        long amountUnits;
+        long feeUnits;
+        try {
+            amountUnits = Money.toUnits(currency, amount);
+            feeUnits = Money.toUnits(currency, fee);
+        } catch (ArithmeticException e) {
+            return new TransferResult(TransferResult.Status.INVALID_AMOUNT, currency, 0L, 0L, 0L);
+        }
+        return transferUnits(from, to, currency, amountUnits, feeUnits, source, actor);
+    }
+    
+    /**
+     * {@link #transfer(UUID, UUID, CurrencyType, double, double)} in minor units
+     */
+    public TransferResult transferUnits(UUID from, UUID to, CurrencyType currency, long amount, long fee,
+                                        TransactionSource source, UUID actor) {
+        if (from.equals(to)) {
+            return new TransferResult(TransferResult.Status.SAME_ACCOUNT, currency, amount, fee, 0L);
+        }
+        if (amount <= 0 || fee < 0) {
+            return new TransferResult(TransferResult.Status.INVALID_AMOUNT, currency, amount, fee, 0L);
+        }
+        
+        // Loads can hit storage, done before any lock is held
+        PlayerData sender = loadPlayerData(from);
+        PlayerData receiver = loadPlayerData(to);
+        
+        // Stripes are taken in index order; with two accounts sharing a
+        // stripe, any other order could deadlock against a reverse transfer
+        int first = stripe(from);
+        int second = stripe(to);
+        ReentrantLock lower = accountLocks[Math.min(first, second)];
+        ReentrantLock upper = accountLocks[Math.max(first, second)];
+        lower.lock();
+        upper.lock();
+        long balance;
+        try {
+            balance = sender.getBalanceUnits(currency);
+            long total;
+            try {
+                total = Math.addExact(amount, fee);
+                // Checked before either side changes, so the transfer never stops halfway
+                Math.addExact(receiver.getBalanceUnits(currency), amount);
+            } catch (ArithmeticException e) {
+                return new TransferResult(TransferResult.Status.OVERFLOW, currency, amount, fee, balance);
+            }
+            if (balance < total) {
+                return new TransferResult(TransferResult.Status.INSUFFICIENT_FUNDS, currency, amount, fee, balance);
+            }
+            debit(sender, currency, total, fee, source, actor, to);
+            credit(receiver, currency, amount, source, actor, from);
+            balance = sender.getBalanceUnits(currency);
+        } finally {
+            upper.unlock();
+            lower.unlock();
+        }
+        
+        savePlayerDataAsync(from);
+        savePlayerDataAsync(to);
+        return new TransferResult(TransferResult.Status.SUCCESS, currency, amount, fee, balance);
+    }
+    
+    private int stripe(UUID uuid) {
+        int hash = uuid.hashCode();
+        return (hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1);
+    }
+    
+    // Callers hold the account's stripe lock
+    
+    private void credit(PlayerData data, CurrencyType currency, long amount,
+                        TransactionSource source, UUID actor, UUID counterparty) {
+        long balance = data.getBalanceUnits(currency);
+        data.addBalanceUnits(currency, amount);
+        record(data, currency, balance, 0L, source, actor, counterparty);
+        balanceCache.invalidate(data.getUUID(), currency);
+    }
+    
+    private void debit(PlayerData data, CurrencyType currency, long amount, long tax,
+                       TransactionSource source, UUID actor, UUID counterparty) {
+        long balance = data.getBalanceUnits(currency);
+        data.addBalanceUnits(currency, Math.negateExact(amount));
+        record(data, currency, balance, tax, source, actor, counterparty);
+        balanceCache.invalidate(data.getUUID(), currency);
+    }
+    
+    private void record(PlayerData data, CurrencyType currency, long previous, long tax,
+                        TransactionSource source, UUID actor, UUID counterparty) {
+        Ledger ledger = plugin.getLedger();
+        long balance = data.getBalanceUnits(currency);
+        if (ledger != null && (balance != previous || tax != 0)) {
+            ledger.record(data.getUUID(), currency, Money.toAmount(currency, balance - previous), Money.toAmount(currency, tax),
+                    Money.toAmount(currency, balance), source, actor, counterparty);
+        }
     }
     
     /**
@@ -288,4 +888,96 @@ public class CurrencyManager {
     public Collection<PlayerData> getAllLoadedPlayers() {
         return getAllPlayerData();
     }
-}
\ No newline at end of file
+    
+    /**
+     * Get the write-behind save queue
+     */
+    public WriteBehindQueue getSaveQueue() {
+        return saveQueue;
+    }
+    
+    /**
+     * Outcome of a transfer
+     */
+    public static class TransferResult {
+        
+        public enum Status {
+            SUCCESS,
+            INSUFFICIENT_FUNDS,
+            SAME_ACCOUNT,
+            INVALID_AMOUNT,
+            OVERFLOW
+        }
+        
+        private final Status status;
+        private final CurrencyType currency;
+        private final long amount;
+        private final long fee;
+        private final long balance;
+        
+        public TransferResult(Status status, CurrencyType currency, long amount, long fee, long balance) {
+            this.status = status;
+            this.currency = currency;
+            this.amount = amount;
+            this.fee = fee;
+            this.balance = balance;
+        }
+        
+        public boolean isSuccess() {
+            return status == Status.SUCCESS;
+        }
+        
+        public Status getStatus() {
+            return status;
+        }
+        
+        public double getAmount() {
+            return Money.toAmount(currency, amount);
+        }
+        
+        public double getFee() {
+            return Money.toAmount(currency, fee);
+        }
+        
+        /**
+         * Sender's balance after the transfer, or the one that was too low
+         */
+        public double getBalance() {
+            return Money.toAmount(currency, balance);
+        }
+        
+        /**
+         * {@link #getBalance()} in minor units
+         */
+        public long getBalanceUnits() {
+            return balance;
+        }
+    }
+    
+    /**
+     * Account loaded during pre-login
+     */
+    public static class PreloadedAccount {
+        private final PlayerData data;
+        private final boolean newPlayer;
+        private final long loadedAt;
+        
+        public PreloadedAccount(PlayerData data, boolean newPlayer) {
+            this.data = data;
+            this.newPlayer = newPlayer;
+            this.loadedAt = System.currentTimeMillis();
+        }
+        
+        public PlayerData getData() {
+            return data;
+        }
+        
+        public boolean isNewPlayer() {
+            return newPlayer;
+        }
+        
+        public long getLoadedAt() {
+            return loadedAt;
+        }
+    }
+}
@@ -1,17 +1,19 @@
 package online.demonzdevelopment.dzeconomy.manager;
 
 import online.demonzdevelopment.dzeconomy.DZEconomy;
-import online.demonzdevelopment.dzeconomy.data.PlayerData;
+import online.demonzdevelopment.dzeconomy.data.PlayerDataCodec;
 import online.demonzdevelopment.dzeconomy.storage.StorageProvider;
 import online.demonzdevelopment.dzeconomy.storage.impl.FlatFileStorageProvider;
+import online.demonzdevelopment.dzeconomy.storage.impl.JournalStorageProvider;
+import online.demonzdevelopment.dzeconomy.storage.impl.MappedStorageProvider;
 import online.demonzdevelopment.dzeconomy.storage.impl.MySQLStorageProvider;
 import online.demonzdevelopment.dzeconomy.storage.impl.SQLiteStorageProvider;
 import online.demonzdevelopment.dzeconomy.util.ColorUtil;
 import org.bukkit.command.CommandSender;
-import org.bukkit.configuration.file.YamlConfiguration;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -38,7 +40,8 @@ public class MigrationManager {
      * Migrate data from one storage type to another
      */
     public CompletableFuture<MigrationResult> migrateData(CommandSender sender, String fromType, String toType) {
-        return CompletableFuture.supplyAsync(() -> {
+        // Blocking storage work, kept off the common pool
+        return plugin.getAsyncStorage().submit("migration", () -> {
             try {
                 sendMessage(sender, "&eStarting data migration...");
                 sendMessage(sender, "&7From: &e" + fromType.toUpperCase());
@@ -46,7 +49,7 @@ public class MigrationManager {
                 
                 // Validate storage types
                 if (!isValidStorageType(fromType) || !isValidStorageType(toType)) {
-                    sendMessage(sender, "&cInvalid storage type! Use: FLATFILE, SQLITE, or MYSQL");
+                    sendMessage(sender, "&cInvalid storage type! Use: FLATFILE, SQLITE, MYSQL, JOURNAL, or MMAP");
                     return new MigrationResult(false, "Invalid storage type", 0);
                 }
                 
@@ -72,57 +75,44 @@ public class MigrationManager {
                     return new MigrationResult(false, "Provider initialization failed", 0);
                 }
                 
-                sourceProvider.initialize();
-                destProvider.initialize();
+                // The running server's storage is already open and stays open
+                if (!isActiveProvider(sourceProvider)) {
+                    sourceProvider.initialize();
+                }
+                if (!isActiveProvider(destProvider)) {
+                    destProvider.initialize();
+                }
                 
-                // Get all player UUIDs from source
-                List<UUID> playerUUIDs = getAllPlayerUUIDs(sourceProvider, fromType);
+                // Count players in source
+                long total = sourceProvider.countPlayers();
                 
-                if (playerUUIDs.isEmpty()) {
+                if (total == 0) {
                     sendMessage(sender, "&cNo player data found in source storage!");
-                    sourceProvider.close();
-                    destProvider.close();
+                    closeProvider(sourceProvider);
+                    closeProvider(destProvider);
                     return new MigrationResult(false, "No data to migrate", 0);
                 }
                 
-                sendMessage(sender, "&eFound &a" + playerUUIDs.size() + " &eplayers to migrate...");
-                
-                // Migrate each player
-                int successCount = 0;
-                int failedCount = 0;
+                sendMessage(sender, "&eFound &a" + total + " &eplayers to migrate...");
                 
-                for (int i = 0; i < playerUUIDs.size(); i++) {
-                    UUID uuid = playerUUIDs.get(i);
-                    
-                    try {
-                        PlayerData data = sourceProvider.loadPlayerData(uuid);
-                        if (data != null) {
-                            destProvider.savePlayerData(data);
-                            successCount++;
-                        } else {
-                            failedCount++;
-                        }
-                    } catch (Exception e) {
-                        plugin.getLogger().warning("Failed to migrate data for " + uuid + ": " + e.getMessage());
-                        failedCount++;
-                    }
-                    
-                    // Progress update every 10%
-                    if ((i + 1) % Math.max(1, playerUUIDs.size() / 10) == 0) {
-                        int progress = (int) ((i + 1) * 100.0 / playerUUIDs.size());
-                        sendMessage(sender, "&7Progress: &e" + progress + "% &7(" + (i + 1) + "/" + playerUUIDs.size() + ")");
-                    }
+                // Reader, parallel workers and a batching writer, resumable from a checkpoint
+                MigrationPipeline pipeline = new MigrationPipeline(plugin, sourceProvider, destProvider,
+                        fromType, toType, message -> sendMessage(sender, message));
+                try {
+                    pipeline.run();
+                } finally {
+                    closeProvider(sourceProvider);
+                    closeProvider(destProvider);
                 }
                 
-                // Close providers
-                sourceProvider.close();
-                destProvider.close();
+                int successCount = (int) pipeline.getMigratedCount();
+                int skippedCount = (int) pipeline.getSkippedCount();
                 
                 // Report results
                 sendMessage(sender, "&a&l✓ Migration completed!");
                 sendMessage(sender, "&7Successfully migrated: &a" + successCount + " &7players");
-                if (failedCount > 0) {
-                    sendMessage(sender, "&7Failed: &c" + failedCount + " &7players");
+                if (skippedCount > 0) {
+                    sendMessage(sender, "&7Skipped: &e" + skippedCount + " &7players deleted during the migration");
                 }
                 sendMessage(sender, "&eUpdate config.yml to use the new storage type and restart!");
                 
@@ -160,13 +150,24 @@ public class MigrationManager {
                              new File(backupFolder, "economy.db").toPath(),
                              StandardCopyOption.REPLACE_EXISTING);
                 }
+            } else if (storageType.equalsIgnoreCase("JOURNAL")) {
+                // Backup journal snapshots and segments
+                File journalFolder = new File(plugin.getDataFolder(), "data/journal");
+                if (journalFolder.exists()) {
+                    copyFolder(journalFolder.toPath(), new File(backupFolder, "journal").toPath());
+                }
+            } else if (storageType.equalsIgnoreCase("MMAP")) {
+                // Backup memory-mapped data file
+                File dataFile = new File(plugin.getDataFolder(), "data/economy.dat");
+                if (dataFile.exists()) {
+                    Files.copy(dataFile.toPath(), 
+                             new File(backupFolder, "economy.dat").toPath(),
+                             StandardCopyOption.REPLACE_EXISTING);
+                }
             } else if (storageType.equalsIgnoreCase("MYSQL")) {
-                // MySQL backup - export data to YAML
-                File mysqlBackup = new File(backupFolder, "mysql_backup.yml");
-                YamlConfiguration backup = new YamlConfiguration();
-                backup.set("backup-time", System.currentTimeMillis());
-                backup.set("storage-type", "MYSQL");
-                backup.save(mysqlBackup);
+                // MySQL backup - dump every account in the binary account format
+                long count = dumpAccounts(storageType, new File(backupFolder, "accounts.dzb"));
+                sendMessage(sender, "&7Dumped &e" + count + " &7accounts");
             }
             
             return true;
@@ -176,6 +177,36 @@ public class MigrationManager {
         }
     }
     
+    /**
+     * Write every account of a storage to a dump file, readable with
+     * PlayerDataCodec.readDump and /economy import
+     * @return number of accounts written
+     */
+    private long dumpAccounts(String storageType, File file) throws IOException {
+        StorageProvider provider = createStorageProvider(storageType);
+        if (provider == null) {
+            throw new IOException("Unknown storage type " + storageType);
+        }
+        if (!isActiveProvider(provider)) {
+            provider.initialize();
+        }
+        
+        try (PlayerDataCodec.DumpWriter writer = new PlayerDataCodec.DumpWriter(file)) {
+            provider.forEachPlayer(data -> {
+                try {
+                    writer.write(data);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            return writer.getCount();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            closeProvider(provider);
+        }
+    }
+    
     /**
      * Copy folder recursively
      */
@@ -194,46 +225,17 @@ public class MigrationManager {
         });
     }
     
-    /**
-     * Get all player UUIDs from storage
-     */
-    private List<UUID> getAllPlayerUUIDs(StorageProvider provider, String storageType) {
-        List<UUID> uuids = new ArrayList<>();
-        
-        try {
-            if (storageType.equalsIgnoreCase("FLATFILE")) {
-                File dataFolder = new File(plugin.getDataFolder(), "data/players");
-                if (dataFolder.exists() && dataFolder.isDirectory()) {
-                    File[] files = dataFolder.listFiles((dir, name) -> name.endsWith(".yml"));
-                    if (files != null) {
-                        for (File file : files) {
-                            try {
-                                String uuidStr = file.getName().replace(".yml", "");
-                                uuids.add(UUID.fromString(uuidStr));
-                            } catch (IllegalArgumentException ignored) {
-                            }
-                        }
-                    }
-                }
-            } else if (storageType.equalsIgnoreCase("SQLITE") || storageType.equalsIgnoreCase("MYSQL")) {
-                // For SQL-based storage, we need to query all UUIDs
-                // This is handled in the storage provider
-                // For now, we'll load from currently loaded players
-                for (PlayerData data : plugin.getCurrencyManager().getAllLoadedPlayers()) {
-                    uuids.add(data.getUUID());
-                }
-            }
-        } catch (Exception e) {
-            plugin.getLogger().warning("Failed to get player UUIDs: " + e.getMessage());
-        }
-        
-        return uuids;
-    }
-    
     /**
      * Create storage provider instance
      */
     private StorageProvider createStorageProvider(String type) {
+        // Never open a second instance of the active storage, the journal in particular
+        // cannot be shared between two providers
+        String activeType = plugin.getConfigManager().getConfig().getString("storage.type", "FLATFILE");
+        if (type.equalsIgnoreCase(activeType) && plugin.getStorageProvider() != null) {
+            return plugin.getStorageProvider();
+        }
+        
         switch (type.toUpperCase()) {
             case "FLATFILE":
                 return new FlatFileStorageProvider(plugin);
@@ -241,18 +243,34 @@ public class MigrationManager {
                 return new SQLiteStorageProvider(plugin);
             case "MYSQL":
                 return new MySQLStorageProvider(plugin);
+            case "JOURNAL":
+                return new JournalStorageProvider(plugin);
+            case "MMAP":
+                return new MappedStorageProvider(plugin);
             default:
                 return null;
         }
     }
     
+    private boolean isActiveProvider(StorageProvider provider) {
+        return provider == plugin.getStorageProvider();
+    }
+    
+    private void closeProvider(StorageProvider provider) {
+        if (!isActiveProvider(provider)) {
+            provider.close();
+        }
+    }
+    
     /**
      * Check if storage type is valid
      */
     private boolean isValidStorageType(String type) {
         return type.equalsIgnoreCase("FLATFILE") || 
                type.equalsIgnoreCase("SQLITE") || 
-               type.equalsIgnoreCase("MYSQL");
+               type.equalsIgnoreCase("MYSQL") || 
+               type.equalsIgnoreCase("JOURNAL") || 
+               type.equalsIgnoreCase("MMAP");
     }
     
     /**
@@ -0,0 +1,358 @@
+package online.demonzdevelopment.dzeconomy.manager;
+
+import online.demonzdevelopment.dzeconomy.DZEconomy;
+import online.demonzdevelopment.dzeconomy.data.PlayerData;
+import online.demonzdevelopment.dzeconomy.storage.StorageException;
+import online.demonzdevelopment.dzeconomy.storage.StorageProvider;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Pipelined copy of every player from one storage provider to another.
+ *
+ * A reader lists UUIDs into batches on a bounded queue, N workers load and
+ * prepare each batch, and a single writer saves them with saveAll. Batches
+ * are numbered in listing order; the writer keeps the number below which
+ * every batch is committed in a checkpoint file, so an interrupted
+ * migration skips those batches when it is started again. A batch with an
+ * account that could not be loaded or saved stops the migration, the
+ * checkpoint stays before it.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public class MigrationPipeline {
+
+    private static final Batch END = new Batch(-1, Collections.emptyList());
+
+    private final DZEconomy plugin;
+    private final StorageProvider source;
+    private final StorageProvider destination;
+    private final String fromType;
+    private final String toType;
+    private final Consumer<String> progress;
+    private final File checkpointFile;
+
+    private final int workers;
+    private final int batchSize;
+    private final long progressInterval;
+
+    private final BlockingQueue<Batch> readQueue;
+    private final BlockingQueue<Batch> writeQueue;
+    private final AtomicInteger activeWorkers;
+    private final AtomicReference<Throwable> failure;
+    private final LongAdder migrated;
+    private final LongAdder skipped;
+
+    // Writer-only checkpoint state
+    private long watermark;
+    private final TreeMap<Long, long[]> committedAhead;
+    private long checkpointMigrated;
+    private long checkpointSkipped;
+
+    private ExecutorService executor;
+    private long resumedCount;
+
+    public MigrationPipeline(DZEconomy plugin, StorageProvider source, StorageProvider destination,
+                             String fromType, String toType, Consumer<String> progress) {
+        this.plugin = plugin;
+        this.source = source;
+        this.destination = destination;
+        this.fromType = fromType.toUpperCase();
+        this.toType = toType.toUpperCase();
+        this.progress = progress;
+        this.checkpointFile = new File(plugin.getDataFolder(), "migration-checkpoint.yml");
+
+        this.workers = Math.max(1, plugin.getConfigManager().getConfig().getInt("storage.migration.workers", 4));
+        this.batchSize = Math.max(1, plugin.getConfigManager().getConfig().getInt("storage.migration.batch-size", 500));
+        this.progressInterval = Math.max(1, plugin.getConfigManager().getConfig().getLong("storage.migration.progress-interval", 5));
+
+        this.readQueue = new ArrayBlockingQueue<>(workers * 2);
+        this.writeQueue = new ArrayBlockingQueue<>(workers * 2);
+        this.activeWorkers = new AtomicInteger(workers);
+        this.failure = new AtomicReference<>();
+        this.migrated = new LongAdder();
+        this.skipped = new LongAdder();
+        this.committedAhead = new TreeMap<>();
+    }
+
+    /**
+     * Run the migration to completion on the calling thread
+     * @throws StorageException if a stage failed, the checkpoint is kept for a retry
+     */
+    public void run() {
+        long total = source.countPlayers();
+        long skipBatches = loadCheckpoint();
+        if (skipBatches > 0) {
+            resumedCount = checkpointMigrated + checkpointSkipped;
+            progress.accept("&eResuming from checkpoint: &a" + resumedCount + " &eplayers already processed");
+        }
+
+        AtomicInteger threadId = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers + 2, runnable -> {
+            Thread thread = new Thread(runnable, "DZEconomy-Migration-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long start = System.currentTimeMillis();
+        executor.execute(() -> stage(() -> read(skipBatches)));
+        for (int i = 0; i < workers; i++) {
+            executor.execute(() -> stage(this::work));
+        }
+        executor.execute(() -> stage(this::write));
+        executor.shutdown();
+
+        try {
+            while (!executor.awaitTermination(progressInterval, TimeUnit.SECONDS)) {
+                report(total, start);
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new StorageException("Migration interrupted");
+        }
+
+        Throwable error = failure.get();
+        if (error != null) {
+            throw new StorageException("Migration stopped: " + error.getMessage(), error);
+        }
+
+        report(total, start);
+        checkpointFile.delete();
+    }
+
+    public long getMigratedCount() {
+        return checkpointMigrated;
+    }
+
+    /**
+     * Listed accounts that were deleted from the source before they were loaded
+     */
+    public long getSkippedCount() {
+        return checkpointSkipped;
+    }
+
+    // Stages
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    /**
+     * Run a stage, stopping the whole pipeline on the first failure
+     */
+    private void stage(Stage stage) {
+        try {
+            stage.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            if (failure.compareAndSet(null, t)) {
+                plugin.getLogger().severe("Migration failed: " + t.getMessage());
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Reader: list UUIDs in storage order and cut them into numbered batches
+     */
+    private void read(long skipBatches) throws InterruptedException {
+        long sequence = 0;
+
+        try (Stream<UUID> players = source.listPlayers()) {
+            Iterator<UUID> iterator = players.iterator();
+            List<UUID> chunk = new ArrayList<>(batchSize);
+
+            while (iterator.hasNext()) {
+                chunk.add(iterator.next());
+                if (chunk.size() == batchSize) {
+                    emit(sequence++, chunk, skipBatches);
+                    chunk = new ArrayList<>(batchSize);
+                }
+            }
+
+            if (!chunk.isEmpty()) {
+                emit(sequence, chunk, skipBatches);
+            }
+        }
+
+        for (int i = 0; i < workers; i++) {
+            readQueue.put(END);
+        }
+    }
+
+    private void emit(long sequence, List<UUID> uuids, long skipBatches) throws InterruptedException {
+        if (sequence >= skipBatches) {
+            readQueue.put(new Batch(sequence, uuids));
+        }
+    }
+
+    /**
+     * Worker: load a batch from the source and mark it for a full write
+     */
+    private void work() throws InterruptedException {
+        while (true) {
+            Batch batch = readQueue.take();
+            if (batch == END) {
+                if (activeWorkers.decrementAndGet() == 0) {
+                    writeQueue.put(END);
+                }
+                return;
+            }
+
+            Map<UUID, PlayerData> loaded = source.loadAll(batch.uuids);
+            for (UUID uuid : batch.uuids) {
+                PlayerData data = loaded.get(uuid);
+                if (data != null) {
+                    // Providers only write changed sections, a migrated record is entirely new
+                    data.markDirty(PlayerData.DIRTY_ALL);
+                    batch.players.add(data);
+                } else if (source.playerDataExists(uuid)) {
+                    // Stored but unreadable, e.g. a corrupt file
+                    batch.unreadable.add(uuid);
+                } else {
+                    batch.skipped++;
+                }
+            }
+
+            writeQueue.put(batch);
+        }
+    }
+
+    /**
+     * Writer: save each batch and advance the checkpoint
+     */
+    private void write() throws InterruptedException {
+        while (true) {
+            Batch batch = writeQueue.take();
+            if (batch == END) {
+                return;
+            }
+
+            Set<UUID> failedUUIDs = new LinkedHashSet<>(batch.unreadable);
+            failedUUIDs.addAll(destination.saveAll(batch.players));
+            if (!failedUUIDs.isEmpty()) {
+                for (UUID uuid : failedUUIDs) {
+                    plugin.getLogger().warning("Failed to migrate data for " + uuid);
+                }
+                throw new StorageException(failedUUIDs.size() + " player(s) could not be migrated");
+            }
+
+            migrated.add(batch.players.size());
+            skipped.add(batch.skipped);
+            commit(batch.sequence, batch.players.size(), batch.skipped);
+        }
+    }
+
+    // Checkpoint
+
+    /**
+     * Record a committed batch. Batches finish out of order, the checkpoint
+     * only moves past a batch once every batch before it is committed too.
+     */
+    private void commit(long sequence, long batchMigrated, long batchSkipped) {
+        committedAhead.put(sequence, new long[] {batchMigrated, batchSkipped});
+
+        boolean advanced = false;
+        while (!committedAhead.isEmpty() && committedAhead.firstKey() == watermark) {
+            long[] counts = committedAhead.pollFirstEntry().getValue();
+            checkpointMigrated += counts[0];
+            checkpointSkipped += counts[1];
+            watermark++;
+            advanced = true;
+        }
+
+        if (advanced) {
+            saveCheckpoint();
+        }
+    }
+
+    /**
+     * @return number of batches that can be skipped
+     */
+    private long loadCheckpoint() {
+        if (!checkpointFile.exists()) {
+            return 0;
+        }
+
+        YamlConfiguration yaml = YamlConfiguration.loadConfiguration(checkpointFile);
+        if (!fromType.equals(yaml.getString("from")) || !toType.equals(yaml.getString("to"))
+                || yaml.getInt("batch-size") != batchSize) {
+            progress.accept("&7Ignoring checkpoint of a different migration");
+            return 0;
+        }
+
+        watermark = yaml.getLong("batches", 0L);
+        checkpointMigrated = yaml.getLong("migrated", 0L);
+        checkpointSkipped = yaml.getLong("skipped", 0L);
+        return watermark;
+    }
+
+    private void saveCheckpoint() {
+        YamlConfiguration yaml = new YamlConfiguration();
+        yaml.set("from", fromType);
+        yaml.set("to", toType);
+        yaml.set("batch-size", batchSize);
+        yaml.set("batches", watermark);
+        yaml.set("migrated", checkpointMigrated);
+        yaml.set("skipped", checkpointSkipped);
+
+        try {
+            yaml.save(checkpointFile);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to save migration checkpoint: " + e.getMessage());
+        }
+    }
+
+    // Progress
+
+    private void report(long total, long start) {
+        long done = migrated.sum() + skipped.sum();
+        long processed = resumedCount + done;
+        double seconds = Math.max(0.001, (System.currentTimeMillis() - start) / 1000.0);
+        double rate = done / seconds;
+
+        int percent = total > 0 ? (int) Math.min(100, processed * 100 / total) : 100;
+        String eta = rate > 0 ? formatDuration((long) (Math.max(0, total - processed) / rate)) : "?";
+
+        progress.accept("&7Progress: &e" + percent + "% &7(" + processed + "/" + total + ") &8| &e"
+                + (long) rate + " &7accounts/s &8| &7ETA &e" + eta);
+    }
+
+    private static String formatDuration(long seconds) {
+        if (seconds >= 3600) {
+            return String.format("%dh %02dm", seconds / 3600, (seconds % 3600) / 60);
+        }
+        return String.format("%dm %02ds", seconds / 60, seconds % 60);
+    }
+
+    private static final class Batch {
+        private final long sequence;
+        private final List<UUID> uuids;
+        private final List<PlayerData> players;
+        private final List<UUID> unreadable;
+        private long skipped;
+
+        private Batch(long sequence, List<UUID> uuids) {
+            this.sequence = sequence;
+            this.uuids = uuids;
+            this.players = new ArrayList<>(uuids.size());
+            this.unreadable = new ArrayList<>();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package online.demonzdevelopment.dzeconomy.storage;
+
+import online.demonzdevelopment.dzeconomy.DZEconomy;
+import online.demonzdevelopment.dzeconomy.data.PlayerData;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Asynchronous facade over the blocking {@link StorageProvider}.
+ *
+ * Every operation runs on its own virtual thread of a dedicated executor,
+ * so blocking JDBC and file I/O never occupies the common pool or the
+ * Bukkit scheduler. Operations on the same player run in the order they
+ * were submitted. Each operation has a timeout, after which its future
+ * fails with a TimeoutException and the running task is interrupted;
+ * cancelling the returned future does the same. JDBC and file I/O may
+ * ignore the interrupt, so the next operation for that player still waits
+ * until the task has actually returned.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public class AsyncStorage {
+
+    private final DZEconomy plugin;
+    private final StorageProvider provider;
+    private final ExecutorService executor;
+    private final long readTimeout;
+    private final long writeTimeout;
+    private final long shutdownTimeout;
+
+    // Last operation per player, completed when its task has returned; the next one for that player waits for it
+    private final Map<UUID, CompletableFuture<Void>> tails;
+    // Operations whose task has not returned yet, whatever their callers were told
+    private final Set<CompletableFuture<Void>> inFlight;
+    private final AtomicBoolean closed;
+
+    public AsyncStorage(DZEconomy plugin, StorageProvider provider) {
+        this.plugin = plugin;
+        this.provider = provider;
+        this.executor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("DZEconomy-Storage-", 1).factory());
+        this.readTimeout = Math.max(1L, plugin.getConfigManager().getConfig().getLong("storage.async.read-timeout", 5000L));
+        this.writeTimeout = Math.max(1L, plugin.getConfigManager().getConfig().getLong("storage.async.write-timeout", 10000L));
+        this.shutdownTimeout = Math.max(1L, plugin.getConfigManager().getConfig().getLong("storage.async.shutdown-timeout", 30L));
+        this.tails = new ConcurrentHashMap<>();
+        this.inFlight = ConcurrentHashMap.newKeySet();
+        this.closed = new AtomicBoolean(false);
+    }
+
+    /**
+     * Load a player, completing with null if the player is not stored
+     */
+    public CompletableFuture<PlayerData> loadAsync(UUID uuid) {
+        return loadAsync(uuid, readTimeout);
+    }
+
+    public CompletableFuture<PlayerData> loadAsync(UUID uuid, long timeoutMillis) {
+        return schedule(uuid, "load " + uuid, timeoutMillis, () -> provider.loadPlayerData(uuid));
+    }
+
+    /**
+     * Save a player, completing with false if the provider could not write it.
+     * Pass a snapshot, the provider reads the data on another thread.
+     */
+    public CompletableFuture<Boolean> saveAsync(PlayerData data) {
+        return saveAsync(data, writeTimeout);
+    }
+
+    public long getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    public CompletableFuture<Boolean> saveAsync(PlayerData data, long timeoutMillis) {
+        return schedule(data.getUUID(), "save " + data.getUUID(), timeoutMillis, () -> provider.savePlayerData(data));
+    }
+
+    public CompletableFuture<Boolean> existsAsync(UUID uuid) {
+        return existsAsync(uuid, readTimeout);
+    }
+
+    public CompletableFuture<Boolean> existsAsync(UUID uuid, long timeoutMillis) {
+        return schedule(uuid, "exists " + uuid, timeoutMillis, () -> provider.playerDataExists(uuid));
+    }
+
+    public CompletableFuture<Void> deleteAsync(UUID uuid) {
+        return deleteAsync(uuid, writeTimeout);
+    }
+
+    public CompletableFuture<Void> deleteAsync(UUID uuid, long timeoutMillis) {
+        return schedule(uuid, "delete " + uuid, timeoutMillis, () -> {
+            provider.deletePlayerData(uuid);
+            return null;
+        });
+    }
+
+    /**
+     * Run any other storage work (bulk saves, migrations, backups) on the
+     * storage executor, without a timeout
+     */
+    public <T> CompletableFuture<T> submit(String operation, Callable<T> work) {
+        return schedule(null, operation, 0L, work);
+    }
+
+    /**
+     * Block until the future completes, unwrapping storage failures
+     * @throws StorageException if the operation failed, timed out or was cancelled
+     */
+    public static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof StorageException) {
+                throw (StorageException) cause;
+            }
+            if (cause instanceof TimeoutException) {
+                throw new StorageException("Storage did not answer in time", cause);
+            }
+            throw new StorageException(String.valueOf(cause.getMessage()), cause);
+        } catch (CancellationException e) {
+            throw new StorageException("Storage operation was cancelled", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while waiting for storage", e);
+        }
+    }
+
+    /**
+     * Schedule an operation behind the previous one for the same player
+     * @param key player the operation belongs to, or null if unordered
+     * @param timeoutMillis time from submission until the operation is abandoned, 0 for none
+     */
+    private <T> CompletableFuture<T> schedule(UUID key, String operation, long timeoutMillis, Callable<T> work) {
+        if (closed.get()) {
+            return CompletableFuture.failedFuture(new StorageException("Storage is shutting down, rejected " + operation));
+        }
+
+        // What the caller sees, and when the work has really stopped
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<Void> finished = new CompletableFuture<>();
+        AtomicReference<Thread> worker = new AtomicReference<>();
+        inFlight.add(finished);
+
+        CompletableFuture<Void> previous = null;
+        if (key != null) {
+            previous = tails.put(key, finished);
+        }
+
+        // The tail is only released once the task returned, a timed out save may still commit
+        finished.whenComplete((value, error) -> {
+            inFlight.remove(finished);
+            if (key != null) {
+                tails.remove(key, finished);
+            }
+        });
+
+        // Timed out or cancelled by the caller: interrupt the task if it already started
+        result.whenComplete((value, error) -> {
+            if (error != null) {
+                Thread running = worker.get();
+                if (running != null) {
+                    running.interrupt();
+                }
+            }
+        });
+
+        if (timeoutMillis > 0) {
+            result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        Runnable start = () -> {
+            if (result.isDone()) {
+                finished.complete(null);
+                return;
+            }
+            try {
+                executor.execute(() -> {
+                    worker.set(Thread.currentThread());
+                    try {
+                        execute(operation, work, result);
+                    } finally {
+                        worker.set(null);
+                        Thread.interrupted();
+                        finished.complete(null);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(new StorageException("Storage executor rejected " + operation, e));
+                finished.complete(null);
+            }
+        };
+
+        if (previous == null) {
+            start.run();
+        } else {
+            // Runs whether the previous operation succeeded or not
+            previous.whenComplete((value, error) -> start.run());
+        }
+
+        return result;
+    }
+
+    private <T> void execute(String operation, Callable<T> work, CompletableFuture<T> result) {
+        if (result.isDone()) {
+            return;
+        }
+        try {
+            result.complete(work.call());
+        } catch (StorageException e) {
+            result.completeExceptionally(e);
+        } catch (Throwable t) {
+            result.completeExceptionally(new StorageException("Storage operation failed: " + operation, t));
+        }
+    }
+
+    /**
+     * Number of operations that are queued or running
+     */
+    public int getPendingCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Stop accepting operations and wait for the queued ones to finish,
+     * so they are written before the provider is closed. Operations still
+     * running after storage.async.shutdown-timeout are interrupted.
+     */
+    public void shutdown() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        int pending = inFlight.size();
+        if (pending > 0) {
+            plugin.getLogger().info("Waiting for " + pending + " storage operation(s) to finish...");
+        }
+
+        try {
+            CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0]))
+                    .get(shutdownTimeout, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            plugin.getLogger().warning(inFlight.size() + " storage operation(s) did not finish in time and were interrupted");
+        } catch (ExecutionException ignored) {
+            // Failures are reported to whoever submitted the operation
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Interrupts the tasks still running
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
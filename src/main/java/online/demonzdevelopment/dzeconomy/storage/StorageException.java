@@ -0,0 +1,16 @@
+package online.demonzdevelopment.dzeconomy.storage;
+
+/**
+ * Thrown when the storage backend could not complete an operation.
+ * Unlike a null result, this means the data may exist but could not be read.
+ */
+public class StorageException extends RuntimeException {
+    
+    public StorageException(String message) {
+        super(message);
+    }
+    
+    public StorageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
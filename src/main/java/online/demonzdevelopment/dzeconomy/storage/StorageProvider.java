@@ -2,7 +2,12 @@ package online.demonzdevelopment.dzeconomy.storage;
 
 import online.demonzdevelopment.dzeconomy.data.PlayerData;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Abstract storage provider interface for different storage types
@@ -17,13 +22,56 @@ public interface StorageProvider {
     /**
      * Load player data from storage
      * @return PlayerData object or null if not found
+     * @throws StorageException if the storage could not be read
      */
     PlayerData loadPlayerData(UUID uuid);
     
     /**
      * Save player data to storage
+     * @return true if the data was written successfully
      */
-    void savePlayerData(PlayerData playerData);
+    boolean savePlayerData(PlayerData playerData);
+    
+    /**
+     * Load several players in as few round-trips as possible
+     * @return map of the players that were found, missing players are left out
+     * @throws StorageException if the storage could not be read
+     */
+    Map<UUID, PlayerData> loadAll(Collection<UUID> uuids);
+    
+    /**
+     * Save several players in as few round-trips as possible
+     * @return UUIDs of the players that could not be saved (empty on success)
+     */
+    Set<UUID> saveAll(Collection<PlayerData> players);
+    
+    /**
+     * Whether saves apply balances and statistics as changes to the stored
+     * values. A failed save may then have been applied after all, so it is
+     * written again as is (storage skips a save id it already applied)
+     * instead of folding its changes into the next save.
+     */
+    default boolean appliesChanges() {
+        return false;
+    }
+    
+    /**
+     * Count all stored players
+     */
+    long countPlayers();
+    
+    /**
+     * Lazily list every stored player. Only one page of UUIDs is held in
+     * memory at a time, close the stream when done.
+     * @throws StorageException if the storage fails while the stream is read
+     */
+    Stream<UUID> listPlayers();
+    
+    /**
+     * Load every stored player one page at a time and hand it to the action
+     * @throws StorageException if the storage fails midway
+     */
+    void forEachPlayer(Consumer<PlayerData> action);
     
     /**
      * Check if player data exists
@@ -0,0 +1,111 @@
+package online.demonzdevelopment.dzeconomy.storage;
+
+import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+import online.demonzdevelopment.dzeconomy.data.PlayerData;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.util.UUID;
+
+/**
+ * The human readable YAML player layout, used by YAML flat files and by
+ * the import and export commands
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public final class YamlPlayerFormat {
+
+    private YamlPlayerFormat() {
+    }
+
+    public static YamlConfiguration toYaml(PlayerData playerData) {
+        YamlConfiguration yaml = new YamlConfiguration();
+
+        // Save basic info
+        yaml.set("uuid", playerData.getUUID().toString());
+        yaml.set("username", playerData.getUsername());
+        yaml.set("first-join", playerData.getFirstJoin());
+        yaml.set("last-seen", playerData.getLastSeen());
+
+        // Save balances
+        for (CurrencyType type : CurrencyType.values()) {
+            yaml.set("balances." + type.getId(), playerData.getBalance(type));
+        }
+
+        // Save statistics
+        for (CurrencyType type : CurrencyType.values()) {
+            yaml.set("statistics." + type.getId() + "-sent", playerData.getMoneySent(type));
+            yaml.set("statistics." + type.getId() + "-received", playerData.getMoneyReceived(type));
+        }
+
+        // Save daily limits
+        for (CurrencyType type : CurrencyType.values()) {
+            yaml.set("daily-limits." + type.getId() + "-sends-today", playerData.getDailySendCount(type));
+            yaml.set("daily-limits." + type.getId() + "-requests-today", playerData.getDailyRequestCount(type));
+        }
+        yaml.set("daily-limits.last-reset", playerData.getLastDailyReset());
+
+        // Save cooldowns
+        for (CurrencyType type : CurrencyType.values()) {
+            yaml.set("cooldowns." + type.getId() + "-send", playerData.getSendCooldown(type));
+            yaml.set("cooldowns." + type.getId() + "-request", playerData.getRequestCooldown(type));
+        }
+
+        return yaml;
+    }
+
+    /**
+     * Read a player from YAML. The UUID is taken from the file if it has
+     * one, otherwise the given one is used.
+     * @return the player, or null if neither has a valid UUID
+     */
+    public static PlayerData fromYaml(ConfigurationSection yaml, UUID fallback) {
+        UUID uuid = fallback;
+        String stored = yaml.getString("uuid");
+        if (stored != null) {
+            try {
+                uuid = UUID.fromString(stored);
+            } catch (IllegalArgumentException e) {
+                // Keep the fallback
+            }
+        }
+        if (uuid == null) {
+            return null;
+        }
+
+        PlayerData data = new PlayerData(uuid);
+
+        // Load basic info
+        data.setUsername(yaml.getString("username", "Unknown"));
+        data.setFirstJoin(yaml.getLong("first-join", System.currentTimeMillis()));
+        data.setLastSeen(yaml.getLong("last-seen", System.currentTimeMillis()));
+
+        // Load balances
+        for (CurrencyType type : CurrencyType.values()) {
+            String path = "balances." + type.getId();
+            data.setBalance(type, yaml.getDouble(path, 0.0));
+        }
+
+        // Load statistics
+        for (CurrencyType type : CurrencyType.values()) {
+            data.setMoneySent(type, yaml.getLong("statistics." + type.getId() + "-sent", 0L));
+            data.setMoneyReceived(type, yaml.getLong("statistics." + type.getId() + "-received", 0L));
+        }
+
+        // Load daily limits
+        for (CurrencyType type : CurrencyType.values()) {
+            data.setDailySendCount(type, yaml.getInt("daily-limits." + type.getId() + "-sends-today", 0));
+            data.setDailyRequestCount(type, yaml.getInt("daily-limits." + type.getId() + "-requests-today", 0));
+        }
+        data.setLastDailyReset(yaml.getLong("daily-limits.last-reset", 0L));
+
+        // Load cooldowns
+        for (CurrencyType type : CurrencyType.values()) {
+            data.setSendCooldown(type, yaml.getLong("cooldowns." + type.getId() + "-send", 0L));
+            data.setRequestCooldown(type, yaml.getLong("cooldowns." + type.getId() + "-request", 0L));
+        }
+
+        return data;
+    }
+}
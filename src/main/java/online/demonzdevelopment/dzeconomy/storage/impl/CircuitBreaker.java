@@ -0,0 +1,100 @@
+package online.demonzdevelopment.dzeconomy.storage.impl;
+
+/**
+ * Tracks whether a database is reachable. After enough connection failures
+ * in a row the breaker opens and callers stop waiting on the database;
+ * a health check later half-opens it, and it closes once the check and
+ * the recovery work behind it succeeded.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+final class CircuitBreaker {
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long retryInterval;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long retryAt;
+    private long openedAt;
+    private long trips;
+
+    CircuitBreaker(int failureThreshold, long retryInterval) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.retryInterval = Math.max(1L, retryInterval);
+    }
+
+    synchronized boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    synchronized void recordSuccess() {
+        if (state == State.CLOSED) {
+            failures = 0;
+        }
+    }
+
+    /**
+     * @return true if this failure opened the breaker
+     */
+    synchronized boolean recordFailure() {
+        if (state != State.CLOSED) {
+            return false;
+        }
+        if (++failures < failureThreshold) {
+            return false;
+        }
+        open();
+        return true;
+    }
+
+    /**
+     * Open the breaker right away, e.g. because there is recovery work waiting
+     */
+    synchronized void open() {
+        if (state == State.CLOSED) {
+            openedAt = System.currentTimeMillis();
+            trips++;
+        }
+        state = State.OPEN;
+        retryAt = System.currentTimeMillis() + retryInterval;
+    }
+
+    /**
+     * Move to HALF_OPEN if the breaker is open and the next health check is due
+     */
+    synchronized boolean tryHalfOpen() {
+        if (state != State.OPEN || System.currentTimeMillis() < retryAt) {
+            return false;
+        }
+        state = State.HALF_OPEN;
+        return true;
+    }
+
+    synchronized void close() {
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    /**
+     * When the breaker last opened, 0 if it never did
+     */
+    synchronized long getOpenedAt() {
+        return openedAt;
+    }
+
+    synchronized long getTrips() {
+        return trips;
+    }
+}
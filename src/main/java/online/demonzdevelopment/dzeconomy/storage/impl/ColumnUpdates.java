@@ -0,0 +1,355 @@
+package online.demonzdevelopment.dzeconomy.storage.impl;
+
+import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+import online.demonzdevelopment.dzeconomy.currency.Money;
+import online.demonzdevelopment.dzeconomy.data.ChangeSet;
+import online.demonzdevelopment.dzeconomy.data.PlayerData;
+import online.demonzdevelopment.dzeconomy.util.UUIDUtil;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the changed fields of accounts to the accounts and
+ * account_balances tables shared by the SQL providers.
+ *
+ * Every changed combination of columns gets its own UPDATE, so a balance
+ * change only rewrites one balance column of one row. Rows that do not
+ * exist yet (new players, new currencies) match no row and are written
+ * afterwards with the provider's full-row upserts.
+ *
+ * In versioned mode every saved account also bumps accounts.version, but
+ * only if it still has the version the account was read at. Accounts that
+ * fail this check are left for the provider to merge.
+ *
+ * In delta mode accounts whose only changes are balance increments are
+ * written as balance = balance + ?, without the version check, so servers
+ * adding to the same balance never conflict. Their resulting balances are
+ * only known to storage, the provider reads them back. The provider records a
+ * save id in the same transaction, so a save repeated after a commit that
+ * went unanswered does not add its increments a second time.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+final class ColumnUpdates {
+
+    @FunctionalInterface
+    interface Preparer {
+        PreparedStatement prepare(String sql) throws SQLException;
+    }
+
+    // Column order matches the ChangeSet bits
+    private static final String[] ACCOUNT_COLUMNS = {"username", "first_join", "last_seen", "last_reset"};
+    private static final String[] BALANCE_COLUMNS = {"balance", "sent", "received", "sends_today",
+            "requests_today", "send_cooldown", "request_cooldown"};
+
+    private static final String[] ACCOUNT_UPDATES = new String[ChangeSet.ALL_ACCOUNT_FIELDS + 1];
+    private static final String[] BALANCE_UPDATES = new String[ChangeSet.ALL_CURRENCY_FIELDS + 1];
+    private static final String[] VERSIONED_ACCOUNT_UPDATES = new String[ChangeSet.ALL_ACCOUNT_FIELDS + 1];
+    private static final String BUMP_VERSION = "UPDATE accounts SET version = version + 1 WHERE uuid = ?";
+    private static final String INCREMENT_BALANCE =
+            "UPDATE account_balances SET balance = balance + ? WHERE uuid = ? AND currency_id = ?";
+
+    static {
+        for (int fields = 1; fields < ACCOUNT_UPDATES.length; fields++) {
+            ACCOUNT_UPDATES[fields] = "UPDATE accounts SET " + assignments(ACCOUNT_COLUMNS, fields) + " WHERE uuid = ?";
+        }
+        for (int fields = 0; fields < VERSIONED_ACCOUNT_UPDATES.length; fields++) {
+            VERSIONED_ACCOUNT_UPDATES[fields] = "UPDATE accounts SET "
+                    + (fields != 0 ? assignments(ACCOUNT_COLUMNS, fields) + ", " : "")
+                    + "version = version + 1 WHERE uuid = ? AND version = ?";
+        }
+        for (int fields = 1; fields < BALANCE_UPDATES.length; fields++) {
+            BALANCE_UPDATES[fields] = "UPDATE account_balances SET " + assignments(BALANCE_COLUMNS, fields)
+                    + " WHERE uuid = ? AND currency_id = ?";
+        }
+    }
+
+    private ColumnUpdates() {
+    }
+
+    private static String assignments(String[] columns, int fields) {
+        StringBuilder sb = new StringBuilder();
+        for (int bit = 0; bit < columns.length; bit++) {
+            if ((fields & (1 << bit)) != 0) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(columns[bit]).append(" = ?");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * One batched UPDATE and the rows it was given, to find rows that did not match
+     */
+    private static final class Batch {
+        private final PreparedStatement stmt;
+        private final List<PlayerData> players = new ArrayList<>();
+        private final List<CurrencyType> currencies = new ArrayList<>();
+
+        private Batch(PreparedStatement stmt) {
+            this.stmt = stmt;
+        }
+    }
+
+    /**
+     * What a save left for the provider
+     */
+    static final class Result {
+        // Versioned: accounts stored at another version or never read with a version, not written
+        final Set<PlayerData> conflicts = new LinkedHashSet<>();
+        // Delta mode: accounts whose balances were written as increments
+        final Set<PlayerData> incremented = new LinkedHashSet<>();
+    }
+
+    /**
+     * Write the changes of a chunk of accounts. Runs inside the caller's transaction.
+     * @param upsertAccount full-row upsert of an account, bound like bindAccount
+     * @param upsertBalance full-row upsert of a balance row, bound like bindBalance
+     */
+    static void save(List<PlayerData> chunk, Preparer preparer, String upsertAccount, String upsertBalance) throws SQLException {
+        save(chunk, preparer, upsertAccount, upsertBalance, false, false);
+    }
+
+    /**
+     * @param versioned compare and bump accounts.version
+     * @param deltas write balances that only changed by increments as increments
+     */
+    static Result save(List<PlayerData> chunk, Preparer preparer, String upsertAccount, String upsertBalance,
+                       boolean versioned, boolean deltas) throws SQLException {
+        Map<String, Batch> accountBatches = new LinkedHashMap<>();
+        Map<String, Batch> balanceBatches = new LinkedHashMap<>();
+        Result result = new Result();
+        Set<PlayerData> conflicts = result.conflicts;
+
+        for (PlayerData data : chunk) {
+            ChangeSet changes = data.getChanges();
+            int accountFields = changes.getAccountFields();
+            boolean increment = deltas && isIncrementOnly(changes);
+            if (versioned) {
+                long version = data.getStoredState().getVersion();
+                if (version < 0) {
+                    conflicts.add(data);
+                    continue;
+                }
+                if (increment) {
+                    // Still moves the version on, so other servers merge with the new balances
+                    Batch batch = batch(accountBatches, BUMP_VERSION, preparer);
+                    batch.stmt.setBytes(1, UUIDUtil.toBytes(data.getUUID()));
+                    batch.stmt.addBatch();
+                    batch.players.add(data);
+                    result.incremented.add(data);
+                    continue;
+                }
+                Batch batch = batch(accountBatches, VERSIONED_ACCOUNT_UPDATES[accountFields], preparer);
+                int index = bindAccountColumns(batch.stmt, data, accountFields);
+                batch.stmt.setBytes(index++, UUIDUtil.toBytes(data.getUUID()));
+                batch.stmt.setLong(index, version);
+                batch.stmt.addBatch();
+                batch.players.add(data);
+            } else if (increment) {
+                result.incremented.add(data);
+            } else if (accountFields != 0) {
+                Batch batch = batch(accountBatches, ACCOUNT_UPDATES[accountFields], preparer);
+                int index = bindAccountColumns(batch.stmt, data, accountFields);
+                batch.stmt.setBytes(index, UUIDUtil.toBytes(data.getUUID()));
+                batch.stmt.addBatch();
+                batch.players.add(data);
+            }
+        }
+
+        // Update counts are matched rows, 0 means the row does not exist yet
+        // (or, versioned, that it has moved on to another version)
+        Set<PlayerData> missingAccounts = new LinkedHashSet<>();
+        for (Batch batch : accountBatches.values()) {
+            int[] counts = batch.stmt.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    (versioned ? conflicts : missingAccounts).add(batch.players.get(i));
+                }
+            }
+        }
+        result.incremented.removeAll(conflicts);
+
+        for (PlayerData data : chunk) {
+            if (conflicts.contains(data)) {
+                continue;
+            }
+            ChangeSet changes = data.getChanges();
+            boolean increment = result.incremented.contains(data);
+            for (CurrencyType type : CurrencyType.values()) {
+                int fields = changes.getCurrencyFields(type);
+                if (fields == 0) {
+                    continue;
+                }
+                Batch batch;
+                int index;
+                if (increment) {
+                    batch = batch(balanceBatches, INCREMENT_BALANCE, preparer);
+                    batch.stmt.setBigDecimal(1, Money.toDecimal(type, changes.getBalanceDeltaUnits(type)));
+                    index = 2;
+                } else {
+                    batch = batch(balanceBatches, BALANCE_UPDATES[fields], preparer);
+                    index = bindBalanceColumns(batch.stmt, data, type, fields);
+                }
+                batch.stmt.setBytes(index++, UUIDUtil.toBytes(data.getUUID()));
+                batch.stmt.setInt(index, type.getStorageId());
+                batch.stmt.addBatch();
+                batch.players.add(data);
+                batch.currencies.add(type);
+            }
+        }
+
+        List<PlayerData> missingBalanceOwners = new ArrayList<>();
+        List<CurrencyType> missingBalances = new ArrayList<>();
+        for (Batch batch : balanceBatches.values()) {
+            int[] counts = batch.stmt.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    missingBalanceOwners.add(batch.players.get(i));
+                    missingBalances.add(batch.currencies.get(i));
+                }
+            }
+        }
+
+        if (missingAccounts.isEmpty() && missingBalances.isEmpty()) {
+            return result;
+        }
+
+        PreparedStatement accounts = preparer.prepare(upsertAccount);
+        PreparedStatement balances = preparer.prepare(upsertBalance);
+        for (PlayerData data : missingAccounts) {
+            bindAccount(accounts, data);
+            accounts.addBatch();
+            for (CurrencyType type : CurrencyType.values()) {
+                bindBalance(balances, data, type);
+                balances.addBatch();
+            }
+        }
+
+        // A currency added since the account was created, or an account that is
+        // not stored yet but had no account field changes. Both are rare, the
+        // account row is upserted as well so the balance row has its parent.
+        Set<PlayerData> parents = new LinkedHashSet<>();
+        for (int i = 0; i < missingBalances.size(); i++) {
+            PlayerData data = missingBalanceOwners.get(i);
+            if (missingAccounts.contains(data)) {
+                continue;
+            }
+            if (parents.add(data)) {
+                bindAccount(accounts, data);
+                accounts.addBatch();
+            }
+            bindBalance(balances, data, missingBalances.get(i));
+            balances.addBatch();
+        }
+
+        // Accounts first, balances reference them
+        accounts.executeBatch();
+        balances.executeBatch();
+        return result;
+    }
+
+    /**
+     * Whether every change of an account is a balance increment
+     */
+    private static boolean isIncrementOnly(ChangeSet changes) {
+        if (changes.getAccountFields() != 0 || changes.isEmpty()) {
+            return false;
+        }
+        for (CurrencyType type : CurrencyType.values()) {
+            int fields = changes.getCurrencyFields(type);
+            if (fields != 0 && (fields != ChangeSet.BALANCE || !changes.isBalanceIncrement(type))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Batch batch(Map<String, Batch> batches, String sql, Preparer preparer) throws SQLException {
+        Batch batch = batches.get(sql);
+        if (batch == null) {
+            batch = new Batch(preparer.prepare(sql));
+            batches.put(sql, batch);
+        }
+        return batch;
+    }
+
+    private static int bindAccountColumns(PreparedStatement stmt, PlayerData data, int fields) throws SQLException {
+        int index = 1;
+        if ((fields & ChangeSet.USERNAME) != 0) {
+            stmt.setString(index++, data.getUsername());
+        }
+        if ((fields & ChangeSet.FIRST_JOIN) != 0) {
+            stmt.setLong(index++, data.getFirstJoin());
+        }
+        if ((fields & ChangeSet.LAST_SEEN) != 0) {
+            stmt.setLong(index++, data.getLastSeen());
+        }
+        if ((fields & ChangeSet.LAST_RESET) != 0) {
+            stmt.setLong(index++, data.getLastDailyReset());
+        }
+        return index;
+    }
+
+    private static int bindBalanceColumns(PreparedStatement stmt, PlayerData data, CurrencyType type, int fields) throws SQLException {
+        int index = 1;
+        if ((fields & ChangeSet.BALANCE) != 0) {
+            stmt.setBigDecimal(index++, Money.toDecimal(type, data.getBalanceUnits(type)));
+        }
+        if ((fields & ChangeSet.SENT) != 0) {
+            stmt.setLong(index++, data.getMoneySent(type));
+        }
+        if ((fields & ChangeSet.RECEIVED) != 0) {
+            stmt.setLong(index++, data.getMoneyReceived(type));
+        }
+        if ((fields & ChangeSet.SENDS_TODAY) != 0) {
+            stmt.setInt(index++, data.getDailySendCount(type));
+        }
+        if ((fields & ChangeSet.REQUESTS_TODAY) != 0) {
+            stmt.setInt(index++, data.getDailyRequestCount(type));
+        }
+        if ((fields & ChangeSet.SEND_COOLDOWN) != 0) {
+            stmt.setLong(index++, data.getSendCooldown(type));
+        }
+        if ((fields & ChangeSet.REQUEST_COOLDOWN) != 0) {
+            stmt.setLong(index++, data.getRequestCooldown(type));
+        }
+        return index;
+    }
+
+    /**
+     * Bind a full account row: uuid, username, first_join, last_seen, last_reset
+     */
+    static void bindAccount(PreparedStatement stmt, PlayerData data) throws SQLException {
+        stmt.setBytes(1, UUIDUtil.toBytes(data.getUUID()));
+        stmt.setString(2, data.getUsername());
+        stmt.setLong(3, data.getFirstJoin());
+        stmt.setLong(4, data.getLastSeen());
+        stmt.setLong(5, data.getLastDailyReset());
+    }
+
+    /**
+     * Bind a full balance row: uuid, currency_id, then every balance column
+     */
+    static void bindBalance(PreparedStatement stmt, PlayerData data, CurrencyType type) throws SQLException {
+        stmt.setBytes(1, UUIDUtil.toBytes(data.getUUID()));
+        stmt.setInt(2, type.getStorageId());
+        stmt.setBigDecimal(3, Money.toDecimal(type, data.getBalanceUnits(type)));
+        stmt.setLong(4, data.getMoneySent(type));
+        stmt.setLong(5, data.getMoneyReceived(type));
+        stmt.setInt(6, data.getDailySendCount(type));
+        stmt.setInt(7, data.getDailyRequestCount(type));
+        stmt.setLong(8, data.getSendCooldown(type));
+        stmt.setLong(9, data.getRequestCooldown(type));
+    }
+}
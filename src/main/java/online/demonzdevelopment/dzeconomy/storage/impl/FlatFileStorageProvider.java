@@ -1,25 +1,70 @@
 package online.demonzdevelopment.dzeconomy.storage.impl;
 
 import online.demonzdevelopment.dzeconomy.DZEconomy;
-import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
 import online.demonzdevelopment.dzeconomy.data.PlayerData;
+import online.demonzdevelopment.dzeconomy.data.PlayerDataCodec;
+import online.demonzdevelopment.dzeconomy.storage.StorageException;
 import online.demonzdevelopment.dzeconomy.storage.StorageProvider;
+import online.demonzdevelopment.dzeconomy.storage.YamlPlayerFormat;
+import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.YamlConfiguration;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
- * FlatFile (YAML) storage implementation
+ * FlatFile storage implementation
+ *
+ * Player files are sharded two levels deep by the first hex digits of the
+ * UUID (players/ab/cd/abcd....dzb), so no directory grows past a few
+ * hundred entries. Files are written to a temp file and moved over the old
+ * one atomically, so a crash leaves either the old or the new version.
+ *
+ * Files are binary (.dzb, see {@link PlayerDataCodec}) or YAML (.yml)
+ * depending on storage.flatfile.format. Files in the other format are still
+ * read and are replaced the next time the player is saved.
  */
 public class FlatFileStorageProvider implements StorageProvider {
     
+    private static final int LOCK_STRIPES = 64;
+    private static final int IO_PARALLELISM = 32;
+    private static final String BINARY_EXTENSION = ".dzb";
+    private static final String YAML_EXTENSION = ".yml";
+    
     private final DZEconomy plugin;
+    private final Object[] locks;
     private File dataFolder;
+    private boolean fsync;
+    private boolean binary;
     
     public FlatFileStorageProvider(DZEconomy plugin) {
         this.plugin = plugin;
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
     }
     
     @Override
@@ -28,105 +73,333 @@ public class FlatFileStorageProvider implements StorageProvider {
         if (!dataFolder.exists()) {
             dataFolder.mkdirs();
         }
+        fsync = plugin.getConfigManager().getConfig().getBoolean("storage.flatfile.fsync", false);
+        binary = !"YAML".equalsIgnoreCase(plugin.getConfigManager().getConfig().getString("storage.flatfile.format", "BINARY"));
+        
+        upgradeLayout();
+    }
+    
+    /**
+     * Move player files of the old flat layout into their shard folders
+     */
+    private void upgradeLayout() {
+        int moved = 0;
+        int failed = 0;
+        
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dataFolder.toPath(), "*.{yml,dzb}")) {
+            for (Path file : files) {
+                UUID uuid = parseUUID(file);
+                if (uuid == null) {
+                    continue;
+                }
+                
+                Path target = getPlayerFile(uuid, extensionOf(file)).toPath();
+                try {
+                    if (Files.exists(target)) {
+                        // Nothing writes to the old layout anymore, the sharded file is newer
+                        Files.delete(file);
+                        continue;
+                    }
+                    Files.createDirectories(target.getParent());
+                    move(file, target);
+                    moved++;
+                } catch (IOException e) {
+                    plugin.getLogger().severe("Failed to move " + file.getFileName() + " to the sharded layout: " + e.getMessage());
+                    failed++;
+                }
+            }
+        } catch (IOException e) {
+            throw new StorageException("Failed to upgrade player file layout", e);
+        }
+        
+        if (moved > 0 || failed > 0) {
+            plugin.getLogger().info("Moved " + moved + " player file(s) to the sharded layout"
+                    + (failed > 0 ? ", " + failed + " failed" : ""));
+        }
+    }
+    
+    /**
+     * players/ab/cd/abcd....dzb, UUIDs are random enough to spread evenly
+     */
+    private File getPlayerFile(UUID uuid) {
+        return getPlayerFile(uuid, binary ? BINARY_EXTENSION : YAML_EXTENSION);
+    }
+    
+    /**
+     * File of the player in the format that is not configured
+     */
+    private File getOtherFile(UUID uuid) {
+        return getPlayerFile(uuid, binary ? YAML_EXTENSION : BINARY_EXTENSION);
+    }
+    
+    private File getPlayerFile(UUID uuid, String extension) {
+        String name = uuid.toString();
+        return new File(dataFolder, name.substring(0, 2) + File.separator + name.substring(2, 4) + File.separator + name + extension);
+    }
+    
+    private Object lockFor(UUID uuid) {
+        return locks[Math.floorMod(uuid.hashCode(), LOCK_STRIPES)];
     }
     
     @Override
     public PlayerData loadPlayerData(UUID uuid) {
-        File playerFile = new File(dataFolder, uuid.toString() + ".yml");
-        
+        File playerFile = getPlayerFile(uuid);
         if (!playerFile.exists()) {
-            return null;
+            // Not saved since the format was switched
+            playerFile = getOtherFile(uuid);
+            if (!playerFile.exists()) {
+                return null;
+            }
         }
         
-        YamlConfiguration yaml = YamlConfiguration.loadConfiguration(playerFile);
-        PlayerData data = new PlayerData(uuid);
-        
-        // Load basic info
-        data.setUsername(yaml.getString("username", "Unknown"));
-        data.setFirstJoin(yaml.getLong("first-join", System.currentTimeMillis()));
-        data.setLastSeen(yaml.getLong("last-seen", System.currentTimeMillis()));
-        
-        // Load balances
-        for (CurrencyType type : CurrencyType.values()) {
-            String path = "balances." + type.getId();
-            data.setBalance(type, yaml.getDouble(path, 0.0));
+        try {
+            if (playerFile.getName().endsWith(BINARY_EXTENSION)) {
+                PlayerData data = PlayerDataCodec.decode(Files.readAllBytes(playerFile.toPath()));
+                if (!data.getUUID().equals(uuid)) {
+                    throw new StorageException("Player file " + playerFile.getName() + " belongs to " + data.getUUID());
+                }
+                return data;
+            }
+            
+            // Unlike loadConfiguration, load reports unreadable or corrupt files
+            YamlConfiguration yaml = new YamlConfiguration();
+            yaml.load(playerFile);
+            return YamlPlayerFormat.fromYaml(yaml, uuid);
+        } catch (IOException | InvalidConfigurationException | IllegalArgumentException e) {
+            throw new StorageException("Failed to load player data for " + uuid, e);
         }
-        
-        // Load statistics
-        for (CurrencyType type : CurrencyType.values()) {
-            data.getMoneySent().put(type, yaml.getLong("statistics." + type.getId() + "-sent", 0L));
-            data.getMoneyReceived().put(type, yaml.getLong("statistics." + type.getId() + "-received", 0L));
+    }
+    
+    @Override
+    public boolean savePlayerData(PlayerData playerData) {
+        Path parent = write(playerData);
+        if (parent == null) {
+            return false;
         }
-        
-        // Load daily limits
-        for (CurrencyType type : CurrencyType.values()) {
-            data.getDailySendCounts().put(type, yaml.getInt("daily-limits." + type.getId() + "-sends-today", 0));
-            data.getDailyRequestCounts().put(type, yaml.getInt("daily-limits." + type.getId() + "-requests-today", 0));
+        if (fsync) {
+            syncDirectory(parent);
         }
-        data.setLastDailyReset(yaml.getLong("daily-limits.last-reset", 0L));
+        return true;
+    }
+    
+    /**
+     * Write a player file through a temp file and an atomic move
+     * @return folder of the file, or null if the write failed
+     */
+    private Path write(PlayerData playerData) {
+        File playerFile = getPlayerFile(playerData.getUUID());
+        byte[] content = binary
+                ? PlayerDataCodec.encode(playerData)
+                : YamlPlayerFormat.toYaml(playerData).saveToString().getBytes(StandardCharsets.UTF_8);
+        Path target = playerFile.toPath();
+        Path temp = target.resolveSibling(playerFile.getName() + ".tmp");
         
-        // Load cooldowns
-        for (CurrencyType type : CurrencyType.values()) {
-            data.getSendCooldowns().put(type, yaml.getLong("cooldowns." + type.getId() + "-send", 0L));
-            data.getRequestCooldowns().put(type, yaml.getLong("cooldowns." + type.getId() + "-request", 0L));
+        // One writer per player at a time, they would share the temp file
+        synchronized (lockFor(playerData.getUUID())) {
+            try {
+                Files.createDirectories(target.getParent());
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(content);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    if (fsync) {
+                        channel.force(true);
+                    }
+                }
+                move(temp, target);
+                Files.deleteIfExists(getOtherFile(playerData.getUUID()).toPath());
+                return target.getParent();
+            } catch (IOException e) {
+                plugin.getLogger().severe("Failed to save player data for " + playerData.getUUID() + ": " + e.getMessage());
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+                return null;
+            }
+        }
+    }
+    
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    /**
+     * Make a completed rename durable. Not supported on every platform, where
+     * it is skipped silently.
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
         }
-        
-        return data;
     }
     
     @Override
-    public void savePlayerData(PlayerData playerData) {
-        File playerFile = new File(dataFolder, playerData.getUUID().toString() + ".yml");
-        YamlConfiguration yaml = new YamlConfiguration();
-        
-        // Save basic info
-        yaml.set("uuid", playerData.getUUID().toString());
-        yaml.set("username", playerData.getUsername());
-        yaml.set("first-join", playerData.getFirstJoin());
-        yaml.set("last-seen", playerData.getLastSeen());
+    public Map<UUID, PlayerData> loadAll(Collection<UUID> uuids) {
+        // One file per player, so the best we can do is read them in parallel
+        Map<UUID, PlayerData> loaded = new ConcurrentHashMap<>();
+        forEachConcurrently(uuids, uuid -> {
+            PlayerData data = loadOrSkip(uuid);
+            if (data != null) {
+                loaded.put(data.getUUID(), data);
+            }
+        });
+        return loaded;
+    }
+    
+    @Override
+    public Set<UUID> saveAll(Collection<PlayerData> players) {
+        Set<UUID> failed = ConcurrentHashMap.newKeySet();
+        Set<Path> written = ConcurrentHashMap.newKeySet();
+        forEachConcurrently(players, data -> {
+            Path parent = write(data);
+            if (parent == null) {
+                failed.add(data.getUUID());
+            } else {
+                written.add(parent);
+            }
+        });
         
-        // Save balances
-        for (CurrencyType type : CurrencyType.values()) {
-            yaml.set("balances." + type.getId(), playerData.getBalance(type));
+        // Batched: every folder is synced once, however many files moved into it
+        if (fsync) {
+            forEachConcurrently(written, FlatFileStorageProvider::syncDirectory);
         }
-        
-        // Save statistics
-        for (CurrencyType type : CurrencyType.values()) {
-            yaml.set("statistics." + type.getId() + "-sent", playerData.getMoneySent().get(type));
-            yaml.set("statistics." + type.getId() + "-received", playerData.getMoneyReceived().get(type));
+        return failed;
+    }
+    
+    /**
+     * Run blocking file work on virtual threads, at most IO_PARALLELISM at a
+     * time, and wait for all of it. Never on the common pool, which parallel
+     * streams would block.
+     */
+    private static <T> void forEachConcurrently(Collection<T> items, Consumer<T> action) {
+        Semaphore permits = new Semaphore(IO_PARALLELISM);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (T item : items) {
+                executor.execute(() -> {
+                    permits.acquireUninterruptibly();
+                    try {
+                        action.accept(item);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
         }
-        
-        // Save daily limits
-        for (CurrencyType type : CurrencyType.values()) {
-            yaml.set("daily-limits." + type.getId() + "-sends-today", playerData.getDailySendCounts().get(type));
-            yaml.set("daily-limits." + type.getId() + "-requests-today", playerData.getDailyRequestCounts().get(type));
+    }
+    
+    @Override
+    public long countPlayers() {
+        try (Stream<UUID> players = listPlayers()) {
+            return players.count();
         }
-        yaml.set("daily-limits.last-reset", playerData.getLastDailyReset());
-        
-        // Save cooldowns
-        for (CurrencyType type : CurrencyType.values()) {
-            yaml.set("cooldowns." + type.getId() + "-send", playerData.getSendCooldowns().get(type));
-            yaml.set("cooldowns." + type.getId() + "-request", playerData.getRequestCooldowns().get(type));
+    }
+    
+    @Override
+    public Stream<UUID> listPlayers() {
+        // Directory entries are read lazily one shard at a time, never as one big array
+        return list(dataFolder.toPath(), "[0-9a-f][0-9a-f]")
+                .flatMap(shard -> list(shard, "[0-9a-f][0-9a-f]"))
+                .flatMap(shard -> list(shard, "*.{yml,dzb}"))
+                .filter(this::isCurrentFile)
+                .map(this::parseUUID)
+                .filter(Objects::nonNull);
+    }
+    
+    /**
+     * Lazily list a directory, the stream closes the directory handle
+     */
+    private Stream<Path> list(Path directory, String glob) {
+        DirectoryStream<Path> entries;
+        try {
+            entries = Files.newDirectoryStream(directory, glob);
+        } catch (IOException e) {
+            throw new StorageException("Failed to list player files in " + directory, e);
         }
         
+        return StreamSupport.stream(entries.spliterator(), false)
+                .onClose(() -> {
+                    try {
+                        entries.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+    
+    @Override
+    public void forEachPlayer(Consumer<PlayerData> action) {
+        try (Stream<UUID> players = listPlayers()) {
+            players.forEach(uuid -> {
+                PlayerData data = loadOrSkip(uuid);
+                if (data != null) {
+                    action.accept(data);
+                }
+            });
+        }
+    }
+    
+    /**
+     * Load a player for bulk reads, where one corrupt file must not stop the rest
+     */
+    private PlayerData loadOrSkip(UUID uuid) {
         try {
-            yaml.save(playerFile);
-        } catch (IOException e) {
-            plugin.getLogger().severe("Failed to save player data for " + playerData.getUUID() + ": " + e.getMessage());
+            return loadPlayerData(uuid);
+        } catch (StorageException e) {
+            // Not every failure has a cause, e.g. a file that belongs to another player
+            Throwable cause = e.getCause();
+            plugin.getLogger().severe(e.getMessage() + (cause != null ? ": " + cause.getMessage() : ""));
+            return null;
+        }
+    }
+    
+    /**
+     * Whether a listed file is the one loadPlayerData reads, a file in the
+     * other format only counts if the player has none in the configured one
+     */
+    private boolean isCurrentFile(Path file) {
+        String extension = extensionOf(file);
+        if (extension.equals(binary ? BINARY_EXTENSION : YAML_EXTENSION)) {
+            return true;
+        }
+        String name = file.getFileName().toString();
+        String primary = name.substring(0, name.length() - extension.length()) + (binary ? BINARY_EXTENSION : YAML_EXTENSION);
+        return !Files.exists(file.resolveSibling(primary));
+    }
+    
+    private static String extensionOf(Path file) {
+        return file.getFileName().toString().endsWith(BINARY_EXTENSION) ? BINARY_EXTENSION : YAML_EXTENSION;
+    }
+    
+    /**
+     * Get the UUID from a player file name, or null for unrelated files
+     */
+    private UUID parseUUID(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return UUID.fromString(name.substring(0, name.length() - extensionOf(file).length()));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null;
         }
     }
     
     @Override
     public boolean playerDataExists(UUID uuid) {
-        File playerFile = new File(dataFolder, uuid.toString() + ".yml");
-        return playerFile.exists();
+        return getPlayerFile(uuid).exists() || getOtherFile(uuid).exists();
     }
     
     @Override
     public void deletePlayerData(UUID uuid) {
-        File playerFile = new File(dataFolder, uuid.toString() + ".yml");
-        if (playerFile.exists()) {
-            playerFile.delete();
+        synchronized (lockFor(uuid)) {
+            getPlayerFile(uuid).delete();
+            getOtherFile(uuid).delete();
         }
     }
     
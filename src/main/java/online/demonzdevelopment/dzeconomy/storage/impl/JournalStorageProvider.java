@@ -0,0 +1,782 @@
+package online.demonzdevelopment.dzeconomy.storage.impl;
+
+import online.demonzdevelopment.dzeconomy.DZEconomy;
+import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+import online.demonzdevelopment.dzeconomy.data.PlayerData;
+import online.demonzdevelopment.dzeconomy.data.PlayerDataCodec;
+import online.demonzdevelopment.dzeconomy.storage.StorageException;
+import online.demonzdevelopment.dzeconomy.storage.StorageProvider;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal storage implementation
+ *
+ * Every save appends only the changed sections of an account to the
+ * current log segment. A single writer thread group-commits whatever is
+ * queued with one fsync. The current state of every account is kept in
+ * memory, so reads never touch the disk.
+ *
+ * Snapshots compact the log: the writer starts a new segment and a
+ * background thread writes the state as of that point, after which all
+ * older segments are deleted. On startup the newest snapshot is loaded
+ * and the segments written after it are replayed; a torn record at the
+ * end of the last segment is cut off.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public class JournalStorageProvider implements StorageProvider {
+
+    private static final int SEGMENT_MAGIC = 0x445A4A4C; // DZJL
+    private static final int SNAPSHOT_MAGIC = 0x445A4A53; // DZJS
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    // Op byte followed by a PlayerDataCodec encoding of the changed sections
+    private static final byte OP_ACCOUNT = 3;
+
+    // Anything bigger is a corrupt length field, not a record
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    // How long callers wait for the writer before giving up
+    private static final long TIMEOUT_SECONDS = 30L;
+
+    private final DZEconomy plugin;
+    private final Map<UUID, PlayerData> state;
+    private final BlockingQueue<Append> appendQueue;
+    private File journalFolder;
+    private FileChannel lockChannel;
+    private FileLock lock;
+    private Thread writerThread;
+    private ExecutorService snapshotExecutor;
+    private volatile boolean running;
+
+    // Writer-only state
+    private FileChannel segment;
+    private long segmentId;
+    private long bytesSinceSnapshot;
+    private long lastSnapshot;
+    private Future<?> runningSnapshot;
+
+    private long segmentSize;
+    private int groupCommitSize;
+    private boolean fsync;
+    private long snapshotInterval;
+    private long snapshotThreshold;
+
+    public JournalStorageProvider(DZEconomy plugin) {
+        this.plugin = plugin;
+        this.state = new ConcurrentHashMap<>();
+        this.appendQueue = new LinkedBlockingQueue<>();
+    }
+
+    @Override
+    public void initialize() {
+        journalFolder = new File(plugin.getDataFolder(), "data/journal");
+        journalFolder.mkdirs();
+
+        segmentSize = Math.max(1L, plugin.getConfigManager().getConfig().getLong("storage.journal.segment-size", 64L)) * 1024L * 1024L;
+        groupCommitSize = Math.max(1, plugin.getConfigManager().getConfig().getInt("storage.journal.group-commit-size", 512));
+        fsync = plugin.getConfigManager().getConfig().getBoolean("storage.journal.fsync", true);
+        snapshotInterval = TimeUnit.MINUTES.toMillis(Math.max(0L, plugin.getConfigManager().getConfig().getLong("storage.journal.snapshot-interval", 10L)));
+        snapshotThreshold = Math.max(1L, plugin.getConfigManager().getConfig().getLong("storage.journal.snapshot-threshold", 128L)) * 1024L * 1024L;
+
+        try {
+            // Two providers appending to and compacting the same journal would destroy it
+            lockChannel = FileChannel.open(new File(journalFolder, "journal.lock").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                lock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                lockChannel.close();
+                throw new StorageException("Journal " + journalFolder.getPath() + " is already in use");
+            }
+
+            long lastId = recover();
+            openSegment(lastId + 1);
+        } catch (IOException e) {
+            throw new StorageException("Failed to open journal: " + e.getMessage(), e);
+        }
+        lastSnapshot = System.currentTimeMillis();
+
+        snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DZEconomy-Journal-Snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        running = true;
+        writerThread = new Thread(this::runWriter, "DZEconomy-Journal-Writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        plugin.getLogger().info("Journal opened with " + state.size() + " account(s)");
+    }
+
+    // Recovery
+
+    /**
+     * Load the newest snapshot and replay the segments written after it
+     * @return highest segment or snapshot id found
+     */
+    private long recover() throws IOException {
+        TreeMap<Long, File> snapshots = listFiles("snapshot-", ".dat");
+        TreeMap<Long, File> segments = listFiles("segment-", ".log");
+
+        long replayFrom = 0;
+        for (Map.Entry<Long, File> entry : snapshots.descendingMap().entrySet()) {
+            try {
+                loadSnapshot(entry.getValue());
+                replayFrom = entry.getKey();
+                break;
+            } catch (IOException e) {
+                // Fall back to the previous snapshot, its segments are only deleted after a newer one succeeded
+                plugin.getLogger().severe("Ignoring unreadable snapshot " + entry.getValue().getName() + ": " + e.getMessage());
+                state.clear();
+            }
+        }
+
+        long replayed = 0;
+        Map<Long, File> tail = segments.tailMap(replayFrom, true);
+        Long last = tail.isEmpty() ? null : segments.lastKey();
+        for (Map.Entry<Long, File> entry : tail.entrySet()) {
+            replayed += replaySegment(entry.getValue(), entry.getKey().equals(last));
+        }
+
+        if (replayed > 0) {
+            plugin.getLogger().info("Replayed " + replayed + " journal record(s) after the last snapshot");
+        }
+
+        long lastId = replayFrom;
+        if (!segments.isEmpty()) {
+            lastId = Math.max(lastId, segments.lastKey());
+        }
+        if (!snapshots.isEmpty()) {
+            lastId = Math.max(lastId, snapshots.lastKey());
+        }
+        return lastId;
+    }
+
+    private void loadSnapshot(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("not a snapshot file");
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] payload = readRecord(in);
+                if (payload == null) {
+                    throw new IOException("snapshot is truncated or corrupt");
+                }
+                apply(payload);
+            }
+        }
+    }
+
+    /**
+     * @return number of records replayed
+     */
+    private long replaySegment(File file, boolean lastSegment) throws IOException {
+        long records = 0;
+        long validLength = HEADER_SIZE;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != SEGMENT_MAGIC || in.readInt() != FORMAT_VERSION) {
+                plugin.getLogger().severe("Skipping unknown journal segment " + file.getName());
+                return 0;
+            }
+
+            while (true) {
+                byte[] payload;
+                try {
+                    payload = readRecord(in);
+                } catch (EOFException e) {
+                    payload = null;
+                }
+                if (payload == null) {
+                    break;
+                }
+
+                apply(payload);
+                records++;
+                validLength += 8 + payload.length;
+            }
+        } catch (EOFException e) {
+            // Header itself was torn
+            validLength = 0;
+        }
+
+        if (validLength < file.length()) {
+            if (lastSegment) {
+                plugin.getLogger().warning("Cutting off " + (file.length() - validLength) + " byte(s) of incomplete records from " + file.getName());
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                    channel.truncate(validLength);
+                }
+            } else {
+                plugin.getLogger().severe("Journal segment " + file.getName() + " is corrupt after " + records + " record(s), the rest of it was skipped");
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Read one framed record: length, CRC32, payload
+     * @return the payload, or null at a clean end of file or a damaged record
+     */
+    private byte[] readRecord(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length <= 0 || length > MAX_RECORD_SIZE) {
+            return null;
+        }
+
+        int checksum = in.readInt();
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == checksum ? payload : null;
+    }
+
+    private TreeMap<Long, File> listFiles(String prefix, String suffix) {
+        TreeMap<Long, File> files = new TreeMap<>();
+        File[] list = journalFolder.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(suffix));
+        if (list == null) {
+            return files;
+        }
+
+        for (File file : list) {
+            String name = file.getName();
+            try {
+                files.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), file);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return files;
+    }
+
+    // Record encoding
+
+    /**
+     * Encode the sections of an account selected by the mask
+     */
+    private byte[] encodePut(PlayerData data, int mask) {
+        byte[] encoded = PlayerDataCodec.encode(data, mask);
+        byte[] payload = new byte[encoded.length + 1];
+        payload[0] = OP_ACCOUNT;
+        System.arraycopy(encoded, 0, payload, 1, encoded.length);
+        return payload;
+    }
+
+    private byte[] encodeDelete(UUID uuid) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(17);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(OP_DELETE);
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Apply an encoded record to the in-memory state. Published accounts
+     * are never modified, a changed account replaces the old instance.
+     */
+    private void apply(byte[] payload) throws IOException {
+        if (payload.length > 0 && payload[0] == OP_ACCOUNT) {
+            applyAccount(payload);
+            return;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        UUID uuid = new UUID(in.readLong(), in.readLong());
+
+        if (op == OP_DELETE) {
+            state.remove(uuid);
+            return;
+        }
+        if (op != OP_PUT) {
+            throw new IOException("unknown journal operation " + op);
+        }
+
+        // Records written before accounts used PlayerDataCodec
+
+        PlayerData current = state.get(uuid);
+        PlayerData data = current != null ? current.snapshot() : new PlayerData(uuid);
+        int mask = in.readUnsignedByte();
+
+        if ((mask & PlayerData.DIRTY_PROFILE) != 0) {
+            String username = in.readUTF();
+            data.setUsername(username.isEmpty() ? null : username);
+            data.setFirstJoin(in.readLong());
+            data.setLastSeen(in.readLong());
+        }
+        if ((mask & PlayerData.DIRTY_BALANCES) != 0) {
+            int count = in.readUnsignedByte();
+            for (int i = 0; i < count; i++) {
+                CurrencyType type = CurrencyType.fromStorageId(in.readUnsignedByte());
+                double balance = in.readDouble();
+                if (type != null) {
+                    data.setBalance(type, balance);
+                }
+            }
+        }
+        if ((mask & PlayerData.DIRTY_STATISTICS) != 0) {
+            int count = in.readUnsignedByte();
+            for (int i = 0; i < count; i++) {
+                CurrencyType type = CurrencyType.fromStorageId(in.readUnsignedByte());
+                long sent = in.readLong();
+                long received = in.readLong();
+                if (type != null) {
+                    data.setMoneySent(type, sent);
+                    data.setMoneyReceived(type, received);
+                }
+            }
+        }
+        if ((mask & PlayerData.DIRTY_DAILY_LIMITS) != 0) {
+            data.setLastDailyReset(in.readLong());
+            int count = in.readUnsignedByte();
+            for (int i = 0; i < count; i++) {
+                CurrencyType type = CurrencyType.fromStorageId(in.readUnsignedByte());
+                int sends = in.readInt();
+                int requests = in.readInt();
+                if (type != null) {
+                    data.setDailySendCount(type, sends);
+                    data.setDailyRequestCount(type, requests);
+                }
+            }
+        }
+        if ((mask & PlayerData.DIRTY_COOLDOWNS) != 0) {
+            int count = in.readUnsignedByte();
+            for (int i = 0; i < count; i++) {
+                CurrencyType type = CurrencyType.fromStorageId(in.readUnsignedByte());
+                long send = in.readLong();
+                long request = in.readLong();
+                if (type != null) {
+                    data.setSendCooldown(type, send);
+                    data.setRequestCooldown(type, request);
+                }
+            }
+        }
+
+        data.clearDirty();
+        state.put(uuid, data);
+    }
+
+    private void applyAccount(byte[] payload) throws IOException {
+        byte[] encoded = Arrays.copyOfRange(payload, 1, payload.length);
+        try {
+            UUID uuid = PlayerDataCodec.readUUID(encoded);
+            PlayerData current = state.get(uuid);
+            PlayerData data = current != null ? current.snapshot() : new PlayerData(uuid);
+            PlayerDataCodec.decodeInto(data, encoded);
+            data.clearDirty();
+            state.put(uuid, data);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("corrupt account record: " + e.getMessage(), e);
+        }
+    }
+
+    private static void writeFramed(DataOutputStream out, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    }
+
+    // Writer
+
+    private static final class Append {
+        private final UUID uuid;
+        private final byte[] payload;
+        private final CompletableFuture<Boolean> result;
+
+        private Append(UUID uuid, byte[] payload) {
+            this.uuid = uuid;
+            this.payload = payload;
+            this.result = new CompletableFuture<>();
+        }
+    }
+
+    /**
+     * Writer loop: append everything that is queued, fsync once for the
+     * whole group, then publish the changes to the in-memory state
+     */
+    private void runWriter() {
+        List<Append> group = new ArrayList<>();
+
+        while (running || !appendQueue.isEmpty()) {
+            try {
+                Append first = appendQueue.poll(250, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    group.add(first);
+                    appendQueue.drainTo(group, groupCommitSize - 1);
+                    commitGroup(group);
+                }
+
+                if (shouldSnapshot()) {
+                    startSnapshot(false);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                plugin.getLogger().severe("Journal writer error: " + e.getMessage());
+            } finally {
+                for (Append append : group) {
+                    append.result.complete(false);
+                }
+                group.clear();
+            }
+        }
+    }
+
+    private void commitGroup(List<Append> group) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        long start = -1;
+
+        try {
+            for (Append append : group) {
+                writeFramed(out, append.payload);
+            }
+            out.flush();
+
+            start = segment.position();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                segment.write(buffer);
+            }
+            if (fsync) {
+                segment.force(false);
+            }
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to append " + group.size() + " journal record(s): " + e.getMessage());
+            // Do not leave a partial group in front of later records
+            if (start >= 0) {
+                try {
+                    segment.truncate(start);
+                    segment.position(start);
+                } catch (IOException ignored) {
+                }
+            }
+            return;
+        }
+
+        bytesSinceSnapshot += bytes.size();
+        for (Append append : group) {
+            try {
+                apply(append.payload);
+                append.result.complete(true);
+            } catch (IOException e) {
+                plugin.getLogger().severe("Failed to apply journal record for " + append.uuid + ": " + e.getMessage());
+            }
+        }
+
+        try {
+            if (segment.position() >= segmentSize) {
+                rotate();
+            }
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to start a new journal segment: " + e.getMessage());
+        }
+    }
+
+    private void openSegment(long id) throws IOException {
+        File file = new File(journalFolder, String.format("segment-%016d.log", id));
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(SEGMENT_MAGIC).putInt(FORMAT_VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+
+        segment = channel;
+        segmentId = id;
+    }
+
+    private void rotate() throws IOException {
+        FileChannel previous = segment;
+        openSegment(segmentId + 1);
+        previous.force(true);
+        previous.close();
+    }
+
+    private boolean shouldSnapshot() {
+        if (runningSnapshot != null && !runningSnapshot.isDone()) {
+            return false;
+        }
+        if (bytesSinceSnapshot >= snapshotThreshold) {
+            return true;
+        }
+        return snapshotInterval > 0 && bytesSinceSnapshot > 0
+                && System.currentTimeMillis() - lastSnapshot >= snapshotInterval;
+    }
+
+    /**
+     * Start a new segment and write the state as of that point. Only called
+     * by the writer (or by close once the writer stopped), so the copied
+     * state matches exactly the segments before the new one.
+     */
+    private Future<?> startSnapshot(boolean wait) {
+        try {
+            rotate();
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to start a new journal segment: " + e.getMessage());
+            return null;
+        }
+
+        long snapshotId = segmentId;
+        List<PlayerData> accounts = new ArrayList<>(state.values());
+        bytesSinceSnapshot = 0;
+        lastSnapshot = System.currentTimeMillis();
+
+        Runnable work = () -> writeSnapshot(snapshotId, accounts);
+        if (wait) {
+            work.run();
+            return null;
+        }
+        runningSnapshot = snapshotExecutor.submit(work);
+        return runningSnapshot;
+    }
+
+    private void writeSnapshot(long snapshotId, List<PlayerData> accounts) {
+        File target = new File(journalFolder, String.format("snapshot-%016d.dat", snapshotId));
+        File temp = new File(journalFolder, target.getName() + ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(accounts.size());
+                for (PlayerData data : accounts) {
+                    writeFramed(out, encodePut(data, PlayerData.DIRTY_ALL));
+                }
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to write journal snapshot: " + e.getMessage());
+            temp.delete();
+            return;
+        }
+
+        // Everything before this snapshot is now redundant
+        for (Map.Entry<Long, File> entry : listFiles("segment-", ".log").headMap(snapshotId, false).entrySet()) {
+            entry.getValue().delete();
+        }
+        for (Map.Entry<Long, File> entry : listFiles("snapshot-", ".dat").headMap(snapshotId, false).entrySet()) {
+            entry.getValue().delete();
+        }
+    }
+
+    private CompletableFuture<Boolean> submit(UUID uuid, byte[] payload) {
+        Append append = new Append(uuid, payload);
+        if (!running) {
+            plugin.getLogger().severe("Failed to save player data for " + uuid + ": journal writer is not running");
+            append.result.complete(false);
+            return append.result;
+        }
+
+        appendQueue.add(append);
+        return append.result;
+    }
+
+    private boolean await(CompletableFuture<Boolean> result) {
+        try {
+            return result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            plugin.getLogger().severe("Journal write did not complete: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Reads
+
+    @Override
+    public PlayerData loadPlayerData(UUID uuid) {
+        PlayerData data = state.get(uuid);
+        return data != null ? data.snapshot() : null;
+    }
+
+    @Override
+    public Map<UUID, PlayerData> loadAll(Collection<UUID> uuids) {
+        Map<UUID, PlayerData> result = new HashMap<>();
+        for (UUID uuid : uuids) {
+            PlayerData data = loadPlayerData(uuid);
+            if (data != null) {
+                result.put(uuid, data);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long countPlayers() {
+        return state.size();
+    }
+
+    @Override
+    public Stream<UUID> listPlayers() {
+        // Everything is in memory already, a copy keeps the stream stable
+        return new ArrayList<>(state.keySet()).stream();
+    }
+
+    @Override
+    public void forEachPlayer(Consumer<PlayerData> action) {
+        for (PlayerData data : new ArrayList<>(state.values())) {
+            action.accept(data.snapshot());
+        }
+    }
+
+    @Override
+    public boolean playerDataExists(UUID uuid) {
+        return state.containsKey(uuid);
+    }
+
+    // Writes
+
+    @Override
+    public boolean savePlayerData(PlayerData playerData) {
+        int mask = playerData.getDirtyFlags();
+        if (mask == 0) {
+            return true;
+        }
+
+        return await(submit(playerData.getUUID(), encodePut(playerData, mask)));
+    }
+
+    @Override
+    public Set<UUID> saveAll(Collection<PlayerData> players) {
+        Set<UUID> failed = new HashSet<>();
+        Map<UUID, CompletableFuture<Boolean>> results = new HashMap<>();
+
+        // Queue everything first so it lands in as few group commits as possible
+        for (PlayerData data : players) {
+            int mask = data.getDirtyFlags();
+            if (mask == 0) {
+                continue;
+            }
+            results.put(data.getUUID(), submit(data.getUUID(), encodePut(data, mask)));
+        }
+
+        for (Map.Entry<UUID, CompletableFuture<Boolean>> entry : results.entrySet()) {
+            if (!await(entry.getValue())) {
+                failed.add(entry.getKey());
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public void deletePlayerData(UUID uuid) {
+        try {
+            await(submit(uuid, encodeDelete(uuid)));
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to delete player data: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+
+        // Let the writer finish everything that was queued before the shutdown
+        if (writerThread != null) {
+            try {
+                writerThread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Append append;
+        while ((append = appendQueue.poll()) != null) {
+            append.result.complete(false);
+        }
+
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdown();
+            try {
+                snapshotExecutor.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (segment != null) {
+            // A final snapshot makes the next startup replay nothing
+            if (bytesSinceSnapshot > 0) {
+                startSnapshot(true);
+            }
+            try {
+                segment.force(true);
+                segment.close();
+            } catch (IOException e) {
+                plugin.getLogger().severe("Failed to close journal segment: " + e.getMessage());
+            }
+        }
+
+        if (lockChannel != null) {
+            try {
+                // Closing the channel releases the lock
+                lockChannel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
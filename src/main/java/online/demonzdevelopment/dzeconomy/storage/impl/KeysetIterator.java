@@ -0,0 +1,71 @@
+package online.demonzdevelopment.dzeconomy.storage.impl;
+
+import online.demonzdevelopment.dzeconomy.storage.StorageException;
+import online.demonzdevelopment.dzeconomy.util.UUIDUtil;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * Iterator over a table ordered by its binary UUID key. Each page is
+ * fetched with "WHERE uuid > last key ORDER BY uuid LIMIT n" only once
+ * the previous one is used up, so any table size is walked in constant
+ * memory without holding a cursor or connection open between pages.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+abstract class KeysetIterator<T> implements Iterator<T> {
+
+    private final int pageSize;
+    private final Deque<T> page;
+    private byte[] lastKey;
+    private boolean exhausted;
+
+    KeysetIterator(int pageSize) {
+        this.pageSize = pageSize;
+        this.page = new ArrayDeque<>();
+    }
+
+    /**
+     * Fetch the next page of at most pageSize items
+     * @param after key of the last item of the previous page, null for the first page
+     */
+    protected abstract List<T> fetch(byte[] after, int limit) throws SQLException;
+
+    protected abstract UUID keyOf(T item);
+
+    @Override
+    public boolean hasNext() {
+        if (page.isEmpty() && !exhausted) {
+            List<T> next;
+            try {
+                next = fetch(lastKey, pageSize);
+            } catch (SQLException e) {
+                throw new StorageException("Failed to read page after " + (lastKey == null ? "start" : UUIDUtil.fromBytes(lastKey)), e);
+            }
+
+            if (next.size() < pageSize) {
+                exhausted = true;
+            }
+            if (!next.isEmpty()) {
+                lastKey = UUIDUtil.toBytes(keyOf(next.get(next.size() - 1)));
+                page.addAll(next);
+            }
+        }
+        return !page.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.poll();
+    }
+}
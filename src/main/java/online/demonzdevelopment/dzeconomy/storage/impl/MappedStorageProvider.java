@@ -0,0 +1,609 @@
+package online.demonzdevelopment.dzeconomy.storage.impl;
+
+import online.demonzdevelopment.dzeconomy.DZEconomy;
+import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+import online.demonzdevelopment.dzeconomy.currency.Money;
+import online.demonzdevelopment.dzeconomy.data.PlayerData;
+import online.demonzdevelopment.dzeconomy.storage.StorageException;
+import online.demonzdevelopment.dzeconomy.storage.StorageProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-mapped storage implementation
+ *
+ * Every account is a fixed-width record in data/economy.dat, addressed by
+ * slot. The file is mapped in regions that are never remapped, so growing
+ * the file only maps one more region. A UUID-to-slot index is rebuilt from
+ * the records on startup. Saves write only the changed sections in place,
+ * under one of a fixed set of striped locks chosen by slot; persistence is
+ * left to the OS page cache with a periodic force().
+ *
+ * Balances are minor units (see Money) at the scales noted in the header.
+ * Files of version 1 (doubles) or with other scales are converted on
+ * startup, after a copy of the file was taken to economy.dat.bak.
+ *
+ * Records are 512 bytes so a record never spans two pages, and end with a
+ * CRC32 so a record torn by a crash is detected instead of loaded. The slot
+ * of a torn record is quarantined: loading or saving its account fails
+ * until it is restored or deleted, rather than starting a new account over it.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public class MappedStorageProvider implements StorageProvider {
+
+    private static final int MAGIC = 0x445A4D4D; // DZMM
+    // Version 2: balances as minor units instead of doubles
+    private static final int FORMAT_VERSION = 2;
+
+    // File header
+    private static final int HEADER_SIZE = 4096;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_RECORD_SIZE = 8;
+    private static final int HEADER_REGION_RECORDS = 12;
+    private static final int HEADER_HIGH_WATER = 16;
+    private static final int HEADER_CONVERTING = 20;
+    private static final int HEADER_SCALES = 24; // one byte per currency storage id
+
+    // Record layout
+    private static final int RECORD_SIZE = 512;
+    private static final int REGION_RECORDS = 8192;
+    private static final long REGION_SIZE = (long) RECORD_SIZE * REGION_RECORDS;
+
+    private static final int OFF_STATE = 0;
+    private static final int OFF_UUID_MSB = 1;
+    private static final int OFF_UUID_LSB = 9;
+    private static final int OFF_NAME_LENGTH = 17;
+    private static final int OFF_NAME = 18;
+    private static final int NAME_BYTES = 16;
+    private static final int OFF_FIRST_JOIN = 34;
+    private static final int OFF_LAST_SEEN = 42;
+    private static final int OFF_LAST_RESET = 50;
+    private static final int OFF_CURRENCIES = 58;
+    private static final int OFF_CRC = RECORD_SIZE - 4;
+
+    // One block per currency storage id, room for more currencies than exist today
+    private static final int MAX_CURRENCIES = 8;
+    private static final int CURRENCY_SIZE = 48;
+    private static final int CUR_BALANCE = 0;
+    private static final int CUR_SENT = 8;
+    private static final int CUR_RECEIVED = 16;
+    private static final int CUR_SENDS_TODAY = 24;
+    private static final int CUR_REQUESTS_TODAY = 28;
+    private static final int CUR_SEND_COOLDOWN = 32;
+    private static final int CUR_REQUEST_COOLDOWN = 40;
+
+    // Free slots are all zeroes
+    private static final byte STATE_USED = 1;
+
+    private final DZEconomy plugin;
+    private final Map<UUID, Integer> index;
+    private final Map<UUID, Integer> quarantined;
+    private final Deque<Integer> freeSlots;
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private volatile MappedByteBuffer[] regions;
+    private int highWater;
+    private Object[] stripes;
+    private ScheduledExecutorService flusher;
+    private volatile boolean running;
+
+    public MappedStorageProvider(DZEconomy plugin) {
+        this.plugin = plugin;
+        this.index = new ConcurrentHashMap<>();
+        this.quarantined = new ConcurrentHashMap<>();
+        this.freeSlots = new ArrayDeque<>();
+        this.regions = new MappedByteBuffer[0];
+    }
+
+    @Override
+    public void initialize() {
+        for (CurrencyType type : CurrencyType.values()) {
+            if (type.getStorageId() < 1 || type.getStorageId() > MAX_CURRENCIES) {
+                throw new StorageException("Currency " + type.getId() + " does not fit the mapped record layout");
+            }
+        }
+
+        int stripeCount = Math.max(1, plugin.getConfigManager().getConfig().getInt("storage.mmap.lock-stripes", 64));
+        stripes = new Object[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Object();
+        }
+
+        File file = new File(plugin.getDataFolder(), "data/economy.dat");
+        file.getParentFile().mkdirs();
+
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean created = channel.size() < HEADER_SIZE;
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+            if (created) {
+                header.putInt(HEADER_MAGIC, MAGIC);
+                header.putInt(HEADER_VERSION, FORMAT_VERSION);
+                header.putInt(HEADER_RECORD_SIZE, RECORD_SIZE);
+                header.putInt(HEADER_REGION_RECORDS, REGION_RECORDS);
+                header.putInt(HEADER_HIGH_WATER, 0);
+                writeScales();
+                header.force();
+            } else if (header.getInt(HEADER_MAGIC) != MAGIC || header.getInt(HEADER_VERSION) < 1
+                    || header.getInt(HEADER_VERSION) > FORMAT_VERSION
+                    || header.getInt(HEADER_RECORD_SIZE) != RECORD_SIZE
+                    || header.getInt(HEADER_REGION_RECORDS) != REGION_RECORDS) {
+                throw new StorageException(file.getName() + " is not a DZEconomy data file of a supported version");
+            }
+
+            highWater = header.getInt(HEADER_HIGH_WATER);
+            ensureCapacity(highWater);
+            convertBalances(file);
+            rebuildIndex();
+        } catch (IOException e) {
+            throw new StorageException("Failed to map " + file.getName() + ": " + e.getMessage(), e);
+        }
+
+        running = true;
+        long interval = Math.max(1L, plugin.getConfigManager().getConfig().getLong("storage.mmap.force-interval", 5L));
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DZEconomy-MMAP-Flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::force, interval, interval, TimeUnit.SECONDS);
+
+        plugin.getLogger().info("Mapped " + index.size() + " account(s) from " + file.getName());
+    }
+
+    // Conversion
+
+    /**
+     * Bring balances written as doubles or at other scales to minor units
+     * at the configured scales. A conversion cut short is redone from the
+     * copy taken before it started.
+     */
+    private void convertBalances(File file) throws IOException {
+        File backup = new File(file.getParentFile(), file.getName() + ".bak");
+        if (header.getInt(HEADER_CONVERTING) != 0) {
+            plugin.getLogger().warning("The last conversion of " + file.getName() + " was interrupted, restoring it from " + backup.getName());
+            try (FileChannel source = FileChannel.open(backup.toPath(), StandardOpenOption.READ)) {
+                long size = source.size();
+                long position = 0;
+                while (position < size) {
+                    position += channel.transferFrom(source, position, size - position);
+                }
+            }
+            highWater = header.getInt(HEADER_HIGH_WATER);
+            ensureCapacity(highWater);
+        }
+
+        int version = header.getInt(HEADER_VERSION);
+        boolean needed = version < 2;
+        for (CurrencyType type : CurrencyType.values()) {
+            needed |= header.get(HEADER_SCALES + type.getStorageId() - 1) != Money.getScale(type);
+        }
+        if (!needed) {
+            return;
+        }
+
+        plugin.getLogger().info("Converting balances in " + file.getName() + " to minor units, a copy is kept as " + backup.getName());
+        force();
+        File temp = new File(file.getParentFile(), backup.getName() + ".tmp");
+        Files.copy(file.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(temp.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        header.putInt(HEADER_CONVERTING, 1);
+        header.force();
+
+        for (int slot = 0; slot < highWater; slot++) {
+            ByteBuffer region = region(slot);
+            int base = offset(slot);
+            // Torn records stay as they are, they are skipped on load anyway
+            if (region.get(base + OFF_STATE) != STATE_USED || region.getInt(base + OFF_CRC) != checksum(region, base)) {
+                continue;
+            }
+            for (CurrencyType type : CurrencyType.values()) {
+                int cur = currencyOffset(base, type);
+                long units;
+                try {
+                    units = version < 2 ? Money.toUnits(type, region.getDouble(cur + CUR_BALANCE))
+                            : Money.rescale(region.getLong(cur + CUR_BALANCE),
+                                    header.get(HEADER_SCALES + type.getStorageId() - 1), Money.getScale(type));
+                } catch (ArithmeticException e) {
+                    throw new StorageException("A " + type.getId() + " balance in slot " + slot + " does not fit "
+                            + Money.getScale(type) + " decimal places, lower currencies." + type.getId() + ".decimal-places");
+                }
+                region.putLong(cur + CUR_BALANCE, units);
+            }
+            region.putInt(base + OFF_CRC, checksum(region, base));
+        }
+
+        force();
+        header.putInt(HEADER_VERSION, FORMAT_VERSION);
+        writeScales();
+        header.putInt(HEADER_CONVERTING, 0);
+        header.force();
+    }
+
+    private void writeScales() {
+        for (CurrencyType type : CurrencyType.values()) {
+            header.put(HEADER_SCALES + type.getStorageId() - 1, (byte) Money.getScale(type));
+        }
+    }
+
+    // Slots
+
+    /**
+     * Scan every record below the high-water mark and index the used ones
+     */
+    private void rebuildIndex() {
+        for (int slot = 0; slot < highWater; slot++) {
+            ByteBuffer region = region(slot);
+            int base = offset(slot);
+
+            if (region.get(base + OFF_STATE) != STATE_USED) {
+                freeSlots.add(slot);
+                continue;
+            }
+
+            UUID uuid = new UUID(region.getLong(base + OFF_UUID_MSB), region.getLong(base + OFF_UUID_LSB));
+            if (region.getInt(base + OFF_CRC) != checksum(region, base)) {
+                // Left alone rather than reused, so the record can still be inspected
+                quarantined.putIfAbsent(uuid, slot);
+                continue;
+            }
+
+            if (index.putIfAbsent(uuid, slot) != null) {
+                plugin.getLogger().warning("Duplicate record of " + uuid + " in slot " + slot + ", keeping the first one");
+            }
+        }
+
+        // A torn copy next to an intact record of the same account is just left behind
+        quarantined.keySet().removeAll(index.keySet());
+        for (Map.Entry<UUID, Integer> entry : quarantined.entrySet()) {
+            plugin.getLogger().severe("Record of " + entry.getKey() + " in slot " + entry.getValue()
+                    + " is torn, the account cannot be loaded until the file is restored from a backup");
+        }
+    }
+
+    private StorageException tornRecord(UUID uuid) {
+        return new StorageException("Record of " + uuid + " in slot " + quarantined.get(uuid) + " is torn");
+    }
+
+    /**
+     * Hand out a free slot, growing the file by one region when needed
+     */
+    private synchronized int allocateSlot() {
+        Integer free = freeSlots.poll();
+        if (free != null) {
+            return free;
+        }
+
+        int slot = highWater;
+        try {
+            ensureCapacity(slot + 1);
+        } catch (IOException e) {
+            throw new StorageException("Failed to grow data file: " + e.getMessage(), e);
+        }
+
+        highWater = slot + 1;
+        header.putInt(HEADER_HIGH_WATER, highWater);
+        return slot;
+    }
+
+    private synchronized void releaseSlot(int slot) {
+        freeSlots.add(slot);
+    }
+
+    private synchronized void ensureCapacity(int records) throws IOException {
+        int needed = (records + REGION_RECORDS - 1) / REGION_RECORDS;
+        MappedByteBuffer[] current = regions;
+        if (needed <= current.length) {
+            return;
+        }
+
+        // Existing regions stay mapped, readers keep using them while the array is replaced
+        MappedByteBuffer[] grown = Arrays.copyOf(current, needed);
+        for (int i = current.length; i < needed; i++) {
+            grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + i * REGION_SIZE, REGION_SIZE);
+        }
+        regions = grown;
+    }
+
+    private ByteBuffer region(int slot) {
+        return regions[slot / REGION_RECORDS];
+    }
+
+    private static int offset(int slot) {
+        return (slot % REGION_RECORDS) * RECORD_SIZE;
+    }
+
+    private Object stripe(int slot) {
+        return stripes[slot % stripes.length];
+    }
+
+    private static int currencyOffset(int base, CurrencyType type) {
+        return base + OFF_CURRENCIES + (type.getStorageId() - 1) * CURRENCY_SIZE;
+    }
+
+    private static int checksum(ByteBuffer region, int base) {
+        CRC32 crc = new CRC32();
+        crc.update(region.slice(base, OFF_CRC));
+        return (int) crc.getValue();
+    }
+
+    // Reads
+
+    @Override
+    public PlayerData loadPlayerData(UUID uuid) {
+        Integer slot = index.get(uuid);
+        if (slot == null) {
+            if (quarantined.containsKey(uuid)) {
+                throw tornRecord(uuid);
+            }
+            return null;
+        }
+
+        synchronized (stripe(slot)) {
+            ByteBuffer region = region(slot);
+            int base = offset(slot);
+
+            // The slot may have been claimed but not written yet, or freed meanwhile
+            if (region.get(base + OFF_STATE) != STATE_USED
+                    || region.getLong(base + OFF_UUID_MSB) != uuid.getMostSignificantBits()
+                    || region.getLong(base + OFF_UUID_LSB) != uuid.getLeastSignificantBits()) {
+                return null;
+            }
+
+            PlayerData data = new PlayerData(uuid);
+            int nameLength = region.get(base + OFF_NAME_LENGTH);
+            if (nameLength > 0) {
+                byte[] name = new byte[nameLength];
+                region.get(base + OFF_NAME, name);
+                data.setUsername(new String(name, StandardCharsets.UTF_8));
+            }
+            data.setFirstJoin(region.getLong(base + OFF_FIRST_JOIN));
+            data.setLastSeen(region.getLong(base + OFF_LAST_SEEN));
+            data.setLastDailyReset(region.getLong(base + OFF_LAST_RESET));
+
+            for (CurrencyType type : CurrencyType.values()) {
+                int cur = currencyOffset(base, type);
+                data.setBalanceUnits(type, region.getLong(cur + CUR_BALANCE));
+                data.setMoneySent(type, region.getLong(cur + CUR_SENT));
+                data.setMoneyReceived(type, region.getLong(cur + CUR_RECEIVED));
+                data.setDailySendCount(type, region.getInt(cur + CUR_SENDS_TODAY));
+                data.setDailyRequestCount(type, region.getInt(cur + CUR_REQUESTS_TODAY));
+                data.setSendCooldown(type, region.getLong(cur + CUR_SEND_COOLDOWN));
+                data.setRequestCooldown(type, region.getLong(cur + CUR_REQUEST_COOLDOWN));
+            }
+
+            data.clearDirty();
+            return data;
+        }
+    }
+
+    @Override
+    public Map<UUID, PlayerData> loadAll(Collection<UUID> uuids) {
+        Map<UUID, PlayerData> result = new HashMap<>();
+        for (UUID uuid : uuids) {
+            PlayerData data = loadPlayerData(uuid);
+            if (data != null) {
+                result.put(uuid, data);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long countPlayers() {
+        return index.size() + quarantined.size();
+    }
+
+    @Override
+    public Stream<UUID> listPlayers() {
+        // The index is in memory already, a copy keeps the stream stable.
+        // Torn records are listed too, so a migration stops at them instead of leaving them out.
+        return storedPlayers().stream();
+    }
+
+    @Override
+    public void forEachPlayer(Consumer<PlayerData> action) {
+        for (UUID uuid : storedPlayers()) {
+            PlayerData data = loadPlayerData(uuid);
+            if (data != null) {
+                action.accept(data);
+            }
+        }
+    }
+
+    private List<UUID> storedPlayers() {
+        List<UUID> uuids = new ArrayList<>(index.keySet());
+        uuids.addAll(quarantined.keySet());
+        return uuids;
+    }
+
+    @Override
+    public boolean playerDataExists(UUID uuid) {
+        return index.containsKey(uuid) || quarantined.containsKey(uuid);
+    }
+
+    // Writes
+
+    @Override
+    public boolean savePlayerData(PlayerData playerData) {
+        if (!running) {
+            plugin.getLogger().severe("Failed to save player data: data file is closed");
+            return false;
+        }
+
+        UUID uuid = playerData.getUUID();
+        if (quarantined.containsKey(uuid)) {
+            plugin.getLogger().severe("Failed to save player data: " + tornRecord(uuid).getMessage());
+            return false;
+        }
+
+        int[] created = new int[1];
+        int slot;
+        try {
+            slot = index.computeIfAbsent(uuid, key -> {
+                created[0] = 1;
+                return allocateSlot();
+            });
+        } catch (StorageException e) {
+            plugin.getLogger().severe("Failed to save player data: " + e.getMessage());
+            return false;
+        }
+
+        // A new record is written in full, an existing one only where it changed
+        int mask = created[0] == 1 ? PlayerData.DIRTY_ALL : playerData.getDirtyFlags();
+
+        synchronized (stripe(slot)) {
+            ByteBuffer region = region(slot);
+            int base = offset(slot);
+
+            if (created[0] == 1) {
+                region.put(base + OFF_STATE, STATE_USED);
+                region.putLong(base + OFF_UUID_MSB, uuid.getMostSignificantBits());
+                region.putLong(base + OFF_UUID_LSB, uuid.getLeastSignificantBits());
+            } else if (region.get(base + OFF_STATE) != STATE_USED
+                    || region.getLong(base + OFF_UUID_MSB) != uuid.getMostSignificantBits()
+                    || region.getLong(base + OFF_UUID_LSB) != uuid.getLeastSignificantBits()) {
+                // Deleted while this save was on its way, the slot may belong to someone else now
+                plugin.getLogger().severe("Failed to save player data for " + uuid + ": record was deleted");
+                return false;
+            }
+
+            if ((mask & PlayerData.DIRTY_PROFILE) != 0) {
+                byte[] name = encodeName(playerData.getUsername());
+                region.put(base + OFF_NAME_LENGTH, (byte) name.length);
+                region.put(base + OFF_NAME, new byte[NAME_BYTES]);
+                region.put(base + OFF_NAME, name);
+                region.putLong(base + OFF_FIRST_JOIN, playerData.getFirstJoin());
+                region.putLong(base + OFF_LAST_SEEN, playerData.getLastSeen());
+            }
+            if ((mask & PlayerData.DIRTY_DAILY_LIMITS) != 0) {
+                region.putLong(base + OFF_LAST_RESET, playerData.getLastDailyReset());
+            }
+
+            for (CurrencyType type : CurrencyType.values()) {
+                int cur = currencyOffset(base, type);
+                if ((mask & PlayerData.DIRTY_BALANCES) != 0) {
+                    region.putLong(cur + CUR_BALANCE, playerData.getBalanceUnits(type));
+                }
+                if ((mask & PlayerData.DIRTY_STATISTICS) != 0) {
+                    region.putLong(cur + CUR_SENT, playerData.getMoneySent(type));
+                    region.putLong(cur + CUR_RECEIVED, playerData.getMoneyReceived(type));
+                }
+                if ((mask & PlayerData.DIRTY_DAILY_LIMITS) != 0) {
+                    region.putInt(cur + CUR_SENDS_TODAY, playerData.getDailySendCount(type));
+                    region.putInt(cur + CUR_REQUESTS_TODAY, playerData.getDailyRequestCount(type));
+                }
+                if ((mask & PlayerData.DIRTY_COOLDOWNS) != 0) {
+                    region.putLong(cur + CUR_SEND_COOLDOWN, playerData.getSendCooldown(type));
+                    region.putLong(cur + CUR_REQUEST_COOLDOWN, playerData.getRequestCooldown(type));
+                }
+            }
+
+            region.putInt(base + OFF_CRC, checksum(region, base));
+        }
+        return true;
+    }
+
+    /**
+     * Usernames are at most 16 ASCII characters, anything longer is cut
+     */
+    private static byte[] encodeName(String username) {
+        if (username == null) {
+            return new byte[0];
+        }
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        return name.length <= NAME_BYTES ? name : Arrays.copyOf(name, NAME_BYTES);
+    }
+
+    @Override
+    public Set<UUID> saveAll(Collection<PlayerData> players) {
+        Set<UUID> failed = new HashSet<>();
+        for (PlayerData data : players) {
+            if (!savePlayerData(data)) {
+                failed.add(data.getUUID());
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public void deletePlayerData(UUID uuid) {
+        Integer slot = index.remove(uuid);
+        if (slot == null) {
+            // Deleting is how a torn record is given up
+            slot = quarantined.remove(uuid);
+        }
+        if (slot == null) {
+            return;
+        }
+
+        synchronized (stripe(slot)) {
+            ByteBuffer region = region(slot);
+            int base = offset(slot);
+            region.put(base, new byte[RECORD_SIZE]);
+            region.putInt(base + OFF_CRC, checksum(region, base));
+        }
+        releaseSlot(slot);
+    }
+
+    /**
+     * Write dirty pages of the mapping back to disk
+     */
+    private void force() {
+        try {
+            for (MappedByteBuffer region : regions) {
+                region.force();
+            }
+            synchronized (this) {
+                header.force();
+            }
+        } catch (Exception e) {
+            plugin.getLogger().severe("Failed to force data file to disk: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (channel != null) {
+            force();
+            try {
+                // The mapping itself is released once the buffers are collected
+                channel.close();
+            } catch (IOException e) {
+                plugin.getLogger().severe("Failed to close data file: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -4,19 +4,122 @@ import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import online.demonzdevelopment.dzeconomy.DZEconomy;
 import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
+import online.demonzdevelopment.dzeconomy.currency.Money;
+import online.demonzdevelopment.dzeconomy.data.ChangeSet;
 import online.demonzdevelopment.dzeconomy.data.PlayerData;
+import online.demonzdevelopment.dzeconomy.data.PlayerDataCodec;
+import online.demonzdevelopment.dzeconomy.manager.CurrencyManager;
+import online.demonzdevelopment.dzeconomy.storage.StorageException;
 import online.demonzdevelopment.dzeconomy.storage.StorageProvider;
+import online.demonzdevelopment.dzeconomy.util.UUIDUtil;
 
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.sql.*;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * MySQL storage implementation with HikariCP connection pooling
+ *
+ * Accounts carry a version so several servers can share one database.
+ * A save only applies if the account still has the version this server
+ * read; otherwise the account is locked and re-read, the changes made
+ * here are applied on top (balances and statistics as deltas, other
+ * fields as values) and the merged account is written back.
+ *
+ * With storage.mysql.delta-balances, saves that only add to balances skip
+ * the version check and are written as increments; the resulting balances
+ * are read back in the same transaction.
+ *
+ * A circuit breaker notices when MySQL goes away. While it is open,
+ * callers fail fast instead of waiting on the pool, saves are appended to
+ * a local spill journal and accounts with spilled saves are read from it.
+ * A health check replays the journal once MySQL answers again.
  */
 public class MySQLStorageProvider implements StorageProvider {
     
+    // Schema 2: binary UUID keys and one balance row per (uuid, currency)
+    // Schema 3: accounts.version for optimistic concurrency
+    // Schema 4: exact DECIMAL balances
+    // Schema 5: applied_saves, so a save whose commit went unanswered is not applied twice
+    private static final int SCHEMA_VERSION = 5;
+    private static final String BALANCE_TYPE = "DECIMAL(38, 8)";
+    
+    // Whole account in one round-trip, one row per currency
+    private static final String ACCOUNT_FIELDS =
+            "a.uuid, a.username, a.first_join, a.last_seen, a.last_reset, a.version, " +
+            "b.currency_id, b.balance, b.sent, b.received, b.sends_today, b.requests_today, " +
+            "b.send_cooldown, b.request_cooldown ";
+    
+    private static final String SELECT_ACCOUNT = "SELECT " + ACCOUNT_FIELDS +
+            "FROM accounts a " +
+            "LEFT JOIN account_balances b ON b.uuid = a.uuid ";
+    
+    private static final String SELECT_PLAYER = SELECT_ACCOUNT + "WHERE a.uuid = ?";
+    
+    // Keyset pagination used to walk the whole table in constant memory
+    private static final String LIST_FIRST = "SELECT uuid FROM accounts ORDER BY uuid LIMIT ?";
+    private static final String LIST_AFTER = "SELECT uuid FROM accounts WHERE uuid > ? ORDER BY uuid LIMIT ?";
+    private static final String PAGE_FIRST = "SELECT " + ACCOUNT_FIELDS + "FROM (" + LIST_FIRST + ") k " +
+            "JOIN accounts a ON a.uuid = k.uuid LEFT JOIN account_balances b ON b.uuid = a.uuid ORDER BY a.uuid";
+    private static final String PAGE_AFTER = "SELECT " + ACCOUNT_FIELDS + "FROM (" + LIST_AFTER + ") k " +
+            "JOIN accounts a ON a.uuid = k.uuid LEFT JOIN account_balances b ON b.uuid = a.uuid ORDER BY a.uuid";
+    private static final String COUNT_PLAYERS = "SELECT COUNT(*) FROM accounts";
+    
+    
+    private static final String UPSERT_ACCOUNT =
+            "INSERT INTO accounts (uuid, username, first_join, last_seen, last_reset) VALUES (?,?,?,?,?) " +
+            "ON DUPLICATE KEY UPDATE " +
+            "username=VALUES(username), last_seen=VALUES(last_seen), last_reset=VALUES(last_reset)";
+    
+    private static final String UPSERT_BALANCE =
+            "INSERT INTO account_balances (uuid, currency_id, balance, sent, received, " +
+            "sends_today, requests_today, send_cooldown, request_cooldown) VALUES (?,?,?,?,?,?,?,?,?) " +
+            "ON DUPLICATE KEY UPDATE " +
+            "balance=VALUES(balance), sent=VALUES(sent), received=VALUES(received), " +
+            "sends_today=VALUES(sends_today), requests_today=VALUES(requests_today), " +
+            "send_cooldown=VALUES(send_cooldown), request_cooldown=VALUES(request_cooldown)";
+    
+    // Save ids are kept long enough for a spilled save to be replayed after a restart
+    private static final String SELECT_APPLIED = "SELECT save_id FROM applied_saves WHERE save_id IN ";
+    private static final String INSERT_APPLIED = "INSERT INTO applied_saves (save_id, created) VALUES (?,?)";
+    private static final String PRUNE_APPLIED = "DELETE FROM applied_saves WHERE created < ?";
+    private static final long SAVE_ID_RETENTION = 30L * 24 * 60 * 60 * 1000;
+    private static final long PRUNE_INTERVAL = 60L * 60 * 1000;
+    
+    // Versioned writes of accounts that were never read with a version, and merged saves
+    private static final String INSERT_ACCOUNT =
+            "INSERT INTO accounts (uuid, username, first_join, last_seen, last_reset, version) VALUES (?,?,?,?,?,1)";
+    private static final String WRITE_ACCOUNT =
+            "UPDATE accounts SET username = ?, first_join = ?, last_seen = ?, last_reset = ?, version = ? WHERE uuid = ?";
+    
     private final DZEconomy plugin;
     private HikariDataSource dataSource;
+    private int batchSize;
+    private boolean deltaBalances;
+    
+    // Outage handling, null if storage.mysql.circuit-breaker.enabled is off
+    private CircuitBreaker breaker;
+    private SpillJournal spill;
+    private Thread healthThread;
+    private volatile boolean running;
+    
+    // Tables are created and updated before the breaker closes, also if MySQL was down at startup
+    private volatile boolean schemaReady;
+    
+    // Conflict metrics
+    private final AtomicLong versionedSaves = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong incrementedSaves = new AtomicLong();
+    private final AtomicLong spilledSaves = new AtomicLong();
+    private final AtomicLong lastPrune = new AtomicLong();
     
     public MySQLStorageProvider(DZEconomy plugin) {
         this.plugin = plugin;
@@ -33,23 +136,228 @@ public class MySQLStorageProvider implements StorageProvider {
             String username = plugin.getConfigManager().getConfig().getString("storage.mysql.username");
             String password = plugin.getConfigManager().getConfig().getString("storage.mysql.password");
             
-            config.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + database + "?useSSL=false&autoReconnect=true");
+            // rewriteBatchedStatements turns a JDBC batch into multi-row inserts
+            config.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + database + "?useSSL=false&autoReconnect=true&rewriteBatchedStatements=true");
             config.setUsername(username);
             config.setPassword(password);
             
             config.setMaximumPoolSize(plugin.getConfigManager().getConfig().getInt("storage.mysql.pool.maximum-pool-size", 10));
             config.setMinimumIdle(plugin.getConfigManager().getConfig().getInt("storage.mysql.pool.minimum-idle", 2));
-            config.setConnectionTimeout(plugin.getConfigManager().getConfig().getLong("storage.mysql.pool.connection-timeout", 30000));
+            config.setConnectionTimeout(plugin.getConfigManager().getConfig().getLong("storage.mysql.pool.connection-timeout", 5000));
             config.setIdleTimeout(plugin.getConfigManager().getConfig().getLong("storage.mysql.pool.idle-timeout", 600000));
             config.setMaxLifetime(plugin.getConfigManager().getConfig().getLong("storage.mysql.pool.max-lifetime", 1800000));
+            // Start the pool even if MySQL is down, the breaker takes over until it answers
+            config.setInitializationFailTimeout(-1);
             
-            dataSource = new HikariDataSource(config);
+            batchSize = Math.max(1, plugin.getConfigManager().getConfig().getInt("storage.batch-size", 500));
+            deltaBalances = plugin.getConfigManager().getConfig().getBoolean("storage.mysql.delta-balances", false);
+            
+            if (plugin.getConfigManager().getConfig().getBoolean("storage.mysql.circuit-breaker.enabled", true)) {
+                initializeBreaker();
+            }
             
+            dataSource = new HikariDataSource(config);
             createTables();
+            schemaReady = true;
+            
+            // Saves left over from an outage before the last shutdown go first
+            if (spill != null && !spill.isEmpty()) {
+                breaker.open();
+                if (!replay()) {
+                    plugin.getLogger().severe("Failed to replay the spill journal, retrying in the background");
+                }
+            }
             plugin.getLogger().info("MySQL database initialized successfully!");
         } catch (Exception e) {
             plugin.getLogger().severe("Failed to initialize MySQL database: " + e.getMessage());
             e.printStackTrace();
+            if (breaker != null) {
+                breaker.open();
+            }
+        }
+    }
+    
+    private void initializeBreaker() {
+        File file = new File(plugin.getDataFolder(), "data/mysql-spill.dat");
+        SpillJournal journal = new SpillJournal(file);
+        try {
+            int records = journal.open();
+            if (records > 0) {
+                plugin.getLogger().warning("Found " + records + " save(s) in " + file.getName() + " that did not reach MySQL yet");
+            }
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to open the MySQL spill journal, saves fail while MySQL is down: " + e.getMessage());
+            return;
+        }
+        
+        breaker = new CircuitBreaker(
+                plugin.getConfigManager().getConfig().getInt("storage.mysql.circuit-breaker.failure-threshold", 2),
+                plugin.getConfigManager().getConfig().getLong("storage.mysql.circuit-breaker.retry-interval", 5L) * 1000L);
+        spill = journal;
+        running = true;
+        healthThread = Thread.ofVirtual().name("DZEconomy-MySQL-Health").start(this::monitor);
+    }
+    
+    /**
+     * Get a pooled connection, failing fast while MySQL is known to be down
+     */
+    private Connection connect() throws SQLException {
+        if (!isAvailable()) {
+            throw new SQLTransientConnectionException("MySQL is unavailable (circuit breaker open)");
+        }
+        try {
+            Connection connection = dataSource.getConnection();
+            if (breaker != null) {
+                breaker.recordSuccess();
+            }
+            return connection;
+        } catch (SQLException e) {
+            connectionFailed(e);
+            throw e;
+        }
+    }
+    
+    private boolean isAvailable() {
+        return breaker == null || breaker.isClosed();
+    }
+    
+    private void connectionFailed(SQLException e) {
+        if (breaker != null && isConnectionFailure(e) && breaker.recordFailure()) {
+            plugin.getLogger().severe("MySQL is unavailable, saves go to the local spill journal until it is back: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Connection errors, as opposed to errors in a statement
+     */
+    private static boolean isConnectionFailure(SQLException e) {
+        return e instanceof SQLTransientConnectionException
+                || e instanceof SQLNonTransientConnectionException
+                || e instanceof SQLRecoverableException
+                || (e.getSQLState() != null && e.getSQLState().startsWith("08"));
+    }
+    
+    /**
+     * Health check loop while the breaker is open
+     */
+    private void monitor() {
+        while (running) {
+            try {
+                Thread.sleep(1000L);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (!breaker.tryHalfOpen()) {
+                continue;
+            }
+            
+            long down = (System.currentTimeMillis() - breaker.getOpenedAt()) / 1000L;
+            if (probe() && prepareSchema() && replay()) {
+                plugin.getLogger().info("MySQL is reachable again after " + down + "s, spilled saves were replayed");
+            } else {
+                breaker.open();
+            }
+        }
+    }
+    
+    private boolean prepareSchema() {
+        if (schemaReady) {
+            return true;
+        }
+        try {
+            createTables();
+            schemaReady = true;
+            plugin.getLogger().info("MySQL tables are ready");
+            return true;
+        } catch (SQLException e) {
+            plugin.getLogger().warning("Failed to set up the MySQL tables, retrying: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    private boolean probe() {
+        try (Connection connection = dataSource.getConnection()) {
+            return connection.isValid(5);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Write the spilled saves and close the breaker. Saves arriving in the
+     * meantime wait on the journal, so they cannot overtake spilled ones.
+     * @return false if MySQL failed again, the rest stays spilled
+     */
+    private boolean replay() {
+        synchronized (spill) {
+            List<PlayerData> pending = spill.getPending();
+            if (pending.isEmpty()) {
+                breaker.close();
+                return true;
+            }
+            
+            plugin.getLogger().info("Replaying " + pending.size() + " spilled account save(s)...");
+            int replayed = 0;
+            try (Connection connection = dataSource.getConnection()) {
+                while (replayed < pending.size()) {
+                    List<PlayerData> chunk = pending.subList(replayed, Math.min(replayed + batchSize, pending.size()));
+                    if (!saveChunk(connection, chunk)) {
+                        break;
+                    }
+                    replayed += chunk.size();
+                }
+            } catch (SQLException e) {
+                plugin.getLogger().warning("Failed to replay spilled saves: " + e.getMessage());
+            }
+            
+            try {
+                spill.retain(pending.subList(replayed, pending.size()));
+            } catch (IOException e) {
+                // Replaying the written saves again would repeat their increments
+                plugin.getLogger().severe("Failed to rewrite the spill journal after replaying " + replayed + " save(s): " + e.getMessage());
+            }
+            
+            CurrencyManager currencyManager = plugin.getCurrencyManager();
+            if (currencyManager != null) {
+                for (PlayerData data : pending.subList(0, replayed)) {
+                    currencyManager.acknowledgeReplayed(data);
+                }
+            }
+            
+            if (replayed < pending.size()) {
+                return false;
+            }
+            breaker.close();
+            return true;
+        }
+    }
+    
+    /**
+     * Keep saves that did not reach MySQL in the spill journal while it is down
+     * @return UUIDs of the saves that were neither written nor spilled
+     */
+    private Set<UUID> spill(List<PlayerData> unsaved) {
+        Set<UUID> failed = new HashSet<>();
+        for (PlayerData data : unsaved) {
+            failed.add(data.getUUID());
+        }
+        if (spill == null || unsaved.isEmpty()) {
+            return failed;
+        }
+        
+        synchronized (spill) {
+            // MySQL came back in the meantime, the caller retries against it
+            if (breaker.isClosed()) {
+                return failed;
+            }
+            try {
+                spill.append(unsaved);
+                spilledSaves.addAndGet(unsaved.size());
+                return Collections.emptySet();
+            } catch (IOException e) {
+                plugin.getLogger().severe("Failed to write " + unsaved.size() + " save(s) to the spill journal: " + e.getMessage());
+                return failed;
+            }
         }
     }
     
@@ -57,210 +365,784 @@ public class MySQLStorageProvider implements StorageProvider {
         try (Connection connection = dataSource.getConnection();
              Statement stmt = connection.createStatement()) {
             
-            stmt.execute("CREATE TABLE IF NOT EXISTS players (" +
-                    "uuid VARCHAR(36) PRIMARY KEY," +
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                    "version INT NOT NULL" +
+                    ") ENGINE=InnoDB");
+            
+            stmt.execute("CREATE TABLE IF NOT EXISTS accounts (" +
+                    "uuid BINARY(16) PRIMARY KEY," +
                     "username VARCHAR(16)," +
                     "first_join BIGINT," +
                     "last_seen BIGINT," +
-                    "money_balance DOUBLE," +
-                    "mobcoin_balance DOUBLE," +
-                    "gem_balance DOUBLE," +
-                    "money_sent BIGINT," +
-                    "mobcoin_sent BIGINT," +
-                    "gem_sent BIGINT," +
-                    "money_received BIGINT," +
-                    "mobcoin_received BIGINT," +
-                    "gem_received BIGINT" +
-                    ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
-            
-            stmt.execute("CREATE TABLE IF NOT EXISTS daily_limits (" +
-                    "uuid VARCHAR(36) PRIMARY KEY," +
-                    "money_sends INT," +
-                    "mobcoin_sends INT," +
-                    "gem_sends INT," +
-                    "money_requests INT," +
-                    "mobcoin_requests INT," +
-                    "gem_requests INT," +
                     "last_reset BIGINT," +
-                    "FOREIGN KEY (uuid) REFERENCES players(uuid) ON DELETE CASCADE" +
+                    "version BIGINT NOT NULL DEFAULT 0" +
                     ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
             
-            stmt.execute("CREATE TABLE IF NOT EXISTS cooldowns (" +
-                    "uuid VARCHAR(36) PRIMARY KEY," +
-                    "money_send_cooldown BIGINT," +
-                    "mobcoin_send_cooldown BIGINT," +
-                    "gem_send_cooldown BIGINT," +
-                    "money_request_cooldown BIGINT," +
-                    "mobcoin_request_cooldown BIGINT," +
-                    "gem_request_cooldown BIGINT," +
-                    "FOREIGN KEY (uuid) REFERENCES players(uuid) ON DELETE CASCADE" +
-                    ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+            stmt.execute("CREATE TABLE IF NOT EXISTS account_balances (" +
+                    "uuid BINARY(16) NOT NULL," +
+                    "currency_id TINYINT UNSIGNED NOT NULL," +
+                    "balance " + BALANCE_TYPE + "," +
+                    "sent BIGINT," +
+                    "received BIGINT," +
+                    "sends_today INT," +
+                    "requests_today INT," +
+                    "send_cooldown BIGINT," +
+                    "request_cooldown BIGINT," +
+                    "PRIMARY KEY (uuid, currency_id)," +
+                    "FOREIGN KEY (uuid) REFERENCES accounts(uuid) ON DELETE CASCADE" +
+                    ") ENGINE=InnoDB");
+            
+            stmt.execute("CREATE TABLE IF NOT EXISTS applied_saves (" +
+                    "save_id BIGINT PRIMARY KEY," +
+                    "created BIGINT NOT NULL" +
+                    ") ENGINE=InnoDB");
+            
+            updateSchema(connection);
+            pruneSaveIds(connection);
+        }
+    }
+    
+    /**
+     * Forget save ids too old to be repeated
+     */
+    private void pruneSaveIds(Connection connection) throws SQLException {
+        long now = System.currentTimeMillis();
+        lastPrune.set(now);
+        try (PreparedStatement stmt = connection.prepareStatement(PRUNE_APPLIED)) {
+            stmt.setLong(1, now - SAVE_ID_RETENTION);
+            stmt.executeUpdate();
+        }
+    }
+    
+    /**
+     * Bring an older database up to the current schema version
+     */
+    private void updateSchema(Connection connection) throws SQLException {
+        int version = 0;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            if (rs.next()) {
+                version = rs.getInt(1);
+            }
+        }
+        
+        if (version >= SCHEMA_VERSION) {
+            return;
+        }
+        
+        // Version 1: text UUIDs and one column per currency
+        if (tableExists(connection, "players")) {
+            migrateLegacySchema(connection);
+        }
+        
+        // Version 2: accounts created before the version column
+        if (!columnExists(connection, "accounts", "version")) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("ALTER TABLE accounts ADD COLUMN version BIGINT NOT NULL DEFAULT 0");
+            }
+        }
+        
+        // Version 3: DOUBLE balances. DECIMAL holds every minor unit exactly,
+        // MySQL rounds the stored doubles to their nearest decimal on the way
+        if (!isDecimalColumn(connection, "account_balances", "balance")) {
+            plugin.getLogger().info("Converting MySQL balances to exact decimals...");
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("ALTER TABLE account_balances MODIFY balance " + BALANCE_TYPE);
+            }
+        }
+        
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DELETE FROM schema_version");
+            stmt.execute("INSERT INTO schema_version VALUES (" + SCHEMA_VERSION + ")");
+        }
+    }
+    
+    private boolean tableExists(Connection connection, String table) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getTables(connection.getCatalog(), null, table, null)) {
+            return rs.next();
+        }
+    }
+    
+    private boolean isDecimalColumn(Connection connection, String table, String column) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getColumns(connection.getCatalog(), null, table, column)) {
+            return rs.next() && rs.getInt("DATA_TYPE") == Types.DECIMAL;
         }
     }
     
+    private boolean columnExists(Connection connection, String table, String column) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getColumns(connection.getCatalog(), null, table, column)) {
+            return rs.next();
+        }
+    }
+    
+    /**
+     * Copy version 1 tables into the normalized layout. The copy runs
+     * server-side with INSERT ... SELECT so large tables never leave the
+     * database. The old tables are kept as players_v1, daily_limits_v1 and
+     * cooldowns_v1. If the server stops halfway the copy is redone on the
+     * next start, since the legacy tables are only renamed at the end.
+     */
+    private void migrateLegacySchema(Connection connection) throws SQLException {
+        plugin.getLogger().info("Migrating MySQL database to schema version " + SCHEMA_VERSION + "...");
+        
+        String binaryUUID = "UNHEX(REPLACE(p.uuid, '-', ''))";
+        int count;
+        
+        connection.setAutoCommit(false);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DELETE FROM accounts");
+            
+            count = stmt.executeUpdate("INSERT INTO accounts (uuid, username, first_join, last_seen, last_reset) " +
+                    "SELECT " + binaryUUID + ", p.username, p.first_join, p.last_seen, d.last_reset " +
+                    "FROM players p LEFT JOIN daily_limits d ON d.uuid = p.uuid");
+            
+            for (CurrencyType type : CurrencyType.values()) {
+                String id = type.getId();
+                stmt.executeUpdate("INSERT INTO account_balances (uuid, currency_id, balance, sent, received, " +
+                        "sends_today, requests_today, send_cooldown, request_cooldown) " +
+                        "SELECT " + binaryUUID + ", " + type.getStorageId() + ", " +
+                        "p." + id + "_balance, p." + id + "_sent, p." + id + "_received, " +
+                        "d." + id + "_sends, d." + id + "_requests, " +
+                        "c." + id + "_send_cooldown, c." + id + "_request_cooldown " +
+                        "FROM players p " +
+                        "LEFT JOIN daily_limits d ON d.uuid = p.uuid " +
+                        "LEFT JOIN cooldowns c ON c.uuid = p.uuid");
+            }
+            
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("RENAME TABLE players TO players_v1, daily_limits TO daily_limits_v1, cooldowns TO cooldowns_v1");
+        }
+        
+        plugin.getLogger().info("Migrated " + count + " player(s), old tables kept with a _v1 suffix");
+    }
+    
     @Override
     public PlayerData loadPlayerData(UUID uuid) {
-        try (Connection connection = dataSource.getConnection();
-             PreparedStatement stmt = connection.prepareStatement(
-                    "SELECT * FROM players WHERE uuid = ?")) {
+        // Newer than what MySQL has, and MySQL may not answer
+        if (spill != null && !isAvailable()) {
+            PlayerData spilled = spill.get(uuid);
+            if (spilled != null) {
+                return PlayerDataCodec.decode(PlayerDataCodec.encode(spilled));
+            }
+        }
+        
+        try (Connection connection = connect();
+             PreparedStatement stmt = connection.prepareStatement(SELECT_PLAYER)) {
 
-            stmt.setString(1, uuid.toString());
+            stmt.setBytes(1, UUIDUtil.toBytes(uuid));
 
+            Map<UUID, PlayerData> result = new HashMap<>();
+            Map<UUID, Long> versions = new HashMap<>();
             try (ResultSet rs = stmt.executeQuery()) {
-                if (!rs.next()) {
-                    return null;
+                while (rs.next()) {
+                    readRow(result, versions, rs);
                 }
-
-                PlayerData data = new PlayerData(uuid);
-                data.setUsername(rs.getString("username"));
-                data.setFirstJoin(rs.getLong("first_join"));
-                data.setLastSeen(rs.getLong("last_seen"));
-
-                data.setBalance(CurrencyType.MONEY, rs.getDouble("money_balance"));
-                data.setBalance(CurrencyType.MOBCOIN, rs.getDouble("mobcoin_balance"));
-                data.setBalance(CurrencyType.GEM, rs.getDouble("gem_balance"));
-
-                data.getMoneySent().put(CurrencyType.MONEY, rs.getLong("money_sent"));
-                data.getMoneySent().put(CurrencyType.MOBCOIN, rs.getLong("mobcoin_sent"));
-                data.getMoneySent().put(CurrencyType.GEM, rs.getLong("gem_sent"));
-                data.getMoneyReceived().put(CurrencyType.MONEY, rs.getLong("money_received"));
-                data.getMoneyReceived().put(CurrencyType.MOBCOIN, rs.getLong("mobcoin_received"));
-                data.getMoneyReceived().put(CurrencyType.GEM, rs.getLong("gem_received"));
-
-                loadDailyLimits(connection, data);
-                loadCooldowns(connection, data);
-
-                return data;
             }
+            markStored(result, versions);
+            return result.get(uuid);
         } catch (SQLException e) {
-            plugin.getLogger().severe("Failed to load player data: " + e.getMessage());
-            return null;
+            throw new StorageException("Failed to load player data for " + uuid, e);
         }
     }
     
-    private void loadDailyLimits(Connection connection, PlayerData data) throws SQLException {
-        PreparedStatement stmt = connection.prepareStatement(
-                "SELECT * FROM daily_limits WHERE uuid = ?");
-        stmt.setString(1, data.getUUID().toString());
+    @Override
+    public Map<UUID, PlayerData> loadAll(Collection<UUID> uuids) {
+        Map<UUID, PlayerData> result = new HashMap<>();
+        Map<UUID, Long> versions = new HashMap<>();
+        List<UUID> list = new ArrayList<>(uuids);
         
-        ResultSet rs = stmt.executeQuery();
-        if (rs.next()) {
-            data.getDailySendCounts().put(CurrencyType.MONEY, rs.getInt("money_sends"));
-            data.getDailySendCounts().put(CurrencyType.MOBCOIN, rs.getInt("mobcoin_sends"));
-            data.getDailySendCounts().put(CurrencyType.GEM, rs.getInt("gem_sends"));
-            data.getDailyRequestCounts().put(CurrencyType.MONEY, rs.getInt("money_requests"));
-            data.getDailyRequestCounts().put(CurrencyType.MOBCOIN, rs.getInt("mobcoin_requests"));
-            data.getDailyRequestCounts().put(CurrencyType.GEM, rs.getInt("gem_requests"));
-            data.setLastDailyReset(rs.getLong("last_reset"));
+        // Spilled saves are newer than what MySQL has, as in loadPlayerData
+        Map<UUID, PlayerData> spilled = new HashMap<>();
+        if (spill != null && !isAvailable()) {
+            for (UUID uuid : uuids) {
+                PlayerData data = spill.get(uuid);
+                if (data != null) {
+                    spilled.put(uuid, PlayerDataCodec.decode(PlayerDataCodec.encode(data)));
+                }
+            }
+            list.removeAll(spilled.keySet());
+            if (list.isEmpty()) {
+                return spilled;
+            }
         }
         
-        rs.close();
-        stmt.close();
+        try (Connection connection = connect()) {
+            for (int from = 0; from < list.size(); from += batchSize) {
+                List<UUID> chunk = list.subList(from, Math.min(from + batchSize, list.size()));
+                String in = placeholders(chunk.size());
+                
+                try (PreparedStatement stmt = connection.prepareStatement(SELECT_ACCOUNT + "WHERE a.uuid IN (" + in + ")")) {
+                    bindUUIDs(stmt, chunk);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            readRow(result, versions, rs);
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new StorageException("Failed to load player data batch of " + list.size(), e);
+        }
+        
+        markStored(result, versions);
+        result.putAll(spilled);
+        return result;
     }
     
-    private void loadCooldowns(Connection connection, PlayerData data) throws SQLException {
-        PreparedStatement stmt = connection.prepareStatement(
-                "SELECT * FROM cooldowns WHERE uuid = ?");
-        stmt.setString(1, data.getUUID().toString());
+    /**
+     * Read one joined row, creating the account on its first row
+     * @param versions receives the version of every account, may be null
+     */
+    private void readRow(Map<UUID, PlayerData> result, Map<UUID, Long> versions, ResultSet rs) throws SQLException {
+        UUID uuid = UUIDUtil.fromBytes(rs.getBytes("uuid"));
         
-        ResultSet rs = stmt.executeQuery();
-        if (rs.next()) {
-            data.getSendCooldowns().put(CurrencyType.MONEY, rs.getLong("money_send_cooldown"));
-            data.getSendCooldowns().put(CurrencyType.MOBCOIN, rs.getLong("mobcoin_send_cooldown"));
-            data.getSendCooldowns().put(CurrencyType.GEM, rs.getLong("gem_send_cooldown"));
-            data.getRequestCooldowns().put(CurrencyType.MONEY, rs.getLong("money_request_cooldown"));
-            data.getRequestCooldowns().put(CurrencyType.MOBCOIN, rs.getLong("mobcoin_request_cooldown"));
-            data.getRequestCooldowns().put(CurrencyType.GEM, rs.getLong("gem_request_cooldown"));
+        PlayerData data = result.get(uuid);
+        if (data == null) {
+            data = new PlayerData(uuid);
+            data.setUsername(rs.getString("username"));
+            data.setFirstJoin(rs.getLong("first_join"));
+            data.setLastSeen(rs.getLong("last_seen"));
+            data.setLastDailyReset(rs.getLong("last_reset"));
+            result.put(uuid, data);
+            if (versions != null) {
+                versions.put(uuid, rs.getLong("version"));
+            }
         }
         
-        rs.close();
-        stmt.close();
+        // No balance rows yet, or a currency this version does not know
+        CurrencyType currency = CurrencyType.fromStorageId(rs.getInt("currency_id"));
+        if (currency == null) {
+            return;
+        }
+        
+        BigDecimal balance = rs.getBigDecimal("balance");
+        data.setBalanceUnits(currency, balance != null ? Money.fromDecimal(currency, balance) : 0L);
+        data.setMoneySent(currency, rs.getLong("sent"));
+        data.setMoneyReceived(currency, rs.getLong("received"));
+        data.setDailySendCount(currency, rs.getInt("sends_today"));
+        data.setDailyRequestCount(currency, rs.getInt("requests_today"));
+        data.setSendCooldown(currency, rs.getLong("send_cooldown"));
+        data.setRequestCooldown(currency, rs.getLong("request_cooldown"));
+    }
+    
+    /**
+     * Remember what was read, saves are checked against it
+     */
+    private static void markStored(Map<UUID, PlayerData> result, Map<UUID, Long> versions) {
+        for (PlayerData data : result.values()) {
+            data.markStored(versions.getOrDefault(data.getUUID(), 0L));
+        }
     }
     
     @Override
-    public void savePlayerData(PlayerData data) {
-        try (Connection connection = dataSource.getConnection()) {
-            PreparedStatement stmt = connection.prepareStatement(
-                    "INSERT INTO players VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?) " +
-                    "ON DUPLICATE KEY UPDATE " +
-                    "username=VALUES(username), last_seen=VALUES(last_seen), " +
-                    "money_balance=VALUES(money_balance), mobcoin_balance=VALUES(mobcoin_balance), " +
-                    "gem_balance=VALUES(gem_balance), money_sent=VALUES(money_sent), " +
-                    "mobcoin_sent=VALUES(mobcoin_sent), gem_sent=VALUES(gem_sent), " +
-                    "money_received=VALUES(money_received), mobcoin_received=VALUES(mobcoin_received), " +
-                    "gem_received=VALUES(gem_received)");
+    public boolean savePlayerData(PlayerData data) {
+        List<PlayerData> list = Collections.singletonList(data);
+        if (isAvailable()) {
+            try (Connection connection = connect()) {
+                if (saveChunk(connection, list)) {
+                    return true;
+                }
+            } catch (SQLException e) {
+                plugin.getLogger().severe("Failed to save player data: " + e.getMessage());
+            }
+        }
+        return spill(list).isEmpty();
+    }
+    
+    @Override
+    public Set<UUID> saveAll(Collection<PlayerData> players) {
+        List<PlayerData> list = new ArrayList<>(players);
+        List<PlayerData> unsaved = new ArrayList<>();
+        int from = 0;
+        
+        if (isAvailable()) {
+            try (Connection connection = connect()) {
+                if (System.currentTimeMillis() - lastPrune.get() > PRUNE_INTERVAL) {
+                    pruneSaveIds(connection);
+                }
+                for (; from < list.size() && isAvailable(); from += batchSize) {
+                    List<PlayerData> chunk = list.subList(from, Math.min(from + batchSize, list.size()));
+                    if (!saveChunk(connection, chunk)) {
+                        unsaved.addAll(chunk);
+                    }
+                }
+            } catch (SQLException e) {
+                plugin.getLogger().severe("Failed to save player data batch: " + e.getMessage());
+            }
+        }
+        
+        // Chunks not attempted because MySQL went away
+        unsaved.addAll(list.subList(Math.min(from, list.size()), list.size()));
+        return spill(unsaved);
+    }
+    
+    /**
+     * Write one chunk of players as a single transaction
+     */
+    private boolean saveChunk(Connection connection, List<PlayerData> chunk) {
+        try {
+            connection.setAutoCommit(false);
             
-            stmt.setString(1, data.getUUID().toString());
-            stmt.setString(2, data.getUsername());
-            stmt.setLong(3, data.getFirstJoin());
-            stmt.setLong(4, data.getLastSeen());
-            stmt.setDouble(5, data.getBalance(CurrencyType.MONEY));
-            stmt.setDouble(6, data.getBalance(CurrencyType.MOBCOIN));
-            stmt.setDouble(7, data.getBalance(CurrencyType.GEM));
-            stmt.setLong(8, data.getMoneySent().get(CurrencyType.MONEY));
-            stmt.setLong(9, data.getMoneySent().get(CurrencyType.MOBCOIN));
-            stmt.setLong(10, data.getMoneySent().get(CurrencyType.GEM));
-            stmt.setLong(11, data.getMoneyReceived().get(CurrencyType.MONEY));
-            stmt.setLong(12, data.getMoneyReceived().get(CurrencyType.MOBCOIN));
-            stmt.setLong(13, data.getMoneyReceived().get(CurrencyType.GEM));
-            stmt.executeUpdate();
-            stmt.close();
+            // Only the changed columns, so row images in the redo log and binlog stay small.
+            // Relies on Connector/J reporting matched rather than changed rows.
+            List<PreparedStatement> statements = new ArrayList<>();
+            List<Merge> merges = new ArrayList<>();
+            Set<PlayerData> applied;
+            Set<PlayerData> stale;
+            Set<PlayerData> incremented;
+            
+            try {
+                applied = claimSaves(connection, chunk);
+                List<PlayerData> unapplied = chunk;
+                if (!applied.isEmpty()) {
+                    unapplied = new ArrayList<>(chunk);
+                    unapplied.removeAll(applied);
+                }
+                
+                ColumnUpdates.Result result = ColumnUpdates.save(unapplied, sql -> {
+                    PreparedStatement stmt = connection.prepareStatement(sql);
+                    statements.add(stmt);
+                    return stmt;
+                }, UPSERT_ACCOUNT, UPSERT_BALANCE, true, deltaBalances);
+                stale = result.conflicts;
+                incremented = result.incremented;
+                
+                merges.addAll(merge(connection, stale));
+                merges.addAll(readBack(connection, incremented));
+                // Already written by an attempt whose commit went unanswered, only its outcome is read
+                merges.addAll(readBack(connection, applied));
+                incrementedSaves.addAndGet(incremented.size());
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                for (PreparedStatement stmt : statements) {
+                    stmt.close();
+                }
+                connection.setAutoCommit(true);
+            }
             
-            saveDailyLimits(connection, data);
-            saveCooldowns(connection, data);
+            // Only now that it is committed does the stored state move on
+            for (PlayerData data : chunk) {
+                if (!applied.contains(data) && !stale.contains(data) && !incremented.contains(data)) {
+                    data.markStored(data.getStoredState().getVersion() + 1);
+                }
+            }
+            for (Merge merge : merges) {
+                merge.apply();
+            }
+            versionedSaves.addAndGet(chunk.size());
+            return true;
         } catch (SQLException e) {
-            plugin.getLogger().severe("Failed to save player data: " + e.getMessage());
-        }
-    }
-    
-    private void saveDailyLimits(Connection connection, PlayerData data) throws SQLException {
-        PreparedStatement stmt = connection.prepareStatement(
-                "INSERT INTO daily_limits VALUES (?,?,?,?,?,?,?,?) " +
-                "ON DUPLICATE KEY UPDATE " +
-                "money_sends=VALUES(money_sends), mobcoin_sends=VALUES(mobcoin_sends), " +
-                "gem_sends=VALUES(gem_sends), money_requests=VALUES(money_requests), " +
-                "mobcoin_requests=VALUES(mobcoin_requests), gem_requests=VALUES(gem_requests), " +
-                "last_reset=VALUES(last_reset)");
-        
-        stmt.setString(1, data.getUUID().toString());
-        stmt.setInt(2, data.getDailySendCounts().get(CurrencyType.MONEY));
-        stmt.setInt(3, data.getDailySendCounts().get(CurrencyType.MOBCOIN));
-        stmt.setInt(4, data.getDailySendCounts().get(CurrencyType.GEM));
-        stmt.setInt(5, data.getDailyRequestCounts().get(CurrencyType.MONEY));
-        stmt.setInt(6, data.getDailyRequestCounts().get(CurrencyType.MOBCOIN));
-        stmt.setInt(7, data.getDailyRequestCounts().get(CurrencyType.GEM));
-        stmt.setLong(8, data.getLastDailyReset());
-        stmt.executeUpdate();
-        stmt.close();
-    }
-    
-    private void saveCooldowns(Connection connection, PlayerData data) throws SQLException {
-        PreparedStatement stmt = connection.prepareStatement(
-                "INSERT INTO cooldowns VALUES (?,?,?,?,?,?,?) " +
-                "ON DUPLICATE KEY UPDATE " +
-                "money_send_cooldown=VALUES(money_send_cooldown), " +
-                "mobcoin_send_cooldown=VALUES(mobcoin_send_cooldown), " +
-                "gem_send_cooldown=VALUES(gem_send_cooldown), " +
-                "money_request_cooldown=VALUES(money_request_cooldown), " +
-                "mobcoin_request_cooldown=VALUES(mobcoin_request_cooldown), " +
-                "gem_request_cooldown=VALUES(gem_request_cooldown)");
-        
-        stmt.setString(1, data.getUUID().toString());
-        stmt.setLong(2, data.getSendCooldowns().get(CurrencyType.MONEY));
-        stmt.setLong(3, data.getSendCooldowns().get(CurrencyType.MOBCOIN));
-        stmt.setLong(4, data.getSendCooldowns().get(CurrencyType.GEM));
-        stmt.setLong(5, data.getRequestCooldowns().get(CurrencyType.MONEY));
-        stmt.setLong(6, data.getRequestCooldowns().get(CurrencyType.MOBCOIN));
-        stmt.setLong(7, data.getRequestCooldowns().get(CurrencyType.GEM));
-        stmt.executeUpdate();
-        stmt.close();
+            connectionFailed(e);
+            plugin.getLogger().severe("Failed to save player data batch of " + chunk.size() + ": " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Outcome of a save that did not match the stored version, applied after commit
+     */
+    private static final class Merge {
+        private final PlayerData snapshot;
+        private final long version;
+        private final PlayerData merged;
+        
+        private Merge(PlayerData snapshot, long version, PlayerData merged) {
+            this.snapshot = snapshot;
+            this.version = version;
+            this.merged = merged;
+        }
+        
+        private void apply() {
+            if (merged == null) {
+                snapshot.markStored(version);
+            } else {
+                snapshot.markStored(version, merged);
+                snapshot.setReconciled(merged);
+            }
+        }
+    }
+    
+    /**
+     * Write accounts whose stored version moved on since they were read, or
+     * that were never read with a version. The rows are locked and re-read,
+     * and the changes of each snapshot are applied on top of them.
+     */
+    private List<Merge> merge(Connection connection, Collection<PlayerData> stale) throws SQLException {
+        List<Merge> merges = new ArrayList<>();
+        if (stale.isEmpty()) {
+            return merges;
+        }
+        
+        List<UUID> uuids = new ArrayList<>();
+        for (PlayerData data : stale) {
+            uuids.add(data.getUUID());
+        }
+        
+        Map<UUID, PlayerData> rows = new HashMap<>();
+        Map<UUID, Long> versions = new HashMap<>();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                SELECT_ACCOUNT + "WHERE a.uuid IN (" + placeholders(uuids.size()) + ") FOR UPDATE")) {
+            bindUUIDs(stmt, uuids);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    readRow(rows, versions, rs);
+                }
+            }
+        }
+        
+        try (PreparedStatement inserts = connection.prepareStatement(INSERT_ACCOUNT);
+             PreparedStatement writes = connection.prepareStatement(WRITE_ACCOUNT);
+             PreparedStatement balances = connection.prepareStatement(UPSERT_BALANCE)) {
+            
+            for (PlayerData snapshot : stale) {
+                PlayerData current = rows.get(snapshot.getUUID());
+                if (current == null) {
+                    // Not stored yet, a new player
+                    ColumnUpdates.bindAccount(inserts, snapshot);
+                    inserts.addBatch();
+                    for (CurrencyType type : CurrencyType.values()) {
+                        ColumnUpdates.bindBalance(balances, snapshot, type);
+                        balances.addBatch();
+                    }
+                    merges.add(new Merge(snapshot, 1L, null));
+                    continue;
+                }
+                
+                PlayerData base = snapshot.getStoredState().getValues();
+                if (base != null) {
+                    conflicts.incrementAndGet();
+                }
+                applyChanges(current, snapshot, base);
+                long version = versions.get(snapshot.getUUID()) + 1;
+                
+                writes.setString(1, current.getUsername());
+                writes.setLong(2, current.getFirstJoin());
+                writes.setLong(3, current.getLastSeen());
+                writes.setLong(4, current.getLastDailyReset());
+                writes.setLong(5, version);
+                writes.setBytes(6, UUIDUtil.toBytes(snapshot.getUUID()));
+                writes.addBatch();
+                for (CurrencyType type : CurrencyType.values()) {
+                    ColumnUpdates.bindBalance(balances, current, type);
+                    balances.addBatch();
+                }
+                merges.add(new Merge(snapshot, version, current));
+            }
+            
+            // Accounts first, balances reference them
+            inserts.executeBatch();
+            writes.executeBatch();
+            balances.executeBatch();
+        }
+        return merges;
+    }
+    
+    /**
+     * Read back accounts whose balances were written as increments: storage
+     * now holds their balances, including what other servers added. Our own
+     * updates keep the rows locked until commit.
+     */
+    private List<Merge> readBack(Connection connection, Collection<PlayerData> incremented) throws SQLException {
+        List<Merge> merges = new ArrayList<>();
+        if (incremented.isEmpty()) {
+            return merges;
+        }
+        
+        List<UUID> uuids = new ArrayList<>();
+        for (PlayerData data : incremented) {
+            uuids.add(data.getUUID());
+        }
+        
+        Map<UUID, PlayerData> rows = new HashMap<>();
+        Map<UUID, Long> versions = new HashMap<>();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                SELECT_ACCOUNT + "WHERE a.uuid IN (" + placeholders(uuids.size()) + ")")) {
+            bindUUIDs(stmt, uuids);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    readRow(rows, versions, rs);
+                }
+            }
+        }
+        
+        for (PlayerData snapshot : incremented) {
+            PlayerData current = rows.get(snapshot.getUUID());
+            if (current != null) {
+                merges.add(new Merge(snapshot, versions.get(snapshot.getUUID()), current));
+            }
+        }
+        return merges;
+    }
+    
+    /**
+     * Record the save ids of a chunk in its transaction. A snapshot keeps its
+     * id once an attempt to save it was made, since that attempt may have
+     * committed without an answer; such a save is only written if its id was
+     * not recorded yet, so its increments are never applied twice.
+     * @return the snapshots that were already applied
+     */
+    private Set<PlayerData> claimSaves(Connection connection, List<PlayerData> chunk) throws SQLException {
+        Map<Long, PlayerData> repeated = new HashMap<>();
+        for (PlayerData data : chunk) {
+            if (data.getSaveId() != 0) {
+                repeated.put(data.getSaveId(), data);
+            } else {
+                data.setSaveId(ThreadLocalRandom.current().nextLong(1L, Long.MAX_VALUE));
+            }
+        }
+        
+        Set<PlayerData> applied = new HashSet<>();
+        if (!repeated.isEmpty()) {
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    SELECT_APPLIED + "(" + placeholders(repeated.size()) + ")")) {
+                int index = 1;
+                for (long saveId : repeated.keySet()) {
+                    stmt.setLong(index++, saveId);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        applied.add(repeated.get(rs.getLong(1)));
+                    }
+                }
+            }
+        }
+        
+        try (PreparedStatement stmt = connection.prepareStatement(INSERT_APPLIED)) {
+            long now = System.currentTimeMillis();
+            for (PlayerData data : chunk) {
+                if (!applied.contains(data)) {
+                    stmt.setLong(1, data.getSaveId());
+                    stmt.setLong(2, now);
+                    stmt.addBatch();
+                }
+            }
+            stmt.executeBatch();
+        }
+        return applied;
+    }
+    
+    /**
+     * Apply the changed fields of a snapshot to the current stored account.
+     * Balances and statistics are applied as the difference to what this
+     * server last read, or as the increments made here, so changes made on
+     * other servers are kept. Otherwise without a known base the snapshot's
+     * values win.
+     */
+    private static void applyChanges(PlayerData current, PlayerData snapshot, PlayerData base) {
+        ChangeSet changes = snapshot.getChanges();
+        
+        int account = changes.getAccountFields();
+        if ((account & ChangeSet.USERNAME) != 0) {
+            current.setUsername(snapshot.getUsername());
+        }
+        if ((account & ChangeSet.FIRST_JOIN) != 0) {
+            current.setFirstJoin(snapshot.getFirstJoin());
+        }
+        if ((account & ChangeSet.LAST_SEEN) != 0) {
+            current.setLastSeen(Math.max(current.getLastSeen(), snapshot.getLastSeen()));
+        }
+        if ((account & ChangeSet.LAST_RESET) != 0) {
+            current.setLastDailyReset(snapshot.getLastDailyReset());
+        }
+        
+        for (CurrencyType type : CurrencyType.values()) {
+            int fields = changes.getCurrencyFields(type);
+            if ((fields & ChangeSet.BALANCE) != 0) {
+                long balance = current.getBalanceUnits(type);
+                if (changes.isBalanceIncrement(type)) {
+                    current.setBalanceUnits(type, Math.addExact(balance, changes.getBalanceDeltaUnits(type)));
+                } else {
+                    current.setBalanceUnits(type, base == null ? snapshot.getBalanceUnits(type)
+                            : Math.addExact(balance, snapshot.getBalanceUnits(type) - base.getBalanceUnits(type)));
+                }
+            }
+            if ((fields & ChangeSet.SENT) != 0) {
+                long sent = snapshot.getMoneySent(type);
+                current.setMoneySent(type, base == null ? sent
+                        : current.getMoneySent(type) + sent - base.getMoneySent(type));
+            }
+            if ((fields & ChangeSet.RECEIVED) != 0) {
+                long received = snapshot.getMoneyReceived(type);
+                current.setMoneyReceived(type, base == null ? received
+                        : current.getMoneyReceived(type) + received - base.getMoneyReceived(type));
+            }
+            if ((fields & ChangeSet.SENDS_TODAY) != 0) {
+                current.setDailySendCount(type, snapshot.getDailySendCount(type));
+            }
+            if ((fields & ChangeSet.REQUESTS_TODAY) != 0) {
+                current.setDailyRequestCount(type, snapshot.getDailyRequestCount(type));
+            }
+            if ((fields & ChangeSet.SEND_COOLDOWN) != 0) {
+                current.setSendCooldown(type, snapshot.getSendCooldown(type));
+            }
+            if ((fields & ChangeSet.REQUEST_COOLDOWN) != 0) {
+                current.setRequestCooldown(type, snapshot.getRequestCooldown(type));
+            }
+        }
+    }
+    
+    /**
+     * Saves checked against the stored version since startup
+     */
+    public long getVersionedSaveCount() {
+        return versionedSaves.get();
+    }
+    
+    /**
+     * Saves that found the account changed by another server and were merged
+     */
+    public long getConflictCount() {
+        return conflicts.get();
+    }
+    
+    /**
+     * Saves written as balance increments, with delta-balances enabled
+     */
+    public long getIncrementedSaveCount() {
+        return incrementedSaves.get();
+    }
+    
+    /**
+     * CLOSED, OPEN or HALF_OPEN, or DISABLED without a circuit breaker
+     */
+    public String getCircuitState() {
+        return breaker != null ? breaker.getState().name() : "DISABLED";
+    }
+    
+    /**
+     * Accounts with saves waiting in the spill journal
+     */
+    public int getSpilledAccountCount() {
+        return spill != null ? spill.size() : 0;
+    }
+    
+    /**
+     * Saves written to the spill journal since startup
+     */
+    public long getSpilledSaveCount() {
+        return spilledSaves.get();
+    }
+    
+    /**
+     * The connection pool, shared with the MySQL sync transport
+     */
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+    
+    private static void bindPage(PreparedStatement stmt, byte[] after, int limit) throws SQLException {
+        int index = 1;
+        if (after != null) {
+            stmt.setBytes(index++, after);
+        }
+        stmt.setInt(index, limit);
+    }
+    
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+    
+    private static void bindUUIDs(PreparedStatement stmt, List<UUID> uuids) throws SQLException {
+        for (int i = 0; i < uuids.size(); i++) {
+            stmt.setBytes(i + 1, UUIDUtil.toBytes(uuids.get(i)));
+        }
+    }
+    
+    @Override
+    public long countPlayers() {
+        try (Connection connection = connect();
+             PreparedStatement stmt = connection.prepareStatement(COUNT_PLAYERS);
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0L;
+        } catch (SQLException e) {
+            throw new StorageException("Failed to count players", e);
+        }
+    }
+    
+    @Override
+    public Stream<UUID> listPlayers() {
+        Iterator<UUID> iterator = new KeysetIterator<UUID>(batchSize) {
+            @Override
+            protected List<UUID> fetch(byte[] after, int limit) throws SQLException {
+                try (Connection connection = connect();
+                     PreparedStatement stmt = connection.prepareStatement(after == null ? LIST_FIRST : LIST_AFTER)) {
+                    bindPage(stmt, after, limit);
+                    stmt.setFetchSize(limit);
+                    
+                    List<UUID> uuids = new ArrayList<>(limit);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            uuids.add(UUIDUtil.fromBytes(rs.getBytes(1)));
+                        }
+                    }
+                    return uuids;
+                }
+            }
+            
+            @Override
+            protected UUID keyOf(UUID uuid) {
+                return uuid;
+            }
+        };
+        
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+    
+    @Override
+    public void forEachPlayer(Consumer<PlayerData> action) {
+        Iterator<PlayerData> iterator = new KeysetIterator<PlayerData>(batchSize) {
+            @Override
+            protected List<PlayerData> fetch(byte[] after, int limit) throws SQLException {
+                try (Connection connection = connect();
+                     PreparedStatement stmt = connection.prepareStatement(after == null ? PAGE_FIRST : PAGE_AFTER)) {
+                    bindPage(stmt, after, limit);
+                    stmt.setFetchSize(limit * CurrencyType.values().length);
+                    
+                    Map<UUID, PlayerData> page = new LinkedHashMap<>();
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            readRow(page, null, rs);
+                        }
+                    }
+                    return new ArrayList<>(page.values());
+                }
+            }
+            
+            @Override
+            protected UUID keyOf(PlayerData data) {
+                return data.getUUID();
+            }
+        };
+        
+        while (iterator.hasNext()) {
+            action.accept(iterator.next());
+        }
     }
     
     @Override
     public boolean playerDataExists(UUID uuid) {
-        try (Connection connection = dataSource.getConnection();
-             PreparedStatement stmt = connection.prepareStatement("SELECT uuid FROM players WHERE uuid = ?")) {
-            stmt.setString(1, uuid.toString());
+        if (spill != null && !isAvailable() && spill.get(uuid) != null) {
+            return true;
+        }
+        try (Connection connection = connect();
+             PreparedStatement stmt = connection.prepareStatement("SELECT 1 FROM accounts WHERE uuid = ?")) {
+            stmt.setBytes(1, UUIDUtil.toBytes(uuid));
             ResultSet rs = stmt.executeQuery();
             boolean exists = rs.next();
             rs.close();
@@ -272,17 +1154,33 @@ public class MySQLStorageProvider implements StorageProvider {
     
     @Override
     public void deletePlayerData(UUID uuid) {
-        try (Connection connection = dataSource.getConnection();
-             PreparedStatement stmt = connection.prepareStatement("DELETE FROM players WHERE uuid = ?")) {
-            stmt.setString(1, uuid.toString());
+        try (Connection connection = connect();
+             PreparedStatement stmt = connection.prepareStatement("DELETE FROM accounts WHERE uuid = ?")) {
+            stmt.setBytes(1, UUIDUtil.toBytes(uuid));
             stmt.executeUpdate();
         } catch (SQLException e) {
             plugin.getLogger().severe("Failed to delete player data: " + e.getMessage());
         }
     }
     
+    @Override
+    public boolean appliesChanges() {
+        return true;
+    }
+    
     @Override
     public void close() {
+        running = false;
+        if (healthThread != null) {
+            healthThread.interrupt();
+        }
+        if (spill != null) {
+            if (!spill.isEmpty()) {
+                plugin.getLogger().warning(spill.size() + " account(s) still have saves in the spill journal, they are replayed on the next start");
+            }
+            spill.close();
+        }
+        
         if (dataSource != null && !dataSource.isClosed()) {
             dataSource.close();
         }
@@ -3,22 +3,92 @@ package online.demonzdevelopment.dzeconomy.storage.impl;
 import online.demonzdevelopment.dzeconomy.DZEconomy;
 import online.demonzdevelopment.dzeconomy.currency.CurrencyType;
 import online.demonzdevelopment.dzeconomy.data.PlayerData;
+import online.demonzdevelopment.dzeconomy.storage.StorageException;
 import online.demonzdevelopment.dzeconomy.storage.StorageProvider;
+import online.demonzdevelopment.dzeconomy.util.UUIDUtil;
 
 import java.io.File;
 import java.sql.*;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * SQLite storage implementation
+ *
+ * The database runs in WAL mode. Every write is handed to a single writer
+ * thread which group-commits whatever is queued in one transaction, while
+ * reads use a small pool of read-only connections so they never wait
+ * behind a write. Statements are prepared once per connection.
  */
 public class SQLiteStorageProvider implements StorageProvider {
     
+    // Schema 2: binary UUID keys and one balance row per (uuid, currency)
+    private static final int SCHEMA_VERSION = 2;
+    
+    // Whole account in one round-trip, one row per currency
+    private static final String ACCOUNT_FIELDS =
+            "a.uuid, a.username, a.first_join, a.last_seen, a.last_reset, " +
+            "b.currency_id, b.balance, b.sent, b.received, b.sends_today, b.requests_today, " +
+            "b.send_cooldown, b.request_cooldown ";
+    
+    private static final String SELECT_ACCOUNT = "SELECT " + ACCOUNT_FIELDS +
+            "FROM accounts a " +
+            "LEFT JOIN account_balances b ON b.uuid = a.uuid ";
+    
+    private static final String SELECT_PLAYER = SELECT_ACCOUNT + "WHERE a.uuid = ?";
+    
+    // Keyset pagination used to walk the whole table in constant memory
+    private static final String LIST_FIRST = "SELECT uuid FROM accounts ORDER BY uuid LIMIT ?";
+    private static final String LIST_AFTER = "SELECT uuid FROM accounts WHERE uuid > ? ORDER BY uuid LIMIT ?";
+    private static final String PAGE_FIRST = "SELECT " + ACCOUNT_FIELDS + "FROM (" + LIST_FIRST + ") k " +
+            "JOIN accounts a ON a.uuid = k.uuid LEFT JOIN account_balances b ON b.uuid = a.uuid ORDER BY a.uuid";
+    private static final String PAGE_AFTER = "SELECT " + ACCOUNT_FIELDS + "FROM (" + LIST_AFTER + ") k " +
+            "JOIN accounts a ON a.uuid = k.uuid LEFT JOIN account_balances b ON b.uuid = a.uuid ORDER BY a.uuid";
+    private static final String COUNT_PLAYERS = "SELECT COUNT(*) FROM accounts";
+    
+    private static final String EXISTS_PLAYER = "SELECT 1 FROM accounts WHERE uuid = ?";
+    
+    // Upserts update the row in place instead of REPLACE's delete and re-insert
+    private static final String UPSERT_ACCOUNT =
+            "INSERT INTO accounts (uuid, username, first_join, last_seen, last_reset) VALUES (?,?,?,?,?) " +
+            "ON CONFLICT(uuid) DO UPDATE SET " +
+            "username=excluded.username, last_seen=excluded.last_seen, last_reset=excluded.last_reset";
+    
+    private static final String UPSERT_BALANCE =
+            "INSERT INTO account_balances (uuid, currency_id, balance, sent, received, " +
+            "sends_today, requests_today, send_cooldown, request_cooldown) VALUES (?,?,?,?,?,?,?,?,?) " +
+            "ON CONFLICT(uuid, currency_id) DO UPDATE SET " +
+            "balance=excluded.balance, sent=excluded.sent, received=excluded.received, " +
+            "sends_today=excluded.sends_today, requests_today=excluded.requests_today, " +
+            "send_cooldown=excluded.send_cooldown, request_cooldown=excluded.request_cooldown";
+    
+    private static final String DELETE_ACCOUNT = "DELETE FROM accounts WHERE uuid = ?";
+    private static final String DELETE_BALANCES = "DELETE FROM account_balances WHERE uuid = ?";
+    
+    // How long callers wait for the writer or a read connection before giving up
+    private static final long TIMEOUT_SECONDS = 30L;
+    
     private final DZEconomy plugin;
-    private Connection connection;
+    private final BlockingQueue<WriteTask> writeQueue;
+    private BlockingQueue<StatementCache> readers;
+    private StatementCache writer;
+    private Thread writerThread;
+    private volatile boolean running;
+    private int batchSize;
+    private int groupCommitSize;
     
     public SQLiteStorageProvider(DZEconomy plugin) {
         this.plugin = plugin;
+        this.writeQueue = new LinkedBlockingQueue<>();
     }
     
     @Override
@@ -28,259 +98,606 @@ public class SQLiteStorageProvider implements StorageProvider {
             dbFile.getParentFile().mkdirs();
             
             Class.forName("org.sqlite.JDBC");
-            connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
+            String url = "jdbc:sqlite:" + dbFile.getAbsolutePath();
+            
+            batchSize = Math.max(1, plugin.getConfigManager().getConfig().getInt("storage.batch-size", 500));
+            groupCommitSize = Math.max(1, plugin.getConfigManager().getConfig().getInt("storage.sqlite.group-commit-size", 256));
+            int readPoolSize = Math.max(1, plugin.getConfigManager().getConfig().getInt("storage.sqlite.read-pool-size", 4));
             
-            createTables();
-            plugin.getLogger().info("SQLite database initialized successfully!");
+            // Writer connection, switches the database to WAL before anything else opens it
+            Connection writeConnection = DriverManager.getConnection(url);
+            try (Statement stmt = writeConnection.createStatement()) {
+                stmt.execute("PRAGMA journal_mode=WAL");
+            }
+            applyPragmas(writeConnection);
+            writeConnection.setAutoCommit(false);
+            createTables(writeConnection);
+            updateSchema(writeConnection);
+            writeConnection.commit();
+            writer = new StatementCache(writeConnection);
+            
+            // Read-only connections
+            readers = new ArrayBlockingQueue<>(readPoolSize);
+            for (int i = 0; i < readPoolSize; i++) {
+                Connection readConnection = DriverManager.getConnection(url);
+                applyPragmas(readConnection);
+                try (Statement stmt = readConnection.createStatement()) {
+                    stmt.execute("PRAGMA query_only=ON");
+                }
+                readers.add(new StatementCache(readConnection));
+            }
+            
+            running = true;
+            writerThread = new Thread(this::runWriter, "DZEconomy-SQLite-Writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+            
+            plugin.getLogger().info("SQLite database initialized successfully! (WAL, " + readPoolSize + " read connection(s))");
         } catch (Exception e) {
             plugin.getLogger().severe("Failed to initialize SQLite database: " + e.getMessage());
             e.printStackTrace();
         }
     }
     
-    private void createTables() throws SQLException {
+    /**
+     * Per-connection tuning. NORMAL sync is durable across application
+     * crashes in WAL mode and only risks the last commits on power loss.
+     */
+    private void applyPragmas(Connection connection) throws SQLException {
+        long mmapSize = plugin.getConfigManager().getConfig().getLong("storage.sqlite.mmap-size", 268435456L);
+        int cacheSize = plugin.getConfigManager().getConfig().getInt("storage.sqlite.cache-size", 16384);
+        
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA synchronous=NORMAL");
+            stmt.execute("PRAGMA mmap_size=" + mmapSize);
+            // Negative cache_size is in KiB instead of pages
+            stmt.execute("PRAGMA cache_size=-" + cacheSize);
+            stmt.execute("PRAGMA temp_store=MEMORY");
+            stmt.execute("PRAGMA busy_timeout=5000");
+        }
+    }
+    
+    private void createTables(Connection connection) throws SQLException {
         Statement stmt = connection.createStatement();
         
-        // Players table
-        stmt.execute("CREATE TABLE IF NOT EXISTS players (" +
-                "uuid VARCHAR(36) PRIMARY KEY," +
+        stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                "version INT NOT NULL" +
+                ")");
+        
+        // Accounts table
+        stmt.execute("CREATE TABLE IF NOT EXISTS accounts (" +
+                "uuid BLOB PRIMARY KEY," +
                 "username VARCHAR(16)," +
                 "first_join BIGINT," +
                 "last_seen BIGINT," +
-                "money_balance REAL," +
-                "mobcoin_balance REAL," +
-                "gem_balance REAL," +
-                "money_sent BIGINT," +
-                "mobcoin_sent BIGINT," +
-                "gem_sent BIGINT," +
-                "money_received BIGINT," +
-                "mobcoin_received BIGINT," +
-                "gem_received BIGINT" +
-                ")");
-        
-        // Daily limits table
-        stmt.execute("CREATE TABLE IF NOT EXISTS daily_limits (" +
-                "uuid VARCHAR(36) PRIMARY KEY," +
-                "money_sends INT," +
-                "mobcoin_sends INT," +
-                "gem_sends INT," +
-                "money_requests INT," +
-                "mobcoin_requests INT," +
-                "gem_requests INT," +
-                "last_reset BIGINT," +
-                "FOREIGN KEY (uuid) REFERENCES players(uuid)" +
-                ")");
+                "last_reset BIGINT" +
+                ") WITHOUT ROWID");
         
-        // Cooldowns table
-        stmt.execute("CREATE TABLE IF NOT EXISTS cooldowns (" +
-                "uuid VARCHAR(36) PRIMARY KEY," +
-                "money_send_cooldown BIGINT," +
-                "mobcoin_send_cooldown BIGINT," +
-                "gem_send_cooldown BIGINT," +
-                "money_request_cooldown BIGINT," +
-                "mobcoin_request_cooldown BIGINT," +
-                "gem_request_cooldown BIGINT," +
-                "FOREIGN KEY (uuid) REFERENCES players(uuid)" +
-                ")");
+        // Per-currency balances, statistics, daily limits and cooldowns
+        stmt.execute("CREATE TABLE IF NOT EXISTS account_balances (" +
+                "uuid BLOB NOT NULL," +
+                "currency_id INTEGER NOT NULL," +
+                "balance REAL," +
+                "sent BIGINT," +
+                "received BIGINT," +
+                "sends_today INT," +
+                "requests_today INT," +
+                "send_cooldown BIGINT," +
+                "request_cooldown BIGINT," +
+                "PRIMARY KEY (uuid, currency_id)" +
+                ") WITHOUT ROWID");
         
         stmt.close();
     }
     
-    @Override
-    public PlayerData loadPlayerData(UUID uuid) {
-        try {
-            PreparedStatement stmt = connection.prepareStatement(
-                    "SELECT * FROM players WHERE uuid = ?");
-            stmt.setString(1, uuid.toString());
-            
-            ResultSet rs = stmt.executeQuery();
-            if (!rs.next()) {
-                rs.close();
-                stmt.close();
-                return null;
+    /**
+     * Bring an older database up to the current schema version
+     */
+    private void updateSchema(Connection connection) throws SQLException {
+        int version = 0;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            if (rs.next()) {
+                version = rs.getInt(1);
             }
+        }
+        
+        if (version >= SCHEMA_VERSION) {
+            return;
+        }
+        
+        // Version 1: text UUIDs and one column per currency
+        if (tableExists(connection, "players")) {
+            migrateLegacySchema(connection);
+        }
+        
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DELETE FROM schema_version");
+            stmt.execute("INSERT INTO schema_version VALUES (" + SCHEMA_VERSION + ")");
+        }
+    }
+    
+    private boolean tableExists(Connection connection, String table) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getTables(null, null, table, null)) {
+            return rs.next();
+        }
+    }
+    
+    /**
+     * Copy version 1 tables into the normalized layout. The old tables are
+     * kept as players_v1, daily_limits_v1 and cooldowns_v1. Runs inside the
+     * caller's transaction, so an interrupted migration leaves nothing behind.
+     */
+    private void migrateLegacySchema(Connection connection) throws SQLException {
+        plugin.getLogger().info("Migrating SQLite database to schema version " + SCHEMA_VERSION + "...");
+        
+        int count = 0;
+        try (Statement select = connection.createStatement();
+             ResultSet rs = select.executeQuery("SELECT p.*, d.*, c.* FROM players p " +
+                     "LEFT JOIN daily_limits d ON d.uuid = p.uuid " +
+                     "LEFT JOIN cooldowns c ON c.uuid = p.uuid");
+             PreparedStatement accounts = connection.prepareStatement(UPSERT_ACCOUNT);
+             PreparedStatement balances = connection.prepareStatement(UPSERT_BALANCE)) {
             
-            PlayerData data = new PlayerData(uuid);
-            data.setUsername(rs.getString("username"));
-            data.setFirstJoin(rs.getLong("first_join"));
-            data.setLastSeen(rs.getLong("last_seen"));
-            
-            // Load balances
-            data.setBalance(CurrencyType.MONEY, rs.getDouble("money_balance"));
-            data.setBalance(CurrencyType.MOBCOIN, rs.getDouble("mobcoin_balance"));
-            data.setBalance(CurrencyType.GEM, rs.getDouble("gem_balance"));
-            
-            // Load statistics
-            data.getMoneySent().put(CurrencyType.MONEY, rs.getLong("money_sent"));
-            data.getMoneySent().put(CurrencyType.MOBCOIN, rs.getLong("mobcoin_sent"));
-            data.getMoneySent().put(CurrencyType.GEM, rs.getLong("gem_sent"));
-            data.getMoneyReceived().put(CurrencyType.MONEY, rs.getLong("money_received"));
-            data.getMoneyReceived().put(CurrencyType.MOBCOIN, rs.getLong("mobcoin_received"));
-            data.getMoneyReceived().put(CurrencyType.GEM, rs.getLong("gem_received"));
-            
-            rs.close();
-            stmt.close();
-            
-            // Load daily limits
-            loadDailyLimits(data);
+            while (rs.next()) {
+                byte[] uuid = UUIDUtil.toBytes(UUID.fromString(rs.getString(1)));
+                
+                accounts.setBytes(1, uuid);
+                accounts.setString(2, rs.getString("username"));
+                accounts.setLong(3, rs.getLong("first_join"));
+                accounts.setLong(4, rs.getLong("last_seen"));
+                accounts.setLong(5, rs.getLong("last_reset"));
+                accounts.addBatch();
+                
+                for (CurrencyType type : CurrencyType.values()) {
+                    String id = type.getId();
+                    balances.setBytes(1, uuid);
+                    balances.setInt(2, type.getStorageId());
+                    balances.setDouble(3, rs.getDouble(id + "_balance"));
+                    balances.setLong(4, rs.getLong(id + "_sent"));
+                    balances.setLong(5, rs.getLong(id + "_received"));
+                    balances.setInt(6, rs.getInt(id + "_sends"));
+                    balances.setInt(7, rs.getInt(id + "_requests"));
+                    balances.setLong(8, rs.getLong(id + "_send_cooldown"));
+                    balances.setLong(9, rs.getLong(id + "_request_cooldown"));
+                    balances.addBatch();
+                }
+                
+                if (++count % batchSize == 0) {
+                    accounts.executeBatch();
+                    balances.executeBatch();
+                }
+            }
             
-            // Load cooldowns
-            loadCooldowns(data);
+            accounts.executeBatch();
+            balances.executeBatch();
+        }
+        
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE players RENAME TO players_v1");
+            stmt.execute("ALTER TABLE daily_limits RENAME TO daily_limits_v1");
+            stmt.execute("ALTER TABLE cooldowns RENAME TO cooldowns_v1");
+        }
+        
+        plugin.getLogger().info("Migrated " + count + " player(s), old tables kept with a _v1 suffix");
+    }
+    
+    // Writer
+    
+    @FunctionalInterface
+    private interface WriteWork {
+        void execute(StatementCache writer) throws SQLException;
+    }
+    
+    @FunctionalInterface
+    private interface ReadWork<T> {
+        T execute(StatementCache reader) throws SQLException;
+    }
+    
+    private static final class WriteTask {
+        private final String description;
+        private final WriteWork work;
+        private final CompletableFuture<Boolean> result;
+        
+        private WriteTask(String description, WriteWork work) {
+            this.description = description;
+            this.work = work;
+            this.result = new CompletableFuture<>();
+        }
+    }
+    
+    /**
+     * Writer loop: take everything that is queued, run it in one
+     * transaction and commit once for the whole group
+     */
+    private void runWriter() {
+        List<WriteTask> group = new ArrayList<>();
+        
+        while (running || !writeQueue.isEmpty()) {
+            try {
+                WriteTask first = writeQueue.poll(250, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                
+                group.add(first);
+                writeQueue.drainTo(group, groupCommitSize - 1);
+                commitGroup(group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                group.clear();
+            }
+        }
+    }
+    
+    private void commitGroup(List<WriteTask> group) {
+        Connection connection = writer.getConnection();
+        boolean[] success = new boolean[group.size()];
+        
+        try {
+            for (int i = 0; i < group.size(); i++) {
+                WriteTask task = group.get(i);
+                
+                // A failing task only rolls back its own changes
+                Savepoint savepoint = connection.setSavepoint();
+                try {
+                    task.work.execute(writer);
+                    connection.releaseSavepoint(savepoint);
+                    success[i] = true;
+                } catch (Exception e) {
+                    connection.rollback(savepoint);
+                    plugin.getLogger().severe("Failed to " + task.description + ": " + e.getMessage());
+                }
+            }
             
-            return data;
+            connection.commit();
         } catch (SQLException e) {
-            plugin.getLogger().severe("Failed to load player data: " + e.getMessage());
-            return null;
+            plugin.getLogger().severe("Failed to commit " + group.size() + " SQLite write(s): " + e.getMessage());
+            try {
+                connection.rollback();
+            } catch (SQLException ignored) {
+            }
+            Arrays.fill(success, false);
+        }
+        
+        for (int i = 0; i < group.size(); i++) {
+            group.get(i).result.complete(success[i]);
         }
     }
     
-    private void loadDailyLimits(PlayerData data) throws SQLException {
-        PreparedStatement stmt = connection.prepareStatement(
-                "SELECT * FROM daily_limits WHERE uuid = ?");
-        stmt.setString(1, data.getUUID().toString());
+    private CompletableFuture<Boolean> submit(String description, WriteWork work) {
+        WriteTask task = new WriteTask(description, work);
+        if (!running) {
+            plugin.getLogger().severe("Failed to " + description + ": SQLite writer is not running");
+            task.result.complete(false);
+            return task.result;
+        }
         
-        ResultSet rs = stmt.executeQuery();
-        if (rs.next()) {
-            data.getDailySendCounts().put(CurrencyType.MONEY, rs.getInt("money_sends"));
-            data.getDailySendCounts().put(CurrencyType.MOBCOIN, rs.getInt("mobcoin_sends"));
-            data.getDailySendCounts().put(CurrencyType.GEM, rs.getInt("gem_sends"));
-            data.getDailyRequestCounts().put(CurrencyType.MONEY, rs.getInt("money_requests"));
-            data.getDailyRequestCounts().put(CurrencyType.MOBCOIN, rs.getInt("mobcoin_requests"));
-            data.getDailyRequestCounts().put(CurrencyType.GEM, rs.getInt("gem_requests"));
-            data.setLastDailyReset(rs.getLong("last_reset"));
+        writeQueue.add(task);
+        return task.result;
+    }
+    
+    private boolean await(CompletableFuture<Boolean> result) {
+        try {
+            return result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            plugin.getLogger().severe("SQLite write did not complete: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    private boolean write(String description, WriteWork work) {
+        return await(submit(description, work));
+    }
+    
+    /**
+     * Run a read on a pooled read-only connection
+     */
+    private <T> T read(ReadWork<T> work) throws SQLException {
+        StatementCache reader;
+        try {
+            reader = readers.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a read connection");
         }
         
-        rs.close();
-        stmt.close();
+        if (reader == null) {
+            throw new SQLException("No SQLite read connection available");
+        }
+        
+        try {
+            return work.execute(reader);
+        } finally {
+            readers.offer(reader);
+        }
+    }
+    
+    // Reads
+    
+    @Override
+    public PlayerData loadPlayerData(UUID uuid) {
+        try {
+            return read(reader -> {
+                PreparedStatement stmt = reader.prepare(SELECT_PLAYER);
+                stmt.setBytes(1, UUIDUtil.toBytes(uuid));
+                
+                Map<UUID, PlayerData> result = new HashMap<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        readRow(result, rs);
+                    }
+                }
+                return result.get(uuid);
+            });
+        } catch (SQLException e) {
+            throw new StorageException("Failed to load player data for " + uuid, e);
+        }
     }
     
-    private void loadCooldowns(PlayerData data) throws SQLException {
-        PreparedStatement stmt = connection.prepareStatement(
-                "SELECT * FROM cooldowns WHERE uuid = ?");
-        stmt.setString(1, data.getUUID().toString());
+    @Override
+    public Map<UUID, PlayerData> loadAll(Collection<UUID> uuids) {
+        Map<UUID, PlayerData> result = new HashMap<>();
+        List<UUID> list = new ArrayList<>(uuids);
         
-        ResultSet rs = stmt.executeQuery();
-        if (rs.next()) {
-            data.getSendCooldowns().put(CurrencyType.MONEY, rs.getLong("money_send_cooldown"));
-            data.getSendCooldowns().put(CurrencyType.MOBCOIN, rs.getLong("mobcoin_send_cooldown"));
-            data.getSendCooldowns().put(CurrencyType.GEM, rs.getLong("gem_send_cooldown"));
-            data.getRequestCooldowns().put(CurrencyType.MONEY, rs.getLong("money_request_cooldown"));
-            data.getRequestCooldowns().put(CurrencyType.MOBCOIN, rs.getLong("mobcoin_request_cooldown"));
-            data.getRequestCooldowns().put(CurrencyType.GEM, rs.getLong("gem_request_cooldown"));
+        try {
+            read(reader -> {
+                Connection connection = reader.getConnection();
+                
+                for (int from = 0; from < list.size(); from += batchSize) {
+                    List<UUID> chunk = list.subList(from, Math.min(from + batchSize, list.size()));
+                    String in = placeholders(chunk.size());
+                    
+                    try (PreparedStatement stmt = connection.prepareStatement(SELECT_ACCOUNT + "WHERE a.uuid IN (" + in + ")")) {
+                        bindUUIDs(stmt, chunk);
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next()) {
+                                readRow(result, rs);
+                            }
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new StorageException("Failed to load player data batch of " + list.size(), e);
         }
         
-        rs.close();
-        stmt.close();
+        return result;
+    }
+    
+    /**
+     * Read one joined row, creating the account on its first row
+     */
+    private void readRow(Map<UUID, PlayerData> result, ResultSet rs) throws SQLException {
+        UUID uuid = UUIDUtil.fromBytes(rs.getBytes("uuid"));
+        
+        PlayerData data = result.get(uuid);
+        if (data == null) {
+            data = new PlayerData(uuid);
+            data.setUsername(rs.getString("username"));
+            data.setFirstJoin(rs.getLong("first_join"));
+            data.setLastSeen(rs.getLong("last_seen"));
+            data.setLastDailyReset(rs.getLong("last_reset"));
+            result.put(uuid, data);
+        }
+        
+        // No balance rows yet, or a currency this version does not know
+        CurrencyType currency = CurrencyType.fromStorageId(rs.getInt("currency_id"));
+        if (currency == null) {
+            return;
+        }
+        
+        // REAL holds every minor unit of balances below 10^15 units, reading rounds off the binary noise
+        data.setBalance(currency, rs.getDouble("balance"));
+        data.setMoneySent(currency, rs.getLong("sent"));
+        data.setMoneyReceived(currency, rs.getLong("received"));
+        data.setDailySendCount(currency, rs.getInt("sends_today"));
+        data.setDailyRequestCount(currency, rs.getInt("requests_today"));
+        data.setSendCooldown(currency, rs.getLong("send_cooldown"));
+        data.setRequestCooldown(currency, rs.getLong("request_cooldown"));
     }
     
     @Override
-    public void savePlayerData(PlayerData data) {
+    public long countPlayers() {
         try {
-            // Save main player data
-            PreparedStatement stmt = connection.prepareStatement(
-                    "INSERT OR REPLACE INTO players VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?)");
-            stmt.setString(1, data.getUUID().toString());
-            stmt.setString(2, data.getUsername());
-            stmt.setLong(3, data.getFirstJoin());
-            stmt.setLong(4, data.getLastSeen());
-            stmt.setDouble(5, data.getBalance(CurrencyType.MONEY));
-            stmt.setDouble(6, data.getBalance(CurrencyType.MOBCOIN));
-            stmt.setDouble(7, data.getBalance(CurrencyType.GEM));
-            stmt.setLong(8, data.getMoneySent().get(CurrencyType.MONEY));
-            stmt.setLong(9, data.getMoneySent().get(CurrencyType.MOBCOIN));
-            stmt.setLong(10, data.getMoneySent().get(CurrencyType.GEM));
-            stmt.setLong(11, data.getMoneyReceived().get(CurrencyType.MONEY));
-            stmt.setLong(12, data.getMoneyReceived().get(CurrencyType.MOBCOIN));
-            stmt.setLong(13, data.getMoneyReceived().get(CurrencyType.GEM));
-            stmt.executeUpdate();
-            stmt.close();
-            
-            // Save daily limits
-            saveDailyLimits(data);
-            
-            // Save cooldowns
-            saveCooldowns(data);
+            return read(reader -> {
+                try (ResultSet rs = reader.prepare(COUNT_PLAYERS).executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : 0L;
+                }
+            });
         } catch (SQLException e) {
-            plugin.getLogger().severe("Failed to save player data: " + e.getMessage());
+            throw new StorageException("Failed to count players", e);
         }
     }
     
-    private void saveDailyLimits(PlayerData data) throws SQLException {
-        PreparedStatement stmt = connection.prepareStatement(
-                "INSERT OR REPLACE INTO daily_limits VALUES (?,?,?,?,?,?,?,?)");
-        stmt.setString(1, data.getUUID().toString());
-        stmt.setInt(2, data.getDailySendCounts().get(CurrencyType.MONEY));
-        stmt.setInt(3, data.getDailySendCounts().get(CurrencyType.MOBCOIN));
-        stmt.setInt(4, data.getDailySendCounts().get(CurrencyType.GEM));
-        stmt.setInt(5, data.getDailyRequestCounts().get(CurrencyType.MONEY));
-        stmt.setInt(6, data.getDailyRequestCounts().get(CurrencyType.MOBCOIN));
-        stmt.setInt(7, data.getDailyRequestCounts().get(CurrencyType.GEM));
-        stmt.setLong(8, data.getLastDailyReset());
-        stmt.executeUpdate();
-        stmt.close();
+    @Override
+    public Stream<UUID> listPlayers() {
+        Iterator<UUID> iterator = new KeysetIterator<UUID>(batchSize) {
+            @Override
+            protected List<UUID> fetch(byte[] after, int limit) throws SQLException {
+                return read(reader -> {
+                    PreparedStatement stmt = reader.prepare(after == null ? LIST_FIRST : LIST_AFTER);
+                    bindPage(stmt, after, limit);
+                    
+                    List<UUID> uuids = new ArrayList<>(limit);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            uuids.add(UUIDUtil.fromBytes(rs.getBytes(1)));
+                        }
+                    }
+                    return uuids;
+                });
+            }
+            
+            @Override
+            protected UUID keyOf(UUID uuid) {
+                return uuid;
+            }
+        };
+        
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
     }
     
-    private void saveCooldowns(PlayerData data) throws SQLException {
-        PreparedStatement stmt = connection.prepareStatement(
-                "INSERT OR REPLACE INTO cooldowns VALUES (?,?,?,?,?,?,?)");
-        stmt.setString(1, data.getUUID().toString());
-        stmt.setLong(2, data.getSendCooldowns().get(CurrencyType.MONEY));
-        stmt.setLong(3, data.getSendCooldowns().get(CurrencyType.MOBCOIN));
-        stmt.setLong(4, data.getSendCooldowns().get(CurrencyType.GEM));
-        stmt.setLong(5, data.getRequestCooldowns().get(CurrencyType.MONEY));
-        stmt.setLong(6, data.getRequestCooldowns().get(CurrencyType.MOBCOIN));
-        stmt.setLong(7, data.getRequestCooldowns().get(CurrencyType.GEM));
-        stmt.executeUpdate();
-        stmt.close();
+    @Override
+    public void forEachPlayer(Consumer<PlayerData> action) {
+        Iterator<PlayerData> iterator = new KeysetIterator<PlayerData>(batchSize) {
+            @Override
+            protected List<PlayerData> fetch(byte[] after, int limit) throws SQLException {
+                return read(reader -> {
+                    PreparedStatement stmt = reader.prepare(after == null ? PAGE_FIRST : PAGE_AFTER);
+                    bindPage(stmt, after, limit);
+                    
+                    Map<UUID, PlayerData> page = new LinkedHashMap<>();
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            readRow(page, rs);
+                        }
+                    }
+                    return new ArrayList<>(page.values());
+                });
+            }
+            
+            @Override
+            protected UUID keyOf(PlayerData data) {
+                return data.getUUID();
+            }
+        };
+        
+        while (iterator.hasNext()) {
+            action.accept(iterator.next());
+        }
     }
     
     @Override
     public boolean playerDataExists(UUID uuid) {
         try {
-            PreparedStatement stmt = connection.prepareStatement(
-                    "SELECT uuid FROM players WHERE uuid = ?");
-            stmt.setString(1, uuid.toString());
-            ResultSet rs = stmt.executeQuery();
-            boolean exists = rs.next();
-            rs.close();
-            stmt.close();
-            return exists;
+            return read(reader -> {
+                PreparedStatement stmt = reader.prepare(EXISTS_PLAYER);
+                stmt.setBytes(1, UUIDUtil.toBytes(uuid));
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next();
+                }
+            });
         } catch (SQLException e) {
             return false;
         }
     }
     
+    // Writes
+    
+    @Override
+    public boolean savePlayerData(PlayerData data) {
+        return write("save player data for " + data.getUUID(), writer -> saveChunk(writer, Collections.singletonList(data)));
+    }
+    
+    @Override
+    public Set<UUID> saveAll(Collection<PlayerData> players) {
+        List<PlayerData> list = new ArrayList<>(players);
+        List<List<PlayerData>> chunks = new ArrayList<>();
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        
+        // Queue every chunk first so the writer can commit them back to back
+        for (int from = 0; from < list.size(); from += batchSize) {
+            List<PlayerData> chunk = list.subList(from, Math.min(from + batchSize, list.size()));
+            chunks.add(chunk);
+            results.add(submit("save player data batch of " + chunk.size(), writer -> saveChunk(writer, chunk)));
+        }
+        
+        Set<UUID> failed = new HashSet<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            if (!await(results.get(i))) {
+                for (PlayerData data : chunks.get(i)) {
+                    failed.add(data.getUUID());
+                }
+            }
+        }
+        return failed;
+    }
+    
+    /**
+     * Write only the changed columns, new rows fall back to the upserts
+     */
+    private void saveChunk(StatementCache writer, List<PlayerData> chunk) throws SQLException {
+        ColumnUpdates.save(chunk, writer::prepare, UPSERT_ACCOUNT, UPSERT_BALANCE);
+    }
+    
     @Override
     public void deletePlayerData(UUID uuid) {
-        try {
-            PreparedStatement stmt = connection.prepareStatement(
-                    "DELETE FROM players WHERE uuid = ?");
-            stmt.setString(1, uuid.toString());
-            stmt.executeUpdate();
-            stmt.close();
-            
-            stmt = connection.prepareStatement("DELETE FROM daily_limits WHERE uuid = ?");
-            stmt.setString(1, uuid.toString());
-            stmt.executeUpdate();
-            stmt.close();
-            
-            stmt = connection.prepareStatement("DELETE FROM cooldowns WHERE uuid = ?");
-            stmt.setString(1, uuid.toString());
-            stmt.executeUpdate();
-            stmt.close();
-        } catch (SQLException e) {
-            plugin.getLogger().severe("Failed to delete player data: " + e.getMessage());
+        write("delete player data for " + uuid, writer -> {
+            for (String sql : new String[] {DELETE_BALANCES, DELETE_ACCOUNT}) {
+                PreparedStatement stmt = writer.prepare(sql);
+                stmt.setBytes(1, UUIDUtil.toBytes(uuid));
+                stmt.executeUpdate();
+            }
+        });
+    }
+    
+    private static void bindPage(PreparedStatement stmt, byte[] after, int limit) throws SQLException {
+        int index = 1;
+        if (after != null) {
+            stmt.setBytes(index++, after);
+        }
+        stmt.setInt(index, limit);
+    }
+    
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+    
+    private static void bindUUIDs(PreparedStatement stmt, List<UUID> uuids) throws SQLException {
+        for (int i = 0; i < uuids.size(); i++) {
+            stmt.setBytes(i + 1, UUIDUtil.toBytes(uuids.get(i)));
         }
     }
     
     @Override
     public void close() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
+        running = false;
+        
+        // Let the writer finish everything that was queued before the shutdown
+        if (writerThread != null) {
+            try {
+                writerThread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        WriteTask task;
+        while ((task = writeQueue.poll()) != null) {
+            task.result.complete(false);
+        }
+        
+        if (writer != null) {
+            try {
+                Connection connection = writer.getConnection();
+                connection.commit();
+                connection.setAutoCommit(true);
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+                }
+            } catch (SQLException e) {
+                plugin.getLogger().severe("Failed to checkpoint SQLite database: " + e.getMessage());
+            }
+            writer.close();
+        }
+        
+        if (readers != null) {
+            StatementCache reader;
+            while ((reader = readers.poll()) != null) {
+                reader.close();
             }
-        } catch (SQLException e) {
-            plugin.getLogger().severe("Failed to close SQLite connection: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+}
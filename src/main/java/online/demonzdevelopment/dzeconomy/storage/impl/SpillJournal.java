@@ -0,0 +1,249 @@
+package online.demonzdevelopment.dzeconomy.storage.impl;
+
+import online.demonzdevelopment.dzeconomy.data.PlayerData;
+import online.demonzdevelopment.dzeconomy.data.PlayerDataCodec;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Local append-only file holding saves that could not reach the database.
+ *
+ * Every record is a {@link PlayerDataCodec#encodeSave} encoding, so a save
+ * is repeated later with exactly the changes it had, increments included.
+ * Saves of the same account are combined in memory: the newest values
+ * with the changes of all of them. A save that carries a save id may
+ * already have been applied, it stays on its own so a replay can skip it
+ * without skipping the changes of later saves. Appends are fsynced before they count
+ * as written; a torn record at the end is cut off when the file is opened.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+final class SpillJournal {
+
+    private static final int MAGIC = 0x445A5350; // DZSP
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    // Anything bigger is a corrupt length field, not a record
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    private final File file;
+    // Saves in the order they are replayed, and per account the newest and the one still combined into
+    private final Map<Long, PlayerData> pending = new LinkedHashMap<>();
+    private final Map<UUID, PlayerData> latest = new HashMap<>();
+    private final Map<UUID, Long> open = new HashMap<>();
+    private long next;
+    private FileChannel channel;
+
+    SpillJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Open the file, reading what a previous run left in it
+     * @return number of records read
+     */
+    synchronized int open() throws IOException {
+        file.getParentFile().mkdirs();
+        int records = 0;
+        long validLength = 0;
+
+        if (file.exists() && file.length() > 0) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+                if (in.readInt() != MAGIC || in.readInt() > FORMAT_VERSION) {
+                    throw new IOException(file.getName() + " is not a spill journal of this version");
+                }
+                validLength = HEADER_SIZE;
+
+                byte[] payload;
+                while ((payload = readRecord(in)) != null) {
+                    try {
+                        add(PlayerDataCodec.decodeSave(payload));
+                    } catch (IllegalArgumentException e) {
+                        break;
+                    }
+                    records++;
+                    validLength += 8 + payload.length;
+                }
+            } catch (EOFException e) {
+                // Header itself was torn
+            }
+        }
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (validLength < HEADER_SIZE) {
+            channel.truncate(0);
+            channel.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(FORMAT_VERSION).flip(), 0);
+            channel.force(true);
+            validLength = HEADER_SIZE;
+        } else if (validLength < channel.size()) {
+            channel.truncate(validLength);
+        }
+        channel.position(validLength);
+        return records;
+    }
+
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE) {
+                return null;
+            }
+            int checksum = in.readInt();
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            return (int) crc.getValue() == checksum ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Append saves, durable once this returns
+     */
+    synchronized void append(Collection<PlayerData> snapshots) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        List<byte[]> encoded = new ArrayList<>(snapshots.size());
+        for (PlayerData snapshot : snapshots) {
+            byte[] payload = PlayerDataCodec.encodeSave(snapshot);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            out.writeInt(payload.length);
+            out.writeInt((int) crc.getValue());
+            out.write(payload);
+            encoded.add(payload);
+        }
+
+        long start = channel.position();
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            // Do not leave half a batch for the next append to follow
+            channel.truncate(start);
+            channel.position(start);
+            throw e;
+        }
+
+        for (byte[] payload : encoded) {
+            add(PlayerDataCodec.decodeSave(payload));
+        }
+    }
+
+    private void add(PlayerData save) {
+        UUID uuid = save.getUUID();
+        latest.put(uuid, save);
+        if (save.getSaveId() != 0) {
+            pending.put(next++, save);
+            open.remove(uuid);
+            return;
+        }
+
+        Long key = open.get(uuid);
+        if (key != null) {
+            save.markDirty(pending.get(key).getChanges());
+        } else {
+            key = next++;
+            open.put(uuid, key);
+        }
+        pending.put(key, save);
+    }
+
+    /**
+     * The newest save of an account, or null if it has none
+     */
+    synchronized PlayerData get(UUID uuid) {
+        return latest.get(uuid);
+    }
+
+    /**
+     * The saves of all accounts in replay order, detached with their changes
+     */
+    synchronized List<PlayerData> getPending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * Number of accounts with spilled saves
+     */
+    synchronized int size() {
+        return latest.size();
+    }
+
+    synchronized boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * Keep only the given saves, e.g. those a replay did not get to.
+     * The file is rewritten next to the old one and moved over it.
+     */
+    synchronized void retain(Collection<PlayerData> remaining) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(FORMAT_VERSION).flip());
+            for (PlayerData save : remaining) {
+                byte[] payload = PlayerDataCodec.encodeSave(save);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+                record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+                while (record.hasRemaining()) {
+                    out.write(record);
+                }
+            }
+            out.force(true);
+        }
+
+        channel.close();
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        channel.position(channel.size());
+
+        pending.clear();
+        latest.clear();
+        open.clear();
+        for (PlayerData save : remaining) {
+            add(save);
+        }
+    }
+
+    synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Everything appended was already forced
+        }
+    }
+}
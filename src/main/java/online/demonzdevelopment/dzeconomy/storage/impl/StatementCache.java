@@ -0,0 +1,63 @@
+package online.demonzdevelopment.dzeconomy.storage.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Wraps a JDBC connection and prepares every statement only once,
+ * reusing it for the lifetime of the connection.
+ *
+ * Not thread-safe: a cache must only be used by one thread at a time.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+class StatementCache implements AutoCloseable {
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements;
+
+    StatementCache(Connection connection) {
+        this.connection = connection;
+        this.statements = new HashMap<>();
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Get the cached statement for this SQL, preparing it on first use.
+     * Parameters and pending batches of a reused statement are cleared.
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = connection.prepareStatement(sql);
+            statements.put(sql, stmt);
+        } else {
+            stmt.clearParameters();
+            stmt.clearBatch();
+        }
+        return stmt;
+    }
+
+    @Override
+    public void close() {
+        for (PreparedStatement stmt : statements.values()) {
+            try {
+                stmt.close();
+            } catch (SQLException ignored) {
+            }
+        }
+        statements.clear();
+
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package online.demonzdevelopment.dzeconomy.sync;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.Consumer;
+
+/**
+ * In-process transport: every transport started with the same group name
+ * receives what any of them publishes, synchronously on the publishing
+ * thread. Lets several buses in one JVM act as separate servers, e.g. in
+ * tests, and is a no-op network of one otherwise.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public class LoopbackTransport implements SyncTransport {
+
+    private static final Map<String, Set<LoopbackTransport>> GROUPS = new ConcurrentHashMap<>();
+
+    private final String group;
+    private volatile Consumer<byte[]> receiver;
+
+    public LoopbackTransport(String group) {
+        this.group = group;
+    }
+
+    @Override
+    public boolean start(Consumer<byte[]> receiver) {
+        this.receiver = receiver;
+        GROUPS.computeIfAbsent(group, key -> new CopyOnWriteArraySet<>()).add(this);
+        return true;
+    }
+
+    @Override
+    public void publish(byte[] message) {
+        Set<LoopbackTransport> members = GROUPS.get(group);
+        if (members == null) {
+            return;
+        }
+        for (LoopbackTransport member : members) {
+            Consumer<byte[]> target = member.receiver;
+            if (target != null) {
+                // Each member gets its own copy, like over a network
+                target.accept(message.clone());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        GROUPS.computeIfPresent(group, (key, members) -> {
+            members.remove(this);
+            return members.isEmpty() ? null : members;
+        });
+        receiver = null;
+    }
+
+    @Override
+    public String getName() {
+        return "LOOPBACK";
+    }
+}
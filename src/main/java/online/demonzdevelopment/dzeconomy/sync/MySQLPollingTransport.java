@@ -0,0 +1,229 @@
+package online.demonzdevelopment.dzeconomy.sync;
+
+import online.demonzdevelopment.dzeconomy.DZEconomy;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Exchanges messages through a sync_messages table in the shared MySQL
+ * database. One thread inserts the queued messages in a batch and then
+ * reads the rows added since the last poll.
+ *
+ * Auto-increment ids are handed out before commit, so a row can become
+ * visible after a higher id was already read. Skipped ids are looked up
+ * again for a few seconds before they are given up as rolled back.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public class MySQLPollingTransport implements SyncTransport {
+
+    private static final int POLL_LIMIT = 1000;
+    private static final int MAX_GAPS = 1000;
+    private static final long GAP_TIMEOUT = 10000L;
+    private static final long CLEANUP_INTERVAL = 60000L;
+
+    private final DZEconomy plugin;
+    private final DataSource dataSource;
+    private final long pollInterval;
+    private final long retention;
+    private final Queue<byte[]> outgoing = new ConcurrentLinkedQueue<>();
+
+    // Only touched by the polling thread
+    private long cursor;
+    private final Map<Long, Long> gaps = new LinkedHashMap<>();
+    private long lastCleanup;
+
+    private volatile Consumer<byte[]> receiver;
+    private volatile boolean running;
+    private Thread thread;
+
+    public MySQLPollingTransport(DZEconomy plugin, DataSource dataSource) {
+        this.plugin = plugin;
+        this.dataSource = dataSource;
+        this.pollInterval = Math.max(50L, plugin.getConfigManager().getConfig().getLong("sync.mysql.poll-interval", 500L));
+        this.retention = Math.max(10L, plugin.getConfigManager().getConfig().getLong("sync.mysql.retention", 300L)) * 1000L;
+    }
+
+    @Override
+    public boolean start(Consumer<byte[]> receiver) {
+        try (Connection connection = dataSource.getConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.execute(
+                "CREATE TABLE IF NOT EXISTS sync_messages (" +
+                "id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, " +
+                "payload VARBINARY(1024) NOT NULL, " +
+                "created BIGINT NOT NULL, " +
+                "INDEX idx_created (created)" +
+                ")"
+            );
+
+            // Only messages sent from now on
+            try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM sync_messages")) {
+                rs.next();
+                cursor = rs.getLong(1);
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().severe("Failed to set up the MySQL sync table: " + e.getMessage());
+            return false;
+        }
+
+        this.receiver = receiver;
+        this.running = true;
+        this.thread = Thread.ofVirtual().name("DZEconomy-Sync").start(this::run);
+        return true;
+    }
+
+    @Override
+    public void publish(byte[] message) {
+        outgoing.add(message);
+    }
+
+    private void run() {
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                send(connection);
+                poll(connection);
+                cleanup(connection);
+            } catch (SQLException e) {
+                plugin.getLogger().warning("Sync poll failed: " + e.getMessage());
+            }
+
+            try {
+                Thread.sleep(pollInterval);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void send(Connection connection) throws SQLException {
+        if (outgoing.isEmpty()) {
+            return;
+        }
+
+        List<byte[]> batch = new ArrayList<>();
+        byte[] message;
+        while ((message = outgoing.poll()) != null) {
+            batch.add(message);
+        }
+
+        long now = System.currentTimeMillis();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO sync_messages (payload, created) VALUES (?, ?)")) {
+            for (byte[] payload : batch) {
+                stmt.setBytes(1, payload);
+                stmt.setLong(2, now);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } catch (SQLException e) {
+            // Put them back for the next round
+            outgoing.addAll(batch);
+            throw e;
+        }
+    }
+
+    private void poll(Connection connection) throws SQLException {
+        Consumer<byte[]> target = receiver;
+        if (target == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT id, payload FROM sync_messages WHERE id > ? ORDER BY id LIMIT " + POLL_LIMIT)) {
+            stmt.setLong(1, cursor);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    long id = rs.getLong(1);
+                    for (long missing = cursor + 1; missing < id && gaps.size() < MAX_GAPS; missing++) {
+                        gaps.put(missing, now);
+                    }
+                    cursor = id;
+                    target.accept(rs.getBytes(2));
+                }
+            }
+        }
+
+        if (gaps.isEmpty()) {
+            return;
+        }
+
+        StringBuilder ids = new StringBuilder();
+        for (Long id : gaps.keySet()) {
+            if (ids.length() > 0) {
+                ids.append(',');
+            }
+            ids.append(id);
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT id, payload FROM sync_messages WHERE id IN (" + ids + ")");
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                gaps.remove(rs.getLong(1));
+                target.accept(rs.getBytes(2));
+            }
+        }
+
+        // Ids that never showed up belonged to rolled back inserts
+        Iterator<Long> noticed = gaps.values().iterator();
+        while (noticed.hasNext()) {
+            if (now - noticed.next() > GAP_TIMEOUT) {
+                noticed.remove();
+            }
+        }
+    }
+
+    private void cleanup(Connection connection) throws SQLException {
+        long now = System.currentTimeMillis();
+        if (now - lastCleanup < CLEANUP_INTERVAL) {
+            return;
+        }
+        lastCleanup = now;
+
+        try (PreparedStatement stmt = connection.prepareStatement("DELETE FROM sync_messages WHERE created < ?")) {
+            stmt.setLong(1, now - retention);
+            stmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        receiver = null;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(5000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // The last saves of the shutdown
+        try (Connection connection = dataSource.getConnection()) {
+            send(connection);
+        } catch (SQLException e) {
+            plugin.getLogger().warning("Failed to send the last sync messages: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "MYSQL";
+    }
+}
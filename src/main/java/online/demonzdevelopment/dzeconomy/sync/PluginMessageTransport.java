@@ -0,0 +1,132 @@
+package online.demonzdevelopment.dzeconomy.sync;
+
+import online.demonzdevelopment.dzeconomy.DZEconomy;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.messaging.PluginMessageListener;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Sends messages through the proxy with the BungeeCord "Forward" plugin
+ * message, which BungeeCord and Velocity relay to all other servers.
+ *
+ * Plugin messages travel over a player's connection, so they can only be
+ * sent while a player is online. Messages are queued until then, and a
+ * server without players receives nothing; it has no live accounts and
+ * its cached offline accounts expire or merge on save.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public class PluginMessageTransport implements SyncTransport, PluginMessageListener {
+
+    private static final String CHANNEL = "BungeeCord";
+    private static final String SUBCHANNEL = "DZEconomySync";
+
+    private final DZEconomy plugin;
+    private final int maxQueueSize;
+    private final Queue<byte[]> outgoing = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private volatile Consumer<byte[]> receiver;
+
+    public PluginMessageTransport(DZEconomy plugin) {
+        this.plugin = plugin;
+        this.maxQueueSize = Math.max(1, plugin.getConfigManager().getConfig().getInt("sync.plugin-message.max-queue-size", 1000));
+    }
+
+    @Override
+    public boolean start(Consumer<byte[]> receiver) {
+        this.receiver = receiver;
+        plugin.getServer().getMessenger().registerOutgoingPluginChannel(plugin, CHANNEL);
+        plugin.getServer().getMessenger().registerIncomingPluginChannel(plugin, CHANNEL, this);
+
+        // Plugin messages are sent from the main thread, queued ones once a player is online
+        Bukkit.getScheduler().runTaskTimer(plugin, this::flush, 1L, 1L);
+        return true;
+    }
+
+    @Override
+    public void publish(byte[] message) {
+        outgoing.add(message);
+
+        // Drop the oldest ones while nobody is online to carry them
+        if (queued.incrementAndGet() > maxQueueSize && outgoing.poll() != null) {
+            queued.decrementAndGet();
+        }
+    }
+
+    private void flush() {
+        if (outgoing.isEmpty()) {
+            return;
+        }
+        Iterator<? extends Player> players = Bukkit.getOnlinePlayers().iterator();
+        if (!players.hasNext()) {
+            return;
+        }
+        Player carrier = players.next();
+
+        byte[] message;
+        while ((message = outgoing.poll()) != null) {
+            queued.decrementAndGet();
+            carrier.sendPluginMessage(plugin, CHANNEL, forward(message));
+        }
+    }
+
+    private static byte[] forward(byte[] message) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.length + 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeUTF("Forward");
+            out.writeUTF("ALL");
+            out.writeUTF(SUBCHANNEL);
+            out.writeShort(message.length);
+            out.write(message);
+        } catch (IOException e) {
+            // Not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public void onPluginMessageReceived(String channel, Player player, byte[] message) {
+        Consumer<byte[]> target = receiver;
+        if (target == null || !CHANNEL.equals(channel)) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(message))) {
+            if (!SUBCHANNEL.equals(in.readUTF())) {
+                return;
+            }
+            byte[] payload = new byte[in.readUnsignedShort()];
+            in.readFully(payload);
+            target.accept(payload);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Ignoring malformed sync plugin message: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        receiver = null;
+        plugin.getServer().getMessenger().unregisterIncomingPluginChannel(plugin);
+        plugin.getServer().getMessenger().unregisterOutgoingPluginChannel(plugin);
+    }
+
+    @Override
+    public String getName() {
+        return "PLUGIN_MESSAGE";
+    }
+}
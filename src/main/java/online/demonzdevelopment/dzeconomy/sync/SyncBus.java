@@ -0,0 +1,113 @@
+package online.demonzdevelopment.dzeconomy.sync;
+
+import online.demonzdevelopment.dzeconomy.DZEconomy;
+import online.demonzdevelopment.dzeconomy.data.PlayerData;
+import online.demonzdevelopment.dzeconomy.data.PlayerDataCodec;
+import online.demonzdevelopment.dzeconomy.data.StoredState;
+import org.bukkit.Bukkit;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells the other servers of a network about committed account changes,
+ * so they can refresh or drop their cached copy instead of keeping the
+ * caches so short that every cross-server read goes to the database.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public class SyncBus {
+
+    private final DZEconomy plugin;
+    private final SyncTransport transport;
+
+    // Random per start, a restarted server does not ignore what it sent before the restart
+    private final long serverId;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+
+    public SyncBus(DZEconomy plugin, SyncTransport transport) {
+        this.plugin = plugin;
+        this.transport = transport;
+        this.serverId = ThreadLocalRandom.current().nextLong();
+    }
+
+    public boolean start() {
+        return transport.start(this::receive);
+    }
+
+    /**
+     * Announce a saved snapshot: the sections it changed, with the values
+     * and version storage now holds for them
+     */
+    public void publishSaved(PlayerData snapshot) {
+        int sections = snapshot.getDirtyFlags();
+        if (sections == 0) {
+            return;
+        }
+
+        long version;
+        PlayerData values;
+        StoredState stored = snapshot.getStoredState();
+        synchronized (stored) {
+            version = stored.getVersion();
+            values = stored.getValues();
+        }
+        if (version < 0 || values == null) {
+            // Storage is not versioned, it holds the snapshot
+            version = -1L;
+            values = snapshot;
+        }
+
+        publish(SyncMessage.delta(serverId, version, PlayerDataCodec.encode(values, sections)));
+    }
+
+    /**
+     * Make the other servers drop or reload an account, e.g. after it was
+     * written around the cache by an import
+     */
+    public void publishInvalidate(UUID uuid) {
+        publish(SyncMessage.invalidate(serverId, uuid));
+    }
+
+    private void publish(SyncMessage message) {
+        transport.publish(message.encode());
+        sent.incrementAndGet();
+    }
+
+    private void receive(byte[] bytes) {
+        SyncMessage message;
+        try {
+            message = SyncMessage.decode(bytes);
+        } catch (IllegalArgumentException e) {
+            plugin.getLogger().warning("Ignoring malformed sync message: " + e.getMessage());
+            return;
+        }
+        if (message == null || message.getOrigin() == serverId) {
+            return;
+        }
+        received.incrementAndGet();
+
+        // Accounts are changed on the main thread
+        Bukkit.getScheduler().runTask(plugin, () -> plugin.getCurrencyManager().applyRemoteChange(message));
+    }
+
+    public void close() {
+        transport.close();
+    }
+
+    public String getTransportName() {
+        return transport.getName();
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getReceivedCount() {
+        return received.get();
+    }
+}
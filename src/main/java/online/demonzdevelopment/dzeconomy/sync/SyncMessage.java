@@ -0,0 +1,126 @@
+package online.demonzdevelopment.dzeconomy.sync;
+
+import online.demonzdevelopment.dzeconomy.data.PlayerDataCodec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A change to an account, sent to the other servers of the network.
+ *
+ * DELTA carries the sections changed by a committed save with their new
+ * values, encoded with {@link PlayerDataCodec}, so receivers can refresh
+ * their copy in place. INVALIDATE only names the account, receivers drop
+ * or reload it.
+ *
+ * Layout: kind byte, origin server id, stored version (-1 if unknown),
+ * then the encoded sections (DELTA) or the UUID (INVALIDATE).
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public final class SyncMessage {
+
+    public static final byte INVALIDATE = 1;
+    public static final byte DELTA = 2;
+
+    private static final int HEADER_SIZE = 1 + 8 + 8;
+
+    private final byte kind;
+    private final long origin;
+    private final UUID uuid;
+    private final long version;
+    private final byte[] sections;
+
+    private SyncMessage(byte kind, long origin, UUID uuid, long version, byte[] sections) {
+        this.kind = kind;
+        this.origin = origin;
+        this.uuid = uuid;
+        this.version = version;
+        this.sections = sections;
+    }
+
+    public static SyncMessage invalidate(long origin, UUID uuid) {
+        return new SyncMessage(INVALIDATE, origin, uuid, -1L, null);
+    }
+
+    /**
+     * @param sections the account encoded with only the changed sections
+     */
+    public static SyncMessage delta(long origin, long version, byte[] sections) {
+        return new SyncMessage(DELTA, origin, PlayerDataCodec.readUUID(sections), version, sections);
+    }
+
+    public byte[] encode() {
+        int bodySize = kind == DELTA ? sections.length : 16;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bodySize);
+        buffer.put(kind);
+        buffer.putLong(origin);
+        buffer.putLong(version);
+        if (kind == DELTA) {
+            buffer.put(sections);
+        } else {
+            buffer.putLong(uuid.getMostSignificantBits());
+            buffer.putLong(uuid.getLeastSignificantBits());
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @return the message, or null if it is of a kind this version does not know
+     * @throws IllegalArgumentException if the message is malformed
+     */
+    public static SyncMessage decode(byte[] bytes) {
+        if (bytes.length < HEADER_SIZE) {
+            throw new IllegalArgumentException("Sync message too short: " + bytes.length + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte kind = buffer.get();
+        long origin = buffer.getLong();
+        long version = buffer.getLong();
+
+        switch (kind) {
+            case INVALIDATE:
+                if (buffer.remaining() < 16) {
+                    throw new IllegalArgumentException("Sync message too short: " + bytes.length + " bytes");
+                }
+                return new SyncMessage(kind, origin, new UUID(buffer.getLong(), buffer.getLong()), version, null);
+            case DELTA:
+                byte[] sections = Arrays.copyOfRange(bytes, HEADER_SIZE, bytes.length);
+                return new SyncMessage(kind, origin, PlayerDataCodec.readUUID(sections), version, sections);
+            default:
+                // Sent by a newer version
+                return null;
+        }
+    }
+
+    public byte getKind() {
+        return kind;
+    }
+
+    /**
+     * Id of the server that sent the message
+     */
+    public long getOrigin() {
+        return origin;
+    }
+
+    public UUID getUUID() {
+        return uuid;
+    }
+
+    /**
+     * Stored version after the change, or -1 if storage is not versioned
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Encoded changed sections of a DELTA, null for INVALIDATE
+     */
+    public byte[] getSections() {
+        return sections;
+    }
+}
@@ -0,0 +1,34 @@
+package online.demonzdevelopment.dzeconomy.sync;
+
+import java.util.function.Consumer;
+
+/**
+ * Carries encoded {@link SyncMessage}s between the servers of a network.
+ * Delivery is best effort: messages may be lost, duplicated or, after a
+ * lost one, arrive out of order. Receivers only act on newer versions and
+ * the caches keep their TTLs, so a lost message only delays a refresh.
+ *
+ * @author DemonZ Development
+ * @version 1.2.0
+ */
+public interface SyncTransport {
+
+    /**
+     * Start delivering received messages, on any thread.
+     * Messages sent by this server may be delivered back to it.
+     * @return false if the transport could not be started
+     */
+    boolean start(Consumer<byte[]> receiver);
+
+    /**
+     * Send a message to the other servers, without blocking the caller
+     */
+    void publish(byte[] message);
+
+    /**
+     * Send what is still queued and stop delivering
+     */
+    void close();
+
+    String getName();
+}
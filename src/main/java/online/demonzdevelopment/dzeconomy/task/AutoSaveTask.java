@@ -4,7 +4,7 @@ import online.demonzdevelopment.dzeconomy.DZEconomy;
 import org.bukkit.scheduler.BukkitRunnable;
 
 /**
- * Task to automatically save all player data at regular intervals
+ * Task to automatically save changed player data at regular intervals
  */
 public class AutoSaveTask extends BukkitRunnable {
     
@@ -19,8 +19,8 @@ public class AutoSaveTask extends BukkitRunnable {
         plugin.getLogger().info("Auto-saving player data...");
         
         try {
-            plugin.getCurrencyManager().saveAllPlayers();
-            plugin.getLogger().info("Auto-save completed successfully!");
+            int saved = plugin.getCurrencyManager().saveAllPlayers();
+            plugin.getLogger().info("Auto-save completed successfully! Saved " + saved + " changed player(s)");
         } catch (Exception e) {
             plugin.getLogger().severe("Failed to auto-save player data: " + e.getMessage());
             e.printStackTrace();
@@ -0,0 +1,32 @@
+package online.demonzdevelopment.dzeconomy.util;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Conversion between UUIDs and their compact 16 byte form used as storage key
+ */
+public class UUIDUtil {
+    
+    /**
+     * Convert UUID to 16 big-endian bytes
+     */
+    public static byte[] toBytes(UUID uuid) {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+        return buffer.array();
+    }
+    
+    /**
+     * Convert 16 bytes back to a UUID
+     */
+    public static UUID fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length != 16) {
+            throw new IllegalArgumentException("UUID must be 16 bytes");
+        }
+        
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}